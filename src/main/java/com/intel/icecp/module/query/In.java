@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Represent a set of stored messages' database IDs; this can be used for querying for several messages at once, e.g.
+ * a message is selected if its ID is any of the given IDs.
+ *
+ */
+public final class In implements Query.Identifier<Set<Long>> {
+    private final Set<Long> value;
+
+    public In(long... ids) {
+        Set<Long> set = Arrays.stream(ids).boxed().collect(Collectors.toCollection(LinkedHashSet::new));
+        this.value = Collections.unmodifiableSet(set);
+    }
+
+    @Override
+    public Set<Long> value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "In" + value;
+    }
+}
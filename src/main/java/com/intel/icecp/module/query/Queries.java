@@ -38,6 +38,14 @@ public class Queries {
         return new Query(new Id(id));
     }
 
+    /**
+     * @param ids the message IDs to query for; a message is selected if it has any of these IDs
+     * @return a query to be passed to {@link TaggedStorageProvider}
+     */
+    public static Query fromIds(long... ids) {
+        return new Query(new In(ids));
+    }
+
     /**
      * @param tags the logically-ANDed tags to group messages
      * @return a query to be passed to {@link TaggedStorageProvider}
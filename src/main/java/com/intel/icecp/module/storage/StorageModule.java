@@ -32,12 +32,17 @@ import com.intel.icecp.core.misc.Configuration;
 import com.intel.icecp.core.modules.ModuleProperty;
 import com.intel.icecp.module.storage.ack.AckMessage;
 import com.intel.icecp.module.storage.attributes.AckChannelAttribute;
+import com.intel.icecp.module.storage.attributes.RecordingOverflowAttribute;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.messages.BaseMessage;
+import com.intel.icecp.module.storage.messages.CommandDispatcher;
 import com.intel.icecp.module.storage.messages.CommandAdapter;
 import com.intel.icecp.module.storage.messages.PersistCallback;
+import com.intel.icecp.module.storage.messages.PrefixRecorder;
 import com.intel.icecp.module.storage.persistence.orientdb.StorageProviderFacade;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.DeleteJobManager;
+import com.intel.icecp.module.storage.util.StripedExecutor;
 import com.intel.icecp.rpc.Command;
 import com.intel.icecp.rpc.Rpc;
 import com.intel.icecp.rpc.RpcServer;
@@ -58,16 +63,23 @@ import java.util.concurrent.ConcurrentHashMap;
  * Module that implements persistent storage capabilities
  *
  */
-@ModuleProperty(name = "StorageModule", attributes = {AckChannelAttribute.class})
+@ModuleProperty(name = "StorageModule", attributes = {AckChannelAttribute.class, RecordingOverflowAttribute.class})
 public class StorageModule implements Module {
     public static final Persistence DEFAULT_PERSISTENCE = new Persistence(10000, 10000);
     // default buffering period in second is forever,  
     // represented by Integer.MAX_VALUE, before upload
     public static final int DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC = Integer.MAX_VALUE;
+    // messages of all recorded channels are persisted on these shared threads, in order for each channel
+    static final int RECORDING_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    static final int RECORDING_QUEUE_CAPACITY = 1024;
     private static final Logger LOGGER = LogManager.getLogger(StorageModule.class.getName());
 
     private final StorageProvider provider;
     private final ConcurrentHashMap<Long, Session> sessions;
+    private final ConcurrentHashMap<String, PrefixRecorder> prefixRecorders;
+    private final DeleteJobManager deleteJobManager;
+    private final CommandDispatcher commandDispatcher;
+    private final StripedExecutor recordingExecutor;
     private Channel<AckMessage> ackMessageChannel;
     private Node node;
     private Attributes storageAttributes;
@@ -90,7 +102,11 @@ public class StorageModule implements Module {
     public StorageModule(StorageProvider provider) {
         running = false;
         sessions = new ConcurrentHashMap<>();
+        prefixRecorders = new ConcurrentHashMap<>();
         this.provider = (provider != null) ? provider : newDefaultProvider();
+        this.deleteJobManager = new DeleteJobManager(this.provider);
+        this.commandDispatcher = new CommandDispatcher();
+        this.recordingExecutor = new StripedExecutor("record", RECORDING_THREADS, RECORDING_QUEUE_CAPACITY);
     }
 
     private static StorageProvider newDefaultProvider() {
@@ -142,6 +158,7 @@ public class StorageModule implements Module {
             if (uri != null) {
                 this.ackMessageChannel = node.openChannel(uri, AckMessage.class, Persistence.DEFAULT);
             }
+            recordingExecutor.setDropWhenFull(isDropWhenFull(storageAttributes));
 
             // TODO: In the future, do this with ModuleStateAttribute
             if (running) {
@@ -157,6 +174,8 @@ public class StorageModule implements Module {
             }
 
             createServer();
+            // resume reclaiming the sessions deleted before the module was last stopped
+            provider.getTombstonedSessions().forEach(deleteJobManager::reclaimSession);
             running = true;
             setAttribute(ModuleStateAttribute.class, State.RUNNING);
             LOGGER.debug("StorageModule running, node={}, attributes={}, id={}", this.node, this.storageAttributes, this.moduleId);
@@ -169,6 +188,19 @@ public class StorageModule implements Module {
         }
     }
 
+    /**
+     * @param attributes the attributes of the module
+     * @return true if recorded messages are dropped when their recording lane is full, see
+     * {@link RecordingOverflowAttribute}; by default they wait for room
+     */
+    private static boolean isDropWhenFull(Attributes attributes) {
+        try {
+            return RecordingOverflowAttribute.DROP.equals(attributes.get(RecordingOverflowAttribute.class));
+        } catch (AttributeNotFoundException e) {
+            return false;
+        }
+    }
+
     /**
      * Set an attribute with class and value pair with error handling
      *
@@ -217,6 +249,9 @@ public class StorageModule implements Module {
         try {
             if (rpcServer != null) {
                 closeAllStorageModuleChannels();
+                deleteJobManager.shutdown();
+                commandDispatcher.shutdown();
+                recordingExecutor.shutdown();
                 // no shutdown of database provider as the current is using database pooling. If shutdown, it causes issues on restart.
                 setAttribute(ModuleStateAttribute.class, State.STOPPED);
                 rpcServer.close();
@@ -239,6 +274,55 @@ public class StorageModule implements Module {
                 LOGGER.error("Failed to stop session {} Channel", session.getKey(), e);
             }
         }
+        prefixRecorders.keySet().forEach(this::stopPrefix);
+    }
+
+    /**
+     * Get the recorder of a channel prefix, creating it if the prefix is not recorded yet
+     *
+     * @param prefix the channel prefix, with or without the trailing wildcard
+     * @param maxBufferingPeriodInSec maximum buffering period in second of the sessions of a new recorder
+     * @return the recorder of the prefix
+     */
+    public PrefixRecorder recordPrefix(String prefix, int maxBufferingPeriodInSec) {
+        return prefixRecorders.computeIfAbsent(PrefixRecorder.normalize(prefix),
+                p -> new PrefixRecorder(node, provider, ackMessageChannel, p, maxBufferingPeriodInSec, recordingExecutor));
+    }
+
+    /**
+     * Get the recorder of a channel prefix
+     *
+     * @param prefix the channel prefix, with or without the trailing wildcard
+     * @return the recorder of the prefix, if the prefix is recorded
+     */
+    public Optional<PrefixRecorder> getPrefixRecorder(String prefix) {
+        return Optional.ofNullable(prefixRecorders.get(PrefixRecorder.normalize(prefix)));
+    }
+
+    /**
+     * Forget a session deleted or renamed by a command in the recorders of channel prefixes, see
+     * {@link PrefixRecorder#evictSession(long)}
+     *
+     * @param sessionId the ID of the session
+     */
+    public void evictPrefixSession(long sessionId) {
+        prefixRecorders.values().forEach(recorder -> recorder.evictSession(sessionId));
+    }
+
+    /**
+     * Stop recording all channels under a channel prefix
+     *
+     * @param prefix the channel prefix, with or without the trailing wildcard
+     * @return true if the prefix was recorded
+     */
+    public boolean stopPrefix(String prefix) {
+        PrefixRecorder recorder = prefixRecorders.remove(PrefixRecorder.normalize(prefix));
+        if (recorder == null) {
+            LOGGER.warn("Prefix {} is not recorded", prefix);
+            return false;
+        }
+        recorder.close();
+        return true;
     }
 
     /**
@@ -363,7 +447,7 @@ public class StorageModule implements Module {
      */
     public Optional<Integer> getMaximumBufferingPeriodInSecond(Long sessionId) {
         Session session = sessions.get(sessionId);
-        return Optional.ofNullable(session != null ? session.maxBufferingPeriods : null);
+        return session != null ? Optional.of(session.maxBufferingPeriods) : Optional.empty();
     }
 
     /**
@@ -484,16 +568,43 @@ public class StorageModule implements Module {
         return provider;
     }
 
+    /**
+     * Gets the manager of background delete jobs
+     *
+     * @return the delete job manager
+     */
+    public DeleteJobManager getDeleteJobManager() {
+        return deleteJobManager;
+    }
+
+    /**
+     * Gets the dispatcher running the commands received through the RpcServer
+     *
+     * @return the command dispatcher
+     */
+    public CommandDispatcher getCommandDispatcher() {
+        return commandDispatcher;
+    }
+
+    /**
+     * Gets the executor persisting the messages of the recorded channels
+     *
+     * @return the recording executor
+     */
+    public StripedExecutor getRecordingExecutor() {
+        return recordingExecutor;
+    }
+
     static class Session {
         private Channel<BytesMessage> channels;
-        private Integer maxBufferingPeriods;
+        private int maxBufferingPeriods;
         private PersistCallback subscriptionCallbacks;
 
-        Session(Channel<BytesMessage> channels, Integer maxBufferingPeriods) {
+        Session(Channel<BytesMessage> channels, int maxBufferingPeriods) {
             this(channels, maxBufferingPeriods, null);
         }
 
-        Session(Channel<BytesMessage> channels, Integer maxBufferingPeriods, PersistCallback subscriptionCallbacks) {
+        Session(Channel<BytesMessage> channels, int maxBufferingPeriods, PersistCallback subscriptionCallbacks) {
             this.channels = channels;
             this.maxBufferingPeriods = maxBufferingPeriods;
             this.subscriptionCallbacks = subscriptionCallbacks;
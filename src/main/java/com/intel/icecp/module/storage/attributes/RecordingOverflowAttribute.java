@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intel.icecp.module.storage.attributes;
+
+import com.intel.icecp.core.attributes.BaseAttribute;
+
+/**
+ * Used for defining what happens to a recorded message when the recording lane of its channel is full: by default the
+ * delivering thread waits for room, so that no message is lost; with {@value #DROP} the message is dropped (neither
+ * saved nor acknowledged) and counted, so that the delivering thread is never blocked. This attribute is defined in
+ * {@code configuration/config.json} like: <br>
+ * <code>{"recording-overflow" : "drop"}</code>
+ *
+ */
+public class RecordingOverflowAttribute extends BaseAttribute<String> {
+    public static final String WAIT = "wait";
+    public static final String DROP = "drop";
+    private static final String RECORDING_OVERFLOW = "recording-overflow";
+
+    private final String policy;
+
+    /**
+     * Constructor
+     *
+     * @param policy {@value #WAIT} or {@value #DROP}; anything else, including null, is {@value #WAIT}
+     */
+    public RecordingOverflowAttribute(String policy) {
+        super(RECORDING_OVERFLOW, String.class);
+        this.policy = DROP.equalsIgnoreCase(policy) ? DROP : WAIT;
+    }
+
+    @Override
+    public String value() {
+        return policy;
+    }
+}
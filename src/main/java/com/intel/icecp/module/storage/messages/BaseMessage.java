@@ -34,12 +34,17 @@ import com.intel.icecp.rpc.OnCommandMessage;
         @JsonSubTypes.Type(value = DeleteSession.class, name = "DELETE_SESSION"),
         @JsonSubTypes.Type(value = DeleteMessagesByRange.class, name = "DELETE_MESSAGE_BY_RANGE"),
         @JsonSubTypes.Type(value = StartMessage.class, name = "START"),
+        @JsonSubTypes.Type(value = StartManyMessage.class, name = "START_MANY"),
+        @JsonSubTypes.Type(value = StartPrefixMessage.class, name = "START_PREFIX"),
         @JsonSubTypes.Type(value = GetMessage.class, name = "GET"),
         @JsonSubTypes.Type(value = StopMessage.class, name = "STOP"),
+        @JsonSubTypes.Type(value = StopPrefixMessage.class, name = "STOP_PREFIX"),
         @JsonSubTypes.Type(value = QueryMessage.class, name = "QUERY"),
+        @JsonSubTypes.Type(value = QueryByTimeMessage.class, name = "QUERY_BY_TIME"),
         @JsonSubTypes.Type(value = RenameMessage.class, name = "RENAME"),
         @JsonSubTypes.Type(value = SizeMessage.class, name = "SIZE"),
-        @JsonSubTypes.Type(value = DeleteByTagMessage.class, name = "DELETE_BY_TAG")})
+        @JsonSubTypes.Type(value = DeleteByTagMessage.class, name = "DELETE_BY_TAG"),
+        @JsonSubTypes.Type(value = DeleteJobMessage.class, name = "DELETE_JOB")})
 @JsonInclude(value = JsonInclude.Include.NON_NULL)
 public abstract class BaseMessage implements Message, OnCommandMessage<StorageModule, Object> {
 
@@ -20,13 +20,19 @@ import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Wrapper class to invoke command messages. This would be used by a client
  * through the RpcServer call which will have these messages registered as
- * commands.
+ * commands. The inputs are validated on the calling thread; the commands are
+ * then run by the read, write or admin executor of the {@link CommandDispatcher}
+ * and the RPC server publishes their result, so each method waits for it.
  * <p>
  * Created by Natalie Gaston, natalie.gaston@intel.com on 5/25/2016.
  */
@@ -35,6 +41,8 @@ public class CommandAdapter {
     private static final String SESSION_ID_KEY_NAME = "sessionId";
     private static final String ONLY_WITH_ACTIVE_MESSAGE_KEY_NAME = "onlyWithActiveMessages";
     private static final String LISTEN_CHANNEL_KEY_NAME = "listenChannel";
+    private static final String LISTEN_CHANNELS_KEY_NAME = "listenChannels";
+    private static final String LISTEN_PREFIX_KEY_NAME = "listenPrefix";
     private static final String MAXIMUM_BUFFERING_PERIOD_IN_SEC = "maxBufferingPeriodInSec";
     private static final String QUERY_CHANNEL_KEY_NAME = "queryChannel";
     private static final String QUERY_KEY_NAME = "query";
@@ -42,88 +50,137 @@ public class CommandAdapter {
     private static final String TAGS_KEY_NAME = "tags";
     private static final String BEFORE_KEY_NAME = "before";
     private static final String LIMIT_KEY_NAME = "limit";
+    private static final String FROM_KEY_NAME = "from";
+    private static final String TO_KEY_NAME = "to";
     private static final String SKIP_KEY_NAME = "skip";
+    private static final String CHUNK_SIZE_KEY_NAME = "chunkSize";
+    private static final String COUNTS_KEY_NAME = "counts";
+    private static final String JOB_ID_KEY_NAME = "jobId";
+    private static final String ACTION_KEY_NAME = "action";
     private StorageModule context;
+    private final CommandDispatcher dispatcher;
 
+    /**
+     * @param context the storage module; its {@link StorageModule#getCommandDispatcher()} runs the commands
+     */
     public CommandAdapter(StorageModule context) {
         this.context = context;
+        this.dispatcher = context.getCommandDispatcher();
     }
 
     public Object deleteByTag(Map<String, Object> inputs) throws StorageModuleException {
         String[] tags = getStringArrayFromObject(TAGS_KEY_NAME, inputs);
         long[] timestamp = getLongArrayFromObject(BEFORE_KEY_NAME, inputs);
-        return new DeleteByTagMessage(tags, timestamp[0]).onCommandMessage(context);
+        Integer chunkSize = getOptionalInteger(CHUNK_SIZE_KEY_NAME, inputs);
+        return await(dispatcher.write(() -> new DeleteByTagMessage(tags, timestamp[0], chunkSize).onCommandMessage(context)));
+    }
+
+    public Object deleteJob(Map<String, Object> inputs) throws StorageModuleException {
+        Long jobId = getRequiredLong(JOB_ID_KEY_NAME, inputs);
+        Object action = inputs.getOrDefault(ACTION_KEY_NAME, null);
+        return await(dispatcher.admin(() -> {
+            try {
+                return new DeleteJobMessage(jobId, action != null ? DeleteJobMessage.Action.valueOf(action.toString()) : null).onCommandMessage(context);
+            } catch (IllegalArgumentException e) {
+                throw new StorageModuleException(String.format("Unknown delete job action: %s", action));
+            }
+        }));
     }
 
     public Object getTimeSpan(Map<String, Object> inputs) throws StorageModuleException {
         String queryChannel = getRequiredSetParameter(QUERY_CHANNEL_KEY_NAME, inputs).toString();
-        return new GetTimeSpan(queryChannel).onCommandMessage(context);
+        return await(dispatcher.read(() -> new GetTimeSpan(queryChannel).onCommandMessage(context)));
     }
 
     public Object listTag(Map<String, Object> inputs) throws StorageModuleException {
         String query = getRequiredSetParameter(QUERY_KEY_NAME, inputs).toString();
-        return new ListTagMessage(query).onCommandMessage(context);
+        Boolean counts = (Boolean) inputs.getOrDefault(COUNTS_KEY_NAME, null);
+        return await(dispatcher.read(() -> new ListTagMessage(query, counts).onCommandMessage(context)));
     }
 
     public Object tag(Map<String, Object> inputs) throws StorageModuleException {
         String[] tags = getStringArrayFromObject(TAGS_KEY_NAME, inputs);
         long[] ids = getLongArrayFromObject(IDS_KEY_NAME, inputs);
-        return new TagMessage(tags, ids).onCommandMessage(context);
+        return await(dispatcher.write(() -> new TagMessage(tags, ids).onCommandMessage(context)));
     }
 
     public Object untag(Map<String, Object> inputs) throws StorageModuleException {
         String[] tags = getStringArrayFromObject(TAGS_KEY_NAME, inputs);
         long[] ids = getLongArrayFromObject(IDS_KEY_NAME, inputs);
-        return new UntagMessage(tags, ids).onCommandMessage(context);
+        return await(dispatcher.write(() -> new UntagMessage(tags, ids).onCommandMessage(context)));
     }
 
     public Object deleteSession(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
-        return new DeleteSession(sessionId).onCommandMessage(context);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
+        return await(dispatcher.write(() -> new DeleteSession(sessionId).onCommandMessage(context)));
     }
 
     public Object get(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
         String replayChannel = getRequiredSetParameter(REPLAY_CHANNEL_KEY_NAME, inputs).toString();
-        Integer limit = (Integer) inputs.getOrDefault(LIMIT_KEY_NAME, null);
-        Integer skip = (Integer) inputs.getOrDefault(SKIP_KEY_NAME, null);
-        return new GetMessage(sessionId, limit, skip, replayChannel).onCommandMessage(context);
+        Integer limit = getOptionalInteger(LIMIT_KEY_NAME, inputs);
+        Integer skip = getOptionalInteger(SKIP_KEY_NAME, inputs);
+        return await(dispatcher.read(() -> new GetMessage(sessionId, limit, skip, replayChannel).onCommandMessage(context)));
     }
 
     public Object queryBySessionId(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
         Boolean onlyWithActiveMessages = (Boolean) inputs.getOrDefault(ONLY_WITH_ACTIVE_MESSAGE_KEY_NAME, null);
-        return onlyWithActiveMessages == null ?
+        return await(dispatcher.read(() -> onlyWithActiveMessages == null ?
             new QueryMessage(sessionId).onCommandMessage(context) :
-            new QueryMessage(sessionId, onlyWithActiveMessages).onCommandMessage(context);
+            new QueryMessage(sessionId, onlyWithActiveMessages).onCommandMessage(context)));
     }
 
     public Object queryByChannelName(Map<String, Object> inputs) throws StorageModuleException {
         String queryChannel = getRequiredSetParameter(QUERY_CHANNEL_KEY_NAME, inputs).toString();
-        return new QueryMessage(queryChannel).onCommandMessage(context);
+        return await(dispatcher.read(() -> new QueryMessage(queryChannel).onCommandMessage(context)));
+    }
+
+    public Object queryByTime(Map<String, Object> inputs) throws StorageModuleException {
+        Long from = getRequiredLong(FROM_KEY_NAME, inputs);
+        Long to = getRequiredLong(TO_KEY_NAME, inputs);
+        return await(dispatcher.read(() -> new QueryByTimeMessage(from, to).onCommandMessage(context)));
     }
 
     public Object rename(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
-        return new RenameMessage(sessionId).onCommandMessage(context);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
+        return await(dispatcher.admin(() -> new RenameMessage(sessionId).onCommandMessage(context)));
     }
 
     public Object size(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
-        return new SizeMessage(sessionId).onCommandMessage(context);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
+        return await(dispatcher.read(() -> new SizeMessage(sessionId).onCommandMessage(context)));
     }
 
     public Object start(Map<String, Object> inputs) throws StorageModuleException {
         String listenChannel = getRequiredSetParameter(LISTEN_CHANNEL_KEY_NAME, inputs).toString();
-        Integer maxBufferPeriodInSec = (Integer) inputs.getOrDefault(MAXIMUM_BUFFERING_PERIOD_IN_SEC, null);
-        return maxBufferPeriodInSec != null
+        Integer maxBufferPeriodInSec = getOptionalInteger(MAXIMUM_BUFFERING_PERIOD_IN_SEC, inputs);
+        return await(dispatcher.admin(() -> maxBufferPeriodInSec != null
                 ? new StartMessage(listenChannel, maxBufferPeriodInSec).onCommandMessage(context)
-                : new StartMessage(listenChannel).onCommandMessage(context);
+                : new StartMessage(listenChannel).onCommandMessage(context)));
+    }
+
+    public Object startMany(Map<String, Object> inputs) throws StorageModuleException {
+        List<String> listenChannels = Arrays.asList(getStringArrayFromObject(LISTEN_CHANNELS_KEY_NAME, inputs));
+        Integer maxBufferPeriodInSec = getOptionalInteger(MAXIMUM_BUFFERING_PERIOD_IN_SEC, inputs);
+        return await(dispatcher.admin(() -> new StartManyMessage(listenChannels, maxBufferPeriodInSec).onCommandMessage(context)));
+    }
+
+    public Object startPrefix(Map<String, Object> inputs) throws StorageModuleException {
+        String listenPrefix = getRequiredSetParameter(LISTEN_PREFIX_KEY_NAME, inputs).toString();
+        List<String> listenChannels = Arrays.asList(getStringArrayFromObject(LISTEN_CHANNELS_KEY_NAME, inputs));
+        Integer maxBufferPeriodInSec = getOptionalInteger(MAXIMUM_BUFFERING_PERIOD_IN_SEC, inputs);
+        return await(dispatcher.admin(() -> new StartPrefixMessage(listenPrefix, listenChannels, maxBufferPeriodInSec).onCommandMessage(context)));
     }
 
     public Object stop(Map<String, Object> inputs) throws StorageModuleException {
-        Long sessionId = (Long) getRequiredSetParameter(SESSION_ID_KEY_NAME, inputs);
-        return new StopMessage(sessionId).onCommandMessage(context);
+        Long sessionId = getRequiredLong(SESSION_ID_KEY_NAME, inputs);
+        return await(dispatcher.admin(() -> new StopMessage(sessionId).onCommandMessage(context)));
+    }
+
+    public Object stopPrefix(Map<String, Object> inputs) throws StorageModuleException {
+        String listenPrefix = getRequiredSetParameter(LISTEN_PREFIX_KEY_NAME, inputs).toString();
+        return await(dispatcher.admin(() -> new StopPrefixMessage(listenPrefix).onCommandMessage(context)));
     }
 
     Object getRequiredSetParameter(String keyName, Map inputs) throws StorageModuleException {
@@ -156,7 +213,69 @@ public class CommandAdapter {
      * @return Resulting Long array.
      */
     private long[] getLongArrayFromObject(String key, Map<String, Object> inputs) throws StorageModuleException {
-        return ((Collection<Integer>) getRequiredSetParameter(key, inputs)).stream().mapToLong(Long::valueOf).toArray();
+        Collection<?> values = (Collection<?>) getRequiredSetParameter(key, inputs);
+        long[] longs = new long[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            longs[i++] = toNumber(key, value).longValue();
+        }
+        return longs;
+    }
+
+    /**
+     * Retrieves the given key from the map as a Long; any JSON number is accepted, whether it was decoded as an
+     * Integer or a Long.
+     *
+     * @param key key we are looking for in the map.
+     * @param inputs map containing key/value pairs
+     * @return Resulting Long.
+     */
+    private Long getRequiredLong(String key, Map<String, Object> inputs) throws StorageModuleException {
+        return toNumber(key, getRequiredSetParameter(key, inputs)).longValue();
+    }
+
+    /**
+     * Retrieves the given key from the map as an Integer, if present; any JSON number is accepted.
+     *
+     * @param key key we are looking for in the map.
+     * @param inputs map containing key/value pairs
+     * @return Resulting Integer, or null if the key is not set.
+     */
+    private Integer getOptionalInteger(String key, Map<String, Object> inputs) throws StorageModuleException {
+        Object value = inputs.get(key);
+        return value != null ? toNumber(key, value).intValue() : null;
+    }
+
+    /**
+     * The RPC server publishes the value returned by a command as its response, so wait for the result of the
+     * dispatched command instead of returning its future.
+     *
+     * @param future the future of a dispatched command
+     * @return the result of the command
+     * @throws StorageModuleException if the command fails or cannot be queued
+     */
+    private static Object await(CompletableFuture<Object> future) throws StorageModuleException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageModuleException("Interrupted while waiting for a command to complete", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageModuleException) {
+                throw (StorageModuleException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new StorageModuleException(cause);
+        }
+    }
+
+    private static Number toNumber(String keyName, Object value) throws StorageModuleException {
+        if (!(value instanceof Number)) {
+            throw new StorageModuleException(String.format("Parameter %s is not a number: %s", keyName, value));
+        }
+        return (Number) value;
     }
 
     private static void verifyRequiredValueIsNotNull(String keyName, Object value) throws StorageModuleException {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.util.CommandExecutor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Dispatch the commands received by the {@link CommandAdapter} to separate executors for reads (e.g. GET, QUERY),
+ * writes (e.g. TAG, DELETE_BY_TAG) and administration (e.g. START, STOP, delete job control), so that slow data-plane
+ * commands never queue up in front of control-plane commands.
+ * <p>
+ * Each method returns a future that the executor completes with the result of the command; the
+ * {@link CommandAdapter} waits for it since the RPC server publishes the value returned by a command as its response.
+ * A command that cannot be queued fails immediately, i.e. its future is completed with a
+ * {@link StorageModuleException}.
+ */
+public class CommandDispatcher {
+    static final int READ_THREADS = 4;
+    static final int READ_QUEUE_CAPACITY = 64;
+    static final int WRITE_THREADS = 2;
+    static final int WRITE_QUEUE_CAPACITY = 64;
+    static final int ADMIN_THREADS = 2;
+    static final int ADMIN_QUEUE_CAPACITY = 16;
+    static final int SUBSCRIBE_THREADS = 16;
+    static final int SUBSCRIBE_QUEUE_CAPACITY = 256;
+    private final CommandExecutor reads;
+    private final CommandExecutor writes;
+    private final CommandExecutor admin;
+    private final CommandExecutor subscriptions;
+
+    public CommandDispatcher() {
+        this(new CommandExecutor("read", READ_THREADS, READ_QUEUE_CAPACITY),
+                new CommandExecutor("write", WRITE_THREADS, WRITE_QUEUE_CAPACITY),
+                new CommandExecutor("admin", ADMIN_THREADS, ADMIN_QUEUE_CAPACITY),
+                new CommandExecutor("subscribe", SUBSCRIBE_THREADS, SUBSCRIBE_QUEUE_CAPACITY));
+    }
+
+    CommandDispatcher(CommandExecutor reads, CommandExecutor writes, CommandExecutor admin, CommandExecutor subscriptions) {
+        this.reads = reads;
+        this.writes = writes;
+        this.admin = admin;
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * @param command a command that only reads from the storage provider
+     * @return a future completed with the result of the command, or exceptionally if the command fails or cannot be
+     * queued
+     */
+    CompletableFuture<Object> read(CommandExecutor.Task<Object> command) {
+        return reads.submit(command);
+    }
+
+    /**
+     * @param command a command that modifies stored messages or tags
+     * @return a future completed with the result of the command, or exceptionally if the command fails or cannot be
+     * queued
+     */
+    CompletableFuture<Object> write(CommandExecutor.Task<Object> command) {
+        return writes.submit(command);
+    }
+
+    /**
+     * @param command a command controlling sessions or background jobs
+     * @return a future completed with the result of the command, or exceptionally if the command fails or cannot be
+     * queued
+     */
+    CompletableFuture<Object> admin(CommandExecutor.Task<Object> command) {
+        return admin.submit(command);
+    }
+
+    /**
+     * Run a subscription started by an admin command (e.g. one of the channels of a START_MANY command) in parallel
+     * with the other subscriptions of the command; the admin command may wait for the returned future since the
+     * subscriptions are run by a separate executor
+     *
+     * @param subscription a subscription to a channel
+     * @return a future completed when the subscription is done, or exceptionally if it fails or cannot be queued
+     */
+    CompletableFuture<Object> subscribe(CommandExecutor.Task<Object> subscription) {
+        return subscriptions.submit(subscription);
+    }
+
+    /**
+     * @return the read, write, admin and subscription executors, e.g. for reporting their metrics
+     */
+    public List<CommandExecutor> getExecutors() {
+        return Arrays.asList(reads, writes, admin, subscriptions);
+    }
+
+    /**
+     * Stop accepting commands
+     */
+    public void shutdown() {
+        getExecutors().forEach(CommandExecutor::shutdown);
+    }
+}
@@ -26,7 +26,7 @@ import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
-import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.util.DeleteJob;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -42,9 +42,13 @@ import java.util.stream.Collectors;
  * {<br>
  * "@cmd" : "DELETE_BY_TAGS",<br>
  * "tags" : ["tag1", "tag2"],<br>
- * "timestamp" : 1234L
+ * "timestamp" : 1234L,<br>
+ * "chunkSize" : 1000
  * <br> }
  * </code>
+ * <p>
+ * The "chunkSize" is optional; if set, the messages are deleted in the background by a {@link DeleteJob} removing
+ * at most "chunkSize" messages per transaction and the ID of the job is returned (see {@link DeleteJobMessage}).
  *
  */
 @JsonInclude(value = JsonInclude.Include.NON_NULL)
@@ -53,6 +57,7 @@ class DeleteByTagMessage extends BaseMessage {
 
     private final String[] tags;
     private final Long before;
+    private final Integer chunkSize;
 
     /**
      * Constructor
@@ -60,19 +65,32 @@ class DeleteByTagMessage extends BaseMessage {
      * @param tags tags of messages to be removed.
      * @param before time before the current time to remove messages .
      */
+    DeleteByTagMessage(String[] tags, Long before) {
+        this(tags, before, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tags tags of messages to be removed.
+     * @param before time before the current time to remove messages .
+     * @param chunkSize if not null, the maximum number of messages to remove per transaction in a background job.
+     */
     @JsonCreator
     DeleteByTagMessage(@JsonProperty(value = "tags", required = true) String[] tags,
-                       @JsonProperty(value = "before", required = true) Long before) {
+                       @JsonProperty(value = "before", required = true) Long before,
+                       @JsonProperty(value = "chunkSize") Integer chunkSize) {
         this.setCmd(MessageType.DELETE_BY_TAG);
         this.tags = tags;
         this.before = before;
+        this.chunkSize = chunkSize;
     }
 
     /**
      * Implements the deletion of tagged messages.
      *
      * @param context Storage module processing this message
-     * @return size of the Set of deleted messages.
+     * @return the number of deleted messages or, if a chunk size is set, the ID of the delete job.
      */
     @Override
     public Object onCommandMessage(StorageModule context) throws StorageModuleException {
@@ -90,13 +108,18 @@ class DeleteByTagMessage extends BaseMessage {
 
         Query query = new Query(identifiers.stream().toArray(Query.Identifier[]::new));
 
+        if (chunkSize != null) {
+            if (chunkSize <= 0) {
+                throw new StorageModuleException("Invalid chunk size: " + chunkSize);
+            }
+            DeleteJob job = context.getDeleteJobManager().submit(query, chunkSize);
+            return job.getId();
+        }
+
         try {
-            context.getStorageProvider().beginTransaction();
-            Set<PersistentMessage> deletedMessages = context.getStorageProvider().remove(query);
-            context.getStorageProvider().commitTransaction();
-            return deletedMessages.size();
+            // the messages are removed and committed in chunks
+            return context.getStorageProvider().removeCount(query);
         } catch (TaggingOperationException e) {
-            context.getStorageProvider().rollbackTransaction();
             throw new StorageModuleException(String.format("Failed to delete messages with tags = %s. Exception: %s ",
                     Arrays.toString(tags), e));
         }
@@ -105,6 +128,6 @@ class DeleteByTagMessage extends BaseMessage {
 
     @Override
     public String toString() {
-        return "DeleteByTag [tags=" + Arrays.toString(tags) + "]";
+        return "DeleteByTag [tags=" + Arrays.toString(tags) + ", chunkSize=" + chunkSize + "]";
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.util.DeleteJob;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+
+/**
+ * Implements the command for following and controlling a background delete job (see {@link DeleteByTagMessage}).
+ * The action is one of "STATUS" (the default), "CANCEL", or "RESUME"; a cancelled job stops after its current chunk
+ * and a cancelled or failed job may be resumed. The JSON representation of this message would look like:<br>
+ * <br>
+ * <code>
+ * {<br>
+ * "@cmd" : "DELETE_JOB",<br>
+ * "jobId" : 1,<br>
+ * "action" : "CANCEL"<br>
+ * }<br>
+ * </code>
+ */
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+class DeleteJobMessage extends BaseMessage {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final Long jobId;
+    private final Action action;
+
+    /**
+     * Constructor
+     *
+     * @param jobId the ID of the delete job
+     * @param action the action to apply to the job; if null, only the status is returned
+     */
+    @JsonCreator
+    DeleteJobMessage(@JsonProperty(value = "jobId", required = true) Long jobId,
+                     @JsonProperty(value = "action") Action action) {
+        this.setCmd(MessageType.DELETE_JOB);
+        this.jobId = jobId;
+        this.action = action != null ? action : Action.STATUS;
+    }
+
+    /**
+     * Apply the action to the job
+     *
+     * @param context Storage module processing this message
+     * @return the status of the job after applying the action
+     */
+    @Override
+    public Object onCommandMessage(StorageModule context) throws StorageModuleException {
+        LOGGER.debug("Message received = {}", this);
+        if (jobId == null) {
+            throw new StorageModuleException("Job ID is null");
+        }
+
+        DeleteJob job = context.getDeleteJobManager().get(jobId)
+                .orElseThrow(() -> new StorageModuleException("No delete job found with ID: " + jobId));
+
+        if (action == Action.CANCEL && !job.cancel()) {
+            throw new StorageModuleException(String.format("Unable to cancel delete job %d in state %s", jobId, job.getState()));
+        } else if (action == Action.RESUME && !context.getDeleteJobManager().resume(jobId)) {
+            throw new StorageModuleException(String.format("Unable to resume delete job %d in state %s", jobId, job.getState()));
+        }
+
+        Map<String, Object> status = job.toStatus();
+        context.getDeleteJobManager().reported(job);
+        LOGGER.debug("Delete job status: {}", status);
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteJobMessage{jobId=" + jobId + ", action=" + action + "} " + super.toString();
+    }
+
+    /**
+     * Actions that can be applied to a delete job
+     */
+    enum Action {
+        STATUS,
+        CANCEL,
+        RESUME
+    }
+}
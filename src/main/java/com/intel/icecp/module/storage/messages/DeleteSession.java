@@ -24,6 +24,7 @@ import com.intel.icecp.core.messages.BytesMessage;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.InconsistentStateException;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.util.DeleteJob;
 import com.intel.icecp.module.storage.util.SessionIdManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -38,6 +39,9 @@ import java.util.Optional;
  * "sessionId" : 1234<br>
  * }
  * </code>
+ * <p>
+ * The session is marked as deleted and unlinked immediately; its messages are removed in the background by a
+ * {@link DeleteJob} whose ID is returned (see {@link DeleteJobMessage}).
  */
 @JsonInclude(value = JsonInclude.Include.NON_NULL)
 class DeleteSession extends BaseMessage {
@@ -60,7 +64,7 @@ class DeleteSession extends BaseMessage {
      * Implements the deletion of a session.
      *
      * @param context Storage module processing this message
-     * @return boolean true if deleted; otherwise, false.
+     * @return the ID of the delete job removing the messages of the session.
      */
     @Override
     public Object onCommandMessage(StorageModule context) throws StorageModuleException {
@@ -73,8 +77,10 @@ class DeleteSession extends BaseMessage {
             Long attachedSessionId = context.getStorageProvider().getPreviousSession(sessionId);
 
             context.getStorageProvider().beginTransaction();
-            context.getStorageProvider().deleteSession(sessionId);
+            context.getStorageProvider().tombstoneSession(sessionId);
             context.getStorageProvider().commitTransaction();
+            context.evictPrefixSession(sessionId);
+            DeleteJob job = context.getDeleteJobManager().reclaimSession(sessionId);
 
             // Check if sessionId is active or inactive
             if (isActiveSession(context)) {
@@ -83,7 +89,7 @@ class DeleteSession extends BaseMessage {
                 checkIfRenamedSession(context, attachedSessionId, sessionIdManager);
                 sessionIdManager.cleanupSessionId();
             }
-            return true;
+            return job.getId();
         } catch (StorageModuleException e) {
             context.getStorageProvider().rollbackTransaction();
             throw e;
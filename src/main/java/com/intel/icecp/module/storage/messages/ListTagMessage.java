@@ -29,6 +29,7 @@ import org.apache.logging.log4j.util.Strings;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -41,23 +42,40 @@ import java.util.stream.Collectors;
  * {<br>
  * "@cmd" : "LIST_TAG",<br>
  * "query" : "ndn:/tag-channel/list_tag",<br>
+ * "counts" : true<br>
  * }<br>
  * </code>
+ * <p>
+ * The "counts" flag is optional; if true, the reply maps each related tag to the number of messages it shares with
+ * the queried tag instead of only listing the related tags.
  *
  */
 @JsonInclude(value = JsonInclude.Include.NON_NULL)
 public class ListTagMessage extends BaseMessage {
     private static final Logger LOGGER = LogManager.getLogger();
     private final String query;
+    private final Boolean counts;
 
     /**
      * Constructor with {@code query} argument.
      *
      * @param query a channel to reply the list of retrieved tags
      */
+    ListTagMessage(String query) {
+        this(query, null);
+    }
+
+    /**
+     * Constructor with {@code query} and {@code counts} arguments.
+     *
+     * @param query a channel to reply the list of retrieved tags
+     * @param counts if true, reply with the co-occurrence count of each related tag
+     */
     @JsonCreator
-    ListTagMessage(@JsonProperty(value = "query", required = true) String query) {
+    ListTagMessage(@JsonProperty(value = "query", required = true) String query,
+                   @JsonProperty(value = "counts") Boolean counts) {
         this.query = query;
+        this.counts = counts;
     }
 
     /**
@@ -76,6 +94,11 @@ public class ListTagMessage extends BaseMessage {
         validInputCheck();
 
         try {
+            if (Boolean.TRUE.equals(counts)) {
+                Map<Tag, Long> related = storageModule.getStorageProvider().relatedCounts(new Tag(query));
+                return related.entrySet().stream().collect(Collectors.toMap(e -> e.getKey().toString(), Map.Entry::getValue));
+            }
+
             Set<Tag> tags = storageModule.getStorageProvider().related(new Tag(query));
 
             return tags.stream().map(Tag::toString).collect(Collectors.toSet());
@@ -87,7 +110,7 @@ public class ListTagMessage extends BaseMessage {
 
     @Override
     public String toString() {
-        return "ListTagMessage{query='" + query + "'} " + super.toString();
+        return "ListTagMessage{query='" + query + "', counts=" + counts + "} " + super.toString();
     }
 
     private void validInputCheck() throws StorageModuleException {
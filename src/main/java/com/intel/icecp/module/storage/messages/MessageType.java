@@ -32,6 +32,10 @@ public enum MessageType {
      * Deletes tagged messages
      */
     DELETE_BY_TAG,
+    /**
+     * Get the status of, cancel, or resume a background delete job
+     */
+    DELETE_JOB,
     /**
      * Get the time range of active messages under a specified session channel
      */
@@ -48,6 +52,14 @@ public enum MessageType {
      * Starts a new session for storage
      */
     START,
+    /**
+     * Starts new sessions for storage for many channels at once
+     */
+    START_MANY,
+    /**
+     * Starts recording the channels under a channel prefix, creating their sessions on their first message
+     */
+    START_PREFIX,
     /**
      * Retrieves a set of messages for a storage session
      */
@@ -56,6 +68,10 @@ public enum MessageType {
      * Stops a storage session from recording
      */
     STOP,
+    /**
+     * Stops recording the channels under a channel prefix
+     */
+    STOP_PREFIX,
     /**
      * Create a new session from an existing session
      */
@@ -64,6 +80,10 @@ public enum MessageType {
      * Find all sessions based on a channel
      */
     QUERY,
+    /**
+     * Find the sessions with messages saved within a time window, grouped by channel
+     */
+    QUERY_BY_TIME,
     /**
      * Retrieves number of messages in a session
      */
@@ -28,6 +28,7 @@ import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.StripedExecutor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -37,16 +38,18 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 /**
- * Class used to subscribe and store messages off a specific channel
+ * Class used to subscribe and store messages off a specific channel. To keep the footprint of each recorded channel
+ * small, the message digests are shared by the threads persisting messages and, when a {@link StripedExecutor} is
+ * given, messages are persisted on its shared threads (in order for each channel) instead of the delivering thread.
  */
 public class PersistCallback implements OnPublish<BytesMessage> {
     private static final Logger LOGGER = LogManager.getLogger(PersistCallback.class.getName());
-    private final Node node;
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(PersistCallback::newDigest);
     private final StorageProvider provider;
     private final Channel<AckMessage> ackMessageChannel;
     private final URI listenChannelUri;
-    private long sessionId;
-    private MessageDigest digest;
+    private final StripedExecutor executor;
+    private volatile long sessionId;
 
     /**
      * Constructor
@@ -58,18 +61,27 @@ public class PersistCallback implements OnPublish<BytesMessage> {
      * @param sessionId Session ID associated with this channel subscriber
      */
     public PersistCallback(Node node, StorageProvider provider, Channel<AckMessage> ackMessageChannel, URI listenChannelUri, Long sessionId) {
-        this.node = node;
+        this(node, provider, ackMessageChannel, listenChannelUri, sessionId, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param node the instance of the node the module is running on
+     * @param provider the storage provider instance of this module
+     * @param ackMessageChannel the acknowledgment channel
+     * @param listenChannelUri the URI of the incoming channel of the received message
+     * @param sessionId Session ID associated with this channel subscriber
+     * @param executor the executor persisting the messages, keyed by channel; if null, messages are persisted one at a
+     * time on the delivering thread
+     */
+    public PersistCallback(Node node, StorageProvider provider, Channel<AckMessage> ackMessageChannel, URI listenChannelUri,
+                           Long sessionId, StripedExecutor executor) {
         this.provider = provider;
         this.ackMessageChannel = ackMessageChannel;
         this.listenChannelUri = listenChannelUri;
         this.sessionId = sessionId;
-
-        try {
-            this.digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            LOGGER.error("Unable to create SHA-256 message digest", e);
-            throw new IllegalStateException("Unable to create SHA-256 message digest; cannot proceed without this functionality", e);
-        }
+        this.executor = executor;
     }
 
     private static long toAcknowledgmentId(byte[] persistentMessageId) {
@@ -82,7 +94,7 @@ public class PersistCallback implements OnPublish<BytesMessage> {
      * @return the message digest object
      */
     MessageDigest getDigest() {
-        return digest;
+        return DIGESTS.get();
     }
 
     /**
@@ -91,35 +103,81 @@ public class PersistCallback implements OnPublish<BytesMessage> {
      * @param message message received on the subscribed channel
      */
     @Override
-    public synchronized void onPublish(BytesMessage message) {
-        LOGGER.debug("Received message for storage = {}", message);
+    public void onPublish(BytesMessage message) {
+        if (executor != null) {
+            if (!executor.execute(listenChannelUri, () -> persist(message))) {
+                LOGGER.warn("Message on channel {} dropped (full recording lane or shut down), it is not saved nor acknowledged", listenChannelUri);
+            }
+        } else {
+            synchronized (this) {
+                persist(message);
+            }
+        }
+    }
 
-        byte[] acknowledgmentHash = hashMessageContent(message);
-        long messageId = 0;
-        AckMessage ackMessage;
-        try {
-            provider.beginTransaction();
-            messageId = provider.saveMessage(sessionId, new PersistentMessage(System.currentTimeMillis(), message.getBytes()));
-            provider.commitTransaction();
+    private void persist(BytesMessage message) {
+        persist(provider, ackMessageChannel, listenChannelUri, sessionId, message, hashMessageContent(message));
+    }
 
-            provider.beginTransaction();
-            provider.tag(Queries.fromId(messageId), new Tag(listenChannelUri.toString()));
-            provider.tag(Queries.fromId(messageId), new Tag(String.valueOf(sessionId)));
-            provider.commitTransaction();
+    /**
+     * Save a message received on a channel to a session, tag it with the channel and session and acknowledge it. The
+     * message is saved and tagged in one transaction, which is run again if it conflicts with a concurrent one (see
+     * {@link StorageProvider#runInTransaction(StorageProvider.TransactionWork)}); a message that still cannot be saved
+     * is logged and not acknowledged.
+     *
+     * @param provider the storage provider
+     * @param ackMessageChannel the acknowledgment channel
+     * @param listenChannelUri the URI of the incoming channel of the received message
+     * @param sessionId the session to save the message to
+     * @param message the received message
+     * @param acknowledgmentHash the hash of the message content, see {@link #hashMessageContent(BytesMessage)}
+     * @return true if the message was saved, even if it could not be acknowledged
+     */
+    static boolean persist(StorageProvider provider, Channel<AckMessage> ackMessageChannel, URI listenChannelUri, long sessionId,
+                        BytesMessage message, byte[] acknowledgmentHash) {
+        LOGGER.debug("Received message for storage = {}", message);
 
-            ackMessage = new AckMessage(listenChannelUri, toAcknowledgmentId(acknowledgmentHash));
+        long timestamp = System.currentTimeMillis();
+        Long messageId = null;
+        try {
+            messageId = provider.runInTransaction(() -> {
+                long id = provider.saveMessage(sessionId, new PersistentMessage(timestamp, message.getBytes()));
+                provider.tag(Queries.fromId(id), new Tag(listenChannelUri.toString()));
+                provider.tag(Queries.fromId(id), new Tag(String.valueOf(sessionId)));
+                return id;
+            });
+
+            AckMessage ackMessage = new AckMessage(listenChannelUri, toAcknowledgmentId(acknowledgmentHash));
             ackMessageChannel.publish(ackMessage);
-        } catch (StorageModuleException e) {
-            provider.rollbackTransaction();
-            LOGGER.error("Failed to save message '{}' with channel and session.", messageId, e);
+        } catch (StorageModuleException | RuntimeException e) {
+            LOGGER.error("Failed to save message on channel {} to session {}.", listenChannelUri, sessionId, e);
         } catch (TaggingOperationException e) {
-            LOGGER.error("Failed to tag messageId '{}' with channel and session.", messageId, e);
+            LOGGER.error("Failed to tag message on channel {} with channel and session {}.", listenChannelUri, sessionId, e);
         } catch (ChannelIOException e) {
-            LOGGER.error("Message save failed with storage id: {}", new String(acknowledgmentHash), e);
+            LOGGER.error("Message save failed with storage id: {}", messageId, e);
+        }
+        return messageId != null;
+    }
+
+    /**
+     * @return a new SHA-256 message digest
+     * @throws IllegalStateException if the platform does not provide SHA-256
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Unable to create SHA-256 message digest", e);
+            throw new IllegalStateException("Unable to create SHA-256 message digest; cannot proceed without this functionality", e);
         }
     }
 
-    private byte[] hashMessageContent(BytesMessage message) {
+    /**
+     * @param message a received message
+     * @return the SHA-256 hash of the message content, computed with the digest of the current thread
+     */
+    static byte[] hashMessageContent(BytesMessage message) {
+        MessageDigest digest = DIGESTS.get();
         digest.update(message.getBytes());
         byte[] returnBytes = digest.digest();
         digest.reset();
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Node;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.core.misc.ChannelLifetimeException;
+import com.intel.icecp.core.misc.OnPublish;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.ack.AckMessage;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.StripedExecutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records all channels under a channel prefix (e.g. "ndn:/plant1/sensors/*"). Messages carry no channel, so each
+ * concrete channel still has its own subscription and a small listener that only holds the channel URI; what the
+ * channels share is this recorder, the message digests and the threads persisting the messages (see
+ * {@link StripedExecutor}). The session of a channel is only created (or renamed, see {@link StartMessage}) when its
+ * first message is received. The sessions of a prefix are not registered as module sessions; they are stopped with
+ * the prefix.
+ * <p>
+ * The session of each channel is cached; a session deleted or renamed by a command is evicted with
+ * {@link #evictSession(long)}, and a session that fails to save a message for another reason (e.g. a session renamed
+ * by a START command on the same channel) is evicted and started again for that message.
+ */
+public class PrefixRecorder {
+    public static final String WILDCARD = "*";
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final Node node;
+    private final StorageProvider provider;
+    private final Channel<AckMessage> ackMessageChannel;
+    private final String prefix;
+    private final int maxBufferingPeriodInSec;
+    private final StripedExecutor executor;
+    private final Map<URI, Channel<BytesMessage>> channels = new ConcurrentHashMap<>();
+    private final Map<URI, Long> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param node the instance of the node the module is running on
+     * @param provider the storage provider instance of this module
+     * @param ackMessageChannel the acknowledgment channel
+     * @param prefix the channel prefix, with or without the trailing wildcard
+     * @param maxBufferingPeriodInSec maximum buffering period in second of the sessions created for the channels
+     */
+    public PrefixRecorder(Node node, StorageProvider provider, Channel<AckMessage> ackMessageChannel, String prefix,
+                          int maxBufferingPeriodInSec) {
+        this(node, provider, ackMessageChannel, prefix, maxBufferingPeriodInSec, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param node the instance of the node the module is running on
+     * @param provider the storage provider instance of this module
+     * @param ackMessageChannel the acknowledgment channel
+     * @param prefix the channel prefix, with or without the trailing wildcard
+     * @param maxBufferingPeriodInSec maximum buffering period in second of the sessions created for the channels
+     * @param executor the executor persisting the messages, keyed by channel; if null, messages are persisted on the
+     * delivering thread
+     */
+    public PrefixRecorder(Node node, StorageProvider provider, Channel<AckMessage> ackMessageChannel, String prefix,
+                          int maxBufferingPeriodInSec, StripedExecutor executor) {
+        this.node = node;
+        this.provider = provider;
+        this.ackMessageChannel = ackMessageChannel;
+        this.prefix = normalize(prefix);
+        this.maxBufferingPeriodInSec = maxBufferingPeriodInSec;
+        this.executor = executor;
+    }
+
+    /**
+     * @param listenChannel a channel or channel prefix
+     * @return true if the channel ends with the wildcard, e.g. "ndn:/plant1/sensors/*"
+     */
+    public static boolean isPrefix(String listenChannel) {
+        return listenChannel != null && listenChannel.endsWith("/" + WILDCARD);
+    }
+
+    /**
+     * @param prefix a channel prefix, with or without the trailing wildcard
+     * @return the prefix without the wildcard, e.g. "ndn:/plant1/sensors/"
+     */
+    public static String normalize(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Channel prefix is null");
+        }
+        String stripped = prefix.endsWith(WILDCARD) ? prefix.substring(0, prefix.length() - WILDCARD.length()) : prefix;
+        return stripped.endsWith("/") ? stripped : stripped + "/";
+    }
+
+    /**
+     * @return the recorded prefix, without the wildcard
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param channel a concrete channel
+     * @return true if the channel is under the recorded prefix
+     */
+    public boolean matches(URI channel) {
+        String uri = channel.toString();
+        return uri.length() > prefix.length() && uri.startsWith(prefix);
+    }
+
+    /**
+     * Start recording a concrete channel under the prefix; recording a channel twice has no effect
+     *
+     * @param channel the channel to record
+     * @return true if the channel was not recorded yet
+     * @throws StorageModuleException if the channel is not under the prefix
+     * @throws ChannelLifetimeException if the channel cannot be opened
+     * @throws ChannelIOException if the channel cannot be subscribed to
+     */
+    public synchronized boolean record(URI channel) throws StorageModuleException, ChannelLifetimeException, ChannelIOException {
+        if (!matches(channel)) {
+            throw new StorageModuleException(String.format("Channel %s is not under prefix %s", channel, prefix));
+        }
+        if (channels.containsKey(channel)) {
+            return false;
+        }
+
+        Channel<BytesMessage> persistChannel = node.openChannel(channel, BytesMessage.class, StorageModule.DEFAULT_PERSISTENCE);
+        try {
+            persistChannel.subscribe(new Listener(channel));
+        } catch (ChannelIOException e) {
+            close(channel, persistChannel);
+            throw e;
+        }
+        channels.put(channel, persistChannel);
+        LOGGER.debug("Recording channel {} under prefix {}", channel, prefix);
+        return true;
+    }
+
+    /**
+     * Persist a message received on a concrete channel, starting the session of the channel if this is its first message
+     *
+     * @param channel the channel the message was received on
+     * @param message the received message
+     */
+    void onPublish(URI channel, BytesMessage message) {
+        byte[] hash = PersistCallback.hashMessageContent(message);
+        Long sessionId = sessionOf(channel);
+        if (sessionId != null && !PersistCallback.persist(provider, ackMessageChannel, channel, sessionId, message, hash)) {
+            // the cached session may have been deleted or renamed since it was started
+            sessions.remove(channel, sessionId);
+            Long restarted = sessionOf(channel);
+            if (restarted != null && !restarted.equals(sessionId)) {
+                PersistCallback.persist(provider, ackMessageChannel, channel, restarted, message, hash);
+            }
+        }
+    }
+
+    /**
+     * @param channel a recorded channel
+     * @return the ID of the session of the channel, started if needed, or null if it cannot be started
+     */
+    Long sessionOf(URI channel) {
+        // messages of the same channel are persisted one at a time, see Listener
+        Long sessionId = sessions.get(channel);
+        if (sessionId == null) {
+            try {
+                sessionId = StartMessage.inTransaction(provider,
+                        () -> StartMessage.startSession(provider, channel, maxBufferingPeriodInSec));
+                sessions.put(channel, sessionId);
+                LOGGER.debug("sessionId = {} created for channel {} under prefix {}", sessionId, channel, prefix);
+            } catch (StorageModuleException | RuntimeException e) {
+                LOGGER.error("Failed to start session for channel {} under prefix {}", channel, prefix, e);
+            }
+        }
+        return sessionId;
+    }
+
+    /**
+     * Forget a session that was deleted or renamed, so that the next message of its channel starts a new session
+     *
+     * @param sessionId the ID of the session
+     * @return true if the session was started by this recorder
+     */
+    public boolean evictSession(long sessionId) {
+        return sessions.values().removeIf(id -> id == sessionId);
+    }
+
+    /**
+     * @return the recorded concrete channels
+     */
+    public Set<URI> getChannels() {
+        return Collections.unmodifiableSet(channels.keySet());
+    }
+
+    /**
+     * @return the IDs of the sessions started so far, keyed by channel; channels without messages have no session yet
+     */
+    public Map<URI, Long> getSessions() {
+        return Collections.unmodifiableMap(sessions);
+    }
+
+    /**
+     * Stop recording all channels under the prefix; the sessions are kept
+     */
+    public synchronized void close() {
+        channels.forEach(PrefixRecorder::close);
+        channels.clear();
+        sessions.clear();
+    }
+
+    private static void close(URI channel, Channel<BytesMessage> persistChannel) {
+        try {
+            persistChannel.close();
+        } catch (ChannelLifetimeException e) {
+            LOGGER.error("Unable to close channel {}", channel, e);
+        }
+    }
+
+    /**
+     * Subscribed to a single concrete channel; only carries the channel so that the shared recorder knows where a
+     * message was received. Messages of the same channel are persisted one at a time, like {@link PersistCallback}.
+     */
+    private class Listener implements OnPublish<BytesMessage> {
+        private final URI channel;
+
+        Listener(URI channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void onPublish(BytesMessage message) {
+            if (executor != null) {
+                if (!executor.execute(channel, () -> PrefixRecorder.this.onPublish(channel, message))) {
+                    LOGGER.warn("Message on channel {} dropped (full recording lane or shut down), it is not saved nor acknowledged", channel);
+                }
+            } else {
+                synchronized (this) {
+                    PrefixRecorder.this.onPublish(channel, message);
+                }
+            }
+        }
+    }
+}
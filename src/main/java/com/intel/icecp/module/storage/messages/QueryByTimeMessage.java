@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements finding the sessions, across all channels, with messages saved within a time window (in milliseconds
+ * since the epoch, both ends inclusive). The JSON representation of this message would look like:<br>
+ * <br>
+ * <code>
+ * {<br>
+ * "@cmd" : "QUERY_BY_TIME",<br>
+ * "from" : 1476835200000,<br>
+ * "to" : 1476921600000<br>
+ * }<br>
+ * </code>
+ * <p>
+ * The reply maps each channel to its overlapping sessions, ordered by their first timestamp, e.g.
+ * {"ndn:/sensor/1" : [{"sessionId" : 1234, "firstTimestamp" : 1476835201000, "lastTimestamp" : 1476838800000}]}.
+ */
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+class QueryByTimeMessage extends BaseMessage {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final Long from;
+    private final Long to;
+
+    /**
+     * Constructor
+     *
+     * @param from the start of the time window in milliseconds, inclusive
+     * @param to the end of the time window in milliseconds, inclusive
+     */
+    @JsonCreator
+    QueryByTimeMessage(@JsonProperty(value = "from", required = true) Long from,
+                       @JsonProperty(value = "to", required = true) Long to) {
+        this.setCmd(MessageType.QUERY_BY_TIME);
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Finds the sessions overlapping the time window.
+     *
+     * @param context Storage module processing this message
+     * @return the overlapping sessions grouped by channel
+     */
+    @Override
+    public Object onCommandMessage(StorageModule context) throws StorageModuleException {
+        LOGGER.debug("Message received = {}", this);
+        if (from == null || to == null) {
+            throw new StorageModuleException("Time window is missing its start or end");
+        }
+
+        Map<String, List<Map<String, Object>>> result = new LinkedHashMap<>();
+        for (SessionTimeSpan span : context.getStorageProvider().getSessionsOverlapping(from, to)) {
+            Map<String, Object> session = new LinkedHashMap<>();
+            session.put("sessionId", span.getSessionId());
+            session.put("firstTimestamp", span.getFirstTimestamp());
+            session.put("lastTimestamp", span.getLastTimestamp());
+            result.computeIfAbsent(span.getChannel().toString(), c -> new ArrayList<>()).add(session);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageQueryByTimeMessage{from=" + from + ", to=" + to + "} " + super.toString();
+    }
+}
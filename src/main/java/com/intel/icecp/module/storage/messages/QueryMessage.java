@@ -104,11 +104,7 @@ class QueryMessage extends BaseMessage {
 
     private Object queryByChannelName(StorageModule context) throws StorageModuleException {
         try {
-            context.getStorageProvider().beginTransaction();
-            Set<Collection<Long>> sessionIdCollection = context.getStorageProvider()
-                    .getSessions(new URI(queryChannel));
-            context.getStorageProvider().commitTransaction();
-            return sessionIdCollection;
+            return context.getStorageProvider().getSessions(new URI(queryChannel));
         } catch (URISyntaxException e) {
             throw new StorageModuleException(String.format(
                     "Invalid queryChannel URI syntax, queryChannel = %s. %s", queryChannel, e));
@@ -116,11 +112,9 @@ class QueryMessage extends BaseMessage {
     }
 
     private Object queryBySessionId(StorageModule context, boolean onlyWithActiveMessages) throws StorageModuleException {
-        context.getStorageProvider().beginTransaction();
         Set<Collection<Long>> sessionIdCollection =  onlyWithActiveMessages ?
                 context.getStorageProvider().getSessionsWithActiveMessages(querySessionId) :
                 context.getStorageProvider().getSessions(querySessionId);
-        context.getStorageProvider().commitTransaction();
 
         if (sessionIdCollection.isEmpty()) {
             throw new StorageModuleException(String.format("Invalid querySessionId = %s", querySessionId));
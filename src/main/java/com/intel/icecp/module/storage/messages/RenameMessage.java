@@ -84,6 +84,7 @@ class RenameMessage extends BaseMessage {
                 context.getStorageProvider().beginTransaction();
                 Long newSessionId = context.getStorageProvider().renameSession(sessionChannel.getName(), sessionId);
                 context.getStorageProvider().commitTransaction();
+                context.evictPrefixSession(sessionId);
 
                 sessionIdManager.updateNewSessionId(newSessionId, sessionChannel, callback);
                 sessionIdManager.cleanupSessionId();
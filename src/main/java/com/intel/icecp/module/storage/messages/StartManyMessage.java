@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.core.misc.ChannelLifetimeException;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implements the creation of the sessions for many channels at once (see {@link StartMessage}); all sessions are
+ * created or renamed in one transaction and the channels are then subscribed to in parallel by the subscription
+ * executor of the {@link CommandDispatcher}. The JSON representation of
+ * this message would look like:<br><br>
+ * <code>
+ * {<br>
+ * "@cmd" : "START_MANY",<br>
+ * "listenChannels" : ["ndn:/sensor/1", "ndn:/sensor/2"],<br>
+ * "maxBufferingPeriodInSec" : 3600<br>
+ * }<br>
+ * </code>
+ * <p>
+ * The reply maps each channel to either its session ID or the error that prevented recording it, e.g.
+ * {"ndn:/sensor/1" : {"sessionId" : 1234}, "ndn:/sensor/2" : {"error" : "..."}}; a failure to start one channel does not
+ * prevent the others from being started.
+ */
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+class StartManyMessage extends BaseMessage {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final List<String> listenChannels;
+    private final int maxBufferingPeriodInSec;
+
+    /**
+     * Constructor
+     *
+     * @param listenChannels Channels to listen to and store data on; duplicates are started once
+     * @param maxBufferingPeriodInSec maximum buffering period in second of new sessions; if not positive, it defaults to
+     * {@link StorageModule#DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC}
+     */
+    @JsonCreator
+    StartManyMessage(@JsonProperty(value = "listenChannels", required = true) List<String> listenChannels,
+                     @JsonProperty(value = "maxBufferingPeriodInSec") Integer maxBufferingPeriodInSec) {
+        this.setCmd(MessageType.START_MANY);
+        this.listenChannels = listenChannels;
+        this.maxBufferingPeriodInSec = (maxBufferingPeriodInSec != null && maxBufferingPeriodInSec > 0) ? maxBufferingPeriodInSec
+                : StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC;
+    }
+
+    /**
+     * Subscribes to all requested channels.
+     *
+     * @param context Storage module processing this message
+     * @return the session ID or error of each channel, in request order
+     */
+    @Override
+    public Object onCommandMessage(StorageModule context) throws StorageModuleException {
+        LOGGER.debug("Message received = {}", this);
+        if (listenChannels == null || listenChannels.isEmpty()) {
+            throw new StorageModuleException("ListenChannels is null or empty");
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (String listenChannel : new LinkedHashSet<>(listenChannels)) {
+            entries.add(new Entry(listenChannel));
+        }
+
+        startSessions(context.getStorageProvider(), entries);
+        subscribeAll(context, entries);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        entries.forEach(e -> result.put(e.listenChannel, e.toResult()));
+        return result;
+    }
+
+    /**
+     * Create or rename the sessions of all channels in one transaction; if it fails, the sessions are started one
+     * transaction at a time so that only the failing channels are reported
+     */
+    private void startSessions(StorageProvider provider, List<Entry> entries) {
+        List<Entry> valid = new ArrayList<>();
+        entries.stream().filter(Entry::isValid).forEach(valid::add);
+        if (valid.isEmpty()) {
+            return;
+        }
+
+        try {
+            StartMessage.inTransaction(provider, () -> {
+                for (Entry entry : valid) {
+                    entry.sessionId = StartMessage.startSession(provider, entry.uri, maxBufferingPeriodInSec);
+                }
+                return null;
+            });
+            LOGGER.debug("Started {} sessions in one transaction", valid.size());
+            return;
+        } catch (StorageModuleException | RuntimeException e) {
+            valid.forEach(entry -> entry.sessionId = null);
+            LOGGER.warn("Failed to start {} sessions in one transaction, starting them one at a time", valid.size(), e);
+        }
+
+        for (Entry entry : valid) {
+            try {
+                entry.sessionId = StartMessage.inTransaction(provider,
+                        () -> StartMessage.startSession(provider, entry.uri, maxBufferingPeriodInSec));
+            } catch (StorageModuleException | RuntimeException e) {
+                entry.error = String.format("Session for channel %s failed to start. Error: %s", entry.listenChannel, e);
+            }
+        }
+    }
+
+    private void subscribeAll(StorageModule context, List<Entry> entries) {
+        List<Entry> started = new ArrayList<>();
+        entries.stream().filter(e -> e.sessionId != null).forEach(started::add);
+        if (started.isEmpty()) {
+            return;
+        }
+
+        CommandDispatcher dispatcher = context.getCommandDispatcher();
+        CompletableFuture.allOf(started.stream()
+                .map(entry -> dispatcher.subscribe(() -> subscribe(context, entry))
+                        // a subscription that cannot be queued is run by the calling thread instead
+                        .exceptionally(e -> subscribe(context, entry)))
+                .toArray(CompletableFuture[]::new)).join();
+    }
+
+    private Object subscribe(StorageModule context, Entry entry) {
+        try {
+            StartMessage.subscribe(context, entry.uri, entry.sessionId, maxBufferingPeriodInSec);
+        } catch (ChannelLifetimeException e) {
+            StartMessage.cleanupSession(context.getStorageProvider(), entry.sessionId);
+            entry.fail(String.format("Channel %s failed to open. Error: %s", entry.listenChannel, e));
+        } catch (ChannelIOException e) {
+            context.removeChannel(entry.sessionId);
+            StartMessage.cleanupSession(context.getStorageProvider(), entry.sessionId);
+            entry.fail(String.format("Channel %s failed to subscribe. Error: %s", entry.listenChannel, e));
+        } catch (RuntimeException e) {
+            StartMessage.cleanupSession(context.getStorageProvider(), entry.sessionId);
+            entry.fail(String.format("Channel %s failed to start. Error: %s", entry.listenChannel, e));
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStartManyMessage{" + "listenChannels=" + listenChannels + ", maxBufferingPeriodInSec="
+                + maxBufferingPeriodInSec + "} " + super.toString();
+    }
+
+    /**
+     * The progress of starting one channel
+     */
+    private static class Entry {
+        private final String listenChannel;
+        private URI uri;
+        private volatile Long sessionId;
+        private volatile String error;
+
+        Entry(String listenChannel) {
+            this.listenChannel = listenChannel;
+            try {
+                this.uri = new URI(listenChannel);
+            } catch (URISyntaxException | NullPointerException e) {
+                //in this case, no session is created, so no need to clean up
+                this.error = String.format("Channel %s has invalid URI format. Error: %s", listenChannel, e);
+            }
+        }
+
+        boolean isValid() {
+            return uri != null;
+        }
+
+        void fail(String error) {
+            LOGGER.error(error);
+            this.sessionId = null;
+            this.error = error;
+        }
+
+        Map<String, Object> toResult() {
+            return error != null ? Collections.singletonMap("error", error) : Collections.singletonMap("sessionId", sessionId);
+        }
+    }
+}
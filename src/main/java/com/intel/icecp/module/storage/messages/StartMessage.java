@@ -25,6 +25,7 @@ import com.intel.icecp.core.misc.ChannelIOException;
 import com.intel.icecp.core.misc.ChannelLifetimeException;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -114,28 +115,10 @@ class StartMessage extends BaseMessage {
 
         try {
             URI channelURI = new URI(this.listenChannel);
-            provider.beginTransaction();
-            Long previousSessionId = provider.getLatestActiveSession(channelURI);
-
-            if (previousSessionId == 0) {
-                sessionId = provider.createSession(channelURI, maxBufferingPeriodInSec);
-            } else {
-                sessionId = provider.renameSession(channelURI, previousSessionId);
-            }
-            provider.commitTransaction();
+            sessionId = inTransaction(provider, () -> startSession(provider, channelURI, maxBufferingPeriodInSec));
             LOGGER.debug("sessionId = {} created ", sessionId);
 
-            Channel<BytesMessage> persistChannel = context.getNode().openChannel(channelURI, BytesMessage.class,
-                    StorageModule.DEFAULT_PERSISTENCE);
-
-            PersistCallback subscriptionCallback = new PersistCallback(context.getNode(), context.getStorageProvider(),
-                    context.getAckChannel(), channelURI, sessionId);
-            persistChannel.subscribe(subscriptionCallback);
-
-            context.addChannel(sessionId, persistChannel, maxBufferingPeriodInSec, subscriptionCallback);
-        } catch (StorageModuleException e) {
-            provider.rollbackTransaction();
-            throw e;
+            subscribe(context, channelURI, sessionId, maxBufferingPeriodInSec);
         } catch (ChannelLifetimeException e) {
             cleanupSession(provider, sessionId);
             throw new StorageModuleException(String.format("Channel %s failed to open. Error: %s", this.getListenChannel(), e));
@@ -152,7 +135,68 @@ class StartMessage extends BaseMessage {
     }
 
 
-    private void cleanupSession(StorageProvider provider, Long sessionId) {
+    /**
+     * Create a new session for a channel or, if the channel already has a session, rename the latest session of the
+     * channel; this must be called within a transaction of the provider, see
+     * {@link #inTransaction(StorageProvider, StorageProvider.TransactionWork)}
+     *
+     * @param provider the storage provider
+     * @param channelURI the channel to record
+     * @param maxBufferingPeriodInSec maximum buffering period in second of a new session
+     * @return the ID of the session recording the channel
+     * @throws StorageModuleException if the session cannot be created
+     */
+    static long startSession(StorageProvider provider, URI channelURI, int maxBufferingPeriodInSec) throws StorageModuleException {
+        long previousSessionId = provider.getLatestActiveSession(channelURI);
+        if (previousSessionId == 0) {
+            return provider.createSession(channelURI, maxBufferingPeriodInSec);
+        } else {
+            return provider.renameSession(channelURI, previousSessionId);
+        }
+    }
+
+    /**
+     * Run the sessions started by a command in one transaction of the provider; the transaction is retried if it
+     * conflicts with another one, e.g. when a new session was given the (randomly drawn) ID of an existing session
+     *
+     * @param provider the storage provider
+     * @param work starts the sessions, see {@link #startSession(StorageProvider, URI, int)}
+     * @param <T> the type of the result
+     * @return the result of the work
+     * @throws StorageModuleException if the sessions cannot be started
+     */
+    static <T> T inTransaction(StorageProvider provider, StorageProvider.TransactionWork<T> work) throws StorageModuleException {
+        try {
+            return provider.runInTransaction(work);
+        } catch (TaggingOperationException e) {
+            // not thrown when starting sessions
+            throw new StorageModuleException(e);
+        }
+    }
+
+    /**
+     * Open a channel and persist its messages to a session
+     *
+     * @param context Storage module processing the command
+     * @param channelURI the channel to record
+     * @param sessionId the ID of the session recording the channel
+     * @param maxBufferingPeriodInSec maximum buffering period in second of the session
+     * @throws ChannelLifetimeException if the channel cannot be opened
+     * @throws ChannelIOException if the channel cannot be subscribed to
+     */
+    static void subscribe(StorageModule context, URI channelURI, long sessionId, int maxBufferingPeriodInSec)
+            throws ChannelLifetimeException, ChannelIOException {
+        Channel<BytesMessage> persistChannel = context.getNode().openChannel(channelURI, BytesMessage.class,
+                StorageModule.DEFAULT_PERSISTENCE);
+
+        PersistCallback subscriptionCallback = new PersistCallback(context.getNode(), context.getStorageProvider(),
+                context.getAckChannel(), channelURI, sessionId, context.getRecordingExecutor());
+        persistChannel.subscribe(subscriptionCallback);
+
+        context.addChannel(sessionId, persistChannel, maxBufferingPeriodInSec, subscriptionCallback);
+    }
+
+    static void cleanupSession(StorageProvider provider, Long sessionId) {
         try {
             provider.deleteSession(sessionId);
         } catch (StorageModuleException e) {
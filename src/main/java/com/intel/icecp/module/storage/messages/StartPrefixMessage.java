@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.core.misc.ChannelLifetimeException;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements recording the channels under a channel prefix through a single {@link PrefixRecorder}; unlike
+ * {@link StartManyMessage}, no session is created until a channel receives its first message. Sending the message again
+ * for the same prefix adds channels to the existing recorder. The JSON representation of this message would look
+ * like:<br><br>
+ * <code>
+ * {<br>
+ * "@cmd" : "START_PREFIX",<br>
+ * "listenPrefix" : "ndn:/plant1/sensors/*",<br>
+ * "listenChannels" : ["ndn:/plant1/sensors/1", "ndn:/plant1/sensors/2"],<br>
+ * "maxBufferingPeriodInSec" : 3600<br>
+ * }<br>
+ * </code>
+ * <p>
+ * The reply maps each channel to whether it is recorded or to the error that prevented recording it, e.g.
+ * {"ndn:/plant1/sensors/1" : {"recording" : true}, "ndn:/plant1/sensors/2" : {"error" : "..."}}.
+ */
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+class StartPrefixMessage extends BaseMessage {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final String listenPrefix;
+    private final List<String> listenChannels;
+    private final int maxBufferingPeriodInSec;
+
+    /**
+     * Constructor
+     *
+     * @param listenPrefix the channel prefix, e.g. "ndn:/plant1/sensors/*"
+     * @param listenChannels Channels under the prefix to listen to and store data on; duplicates are recorded once
+     * @param maxBufferingPeriodInSec maximum buffering period in second of new sessions; if not positive, it defaults to
+     * {@link StorageModule#DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC}
+     */
+    @JsonCreator
+    StartPrefixMessage(@JsonProperty(value = "listenPrefix", required = true) String listenPrefix,
+                       @JsonProperty(value = "listenChannels", required = true) List<String> listenChannels,
+                       @JsonProperty(value = "maxBufferingPeriodInSec") Integer maxBufferingPeriodInSec) {
+        this.setCmd(MessageType.START_PREFIX);
+        this.listenPrefix = listenPrefix;
+        this.listenChannels = listenChannels;
+        this.maxBufferingPeriodInSec = (maxBufferingPeriodInSec != null && maxBufferingPeriodInSec > 0) ? maxBufferingPeriodInSec
+                : StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC;
+    }
+
+    /**
+     * Subscribes to all requested channels through the recorder of the prefix.
+     *
+     * @param context Storage module processing this message
+     * @return whether each channel is recorded, in request order
+     */
+    @Override
+    public Object onCommandMessage(StorageModule context) throws StorageModuleException {
+        LOGGER.debug("Message received = {}", this);
+        if (listenPrefix == null || !PrefixRecorder.isPrefix(listenPrefix)) {
+            throw new StorageModuleException(String.format("ListenPrefix %s does not end with /%s", listenPrefix, PrefixRecorder.WILDCARD));
+        }
+        if (listenChannels == null || listenChannels.isEmpty()) {
+            throw new StorageModuleException("ListenChannels is null or empty");
+        }
+
+        PrefixRecorder recorder = context.recordPrefix(listenPrefix, maxBufferingPeriodInSec);
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String listenChannel : new LinkedHashSet<>(listenChannels)) {
+            result.put(listenChannel, record(recorder, listenChannel));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> record(PrefixRecorder recorder, String listenChannel) {
+        try {
+            recorder.record(new URI(listenChannel));
+            return Collections.singletonMap("recording", true);
+        } catch (URISyntaxException e) {
+            return error(String.format("Channel %s has invalid URI format. Error: %s", listenChannel, e));
+        } catch (StorageModuleException e) {
+            return error(e.getMessage());
+        } catch (ChannelLifetimeException e) {
+            return error(String.format("Channel %s failed to open. Error: %s", listenChannel, e));
+        } catch (ChannelIOException e) {
+            return error(String.format("Channel %s failed to subscribe. Error: %s", listenChannel, e));
+        }
+    }
+
+    private static Map<String, Object> error(String error) {
+        LOGGER.error(error);
+        return Collections.singletonMap("error", error);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStartPrefixMessage{" + "listenPrefix='" + listenPrefix + '\'' + ", listenChannels=" + listenChannels
+                + ", maxBufferingPeriodInSec=" + maxBufferingPeriodInSec + "} " + super.toString();
+    }
+}
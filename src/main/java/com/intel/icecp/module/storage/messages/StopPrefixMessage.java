@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+
+/**
+ * Implements stopping the recording of all channels under a channel prefix (see {@link StartPrefixMessage}); the
+ * messages and sessions of the channels are not deleted. The JSON representation of this message would look like:<br>
+ * <br>
+ * <code>
+ * {<br>
+ * "@cmd" : "STOP_PREFIX",<br>
+ * "listenPrefix" : "ndn:/plant1/sensors/*"<br>
+ * }<br>
+ * </code>
+ */
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+class StopPrefixMessage extends BaseMessage {
+
+    private final String listenPrefix;
+
+    /**
+     * Constructor
+     *
+     * @param listenPrefix the recorded channel prefix
+     */
+    @JsonCreator
+    StopPrefixMessage(@JsonProperty(value = "listenPrefix", required = true) String listenPrefix) {
+        this.setCmd(MessageType.STOP_PREFIX);
+        this.listenPrefix = listenPrefix;
+    }
+
+    /**
+     * Stops recording the channels under the prefix.
+     *
+     * @param context Storage module processing this message
+     * @return boolean
+     */
+    @Override
+    public Object onCommandMessage(StorageModule context) throws StorageModuleException {
+        if (listenPrefix == null) {
+            throw new StorageModuleException("ListenPrefix is null");
+        }
+        if (!context.stopPrefix(listenPrefix)) {
+            throw new StorageModuleException(String.format("Prefix %s is not recorded", listenPrefix));
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStopPrefixMessage{" + "listenPrefix='" + listenPrefix + '\'' + "} " + super.toString();
+    }
+}
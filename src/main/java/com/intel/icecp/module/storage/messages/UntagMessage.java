@@ -26,9 +26,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Arrays;
-import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 
 /**
@@ -75,23 +73,16 @@ class UntagMessage extends BaseMessage {
 
         validateInput();
 
-        Set<Long> vertexIdentifiers = new LinkedHashSet<>();
-
+        Tag[] tagsToApply = Arrays.stream(tags).map(Tag::new).toArray(Tag[]::new);
         context.getStorageProvider().beginTransaction();
-        // TODO:  Add the Or query operator and use that instead.
-        for (long id : ids) {
-            for (String tagName : tags) {
-                try {
-                    Set<Id> taggedIds = context.getStorageProvider().untag(Queries.fromId(id), new Tag(tagName));
-                    vertexIdentifiers.addAll(taggedIds.stream().map(Id::value).collect(Collectors.toList()));
-                } catch (TaggingOperationException e) {
-                    throw new StorageModuleException(String.format("Unable to untag '%s' on id '%d'.", tagName, id), e);
-                }
-            }
+        try {
+            Set<Id> taggedIds = context.getStorageProvider().untag(Queries.fromIds(ids), tagsToApply);
+            context.getStorageProvider().commitTransaction();
+            return taggedIds.size();
+        } catch (TaggingOperationException e) {
+            context.getStorageProvider().rollbackTransaction();
+            throw new StorageModuleException(String.format("Unable to untag %s on ids %s.", Arrays.toString(tags), Arrays.toString(ids)), e);
         }
-        context.getStorageProvider().commitTransaction();
-
-        return vertexIdentifiers.size();
     }
 
     private void validateInput() throws StorageModuleException {
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregate statistics of the sessions and messages stored for a channel, as kept by the channel catalog of the
+ * storage provider. The time bounds are those of the messages still stored for the channel.
+ *
+ */
+public class ChannelStatistics {
+    private final URI channel;
+    private final long latestSessionId;
+    private final List<Long> sessionIds;
+    private final long messageCount;
+    private final long byteCount;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+
+    /**
+     * Constructor
+     *
+     * @param channel the channel URI
+     * @param latestSessionId the most recently created session of the channel
+     * @param sessionIds the sessions of the channel, oldest first
+     * @param messageCount the number of messages stored for the channel
+     * @param byteCount the total size of the content of the messages stored for the channel
+     * @param firstTimestamp the smallest message timestamp or -1 if there are no messages
+     * @param lastTimestamp the largest message timestamp or -1 if there are no messages
+     */
+    public ChannelStatistics(URI channel, long latestSessionId, List<Long> sessionIds, long messageCount, long byteCount,
+                             long firstTimestamp, long lastTimestamp) {
+        this.channel = channel;
+        this.latestSessionId = latestSessionId;
+        this.sessionIds = Collections.unmodifiableList(sessionIds);
+        this.messageCount = messageCount;
+        this.byteCount = byteCount;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public URI getChannel() {
+        return channel;
+    }
+
+    public long getLatestSessionId() {
+        return latestSessionId;
+    }
+
+    public List<Long> getSessionIds() {
+        return sessionIds;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelStatistics{" + "channel=" + channel + ", latestSessionId=" + latestSessionId + ", sessionIds=" +
+                sessionIds + ", messageCount=" + messageCount + ", byteCount=" + byteCount + ", firstTimestamp=" +
+                firstTimestamp + ", lastTimestamp=" + lastTimestamp + '}';
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence;
+
+/**
+ * Order in which persisted messages are returned when reading them incrementally; messages with equal timestamps are
+ * further ordered by their ID in the same direction.
+ *
+ */
+public enum Ordering {
+    ID_ASCENDING(false, true),
+    ID_DESCENDING(false, false),
+    TIMESTAMP_ASCENDING(true, true),
+    TIMESTAMP_DESCENDING(true, false);
+
+    private final boolean byTimestamp;
+    private final boolean ascending;
+
+    Ordering(boolean byTimestamp, boolean ascending) {
+        this.byTimestamp = byTimestamp;
+        this.ascending = ascending;
+    }
+
+    /**
+     * @return true if messages are ordered by timestamp first, false if ordered only by ID
+     */
+    public boolean isByTimestamp() {
+        return byTimestamp;
+    }
+
+    /**
+     * @return true if the smallest values are returned first
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+}
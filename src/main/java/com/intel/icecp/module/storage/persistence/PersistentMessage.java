@@ -76,7 +76,8 @@ public class PersistentMessage implements Message {
     }
 
     /**
-     * @return the bytes of the saved message
+     * @return the bytes of the saved message; may be null if the message was read without its content (see {@link
+     * Projection})
      */
     public byte[] getMessageContent() {
         return content;
@@ -84,6 +85,6 @@ public class PersistentMessage implements Message {
 
     @Override
     public String toString() {
-        return "PersistentMessage{" + "id=" + id + ", timestamp=" + timestamp + ", content (size in bytes)=" + content.length + '}';
+        return "PersistentMessage{" + "id=" + id + ", timestamp=" + timestamp + ", content (size in bytes)=" + (content != null ? content.length : 0) + '}';
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence;
+
+/**
+ * Select which fields of a {@link PersistentMessage} are read from the database; fields that are not part of the
+ * projection are left unset (i.e. a timestamp of -1 and {@code null} content).
+ *
+ */
+public enum Projection {
+    /**
+     * Only the message ID
+     */
+    ID_ONLY,
+    /**
+     * The message ID and timestamp, but not the content
+     */
+    METADATA,
+    /**
+     * The message ID, timestamp, and content
+     */
+    FULL
+}
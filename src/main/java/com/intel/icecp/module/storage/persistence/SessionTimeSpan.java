@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence;
+
+import java.net.URI;
+
+/**
+ * The time bounds of the messages saved to a session, as kept by the session time index of the storage provider.
+ * Like {@link ChannelStatistics}, removing messages does not narrow the bounds.
+ *
+ */
+public class SessionTimeSpan {
+    private final URI channel;
+    private final long sessionId;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+
+    /**
+     * Constructor
+     *
+     * @param channel the channel URI of the session
+     * @param sessionId the session identifier
+     * @param firstTimestamp the smallest timestamp of the messages saved to the session
+     * @param lastTimestamp the largest timestamp of the messages saved to the session
+     */
+    public SessionTimeSpan(URI channel, long sessionId, long firstTimestamp, long lastTimestamp) {
+        this.channel = channel;
+        this.sessionId = sessionId;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public URI getChannel() {
+        return channel;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionTimeSpan{" + "channel=" + channel + ", sessionId=" + sessionId + ", firstTimestamp=" +
+                firstTimestamp + ", lastTimestamp=" + lastTimestamp + '}';
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.intel.icecp.module.storage.persistence.ChannelStatistics;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintain the channel catalog: one {@link OrientDbNamespace#CHANNEL_CLASS} vertex per channel URI (uniquely indexed)
+ * holding the latest session of the channel and its sessions in creation order. This allows finding the latest session
+ * and listing channels without visiting every session vertex.
+ * <p>
+ * Sessions are added to and removed from the catalog as they are created and deleted; a session marked as deleted
+ * (see {@link #sessionTombstoned(OrientGraph, Vertex)}) is no longer a session of its channel but the messages it still
+ * holds are counted until they are reclaimed. The channel vertex is only written when its sessions change: the number
+ * and total size of the messages are kept by each session vertex, so that concurrent sessions of a channel do not
+ * write the same record with every message. Changes to the messages are accumulated while messages are saved or
+ * removed and must then be written to the session vertices with {@link #apply()}; all changes must be part of the
+ * transaction changing the sessions and messages.
+ *
+ */
+final class ChannelCatalog {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final OrientGraph graph;
+    private final Map<Object, Delta> deltas = new LinkedHashMap<>();
+
+    /**
+     * @param graph the Orient database instance
+     */
+    ChannelCatalog(OrientGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @param channel a channel URI
+     * @return the catalog vertex of the channel or null if the channel has no sessions
+     */
+    static Vertex entryOf(OrientGraph graph, URI channel) {
+        Iterator<Vertex> entries = graph.getVertices(OrientDbNamespace.CHANNEL_URI_VERTEX_KEY, channel.toString()).iterator();
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @return the URIs of all channels with sessions
+     */
+    static Set<URI> channels(OrientGraph graph) {
+        Set<URI> channels = new HashSet<>();
+        for (Vertex v : graph.getVerticesOfClass(OrientDbNamespace.CHANNEL_CLASS)) {
+            if (!sessionsOf(v).isEmpty()) {
+                channels.add(URI.create(v.getProperty(OrientDbNamespace.CHANNEL_URI_PROPERTY)));
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @param channel a channel URI
+     * @return the ID of the most recently created session of the channel that still exists or 0 if there is none
+     */
+    static long latestSessionOf(OrientGraph graph, URI channel) {
+        Vertex entry = entryOf(graph, channel);
+        return entry != null ? longOf(entry, OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY, 0) : 0;
+    }
+
+    /**
+     * Aggregate the statistics of the sessions of a channel, including the sessions marked as deleted that still hold
+     * messages; the time bounds are read from the first and last messages of each session
+     *
+     * @param graph the Orient database instance
+     * @param sessionStore the store of the session messages
+     * @param channel a channel URI
+     * @return the statistics of the channel or null if the channel has no sessions
+     */
+    static ChannelStatistics statisticsOf(OrientGraph graph, SessionStore sessionStore, URI channel) {
+        Vertex entry = entryOf(graph, channel);
+        if (entry == null || sessionsOf(entry).isEmpty()) {
+            return null;
+        }
+        long messages = 0;
+        long bytes = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        List<Long> sessionIds = new ArrayList<>(sessionsOf(entry));
+        sessionIds.addAll(reclaimingOf(entry));
+        for (Long sessionId : sessionIds) {
+            Iterator<Vertex> sessions = graph.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).iterator();
+            if (!sessions.hasNext()) {
+                continue;
+            }
+            Vertex session = sessions.next();
+            messages += longOf(session, OrientDbNamespace.SESSION_MESSAGES_KEY, 0);
+            bytes += longOf(session, OrientDbNamespace.SESSION_BYTES_KEY, 0);
+            SessionTimeSpan span = SessionTimeIndex.spanOf(session, sessionStore);
+            if (span != null) {
+                first = Math.min(first, span.getFirstTimestamp());
+                last = Math.max(last, span.getLastTimestamp());
+            }
+        }
+        return new ChannelStatistics(channel, longOf(entry, OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY, 0), new ArrayList<>(sessionsOf(entry)),
+                messages, bytes, first <= last ? first : -1, first <= last ? last : -1);
+    }
+
+    /**
+     * Add a new session to the catalog; it becomes the latest session of its channel
+     *
+     * @param graph the Orient database instance
+     * @param session a new session vertex
+     */
+    static void sessionCreated(OrientGraph graph, Vertex session) {
+        URI channel = channelOf(session);
+        Vertex entry = entryOf(graph, channel);
+        if (entry == null) {
+            entry = graph.addVertex(OrientDbNamespace.CHANNEL_VERTEX_CLASS_NAME, OrientDbNamespace.CHANNEL_URI_PROPERTY, channel.toString());
+            LOGGER.debug("Added channel {} to the catalog", channel);
+        }
+        long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        List<Long> sessions = new ArrayList<>(sessionsOf(entry));
+        sessions.add(sessionId);
+        entry.setProperty(OrientDbNamespace.CHANNEL_SESSIONS_PROPERTY, sessions);
+        entry.setProperty(OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY, sessionId);
+    }
+
+    /**
+     * Remove a session from the catalog; if it was the latest session of its channel, the most recently created
+     * remaining session becomes the latest one, and a channel without sessions is removed from the catalog.
+     *
+     * @param graph the Orient database instance
+     * @param session the session vertex about to be removed
+     */
+    static void sessionDeleted(OrientGraph graph, Vertex session) {
+        Vertex entry = entryOf(graph, channelOf(session));
+        if (entry == null) {
+            return;
+        }
+        Long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        List<Long> sessions = new ArrayList<>(sessionsOf(entry));
+        List<Long> reclaiming = new ArrayList<>(reclaimingOf(entry));
+        sessions.remove(sessionId);
+        reclaiming.remove(sessionId);
+        if (sessions.isEmpty() && reclaiming.isEmpty()) {
+            LOGGER.debug("Removing channel {} from the catalog", (Object) entry.getProperty(OrientDbNamespace.CHANNEL_URI_PROPERTY));
+            graph.removeVertex(entry);
+            return;
+        }
+        entry.setProperty(OrientDbNamespace.CHANNEL_SESSIONS_PROPERTY, sessions);
+        entry.setProperty(OrientDbNamespace.CHANNEL_RECLAIMING_PROPERTY, reclaiming);
+        updateLatest(entry, sessionId, sessions);
+    }
+
+    /**
+     * Remove a session marked as deleted from the sessions of its channel; its remaining messages are still counted
+     * until they are removed and the session is then removed with {@link #sessionDeleted(OrientGraph, Vertex)}
+     *
+     * @param graph the Orient database instance
+     * @param session the session vertex marked as deleted
+     */
+    static void sessionTombstoned(OrientGraph graph, Vertex session) {
+        Vertex entry = entryOf(graph, channelOf(session));
+        if (entry == null) {
+            return;
+        }
+        Long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        List<Long> sessions = new ArrayList<>(sessionsOf(entry));
+        List<Long> reclaiming = new ArrayList<>(reclaimingOf(entry));
+        sessions.remove(sessionId);
+        reclaiming.add(sessionId);
+        entry.setProperty(OrientDbNamespace.CHANNEL_SESSIONS_PROPERTY, sessions);
+        entry.setProperty(OrientDbNamespace.CHANNEL_RECLAIMING_PROPERTY, reclaiming);
+        updateLatest(entry, sessionId, sessions);
+    }
+
+    private static void updateLatest(Vertex entry, Long removedSessionId, List<Long> sessions) {
+        if (!removedSessionId.equals(entry.getProperty(OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY))) {
+            return;
+        }
+        if (sessions.isEmpty()) {
+            entry.removeProperty(OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY);
+        } else {
+            entry.setProperty(OrientDbNamespace.CHANNEL_LATEST_SESSION_PROPERTY, sessions.get(sessions.size() - 1));
+        }
+    }
+
+    /**
+     * Rebuild the catalog from the sessions and messages; this visits every session and message and should only be
+     * necessary once, when the catalog is added to an existing database
+     *
+     * @param graph the Orient database instance
+     */
+    static void rebuild(OrientGraph graph) {
+        graph.getVerticesOfClass(OrientDbNamespace.CHANNEL_CLASS).forEach(graph::removeVertex);
+        // previously the latest session of a channel was any session that was not renamed, so add those last
+        List<Vertex> renamed = new ArrayList<>();
+        List<Vertex> latest = new ArrayList<>();
+        for (Vertex session : graph.getVerticesOfClass(OrientDbNamespace.SESSION_CLASS)) {
+            (session.getEdges(Direction.IN, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext() ? renamed : latest).add(session);
+        }
+        renamed.forEach(s -> sessionCreated(graph, s));
+        latest.forEach(s -> sessionCreated(graph, s));
+        latest.stream().filter(s -> Boolean.TRUE.equals(s.getProperty(OrientDbNamespace.SESSION_TOMBSTONE_KEY)))
+                .forEach(s -> sessionTombstoned(graph, s));
+
+        ChannelCatalog catalog = new ChannelCatalog(graph);
+        long sessions = 0;
+        for (Vertex session : graph.getVerticesOfClass(OrientDbNamespace.SESSION_CLASS)) {
+            session.removeProperty(OrientDbNamespace.SESSION_MESSAGES_KEY);
+            session.removeProperty(OrientDbNamespace.SESSION_BYTES_KEY);
+            OrientDbNamespace.checkpoint(graph, ++sessions);
+        }
+        long messages = 0;
+        for (Vertex message : graph.getVerticesOfClass(OrientDbNamespace.MESSAGE_CLASS)) {
+            sessionsOf(graph, message).forEach(s -> catalog.saved(s, message));
+            OrientDbNamespace.checkpoint(graph, ++messages, catalog::apply);
+        }
+        catalog.apply();
+        LOGGER.info("Rebuilt channel catalog from {} session(s) and {} message(s)", renamed.size() + latest.size(), messages);
+    }
+
+    /**
+     * Record that a message was saved to a session
+     *
+     * @param session a session vertex
+     * @param message the saved message vertex
+     */
+    void saved(Vertex session, Vertex message) {
+        Delta delta = deltaOf(session);
+        delta.messages++;
+        delta.bytes += sizeOf(message);
+    }
+
+    /**
+     * Record that a message of a session is about to be removed
+     *
+     * @param session a session vertex
+     * @param message the message vertex about to be removed
+     */
+    void removing(Vertex session, Vertex message) {
+        Delta delta = deltaOf(session);
+        delta.messages--;
+        delta.bytes -= sizeOf(message);
+    }
+
+    /**
+     * Record that a message is about to be removed without knowing its session (e.g. when removed by a query); the
+     * sessions are found from the message, so this must be called before the message vertex is removed
+     *
+     * @param message the message vertex about to be removed
+     */
+    void removing(Vertex message) {
+        sessionsOf(graph, message).forEach(s -> removing(s, message));
+    }
+
+    /**
+     * Write the accumulated changes to the session vertices
+     */
+    void apply() {
+        for (Delta delta : deltas.values()) {
+            Vertex session = delta.session;
+            if (delta.messages != 0 || delta.bytes != 0) {
+                session.setProperty(OrientDbNamespace.SESSION_MESSAGES_KEY, Math.max(0, longOf(session, OrientDbNamespace.SESSION_MESSAGES_KEY, 0) + delta.messages));
+                session.setProperty(OrientDbNamespace.SESSION_BYTES_KEY, Math.max(0, longOf(session, OrientDbNamespace.SESSION_BYTES_KEY, 0) + delta.bytes));
+            }
+        }
+        deltas.clear();
+    }
+
+    private Delta deltaOf(Vertex session) {
+        return deltas.computeIfAbsent(session.getId(), id -> new Delta(session));
+    }
+
+    /**
+     * @return the sessions of a message in either {@link SessionLayout}
+     */
+    static List<Vertex> sessionsOf(OrientGraph graph, Vertex message) {
+        Long sessionId = message.getProperty(OrientDbNamespace.MESSAGE_SESSION_PROPERTY);
+        if (sessionId != null) {
+            Iterator<Vertex> sessions = graph.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).iterator();
+            return sessions.hasNext() ? Collections.singletonList(sessions.next()) : Collections.emptyList();
+        }
+        List<Vertex> sessions = new ArrayList<>();
+        for (Edge e : message.getEdges(Direction.IN, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP)) {
+            sessions.add(e.getVertex(Direction.OUT));
+        }
+        return sessions;
+    }
+
+    private static List<Long> sessionsOf(Vertex entry) {
+        List<Long> sessions = entry.getProperty(OrientDbNamespace.CHANNEL_SESSIONS_PROPERTY);
+        return sessions != null ? sessions : Collections.emptyList();
+    }
+
+    private static List<Long> reclaimingOf(Vertex entry) {
+        List<Long> sessions = entry.getProperty(OrientDbNamespace.CHANNEL_RECLAIMING_PROPERTY);
+        return sessions != null ? sessions : Collections.emptyList();
+    }
+
+    private static URI channelOf(Vertex session) {
+        return URI.create(String.valueOf((Object) session.getProperty(OrientDbNamespace.SESSION_CHANNEL_KEY)));
+    }
+
+    private static long sizeOf(Vertex message) {
+        byte[] content = message.getProperty(OrientDbNamespace.MESSAGE_CONTENT_PROPERTY);
+        return content != null ? content.length : 0;
+    }
+
+    private static long longOf(Vertex vertex, String property, long defaultValue) {
+        Number value = vertex.getProperty(property);
+        return value != null ? value.longValue() : defaultValue;
+    }
+
+    private static class Delta {
+        private final Vertex session;
+        private long messages;
+        private long bytes;
+
+        Delta(Vertex session) {
+            this.session = session;
+        }
+    }
+}
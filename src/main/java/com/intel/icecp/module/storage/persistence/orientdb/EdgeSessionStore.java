@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import com.tinkerpop.blueprints.impls.orient.OrientVertex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Store session membership as edges from each session vertex to its messages, see {@link SessionLayout#EDGE}
+ *
+ */
+final class EdgeSessionStore implements SessionStore {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String BETWEEN_OSQL = "SELECT FROM " + OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP + " WHERE out = ? AND " +
+            OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID + " BETWEEN ? AND ? ORDER BY " + OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID + " ASC";
+
+    @Override
+    public void add(Vertex session, Vertex message, int index) {
+        Edge e = session.addEdge(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP, message);
+        e.setProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_INDEX, index);
+        e.setProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID, message.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY));
+    }
+
+    @Override
+    public Stream<Vertex> messagesOf(Vertex session, int fromIndex) {
+        return messagesOf(session, fromIndex, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Stream<Vertex> messagesOf(Vertex session, int fromIndex, int toIndex) {
+        return StreamSupport.stream(session.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).spliterator(), false)
+                .filter(e -> isWithin(e, fromIndex, toIndex))
+                .map(e -> e.getVertex(Direction.IN)).filter(x -> x != null);
+    }
+
+    private static boolean isWithin(Edge edge, int fromIndex, int toIndex) {
+        if (fromIndex <= 0 && toIndex == Integer.MAX_VALUE) {
+            return true;
+        }
+        int index = edge.getProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_INDEX);
+        return index >= fromIndex && index < toIndex;
+    }
+
+    @Override
+    public Stream<Vertex> messagesBetween(Vertex session, long fromId, long toId) {
+        OrientVertex sessionVertex = (OrientVertex) session;
+        // the composite (session, message ID) index of the edges bounds the lookup to the messages of the session
+        Iterable<Edge> edges = sessionVertex.getGraph().command(new OCommandSQL(BETWEEN_OSQL)).execute(sessionVertex.getIdentity(), fromId, toId);
+        return StreamSupport.stream(edges.spliterator(), false).map(e -> e.getVertex(Direction.IN)).filter(x -> x != null);
+    }
+
+    /**
+     * Copy the message IDs to the existing session edges; this visits every session edge and should only be necessary
+     * once, when the index of the edges is added to an existing database
+     *
+     * @param graph the Orient database instance
+     */
+    static void rebuild(OrientGraph graph) {
+        long edges = 0;
+        for (Edge e : graph.getEdgesOfClass(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP)) {
+            Vertex message = e.getVertex(Direction.IN);
+            if (message != null) {
+                e.setProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID, message.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY));
+                OrientDbNamespace.checkpoint(graph, ++edges);
+            }
+        }
+        LOGGER.info("Indexed {} session edge(s) by message ID", edges);
+    }
+
+    @Override
+    public long count(Vertex session) {
+        return ((OrientVertex) session).countEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP);
+    }
+
+    @Override
+    public int lastIndex(Vertex session) {
+        return StreamSupport.stream(session.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).spliterator(), false)
+                .mapToInt(e -> e.getProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_INDEX))
+                .max().orElse(-1);
+    }
+
+    @Override
+    public boolean remove(Vertex session, Vertex message) {
+        List<Edge> edges = StreamSupport.stream(((OrientVertex) session).getEdges((OrientVertex) message, Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).spliterator(), false)
+                .collect(Collectors.toList());
+        edges.forEach(Edge::remove);
+        // a message may be collected by several sessions
+        return !message.getEdges(Direction.IN, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).iterator().hasNext();
+    }
+}
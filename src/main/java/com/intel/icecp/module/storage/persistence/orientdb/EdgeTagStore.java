@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientVertex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Store tags as edges from each message vertex to its tag vertices, see {@link TagLayout#EDGE}
+ *
+ */
+final class EdgeTagStore implements TagStore {
+    private static final String TAG_OSQL = "(SELECT expand(in()) FROM " + OrientDbNamespace.TAG_CLASS + " WHERE " + OrientDbNamespace.TAG_NAME_PROPERTY + " = ?)"; // TODO limit this to only vertices of the Message class?
+    private static final String ACTIVE_MESSAGES_ON_CHANNEL_OSQL = "(SELECT expand(intersect((SELECT expand(in()) FROM " + OrientDbNamespace.TAG_CLASS + " WHERE name = ?), " +
+            "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE ? NOT IN out(?).name))))";
+
+    @Override
+    public OsqlAnd.QueryPair toQuery(String tag) {
+        return new OsqlAnd.QueryPair(TAG_OSQL, tag);
+    }
+
+    @Override
+    public OsqlAnd.QueryPair toActiveQuery(String channel) {
+        return new OsqlAnd.QueryPair(ACTIVE_MESSAGES_ON_CHANNEL_OSQL, channel, OrientDbNamespace.INACTIVE_TAG, OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP);
+    }
+
+    @Override
+    public List<Vertex> tagsOf(Vertex message) {
+        List<Vertex> tags = new ArrayList<>();
+        message.getVertices(Direction.OUT, OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP).forEach(tags::add);
+        return tags;
+    }
+
+    @Override
+    public boolean hasTag(Vertex message, String tag) {
+        return StreamSupport.stream(message.getVertices(Direction.OUT, OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP).spliterator(), false)
+                .anyMatch(v -> tag.equals(v.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY)));
+    }
+
+    @Override
+    public void add(Vertex message, Vertex tag) {
+        // see documentation at http://orientdb.com/docs/2.1/SQL-Create-Edge.html
+        message.addEdge(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP, tag);
+    }
+
+    @Override
+    public boolean remove(Vertex message, Vertex tag) {
+        // use graph API for retrieving edges to the tag
+        List<Edge> edges = StreamSupport.stream(((OrientVertex) message).getEdges((OrientVertex) tag, Direction.OUT).spliterator(), false)
+                .collect(Collectors.toList());
+        // see documentation at http://orientdb.com/docs/2.1/SQL-Delete-Edge.html
+        edges.forEach(Edge::remove);
+        return !edges.isEmpty();
+    }
+
+    @Override
+    public boolean isUsed(Vertex tag) {
+        return tag.getEdges(Direction.IN).iterator().hasNext();
+    }
+}
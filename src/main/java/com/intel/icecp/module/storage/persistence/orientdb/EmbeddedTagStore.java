@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Store tags as an embedded set of tag names on each message vertex, see {@link TagLayout#EMBEDDED}; the set is
+ * indexed by {@link OrientDbNamespace#MESSAGE_TAGS_INDEX} so that selecting the messages of a tag does not need to
+ * visit a tag vertex with a very large number of edges.
+ * <p>
+ * While the edges of an existing database are migrated (see {@link #migrate(int)}), messages may still be tagged with
+ * edges: queries select from both layouts and a message is migrated before its tags are changed, so that the tags of a
+ * message are never split between the layouts.
+ *
+ */
+final class EmbeddedTagStore implements TagStore {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String TAG_OSQL = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_TAGS_PROPERTY + " CONTAINS ?)";
+    private static final String ACTIVE_MESSAGES_ON_CHANNEL_OSQL = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " +
+            OrientDbNamespace.MESSAGE_TAGS_PROPERTY + " CONTAINS ? AND ? NOT IN " + OrientDbNamespace.MESSAGE_TAGS_PROPERTY + ")";
+    private static final String TAGS_BY_NAME_OSQL = "SELECT FROM " + OrientDbNamespace.TAG_CLASS + " WHERE " + OrientDbNamespace.TAG_NAME_PROPERTY + " IN ?";
+    private static final String TAG_EDGES_AFTER_OSQL = "SELECT FROM `" + OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP + "` WHERE @rid > ? ORDER BY @rid ASC LIMIT ";
+    private static final ORID FIRST_EDGE = new ORecordId(); // before any record
+    private final Supplier<OrientGraph> graphs;
+    private final EdgeTagStore edges = new EdgeTagStore();
+    private volatile boolean migrating;
+    private ORID migratedEdge = FIRST_EDGE; // the last tag edge visited by the migration
+
+    /**
+     * @param graphs supplies the Orient database instance of the current thread
+     * @param migrating true if messages may still be tagged with edges
+     */
+    EmbeddedTagStore(Supplier<OrientGraph> graphs, boolean migrating) {
+        this.graphs = graphs;
+        this.migrating = migrating;
+    }
+
+    /**
+     * @return true if messages may still be tagged with edges
+     */
+    boolean isMigrating() {
+        return migrating;
+    }
+
+    @Override
+    public OsqlAnd.QueryPair toQuery(String tag) {
+        OsqlAnd.QueryPair embedded = new OsqlAnd.QueryPair(TAG_OSQL, tag);
+        return migrating ? union(edges.toQuery(tag), embedded) : embedded;
+    }
+
+    @Override
+    public OsqlAnd.QueryPair toActiveQuery(String channel) {
+        OsqlAnd.QueryPair embedded = new OsqlAnd.QueryPair(ACTIVE_MESSAGES_ON_CHANNEL_OSQL, channel, OrientDbNamespace.INACTIVE_TAG);
+        return migrating ? union(edges.toActiveQuery(channel), embedded) : embedded;
+    }
+
+    private static OsqlAnd.QueryPair union(OsqlAnd.QueryPair a, OsqlAnd.QueryPair b) {
+        // a message is tagged in only one of the layouts so the union has no duplicates; see documentation at
+        // http://orientdb.com/docs/2.1/SQL-Functions.html#unionall
+        return new OsqlAnd.QueryPair("(SELECT expand(unionall(" + a.osql + ", " + b.osql + ")))", OsqlAnd.concatenate(a, b));
+    }
+
+    @Override
+    public List<Vertex> tagsOf(Vertex message) {
+        List<Vertex> tags = migrating ? edges.tagsOf(message) : new ArrayList<>();
+        Set<String> names = namesOf(message);
+        if (!names.isEmpty()) {
+            // one lookup of the name index for all tags of the message
+            Iterable<Vertex> vertices = graphs.get().command(new OCommandSQL(TAGS_BY_NAME_OSQL)).execute(new ArrayList<>(names));
+            vertices.forEach(tags::add);
+        }
+        return tags;
+    }
+
+    @Override
+    public boolean hasTag(Vertex message, String tag) {
+        return namesOf(message).contains(tag) || (migrating && edges.hasTag(message, tag));
+    }
+
+    @Override
+    public void add(Vertex message, Vertex tag) {
+        Set<String> names = migrating ? migrateMessage(message) : new LinkedHashSet<>(namesOf(message));
+        names.add(tag.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY));
+        message.setProperty(OrientDbNamespace.MESSAGE_TAGS_PROPERTY, names);
+    }
+
+    @Override
+    public boolean remove(Vertex message, Vertex tag) {
+        Set<String> names = migrating ? migrateMessage(message) : new LinkedHashSet<>(namesOf(message));
+        if (names.remove(tag.<String>getProperty(OrientDbNamespace.TAG_NAME_PROPERTY))) {
+            message.setProperty(OrientDbNamespace.MESSAGE_TAGS_PROPERTY, names);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isUsed(Vertex tag) {
+        // the co-occurrence count of a tag with itself is its number of messages, in both layouts
+        String name = tag.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY);
+        return TagCooccurrence.count(graphs.get(), name, name) > 0;
+    }
+
+    /**
+     * Migrate the next chunk of messages tagged with edges to the embedded property; this should be called repeatedly,
+     * each time in its own transaction and from the same thread, until it returns 0, at which point the migration is
+     * complete. The tag edges are paged by record ID from the last edge visited, so that each chunk does not scan
+     * again the edges already migrated; once the pages are exhausted, the edges are scanned once more from the start
+     * in case a chunk was rolled back.
+     *
+     * @param chunkSize the maximum number of messages to migrate
+     * @return the number of migrated messages
+     */
+    int migrate(int chunkSize) {
+        if (!migrating) {
+            return 0;
+        }
+
+        Set<Vertex> messages = nextTaggedMessages(chunkSize);
+        if (messages.isEmpty() && !FIRST_EDGE.equals(migratedEdge)) {
+            migratedEdge = FIRST_EDGE;
+            messages = nextTaggedMessages(chunkSize);
+        }
+        messages.forEach(this::migrateMessage);
+
+        if (messages.isEmpty()) {
+            migrating = false;
+            LOGGER.info("Completed migration of tags to the {} layout", TagLayout.EMBEDDED);
+        }
+        return messages.size();
+    }
+
+    private Set<Vertex> nextTaggedMessages(int chunkSize) {
+        Set<Vertex> messages = new LinkedHashSet<>();
+        boolean exhausted = false;
+        while (messages.size() < chunkSize && !exhausted) {
+            exhausted = true;
+            Iterable<Edge> page = graphs.get().command(new OCommandSQL(TAG_EDGES_AFTER_OSQL + chunkSize)).execute(migratedEdge);
+            for (Edge edge : page) {
+                exhausted = false;
+                Vertex message = edge.getVertex(Direction.OUT);
+                if (messages.size() >= chunkSize && !messages.contains(message)) {
+                    break;
+                }
+                messages.add(message);
+                migratedEdge = (ORID) edge.getId();
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Move the tags of a message from edges to the embedded property
+     *
+     * @param message a message vertex
+     * @return a modifiable copy of the tag names of the message
+     */
+    private Set<String> migrateMessage(Vertex message) {
+        Set<String> names = new LinkedHashSet<>(namesOf(message));
+        List<Edge> tagged = new ArrayList<>();
+        message.getEdges(Direction.OUT, OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP).forEach(tagged::add);
+        if (!tagged.isEmpty()) {
+            tagged.forEach(e -> {
+                names.add(e.getVertex(Direction.IN).getProperty(OrientDbNamespace.TAG_NAME_PROPERTY));
+                e.remove();
+            });
+            message.setProperty(OrientDbNamespace.MESSAGE_TAGS_PROPERTY, new LinkedHashSet<>(names));
+        }
+        return names;
+    }
+
+    private static Set<String> namesOf(Vertex message) {
+        Set<String> names = message.getProperty(OrientDbNamespace.MESSAGE_TAGS_PROPERTY);
+        return names != null ? names : Collections.emptySet();
+    }
+}
@@ -44,20 +44,33 @@ public final class GraphDbUtils {
      * @see OrientDbConfiguration
      */
     public static OrientGraph getGraphDbInstance(OrientDbConfiguration configuration) {
+        OrientGraphFactory factory = getGraphFactory(configuration);
+        // create an instance using default
+        return factory != null ? factory.getTx() : null;
+    }
+
+    /**
+     * Get a pooled factory of OrientDB graph database instances based on the
+     * configuration, {@link OrientDbConfiguration} <code> configuration</code>;
+     * see {@link OrientGraphPool} for binding the instances to threads.
+     *
+     * @param configuration the OrientDB configuration
+     * @return a pooled factory of OrientDB graph database instances
+     * @see OrientDbConfiguration
+     */
+    public static OrientGraphFactory getGraphFactory(OrientDbConfiguration configuration) {
         if (configuration == null) {
             LOGGER.error("Configuration is null!");
             return null;
         }
 
         String dbUrl = getDbURL(configuration);
-        OrientGraph graphDb = null;
+        OrientGraphFactory factory = null;
         if (dbUrl != null) {
             // setup database connection pooling:
-            OrientGraphFactory factory = new OrientGraphFactory(dbUrl).setupPool(MIN_POOL_SIZE, MAX_POOL_SIZE);
-            // create an instance using default
-            graphDb = factory.getTx();
+            factory = new OrientGraphFactory(dbUrl).setupPool(MIN_POOL_SIZE, MAX_POOL_SIZE);
         }
-        return graphDb;
+        return factory;
     }
 
     /**
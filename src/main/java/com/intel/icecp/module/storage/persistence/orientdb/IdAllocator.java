@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Allocate unique message IDs from blocks of the {@link OrientDbNamespace#ID_SEQUENCE} sequence: the sequence is
+ * incremented by {@link #BLOCK_SIZE} (see {@link OrientDbNamespace#setupSchemata(OrientGraph)}), so each call to the
+ * sequence reserves a block of IDs that is then handed out from memory without locking. The unused IDs of a block are
+ * skipped when the process stops.
+ * <p>
+ * Blocks are reserved outside of any current transaction so that a rolled back transaction never returns a block that
+ * is still being handed out.
+ *
+ */
+final class IdAllocator {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final int BLOCK_SIZE = 1000;
+    private final Supplier<OrientGraph> graphs;
+    private final AtomicLong next = new AtomicLong();
+    private volatile long limit;
+
+    /**
+     * @param graphs supplies the Orient database instance of the current thread
+     */
+    IdAllocator(Supplier<OrientGraph> graphs) {
+        this.graphs = graphs;
+    }
+
+    /**
+     * @return the next unique message ID
+     */
+    long next() {
+        while (true) {
+            long id = next.get();
+            if (id < limit) {
+                if (next.compareAndSet(id, id + 1)) {
+                    return id;
+                }
+            } else {
+                reserve();
+            }
+        }
+    }
+
+    private synchronized void reserve() {
+        if (next.get() < limit) {
+            return; // another thread reserved a block already
+        }
+
+        long last = graphs.get().executeOutsideTx(g -> g.getRawGraph().getMetadata().getSequenceLibrary().getSequence(OrientDbNamespace.ID_SEQUENCE).next());
+        // set the start before the limit: until the limit is raised, other threads see an exhausted block and wait here
+        next.set(last - BLOCK_SIZE + 1);
+        limit = last + 1;
+        LOGGER.debug("Reserved message IDs {} to {}", last - BLOCK_SIZE + 1, last);
+    }
+}
@@ -19,10 +19,13 @@ package com.intel.icecp.module.storage.persistence.orientdb;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.InconsistentStateException;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.ChannelStatistics;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
 import com.intel.icecp.module.storage.persistence.providers.LegacyStorageProvider;
 import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
-import com.orientechnologies.orient.core.metadata.sequence.OSequence;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
@@ -40,6 +43,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -58,17 +62,51 @@ import java.util.stream.StreamSupport;
  */
 class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String TOMBSTONES_OSQL = "SELECT FROM " + OrientDbNamespace.SESSION_CLASS + " WHERE " + OrientDbNamespace.SESSION_TOMBSTONE_KEY + " = true";
 
     private final SecureRandom sessionIdGenerator;
-    OrientGraph graphDbInstance;
+    private final TagStore tagStore;
+    private final SessionStore sessionStore;
+    private final SessionSequences sessionSequences;
+    private final IdAllocator ids;
+    private final Supplier<OrientGraph> graphs;
 
     LegacyOrientDbStorageProvider() {
         this(GraphDbUtils.getGraphDbInstance(new OrientDbConfiguration()));
     }
 
     LegacyOrientDbStorageProvider(OrientGraph graphDbInstance) {
+        this(graphDbInstance, new EdgeTagStore());
+    }
+
+    LegacyOrientDbStorageProvider(OrientGraph graphDbInstance, TagStore tagStore) {
+        this(graphDbInstance, tagStore, new EdgeSessionStore());
+    }
+
+    LegacyOrientDbStorageProvider(OrientGraph graphDbInstance, TagStore tagStore, SessionStore sessionStore) {
+        this(() -> graphDbInstance, tagStore, sessionStore, new IdAllocator(() -> graphDbInstance));
+    }
+
+    /**
+     * @param graphs supplies the Orient database instance of the current thread, see {@link OrientGraphPool}
+     * @param tagStore the store of the message tags
+     * @param sessionStore the store of the session messages
+     * @param ids the allocator of the message IDs
+     */
+    LegacyOrientDbStorageProvider(Supplier<OrientGraph> graphs, TagStore tagStore, SessionStore sessionStore, IdAllocator ids) {
         sessionIdGenerator = new SecureRandom();
-        this.graphDbInstance = graphDbInstance;
+        this.graphs = graphs;
+        this.tagStore = tagStore;
+        this.sessionStore = sessionStore;
+        this.sessionSequences = new SessionSequences(sessionStore);
+        this.ids = ids;
+    }
+
+    /**
+     * @return the Orient database instance of the current thread
+     */
+    OrientGraph graphDbInstance() {
+        return graphs.get();
     }
 
     private static int retrieveMaxBufferSizeInSec(Vertex sessionVertex) {
@@ -79,56 +117,32 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
     }
 
 
-    // Query a set of Session Id Collection based on the vertex.
-    private void getLinkedSessionIds(Vertex v, List<Long> sessionIdList, Set<Collection<Long>> sessionIdSet, boolean onlyWithActiveMessage) {
-        if (!v.getEdges(Direction.BOTH, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext()) {
-            LOGGER.debug("The first session vertex in this collection: " + v);
-            checkToAddSessionId(v, sessionIdList, onlyWithActiveMessage);
-
-            sessionIdSet.add(sessionIdList);
-        } else {
-            v.getEdges(Direction.OUT, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).forEach(e -> {
-                Vertex fromSessionVertex = e.getVertex(Direction.OUT);
-                Vertex toSessionVertex = e.getVertex(Direction.IN);
-                // TODO: refactor this into different functions
-                if (isRootVertexInSessionLink(fromSessionVertex)) {
-                    // always add the very first session in the linked list
-                    sessionIdList.add(fromSessionVertex.getProperty(OrientDbNamespace.SESSION_ID_KEY));
-                }
-                if (toSessionVertex != null) {
-                    LOGGER.debug("The current sessionVertex is " + v + " and the next session vertex in this collection: " + toSessionVertex);
-                    // the latest is at the beginning of the list
-                    checkToAddSessionId(toSessionVertex, sessionIdList, onlyWithActiveMessage);
-                    // check if this nextSessionVertex is the last in the linked list
-                    if (isLeafVertexInSessionLink(toSessionVertex))
-                        sessionIdSet.add(new LinkedList<>(sessionIdList));
-                    else
-                        getLinkedSessionIds(toSessionVertex, sessionIdList, sessionIdSet, onlyWithActiveMessage);
-                } else {
-                    LOGGER.debug("the current vertex is leaf vertex: " + v + " and the session linked list is " + sessionIdList);
-                    sessionIdSet.add(new LinkedList<>(sessionIdList));
-                }
-
-            });
+    /**
+     * List a chain of linked sessions from the session chain index, see {@link SessionChains}; as before, the newest
+     * session of a renamed chain is always listed since it is the one recording messages
+     */
+    private Collection<Long> getLinkedSessionIds(Vertex sessionVertex, boolean onlyWithActiveMessage) {
+        List<Long> members = SessionChains.membersOf(graphDbInstance(), sessionVertex);
+        LinkedList<Long> sessionIdList = new LinkedList<>();
+        for (int i = 0; i < members.size(); i++) {
+            long sessionId = members.get(i);
+            if (!onlyWithActiveMessage || (i == 0 && members.size() > 1) || hasActiveMessages(sessionId)) {
+                sessionIdList.add(sessionId);
+            }
         }
+        return sessionIdList;
     }
 
-    private void checkToAddSessionId(Vertex v, List<Long> sessionIdList, boolean onlyWithActiveMessage) {
-        long sessionId = v.getProperty(OrientDbNamespace.SESSION_ID_KEY);
-        if(!onlyWithActiveMessage || getSessionSize(sessionId) > 0) {
-            sessionIdList.add(sessionId);
+    private boolean hasActiveMessages(long sessionId) {
+        OrientVertex sessionVertex = getSessionVertexById(sessionId);
+        if (sessionVertex == null) {
+            return false;
         }
-    }
-
-    private static boolean isMidVertexInSessionLink(Vertex sessionVertex) {
-        return sessionVertex != null
-                && sessionVertex.getEdges(Direction.IN, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext()
-                && sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext();
-    }
-
-    private static boolean isLeafVertexInSessionLink(Vertex sessionVertex) {
-        return sessionVertex != null
-                && !sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext();
+        final long cutoffTimestamp = getCutoffTimestamp(retrieveMaxBufferSizeInSec(sessionVertex));
+        // stop at the first active message instead of reading all of them
+        return sessionStore.messagesOf(sessionVertex, 0)
+                .filter(v -> !tagStore.hasTag(v, OrientDbNamespace.INACTIVE_TAG))
+                .anyMatch(v -> (long) v.getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY) >= cutoffTimestamp);
     }
 
     private static boolean isRootVertexInSessionLink(Vertex sessionVertex) {
@@ -153,61 +167,49 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
         return System.currentTimeMillis() - bufferSize * 1000L;
     }
 
-    private static void getMessagesFromSession(Vertex session, List<PersistentMessage> msgList) {
-        msgList.addAll(StreamSupport.stream(session.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).spliterator(), false)
-                .map(e -> e.getVertex(Direction.IN)).filter(x -> x != null)
-                .map(PersistentMessageHelper::fromVertex).collect(Collectors.toList()));
-    }
-
-    private static void getFilteredMessagesFromSession(Vertex sessionVertex, List<PersistentMessage> msgList) {
+    /**
+     * Read the active messages of a session saved before the read started: messages saved to the session while it is
+     * read have an index of at least the next index peeked here and are not returned, so a reader sees a stable view of
+     * the session without holding up writers
+     */
+    private void getFilteredMessagesFromSession(Vertex sessionVertex, List<PersistentMessage> msgList) {
+        final int snapshot = sessionSequences.peek(sessionVertex);
         final int bufferSize = retrieveMaxBufferSizeInSec(sessionVertex);
         final long cutoffTimestamp = getCutoffTimestamp(bufferSize);
         msgList.addAll(
-                StreamSupport.stream(sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).spliterator(), false)
-                        .map(e -> e.getVertex(Direction.IN)).filter(x -> x != null)
-                        .filter(v -> !hasTag(v, OrientDbNamespace.INACTIVE_TAG))
+                sessionStore.messagesOf(sessionVertex, 0, snapshot)
+                        .filter(v -> !tagStore.hasTag(v, OrientDbNamespace.INACTIVE_TAG))
                         .map(PersistentMessageHelper::fromVertex)
                         // only collects it when the timestamp is newer
                         .filter(pm -> pm.getTimestamp() >= cutoffTimestamp).collect(Collectors.toList()));
     }
 
-    private static void getFilteredMessagesFromSession(Vertex sessionVertex, int limit, int offset,
+    private void getFilteredMessagesFromSession(Vertex sessionVertex, int limit, int offset, int snapshot,
                                                        List<PersistentMessage> msgList) {
         final int bufferSize = retrieveMaxBufferSizeInSec(sessionVertex);
         final long cutoffTimestamp = getCutoffTimestamp(bufferSize);
-        sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).forEach(e -> {
-            Vertex persistentMessageVertex = e.getVertex(Direction.IN);
-            if (persistentMessageVertex != null) {
-                int edgeIndex = e.getProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_INDEX);
-                if (edgeIndex >= offset && msgList.size() < limit && !hasTag(persistentMessageVertex, OrientDbNamespace.INACTIVE_TAG)) {
-                    PersistentMessage pm = PersistentMessageHelper
-                            .fromVertex(persistentMessageVertex);
-                    if (pm.getTimestamp() >= cutoffTimestamp) {
-                        // only collects it when the timestamp of message is
-                        // newer
-                        msgList.add(pm);
-                    }
+        Iterator<Vertex> messages = sessionStore.messagesOf(sessionVertex, offset, snapshot).iterator();
+        while (messages.hasNext() && msgList.size() < limit) {
+            Vertex persistentMessageVertex = messages.next();
+            if (!tagStore.hasTag(persistentMessageVertex, OrientDbNamespace.INACTIVE_TAG)) {
+                PersistentMessage pm = PersistentMessageHelper
+                        .fromVertex(persistentMessageVertex);
+                if (pm.getTimestamp() >= cutoffTimestamp) {
+                    // only collects it when the timestamp of message is
+                    // newer
+                    msgList.add(pm);
                 }
             }
-        });
-    }
-
-    private static boolean hasTag(Vertex vertex, String tag) {
-        return StreamSupport.stream(vertex.getVertices(Direction.OUT, OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP).spliterator(), false)
-                .anyMatch(v -> tag.equals(v.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY)));
-    }
-
-    private static Boolean isStartMessagePresent(long startMessageSeqNum, PersistentMessage message) {
-        return message.getId() == startMessageSeqNum;
+        }
     }
 
-    private static int getNumberOfConnectedMessages(long sessionId, OrientVertex sessionVertex) {
-        long totalEdges = sessionVertex.countEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP);
-        LOGGER.info("Total number of edges = " + totalEdges + " for sessionId " + sessionId);
-        return (int) totalEdges;
+    private int getNumberOfConnectedMessages(long sessionId, OrientVertex sessionVertex) {
+        long totalMessages = sessionStore.count(sessionVertex);
+        LOGGER.info("Total number of messages = " + totalMessages + " for sessionId " + sessionId);
+        return (int) totalMessages;
     }
 
-    private static int getNumberOfMessagesWithinBufferPeriod(Vertex sessionVertex) {
+    private int getNumberOfMessagesWithinBufferPeriod(Vertex sessionVertex) {
         List<PersistentMessage> msgList = new ArrayList<>();
         getFilteredMessagesFromSession(sessionVertex, msgList);
         return msgList.size();
@@ -215,49 +217,74 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
 
     /**
      * {@inheritDoc}
-     * Documentation on why activeOnCurrentThread call is being used:
-     * http://orientdb.com/docs/2.1/Java-Multi-Threading.html
+     * The transaction is a scope of the current thread, see {@link OrientTransaction}; write operations called before
+     * it is committed or rolled back join it.
      */
     @Override
     public void beginTransaction() {
-        graphDbInstance.getRawGraph().activateOnCurrentThread();
-        graphDbInstance.begin();
+        OrientTransaction.begin(graphDbInstance());
     }
 
     /**
      * {@inheritDoc}
-     * Documentation on why activeOnCurrentThread call is being used:
-     * http://orientdb.com/docs/2.1/Java-Multi-Threading.html
      */
     @Override
     public void commitTransaction() {
-        graphDbInstance.getRawGraph().activateOnCurrentThread();
-        graphDbInstance.commit();
+        OrientTransaction transaction = OrientTransaction.current(graphDbInstance());
+        if (transaction == null) {
+            // commit changes made outside of a scope, e.g. in an automatically started transaction
+            graphDbInstance().commit();
+            return;
+        }
+        try {
+            transaction.commit();
+        } finally {
+            transaction.close();
+        }
     }
 
     /**
      * {@inheritDoc}
-     * Documentation on why activeOnCurrentThread call is being used:
-     * http://orientdb.com/docs/2.1/Java-Multi-Threading.html
      */
     @Override
     public void rollbackTransaction() {
-        graphDbInstance.getRawGraph().activateOnCurrentThread();
-        graphDbInstance.rollback();
+        OrientTransaction transaction = OrientTransaction.current(graphDbInstance());
+        if (transaction == null) {
+            graphDbInstance().rollback();
+            return;
+        }
+        transaction.close();
     }
 
     /**
      * Retrieves a set of channel URIs stored in the OrientDb storage. There is
-     * no order preserved in this set.
+     * no order preserved in this set. The channels are read from the channel
+     * catalog, see {@link ChannelCatalog}.
      *
      * @return Set a set of channel URIs.
      */
     @Override
     public Set<URI> getChannels() {
-        Set<URI> channelSet = new HashSet<>();
-        graphDbInstance.getVerticesOfClass(OrientDbNamespace.SESSION_CLASS)
-                .forEach(v -> channelSet.add(v.getProperty(OrientDbNamespace.SESSION_CHANNEL_KEY)));
-        return channelSet;
+        return ChannelCatalog.channels(graphDbInstance());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChannelStatistics getChannelStatistics(URI channelName) {
+        return channelName != null ? ChannelCatalog.statisticsOf(graphDbInstance(), sessionStore, channelName) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SessionTimeSpan> getSessionsOverlapping(long fromTimestamp, long toTimestamp) throws StorageModuleException {
+        if (fromTimestamp > toTimestamp) {
+            throw new StorageModuleException(String.format("Invalid time window [%d, %d]: it ends before it starts", fromTimestamp, toTimestamp));
+        }
+        return SessionTimeIndex.overlapping(graphDbInstance(), sessionStore, fromTimestamp, toTimestamp);
     }
 
     /**
@@ -269,7 +296,7 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * @return long number identifier of a unique session.
      */
     @Override
-    public synchronized long createSession(URI channelName) throws StorageModuleException {
+    public long createSession(URI channelName) throws StorageModuleException {
         return createSession(channelName, StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC);
     }
 
@@ -283,94 +310,113 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * @return long number identifier of a unique session.
      */
     @Override
-    public synchronized long createSession(URI channelName, int maximumBufferingPeriodInSecond) throws StorageModuleException {
-        long sessionId = 0;
-
-        if (channelName != null && channelName.toString().length() > 0) {
-            long vertexMsgCnt = graphDbInstance.countVertices(OrientDbNamespace.SESSION_CLASS);
-            LOGGER.info("Total session class entries = {}", vertexMsgCnt);
+    public long createSession(URI channelName, int maximumBufferingPeriodInSecond) throws StorageModuleException {
+        return OrientTransaction.execute(graphs, () -> {
+            long sessionId = 0;
 
-            try {
-                // check generated sessionId that is NOT in the current database
-                do {
-                    sessionId = sessionIdGenerator.nextLong();
-                } while (getSessionVertexById(sessionId) != null ||
-                        (sessionId == 0));
-
-                // make sure the buffer size is positive
-                int bufferSize = maximumBufferingPeriodInSecond > 0 ? maximumBufferingPeriodInSecond
-                        : StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC;
-
-                // save new sessionId as session vertex
-                OrientVertex newSessionVertex = graphDbInstance.addVertex(OrientDbNamespace.SESSION_VERTEX_CLASS_NAME,
-                        OrientDbNamespace.SESSION_CHANNEL_KEY, channelName,
-                        OrientDbNamespace.SESSION_ID_KEY, sessionId,
-                        OrientDbNamespace.SESSION_NEXT_INDEX_KEY, 0,
-                        OrientDbNamespace.SESSION_MAX_BUFFER_PERIOD_IN_SEC_KEY, bufferSize);
-                LOGGER.debug("New session vertex added with VertexId: {}, maximumBufferingPeriodInSecond = {}",
-                        newSessionVertex.getId(), bufferSize);
-            } catch (Exception e) {
-                throw new StorageModuleException("Found exception while creating session with channelName" + channelName, e);
+            if (channelName != null && channelName.toString().length() > 0) {
+                try {
+                    sessionId = nextSessionId();
+
+                    // make sure the buffer size is positive
+                    int bufferSize = maximumBufferingPeriodInSecond > 0 ? maximumBufferingPeriodInSecond
+                            : StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC;
+
+                    // save new sessionId as session vertex
+                    OrientVertex newSessionVertex = graphDbInstance().addVertex(OrientDbNamespace.SESSION_VERTEX_CLASS_NAME,
+                            OrientDbNamespace.SESSION_CHANNEL_KEY, channelName,
+                            OrientDbNamespace.SESSION_ID_KEY, sessionId,
+                            OrientDbNamespace.SESSION_NEXT_INDEX_KEY, 0,
+                            OrientDbNamespace.SESSION_MAX_BUFFER_PERIOD_IN_SEC_KEY, bufferSize);
+                    ChannelCatalog.sessionCreated(graphDbInstance(), newSessionVertex);
+                    LOGGER.debug("New session vertex added with VertexId: {}, maximumBufferingPeriodInSecond = {}",
+                            newSessionVertex.getId(), bufferSize);
+                } catch (ORecordDuplicatedException e) {
+                    // the session ID is already used; the transaction is retried with a new ID
+                    throw e;
+                } catch (Exception e) {
+                    throw new StorageModuleException("Found exception while creating session with channelName" + channelName, e);
+                }
             }
-        }
+            return sessionId;
+        });
+    }
+
+    /**
+     * Draw a new session ID without reading the database; the unique session
+     * ID index rejects the (unlikely) reuse of an existing ID when the session
+     * is committed and the creation is then retried, see
+     * {@link OrientTransaction#isRetryable(Throwable)}. Callers creating
+     * sessions in a transaction of their own must therefore use a retried one,
+     * e.g. {@link StorageProviderFacade#runInTransaction}.
+     *
+     * @return a random non-zero session ID
+     */
+    private long nextSessionId() {
+        long sessionId;
+        do {
+            sessionId = drawSessionId();
+        } while (sessionId == 0);
         return sessionId;
     }
 
+    /**
+     * @return a random session ID
+     */
+    long drawSessionId() {
+        return sessionIdGenerator.nextLong();
+    }
+
     /**
      * Given a {@code channelName} URI, this method returns the most recent
-     * session Id.
+     * session Id, as recorded in the channel catalog.
      *
      * @param channelName the URI of a channel.
      * @return long number identifier of a unique session.
      */
     @Override
-    public synchronized long getLatestActiveSession(URI channelName) throws StorageModuleException {
-        Iterable<Vertex> existingSessions =  graphDbInstance.getVertices(OrientDbNamespace.SESSION_CHANNEL_KEY, channelName);
-        if (existingSessions.iterator().hasNext()) {
-            for (Vertex session: existingSessions) {
-                if(isRootVertexInSessionLink(session)) {
-                    return (long) session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
-                }
-            }
-        }
-        return 0;
+    public long getLatestActiveSession(URI channelName) throws StorageModuleException {
+        return channelName != null ? ChannelCatalog.latestSessionOf(graphDbInstance(), channelName) : 0;
     }
 
     @Override
-    public synchronized long renameSession(URI newChannelName, long sessionId) throws StorageModuleException {
-        OrientVertex oldSessionVertex = getSessionVertexById(sessionId);
-        if (oldSessionVertex == null) {
-            throw new StorageModuleException(
-                    String.format("The old session vertex is missing for sessionId: %d!", sessionId));
-        }
+    public long renameSession(URI newChannelName, long sessionId) throws StorageModuleException {
+        return OrientTransaction.execute(graphs, () -> {
+            OrientVertex oldSessionVertex = getSessionVertexById(sessionId);
+            if (oldSessionVertex == null) {
+                throw new StorageModuleException(
+                        String.format("The old session vertex is missing for sessionId: %d!", sessionId));
+            }
 
-        // retrieve the existing maxBufferingPeriodInSec from session vertex if
-        // any
-        // and set it to the new renamed session
-        int maximumBufferingPeriodInSecond = retrieveMaxBufferSizeInSec(oldSessionVertex);
+            // retrieve the existing maxBufferingPeriodInSec from session vertex if
+            // any
+            // and set it to the new renamed session
+            int maximumBufferingPeriodInSecond = retrieveMaxBufferSizeInSec(oldSessionVertex);
 
-        // Add new vertex to link previous session to new session.
-        long newSessionId = createSession(newChannelName, maximumBufferingPeriodInSecond);
+            // Add new vertex to link previous session to new session.
+            long newSessionId = createSession(newChannelName, maximumBufferingPeriodInSecond);
 
-        OrientVertex newSessionVertex = getSessionVertexById(newSessionId);
-        if (newSessionVertex == null) {
-            throw new StorageModuleException(
-                    String.format("The new session vertex is missing for sessionId: %d!", newSessionId));
-        }
+            OrientVertex newSessionVertex = getSessionVertexById(newSessionId);
+            if (newSessionVertex == null) {
+                throw new StorageModuleException(
+                        String.format("The new session vertex is missing for sessionId: %d!", newSessionId));
+            }
 
-        LOGGER.info("Adding edge between new session {} -> old session {}.", newSessionId, sessionId);
+            LOGGER.info("Adding edge between new session {} -> old session {}.", newSessionId, sessionId);
 
-        try {
-            // Add new edge to link the new and old session.
-            newSessionVertex.addEdge(OrientDbNamespace.SESSION_SESSION_RELATIONSHIP, oldSessionVertex);
-        } catch (IllegalArgumentException | ORecordNotFoundException ex) {
-            graphDbInstance.removeVertex(newSessionVertex);
-            throw new StorageModuleException(
-                    String.format("Error when adding edge between new session %d -> old session %d. %s", newSessionId,
-                            sessionId, ex));
-        }
+            try {
+                // Add new edge to link the new and old session.
+                newSessionVertex.addEdge(OrientDbNamespace.SESSION_SESSION_RELATIONSHIP, oldSessionVertex);
+                SessionChains.renamed(graphDbInstance(), newSessionVertex, oldSessionVertex);
+            } catch (IllegalArgumentException | ORecordNotFoundException ex) {
+                graphDbInstance().removeVertex(newSessionVertex);
+                throw new StorageModuleException(
+                        String.format("Error when adding edge between new session %d -> old session %d. %s", newSessionId,
+                                sessionId, ex));
+            }
 
-        return newSessionId;
+            return newSessionId;
+        });
     }
 
     /**
@@ -388,13 +434,12 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
 
         Set<Collection<Long>> sessionIdCollection = new HashSet<>();
         if (channelName != null && channelName.toString().length() > 0) {
-            Iterable<Vertex> allVertices = graphDbInstance.getVertices(OrientDbNamespace.SESSION_CHANNEL_VERTEX_KEY, channelName);
+            Iterable<Vertex> allVertices = graphDbInstance().getVertices(OrientDbNamespace.SESSION_CHANNEL_VERTEX_KEY, channelName);
             StreamSupport.stream(allVertices.spliterator(), false)
-                    .filter(vertex -> !isMidVertexInSessionLink(vertex))
+                    .filter(vertex -> !isTombstone(vertex) && isRootVertexInSessionLink(vertex))
                     .forEach(vertex -> {
-                        LinkedList<Long> sessionIdList = new LinkedList<>();
                         LOGGER.debug("Found vertex with channelName [{}]: {}", channelName, vertex);
-                        getLinkedSessionIds(vertex, sessionIdList, sessionIdCollection, false);
+                        sessionIdCollection.add(getLinkedSessionIds(vertex, false));
                     });
         }
 
@@ -420,13 +465,12 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
     private Set<Collection<Long>> getSessions(long querySessionId, boolean onlyWithActiveMessage) {
         Set<Collection<Long>> sessionIdCollection = new HashSet<>();
         if (querySessionId != 0L) {
-            Iterable<Vertex> allVertices = graphDbInstance.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, querySessionId);
+            Iterable<Vertex> allVertices = graphDbInstance().getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, querySessionId);
             StreamSupport.stream(allVertices.spliterator(), false)
-                    .filter(vertex -> !isMidVertexInSessionLink(vertex))
+                    .filter(vertex -> !isTombstone(vertex) && isRootVertexInSessionLink(vertex))
                     .forEach(vertex -> {
-                        LinkedList<Long> sessionIdList = new LinkedList<>();
                         LOGGER.debug("Found vertex with querySessionId [{}]: {}", querySessionId, vertex);
-                        getLinkedSessionIds(vertex, sessionIdList, sessionIdCollection, onlyWithActiveMessage);
+                        sessionIdCollection.add(getLinkedSessionIds(vertex, onlyWithActiveMessage));
                     });
         }
         return sessionIdCollection;
@@ -458,7 +502,90 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * @see #createSession(URI)
      */
     @Override
-    public synchronized void deleteSession(long sessionId) throws StorageModuleException {
+    public void deleteSession(long sessionId) throws StorageModuleException {
+        OrientTransaction.execute(graphs, () -> {
+            OrientVertex sessionVertex = getExistingSessionVertex(sessionId);
+
+            // Remove connected messages
+            removeSessionMessages(sessionVertex, sessionStore.messagesOf(sessionVertex, 0).collect(Collectors.toList()));
+
+            unlinkSession(sessionId, sessionVertex);
+            ChannelCatalog.sessionDeleted(graphDbInstance(), sessionVertex);
+            graphDbInstance().removeVertex(sessionVertex);
+            return null;
+        });
+    }
+
+    /**
+     * Given a {@code sessionId}, this method marks the session as deleted
+     * without removing its messages: the session links are fixed up and the
+     * session is no longer found, but its messages are only removed by
+     * {@link #reclaimSession(long, int)}, so this returns quickly even for
+     * sessions with many messages.
+     *
+     * @param sessionId the session identifier.
+     * @see #deleteSession(long)
+     */
+    @Override
+    public void tombstoneSession(long sessionId) throws StorageModuleException {
+        OrientTransaction.execute(graphs, () -> {
+            OrientVertex sessionVertex = getExistingSessionVertex(sessionId);
+            unlinkSession(sessionId, sessionVertex);
+            ChannelCatalog.sessionTombstoned(graphDbInstance(), sessionVertex);
+
+            List<Edge> links = new ArrayList<>();
+            sessionVertex.getEdges(Direction.BOTH, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).forEach(links::add);
+            links.forEach(Edge::remove);
+            sessionVertex.removeProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY);
+            sessionVertex.setProperty(OrientDbNamespace.SESSION_TOMBSTONE_KEY, true);
+            LOGGER.info("Marked session {} as deleted", sessionId);
+            return null;
+        });
+    }
+
+    /**
+     * Remove a chunk of the messages of a session marked as deleted by
+     * {@link #tombstoneSession(long)}, in its own transaction; once no messages
+     * remain, the session vertex itself is removed.
+     *
+     * @param sessionId the session identifier.
+     * @param chunkSize the maximum number of messages to remove.
+     * @return the number of messages removed from the session; less than
+     * {@code chunkSize} once the session is completely removed.
+     */
+    @Override
+    public long reclaimSession(long sessionId, int chunkSize) throws StorageModuleException {
+        return OrientTransaction.execute(graphs, () -> {
+            OrientVertex sessionVertex = findSessionVertex(sessionId);
+            if (sessionVertex == null) {
+                return 0L;
+            }
+            if (!isTombstone(sessionVertex)) {
+                throw new StorageModuleException(String.format("Session %d is not marked as deleted", sessionId));
+            }
+
+            List<Vertex> messages = sessionStore.messagesOf(sessionVertex, 0).limit(chunkSize).collect(Collectors.toList());
+            removeSessionMessages(sessionVertex, messages);
+            if (messages.size() < chunkSize) {
+                ChannelCatalog.sessionDeleted(graphDbInstance(), sessionVertex);
+                graphDbInstance().removeVertex(sessionVertex);
+                LOGGER.info("Reclaimed deleted session {}", sessionId);
+            }
+            return (long) messages.size();
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Long> getTombstonedSessions() {
+        Iterable<Vertex> tombstones = graphDbInstance().command(new OCommandSQL(TOMBSTONES_OSQL)).execute();
+        return StreamSupport.stream(tombstones.spliterator(), false)
+                .map(v -> (Long) v.getProperty(OrientDbNamespace.SESSION_ID_KEY)).collect(Collectors.toList());
+    }
+
+    private OrientVertex getExistingSessionVertex(long sessionId) throws StorageModuleException {
         doesSessionIdExist(sessionId);
 
         OrientVertex sessionVertex = getSessionVertexById(sessionId);
@@ -466,19 +593,13 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
             throw new StorageModuleException(
                     String.format("The vertex is missing for sessionId: %d!", sessionId));
         }
+        return sessionVertex;
+    }
 
-        // Remove connected messages
-        sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).forEach(e -> {
-            Vertex persistentMessageVertex = e.getVertex(Direction.IN);
-            graphDbInstance.removeEdge(e);
-            // Remove message vertex if it becomes orphan and not referred
-            // to by other sessions
-            if (persistentMessageVertex != null
-                    && !persistentMessageVertex.getEdges(Direction.IN, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).iterator().hasNext()) {
-                graphDbInstance.removeVertex(persistentMessageVertex);
-            }
-        });
-
+    /**
+     * Link the sessions before and after a session being deleted and remove it from the session chains
+     */
+    private void unlinkSession(long sessionId, OrientVertex sessionVertex) throws StorageModuleException {
         // Add vertex links between sessions since current session is
         // deleted
         Vertex left = getVertex(sessionVertex, Direction.IN, Direction.OUT);
@@ -496,7 +617,8 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
             LOGGER.info("Vertex with sessionId {}:{} is a leaf vertex. ", sessionId, sessionVertex);
         }
 
-        graphDbInstance.removeVertex(sessionVertex);
+        SessionChains.deleting(graphDbInstance(), sessionVertex);
+        sessionSequences.remove(sessionId);
     }
 
     /**
@@ -514,70 +636,62 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * @throws StorageModuleException when unable to save message
      */
     @Override
-    public synchronized long saveMessage(long sessionId, PersistentMessage persistentMessage) throws StorageModuleException {
+    public long saveMessage(long sessionId, PersistentMessage persistentMessage) throws StorageModuleException {
         if (persistentMessage == null) {
             throw new StorageModuleException("Failed to save message; attempted to save a null message, aborting");
         }
 
         doesSessionIdExist(sessionId);
 
-        try {
-            long id = nextMessageId();
-            persistentMessage.setId(id);
-
-            OrientVertex persistentMessageVertex = graphDbInstance.addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS,
-                    OrientDbNamespace.MESSAGE_ID_PROPERTY, persistentMessage.getId(),
-                    OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY, persistentMessage.getTimestamp(),
-                    OrientDbNamespace.MESSAGE_CONTENT_PROPERTY, persistentMessage.getMessageContent());
-            LOGGER.info("New PersistentMessage vertex added with VertexId: {}", persistentMessageVertex.getId());
+        return OrientTransaction.execute(graphs, () -> {
+            try {
+                long id = ids.next();
+                persistentMessage.setId(id);
+
+                OrientVertex persistentMessageVertex = graphDbInstance().addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS,
+                        OrientDbNamespace.MESSAGE_ID_PROPERTY, persistentMessage.getId(),
+                        OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY, persistentMessage.getTimestamp(),
+                        OrientDbNamespace.MESSAGE_CONTENT_PROPERTY, persistentMessage.getMessageContent());
+                LOGGER.info("New PersistentMessage vertex added with VertexId: {}", persistentMessageVertex.getId());
+
+                OrientVertex sessionVertex = getSessionVertexById(sessionId);
+                if (sessionVertex == null) {
+                    throw new InconsistentStateException("The session vertex is missing for session ID: " + sessionId);
+                }
 
-            OrientVertex sessionVertex = getSessionVertexById(sessionId);
-            if (sessionVertex == null) {
-                throw new InconsistentStateException("The session vertex is missing for session ID: " + sessionId);
+                // clean up all the messages that are outside maximum
+                // buffering period
+                // time window comparing to the timestamp of the message
+                cleanupMessagesOlderThanBufferPeriod(sessionId, sessionVertex);
+
+                LOGGER.info("Adding message {} to session {}", persistentMessage, sessionId);
+                sessionStore.add(sessionVertex, persistentMessageVertex, sessionSequences.next(sessionVertex));
+                ChannelCatalog catalog = new ChannelCatalog(graphDbInstance());
+                catalog.saved(sessionVertex, persistentMessageVertex);
+                catalog.apply();
+                SessionTimeIndex.saved(sessionVertex, persistentMessage.getTimestamp());
+                return id;
+            } catch (Exception e) {
+                throw new StorageModuleException(String.format("Found exception while saving PersistentMessage data with sessionId %d",
+                        sessionId), e);
             }
-
-            // clean up all the messages that are outside maximum
-            // buffering period
-            // time window comparing to the timestamp of the message
-            cleanupMessagesOlderThanBufferPeriod(sessionId, sessionVertex);
-
-            LOGGER.info("Adding edge from session {} to message {}", sessionId, persistentMessage);
-            Edge e = sessionVertex.addEdge(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP, persistentMessageVertex);
-            // setup nextIndex for this edge
-            Integer nextIndex = sessionVertex.getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY);
-            e.setProperty(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP_INDEX, nextIndex++);
-            sessionVertex.setProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY,
-                    nextIndex);
-            return id;
-        } catch (Exception e) {
-            throw new StorageModuleException(String.format("Found exception while saving PersistentMessage data with sessionId %d",
-                    sessionId), e);
-        }
-    }
-
-    private long nextMessageId() {
-        OSequence idSequence = graphDbInstance.getRawGraph().getMetadata().getSequenceLibrary().getSequence(OrientDbNamespace.ID_SEQUENCE);
-        return idSequence.next();
+        });
     }
 
-    private void cleanupMessagesOlderThanBufferPeriod(long sessionId, OrientVertex sessionVertex) throws StorageModuleException {
+    private void cleanupMessagesOlderThanBufferPeriod(long sessionId, OrientVertex sessionVertex) {
         final int bufferSize = retrieveMaxBufferSizeInSec(sessionVertex);
         final long cutoffTimestamp = getCutoffTimestamp(bufferSize);
-        List<PersistentMessage> msgListPerSession = new ArrayList<>();
-        getMessagesFromSession(sessionVertex, msgListPerSession);
-        for (PersistentMessage msg : msgListPerSession) {
-            long msgTimestamp = msg.getTimestamp();
-            // delete messages older than cutoff time
-            if (msgTimestamp < cutoffTimestamp) {
-                LOGGER.info(
-                        "Cleanup message older than {} by maximum buffering period in {} seconds for sessionId {}. Message: {}",
-                        cutoffTimestamp, bufferSize, sessionId, msg);
-                try {
-                    deleteMessage(sessionId, msg.getId());
-                } catch (StorageModuleException e) {
-                    LOGGER.warn("Failed to clean up message!  sessionId {} message: {}", sessionId, msg, e);
-                }
-            }
+        // delete messages older than cutoff time; the expired vertices are removed directly instead of looking each
+        // one up again by ID
+        List<Vertex> expired = sessionStore.messagesOf(sessionVertex, 0)
+                .filter(v -> (long) v.getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY) < cutoffTimestamp)
+                .collect(Collectors.toList());
+        if (!expired.isEmpty()) {
+            LOGGER.info(
+                    "Cleanup {} message(s) older than {} by maximum buffering period in {} seconds for sessionId {}",
+                    expired.size(), cutoffTimestamp, bufferSize, sessionId);
+            removeSessionMessages(sessionVertex, expired);
+            SessionTimeIndex.expired(sessionVertex, cutoffTimestamp);
         }
     }
 
@@ -586,6 +700,7 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * messages stored in the OrientDb storage as persistentMessage vertex type.
      * The timestamps of messages should be within the maximum buffering period
      * in seconds from now.
+     * Messages saved to the session while it is read are not returned.
      *
      * @param sessionId the session identifier.
      * @return a list of persistent messages stored in the database for the particular session identifier.
@@ -595,8 +710,7 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
     public List<PersistentMessage> getMessages(long sessionId) throws StorageModuleException {
         List<PersistentMessage> msgList = new ArrayList<>();
         doesSessionIdExist(sessionId);
-        graphDbInstance.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId)
-                .forEach(s -> getFilteredMessagesFromSession(s, msgList));
+        getFilteredMessagesFromSession(getSessionVertexById(sessionId), msgList);
 
         return msgList;
     }
@@ -607,6 +721,7 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * OrientDb storage as persistentMessage vertex type. The timestamps of
      * messages should be within the maximum buffering period in seconds from
      * now.
+     * Messages saved to the session while it is read are not returned.
      *
      * @param sessionId the session identifier.
      * @param limit maximum number of messages to get. This should be a positive number.
@@ -623,57 +738,41 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
         }
 
         doesSessionIdExist(sessionId);
-        graphDbInstance.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).forEach(v -> {
-            int nextIndex = v.getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY);
-            if (nextIndex > 0 && offset < nextIndex) {
-                getFilteredMessagesFromSession(v, limit, offset, msgList);
-            }
-        });
+        OrientVertex v = getSessionVertexById(sessionId);
+        int nextIndex = sessionSequences.peek(v);
+        if (nextIndex > 0 && offset < nextIndex) {
+            getFilteredMessagesFromSession(v, limit, offset, nextIndex, msgList);
+        }
 
         return msgList;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Only the messages within the range are read, using the message ID
+     * index; the messages with the boundary IDs do not need to exist.
      *
-     * @see #getMessages(long)
      * @see #deleteMessage(long, long)
      */
     @Override
-    public synchronized void deleteMessagesByRange(long sessionId, long startMessageSeqNum, long endMessageSeqNum)
+    public void deleteMessagesByRange(long sessionId, long startMessageSeqNum, long endMessageSeqNum)
             throws StorageModuleException {
-        List<PersistentMessage> sessionMessages = getMessages(sessionId);
-
-        boolean isStartMessageFound = false;
-
-        sessionMessages.sort((PersistentMessage m1, PersistentMessage m2) -> Long
-                .compare(m1.getId(), m2.getId()));
-
-        for (PersistentMessage message : sessionMessages) {
-            // find the provided starting message
-            if (!isStartMessageFound) {
-                isStartMessageFound = isStartMessagePresent(startMessageSeqNum, message);
-            }
-
-            if (isStartMessageFound) {
-                // delete all messages, until we find the ending message.
-                deleteMessage(sessionId, message.getId());
-                if (message.getId() == endMessageSeqNum) {
-                    return;
-                }
-            }
-        }
-
-        if (!isStartMessageFound) {
-            throw new StorageModuleException(
-                    String.format("DeleteMessagesByRange could not find the starting message sequence number: %d",
-                            startMessageSeqNum));
+        if (startMessageSeqNum > endMessageSeqNum) {
+            throw new StorageModuleException(String.format(
+                    "DeleteMessagesByRange starting message sequence number %d is after the ending one %d",
+                    startMessageSeqNum, endMessageSeqNum));
         }
 
-        // If we get here, then we never found the ending message.
-        throw new StorageModuleException(String.format(
-                "DeleteMessagesByRange could not find the ending message sequence number: %d", endMessageSeqNum));
-
+        OrientTransaction.execute(graphs, () -> {
+            OrientVertex sessionVertex = getExistingSessionVertex(sessionId);
+            List<Vertex> messages = sessionStore.messagesBetween(sessionVertex, startMessageSeqNum, endMessageSeqNum)
+                    .collect(Collectors.toList());
+            LOGGER.debug("Deleting {} message(s) between {} and {} from session {}", messages.size(), startMessageSeqNum,
+                    endMessageSeqNum, sessionId);
+            removeSessionMessages(sessionVertex, messages);
+            return null;
+        });
     }
 
     /**
@@ -686,77 +785,75 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * @see #deleteMessage(long, long)
      */
     @Override
-    public synchronized boolean deleteMessages(long sessionId) throws StorageModuleException {
-        boolean ok = false;
-        OrientVertex sessionVertex = getSessionVertexById(sessionId);
-        if (sessionVertex != null) {
-            try {
-                getNumberOfConnectedMessages(sessionId, sessionVertex);
-                sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).forEach(e -> {
-                    Vertex persistentMessageVertex = e.getVertex(Direction.IN);
-                    graphDbInstance.removeEdge(e);
-                    // remove message vertex if it becomes orphan (eg. not
-                    // referred by other session vertices):
-                    if (persistentMessageVertex != null && !persistentMessageVertex
-                            .getEdges(Direction.BOTH, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).iterator().hasNext()) {
-                        graphDbInstance.removeVertex(persistentMessageVertex);
-                    }
-                });
-                ok = true;
-            } catch (Exception e) {
-                throw new StorageModuleException(String.format("Failed to delete messages with sessionId {}: %d",
-                        sessionId), e);
+    public boolean deleteMessages(long sessionId) throws StorageModuleException {
+        return OrientTransaction.execute(graphs, () -> {
+            boolean ok = false;
+            OrientVertex sessionVertex = getSessionVertexById(sessionId);
+            if (sessionVertex != null) {
+                try {
+                    getNumberOfConnectedMessages(sessionId, sessionVertex);
+                    removeSessionMessages(sessionVertex, sessionStore.messagesOf(sessionVertex, 0).collect(Collectors.toList()));
+                    ok = true;
+                } catch (Exception e) {
+                    throw new StorageModuleException(String.format("Failed to delete messages with sessionId {}: %d",
+                            sessionId), e);
+                }
+            } else {
+                logSessionIdNotFound(sessionId);
             }
-        } else {
-            logSessionIdNotFound(sessionId);
-        }
-        return ok;
+            return ok;
+        });
     }
 
     /**
      * Given a {@code sessionId}, and the specific {@code persistentMessageId},
      * this method deletes the persisted message for that session stored in the
-     * OrientDb storage.
+     * OrientDb storage. The message is found by its ID, so the cost does not
+     * depend on the number of messages in the session.
      *
      * @param sessionId the session identifier.
      * @param messageId the channel sequence number for a persistent message.
      * @see #deleteMessages(long)
      */
     @Override
-    public synchronized void deleteMessage(long sessionId, long messageId) throws StorageModuleException {
+    public void deleteMessage(long sessionId, long messageId) throws StorageModuleException {
         if (messageId < 0) {
             throw new StorageModuleException("Channel Sequence Number is negative!");
         }
 
-        OrientVertex sessionVertex = getSessionVertexById(sessionId);
-        if (sessionVertex != null) {
-            try {
-                getNumberOfConnectedMessages(sessionId, sessionVertex);
-
-                sessionVertex.getEdges(Direction.OUT, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP)
-                        .forEach(e -> deleteSessionMessage(e, messageId));
-            } catch (Exception e) {
-                throw new StorageModuleException(String.format("Failed to delete messages with sessionId {}: %d",
-                        sessionId), e);
+        OrientTransaction.execute(graphs, () -> {
+            OrientVertex sessionVertex = getSessionVertexById(sessionId);
+            if (sessionVertex != null) {
+                try {
+                    // resolve the message through the message ID index instead of visiting the messages of the session
+                    List<Vertex> messages = sessionStore.messagesBetween(sessionVertex, messageId, messageId)
+                            .collect(Collectors.toList());
+                    removeSessionMessages(sessionVertex, messages);
+                } catch (Exception e) {
+                    throw new StorageModuleException(String.format("Failed to delete messages with sessionId {}: %d",
+                            sessionId), e);
+                }
+            } else {
+                logSessionIdNotFound(sessionId);
             }
-        } else {
-            logSessionIdNotFound(sessionId);
-        }
+            return null;
+        });
     }
 
-    private void deleteSessionMessage(Edge messageEdge, long messageId) {
-        Vertex persistentMessageVertex = messageEdge.getVertex(Direction.IN);
-
-        if (persistentMessageVertex != null && (long) persistentMessageVertex.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY) == messageId) {
-            LOGGER.debug("Removing edge: {}", messageEdge);
-            graphDbInstance.removeEdge(messageEdge);
+    private void removeSessionMessages(Vertex sessionVertex, List<Vertex> messages) {
+        TagCooccurrence cooccurrence = new TagCooccurrence(graphDbInstance());
+        ChannelCatalog catalog = new ChannelCatalog(graphDbInstance());
+        for (Vertex persistentMessageVertex : messages) {
             // remove message vertex if it becomes orphan (eg. not
             // referred by other session vertices):
-            if (!persistentMessageVertex.getEdges(Direction.BOTH, OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP).iterator().hasNext()) {
-                LOGGER.debug("Removing the orphaned persistent message vertex {}", persistentMessageVertex);
-                graphDbInstance.removeVertex(persistentMessageVertex);
+            if (sessionStore.remove(sessionVertex, persistentMessageVertex)) {
+                cooccurrence.removing(tagStore.tagsOf(persistentMessageVertex));
+                catalog.removing(sessionVertex, persistentMessageVertex);
+                graphDbInstance().removeVertex(persistentMessageVertex);
             }
         }
+        cooccurrence.apply();
+        catalog.apply();
     }
 
     /**
@@ -813,22 +910,39 @@ class LegacyOrientDbStorageProvider implements LegacyStorageProvider {
      * The shutdown instance cannot be re-used any more.
      */
     public synchronized void shutdown() {
-        GraphDbUtils.shutdownDbInstance(graphDbInstance);
+        GraphDbUtils.shutdownDbInstance(graphDbInstance());
     }
 
     void doesSessionIdExist(long sessionId) throws StorageModuleException {
-        if (!graphDbInstance.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).iterator().hasNext()) {
+        if (getSessionVertexById(sessionId) == null) {
             throw new StorageModuleException(String.format(
                     "SessionId %d does not exist!", sessionId));
         }
     }
 
+    /**
+     * @param sessionId the session identifier
+     * @return the session vertex or null if the session does not exist or is marked as deleted
+     */
     OrientVertex getSessionVertexById(long sessionId) {
+        OrientVertex v = findSessionVertex(sessionId);
+        return v != null && !isTombstone(v) ? v : null;
+    }
+
+    /**
+     * @param sessionId the session identifier
+     * @return the session vertex, even if the session is marked as deleted, or null if it does not exist
+     */
+    private OrientVertex findSessionVertex(long sessionId) {
         OrientVertex v = null;
-        Iterator<Vertex> sessionVertex = graphDbInstance.getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).iterator();
+        Iterator<Vertex> sessionVertex = graphDbInstance().getVertices(OrientDbNamespace.SESSION_ID_VERTEX_KEY, sessionId).iterator();
         if (sessionVertex.hasNext()) {
             v = (OrientVertex) sessionVertex.next();
         }
         return v;
     }
+
+    private static boolean isTombstone(Vertex sessionVertex) {
+        return Boolean.TRUE.equals(sessionVertex.getProperty(OrientDbNamespace.SESSION_TOMBSTONE_KEY));
+    }
 }
@@ -24,6 +24,8 @@ public class OrientDbConfiguration {
     private String dbFilePath = "/tmp/";
     private String dbFileName = "data";
     private String dbUrlDelimiter = ":";
+    private TagLayout tagLayout = TagLayout.EDGE;
+    private SessionLayout sessionLayout = SessionLayout.EDGE;
 
     /**
      * Gets storage type
@@ -114,4 +116,51 @@ public class OrientDbConfiguration {
         }
         this.dbUrlDelimiter = dbUrlDelimiter;
     }
+
+    /**
+     * Gets tag layout.
+     *
+     * @return the layout of the message tags
+     */
+    public TagLayout getTagLayout() {
+        return tagLayout;
+    }
+
+    /**
+     * Sets tag layout.
+     * <p>
+     * Changing an existing database from EDGE to EMBEDDED migrates its tags in the background; the reverse is not
+     * supported
+     *
+     * @param tagLayout the layout of the message tags
+     */
+    public void setTagLayout(TagLayout tagLayout) {
+        if (tagLayout == null) {
+            throw new IllegalArgumentException("tagLayout must not be null!");
+        }
+        this.tagLayout = tagLayout;
+    }
+
+    /**
+     * Gets session layout.
+     *
+     * @return the layout of the session messages
+     */
+    public SessionLayout getSessionLayout() {
+        return sessionLayout;
+    }
+
+    /**
+     * Sets session layout.
+     * <p>
+     * The layout of an existing database with sessions cannot be changed
+     *
+     * @param sessionLayout the layout of the session messages
+     */
+    public void setSessionLayout(SessionLayout sessionLayout) {
+        if (sessionLayout == null) {
+            throw new IllegalArgumentException("sessionLayout must not be null!");
+        }
+        this.sessionLayout = sessionLayout;
+    }
 }
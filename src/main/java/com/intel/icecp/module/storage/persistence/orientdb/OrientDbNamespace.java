@@ -21,6 +21,7 @@ import com.orientechnologies.orient.core.metadata.schema.OSchemaProxy;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.metadata.sequence.OSequence;
 import com.orientechnologies.orient.core.metadata.sequence.OSequenceLibrary;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
 import com.orientechnologies.orient.core.sql.OCommandSQLParsingException;
 import com.orientechnologies.orient.core.sql.OSQLEngine;
 import com.orientechnologies.orient.graph.sql.functions.OGraphFunctionFactory;
@@ -30,6 +31,7 @@ import org.apache.logging.log4j.Logger;
 
 import javax.validation.constraints.NotNull;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Holds the names of the classes and fields used for interacting with the Orient database. Also used for setting this
@@ -40,16 +42,40 @@ final class OrientDbNamespace {
     private static final Logger LOGGER = LogManager.getLogger();
 
     static final String ID_SEQUENCE = "IDs";
+    static final int REBUILD_CHUNK_SIZE = 1000;
+    static final String REBUILD_PENDING_PREFIX = "rebuildPending_";
 
     static final String TAG_CLASS = "Tag";
     static final String TAG_NAME_PROPERTY = "name";
     static final String TAG_NAME_INDEX = "Tag.NameIndex";
+    static final String TAG_RELATED_PROPERTY = "related"; // replaced by the tag pair records, only read to upgrade
+    static final String TAG_PAIR_CLASS = "TagPair";
+    static final String TAG_PAIR_VERTEX_CLASS_NAME = "class:" + TAG_PAIR_CLASS;
+    static final String TAG_PAIR_TAG_PROPERTY = "tag";
+    static final String TAG_PAIR_OTHER_PROPERTY = "other";
+    static final String TAG_PAIR_COUNT_PROPERTY = "n";
+    static final String TAG_PAIR_INDEX = "TagPair.tag_other";
 
     static final String MESSAGE_CLASS = "Message";
     static final String MESSAGE_ID_PROPERTY = "mid";
+    static final String MESSAGE_ID_INDEX = "Message.mid";
     static final String MESSAGE_TIMESTAMP_PROPERTY = "ts";
     static final String MESSAGE_CONTENT_PROPERTY = "d";
     static final String MESSAGE_TAG_RELATIONSHIP = "tagged-by";
+    static final String MESSAGE_TAGS_PROPERTY = "tags";
+    static final String MESSAGE_TAGS_INDEX = "Message.tags";
+    static final String MESSAGE_SESSION_PROPERTY = "sid";
+    static final String MESSAGE_SESSION_INDEX_PROPERTY = "seq";
+    static final String MESSAGE_SESSION_INDEX = "Message.sid_seq";
+
+    static final String CHANNEL_CLASS = "Channel";
+    static final String CHANNEL_VERTEX_CLASS_NAME = "class:" + CHANNEL_CLASS;
+    static final String CHANNEL_URI_PROPERTY = "uri";
+    static final String CHANNEL_URI_VERTEX_KEY = CHANNEL_CLASS + "." + CHANNEL_URI_PROPERTY;
+    static final String CHANNEL_URI_INDEX = "Channel.uri";
+    static final String CHANNEL_LATEST_SESSION_PROPERTY = "latest";
+    static final String CHANNEL_SESSIONS_PROPERTY = "sessions";
+    static final String CHANNEL_RECLAIMING_PROPERTY = "reclaiming";
 
     static final String INACTIVE_TAG = "inactive"; // TODO remove if possible, necessary for retrieving only active messages from the legacy storage provider
 
@@ -58,13 +84,34 @@ final class OrientDbNamespace {
     static final String SESSION_VERTEX_CLASS_NAME = "class:" + SESSION_CLASS;
     static final String SESSION_ID_KEY = "sessionId";
     static final String SESSION_ID_VERTEX_KEY = SESSION_CLASS + "." + SESSION_ID_KEY;
+    static final String SESSION_ID_INDEX = "session.sessionId";
     static final String SESSION_CHANNEL_KEY = "channelName";
     static final String SESSION_NEXT_INDEX_KEY = "nextIndex";
     static final String SESSION_MAX_BUFFER_PERIOD_IN_SEC_KEY = "maxBufferPeriodInSec";
     static final String SESSION_CHANNEL_VERTEX_KEY = SESSION_CLASS + "." + SESSION_CHANNEL_KEY;
+    static final String SESSION_TOMBSTONE_KEY = "tombstone";
+    static final String SESSION_MESSAGES_KEY = "messages";
+    static final String SESSION_BYTES_KEY = "bytes";
+    static final String SESSION_FIRST_TIMESTAMP_KEY = "firstTs";
+    static final String SESSION_LAST_TIMESTAMP_KEY = "lastTs";
+    static final String SESSION_LAST_TIMESTAMP_INDEX = "session.lastTs";
+    static final String SESSION_TIME_BUCKETS_KEY = "tsBuckets";
+    static final String SESSION_TIME_BUCKETS_VERTEX_KEY = SESSION_CLASS + "." + SESSION_TIME_BUCKETS_KEY;
+    static final String SESSION_TIME_BUCKETS_INDEX = "session.tsBuckets";
+    static final String SESSION_CHAIN_ID_KEY = "chainId";
+    static final String SESSION_CHAIN_CLASS = "SessionChain";
+    static final String SESSION_CHAIN_VERTEX_CLASS_NAME = "class:" + SESSION_CHAIN_CLASS;
+    static final String SESSION_CHAIN_ID_PROPERTY = "cid";
+    static final String SESSION_CHAIN_ID_VERTEX_KEY = SESSION_CHAIN_CLASS + "." + SESSION_CHAIN_ID_PROPERTY;
+    static final String SESSION_CHAIN_ID_INDEX = "SessionChain.cid";
+    static final String SESSION_CHAIN_MEMBERS_PROPERTY = "members";
+    static final String SESSION_CHAIN_MEMBERS_VERTEX_KEY = SESSION_CHAIN_CLASS + "." + SESSION_CHAIN_MEMBERS_PROPERTY;
+    static final String SESSION_CHAIN_MEMBERS_INDEX = "SessionChain.members";
     static final String SESSION_SESSION_RELATIONSHIP = "sessionLinks";
     static final String SESSION_MESSAGE_RELATIONSHIP = "collects";
     static final String SESSION_MESSAGE_RELATIONSHIP_INDEX = "index";
+    static final String SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID = "mid";
+    static final String SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID_INDEX = "collects.out_mid";
 
     private OrientDbNamespace() {
         // do not allow instances of this class
@@ -88,22 +135,104 @@ final class OrientDbNamespace {
         addOrUpdateClass(graph, TAG_CLASS, GraphClassType.VERTEX);
         addOrUpdateClass(graph, MESSAGE_CLASS, GraphClassType.VERTEX);
         addOrUpdateClass(graph, SESSION_CLASS, GraphClassType.VERTEX);
+        addOrUpdateClass(graph, CHANNEL_CLASS, GraphClassType.VERTEX);
+        addOrUpdateClass(graph, TAG_PAIR_CLASS, GraphClassType.VERTEX);
+        addOrUpdateClass(graph, SESSION_CHAIN_CLASS, GraphClassType.VERTEX);
 
         addOrUpdateClass(graph, MESSAGE_TAG_RELATIONSHIP, GraphClassType.EDGE);
         addOrUpdateClass(graph, SESSION_SESSION_RELATIONSHIP, GraphClassType.EDGE);
         addOrUpdateClass(graph, SESSION_MESSAGE_RELATIONSHIP, GraphClassType.EDGE);
 
         // unique sequences:
-        addOrUpdateSequence(graph, ID_SEQUENCE);
+        addOrUpdateSequence(graph, ID_SEQUENCE, IdAllocator.BLOCK_SIZE);
 
         // indices:
         addTagIndex(graph);
+        addMessageTagsIndex(graph);
+        addMessageSessionIndex(graph);
+        addMessageIdIndex(graph);
+        addSessionIdIndex(graph);
+
+        // indices that existing databases must populate once, from the records written before them:
+        // co-occurrence pairs (before, the counts were kept in a map on each tag or, before that, not at all)
+        addIndexOnce(graph, TAG_PAIR_CLASS, TAG_PAIR_INDEX, OrientDbNamespace::addTagPairIndex, TagCooccurrence::upgrade);
+        // session chains (before, chains were only walked)
+        addIndexOnce(graph, SESSION_CHAIN_CLASS, SESSION_CHAIN_MEMBERS_INDEX, OrientDbNamespace::addSessionChainIndex, SessionChains::rebuild);
+        // channel catalog (before, all sessions were scanned)
+        addIndexOnce(graph, CHANNEL_CLASS, CHANNEL_URI_INDEX, OrientDbNamespace::addChannelUriIndex, ChannelCatalog::rebuild);
+        // session time buckets (before, messages were scanned)
+        addIndexOnce(graph, SESSION_CLASS, SESSION_TIME_BUCKETS_INDEX, OrientDbNamespace::addSessionTimeIndex, SessionTimeIndex::rebuild);
+        // session edges by message ID (before, the messages of an ID range were filtered by their edges)
+        addIndexOnce(graph, SESSION_MESSAGE_RELATIONSHIP, SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID_INDEX, OrientDbNamespace::addSessionMessageIdIndex, EdgeSessionStore::rebuild);
 
         graph.commit();
 
         registerOrientDbGraphFunctions();
     }
 
+    /**
+     * Add an index that existing databases must populate once. The rebuild is recorded as pending on the indexed class
+     * before the index is added, and is only cleared once the rebuild committed, so that an interrupted rebuild runs
+     * again on the next start; rebuilds commit every {@link #REBUILD_CHUNK_SIZE} records, see {@link #checkpoint}.
+     *
+     * @param graph the Orient database instance
+     * @param className the indexed class
+     * @param indexName the index, only added if missing
+     * @param addIndex adds the index and the properties it needs
+     * @param rebuild populates the index from the existing records; must be idempotent
+     */
+    private static void addIndexOnce(OrientGraph graph, String className, String indexName, Consumer<OrientGraph> addIndex, Consumer<OrientGraph> rebuild) {
+        String pending = REBUILD_PENDING_PREFIX + indexName;
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(className).getClassIndex(indexName) == null) {
+            setCustom(graph, className, pending, Boolean.TRUE.toString());
+            addIndex.accept(graph);
+        }
+
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(className).getCustom(pending) != null) {
+            LOGGER.info("Rebuilding index {} of existing records", indexName);
+            rebuild.accept(graph);
+            graph.commit();
+            graph.begin();
+            setCustom(graph, className, pending, null);
+        }
+    }
+
+    private static void setCustom(OrientGraph graph, String className, String name, String value) {
+        // if executed within a transaction, OrientGraph logs warnings, therefore...
+        graph.executeOutsideTx(g -> {
+            OClass schemaClass = g.getRawGraph().getMetadata().getSchema().getClass(className);
+            if (value != null) {
+                schemaClass.setCustom(name, value);
+            } else {
+                schemaClass.removeCustom(name);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Commit a rebuild every {@link #REBUILD_CHUNK_SIZE} records, so that rebuilding a large database does not hold
+     * all of its changes in a single transaction
+     *
+     * @param graph the Orient database instance
+     * @param records the number of records rebuilt so far
+     * @param flush writes the changes accumulated since the last checkpoint, before they are committed
+     */
+    static void checkpoint(OrientGraph graph, long records, Runnable flush) {
+        if (records % REBUILD_CHUNK_SIZE == 0) {
+            flush.run();
+            graph.commit();
+            graph.begin();
+        }
+    }
+
+    /**
+     * @see #checkpoint(OrientGraph, long, Runnable)
+     */
+    static void checkpoint(OrientGraph graph, long records) {
+        checkpoint(graph, records, () -> { });
+    }
+
     private static void registerOrientDbGraphFunctions() {
         OGraphFunctionFactory graphFunctionFactory = new OGraphFunctionFactory();
         Set<String> graphFunctionNames = graphFunctionFactory.getFunctionNames();
@@ -136,6 +265,167 @@ final class OrientDbNamespace {
         }
     }
 
+    private static void addMessageTagsIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(MESSAGE_CLASS).getClassIndex(MESSAGE_TAGS_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass messageClass = schema.getOrCreateClass(MESSAGE_CLASS);
+
+                // each tag name in the set is indexed, see documentation at http://orientdb.com/docs/2.2/Indexes.html
+                messageClass.createProperty(MESSAGE_TAGS_PROPERTY, OType.EMBEDDEDSET, OType.STRING);
+                messageClass.createIndex(MESSAGE_TAGS_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, MESSAGE_TAGS_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addMessageSessionIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(MESSAGE_CLASS).getClassIndex(MESSAGE_SESSION_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass messageClass = schema.getOrCreateClass(MESSAGE_CLASS);
+
+                // a composite index allows range queries on the index of the messages of a session, see documentation
+                // at http://orientdb.com/docs/2.2/Indexes.html
+                messageClass.createProperty(MESSAGE_SESSION_PROPERTY, OType.LONG);
+                messageClass.createProperty(MESSAGE_SESSION_INDEX_PROPERTY, OType.INTEGER);
+                messageClass.createIndex(MESSAGE_SESSION_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, MESSAGE_SESSION_PROPERTY, MESSAGE_SESSION_INDEX_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addMessageIdIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(MESSAGE_CLASS).getClassIndex(MESSAGE_ID_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass messageClass = schema.getOrCreateClass(MESSAGE_CLASS);
+
+                // IDs are allocated uniquely (see IdAllocator) but databases written before the allocator may contain
+                // duplicates, so the index must not be unique; existing messages are indexed when it is created
+                messageClass.createProperty(MESSAGE_ID_PROPERTY, OType.LONG);
+                messageClass.createIndex(MESSAGE_ID_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, MESSAGE_ID_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addSessionIdIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(SESSION_CLASS).getClassIndex(SESSION_ID_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass sessionClass = schema.getOrCreateClass(SESSION_CLASS);
+
+                // session IDs are drawn at random; the unique index rejects a colliding ID when the session is created
+                sessionClass.createProperty(SESSION_ID_KEY, OType.LONG);
+                sessionClass.createIndex(SESSION_ID_INDEX, OClass.INDEX_TYPE.UNIQUE, SESSION_ID_KEY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addChannelUriIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(CHANNEL_CLASS).getClassIndex(CHANNEL_URI_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass channelClass = schema.getOrCreateClass(CHANNEL_CLASS);
+
+                channelClass.createProperty(CHANNEL_URI_PROPERTY, OType.STRING);
+                channelClass.createProperty(CHANNEL_SESSIONS_PROPERTY, OType.EMBEDDEDLIST, OType.LONG);
+                channelClass.createProperty(CHANNEL_RECLAIMING_PROPERTY, OType.EMBEDDEDLIST, OType.LONG);
+                channelClass.createIndex(CHANNEL_URI_INDEX, OClass.INDEX_TYPE.UNIQUE, CHANNEL_URI_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addSessionChainIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(SESSION_CHAIN_CLASS).getClassIndex(SESSION_CHAIN_MEMBERS_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass sessionClass = schema.getOrCreateClass(SESSION_CLASS);
+                OClass chainClass = schema.getOrCreateClass(SESSION_CHAIN_CLASS);
+
+                // each chain of renamed sessions is stored once and referenced by its sessions, see SessionChains
+                if (sessionClass.getProperty(SESSION_CHAIN_ID_KEY) == null) {
+                    sessionClass.createProperty(SESSION_CHAIN_ID_KEY, OType.LONG);
+                }
+                chainClass.createProperty(SESSION_CHAIN_ID_PROPERTY, OType.LONG);
+                chainClass.createProperty(SESSION_CHAIN_MEMBERS_PROPERTY, OType.EMBEDDEDLIST, OType.LONG);
+                chainClass.createIndex(SESSION_CHAIN_ID_INDEX, OClass.INDEX_TYPE.UNIQUE, SESSION_CHAIN_ID_PROPERTY);
+                chainClass.createIndex(SESSION_CHAIN_MEMBERS_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, SESSION_CHAIN_MEMBERS_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addSessionTimeIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(SESSION_CLASS).getClassIndex(SESSION_TIME_BUCKETS_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass sessionClass = schema.getOrCreateClass(SESSION_CLASS);
+
+                // each time bucket in the list is indexed, see SessionTimeIndex; the last timestamp is indexed for
+                // windows covering too many buckets
+                sessionClass.createProperty(SESSION_FIRST_TIMESTAMP_KEY, OType.LONG);
+                sessionClass.createProperty(SESSION_LAST_TIMESTAMP_KEY, OType.LONG);
+                sessionClass.createProperty(SESSION_TIME_BUCKETS_KEY, OType.EMBEDDEDLIST, OType.LONG);
+                sessionClass.createIndex(SESSION_TIME_BUCKETS_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, SESSION_TIME_BUCKETS_KEY);
+                sessionClass.createIndex(SESSION_LAST_TIMESTAMP_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, SESSION_LAST_TIMESTAMP_KEY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addSessionMessageIdIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(SESSION_MESSAGE_RELATIONSHIP).getClassIndex(SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass edgeClass = schema.getOrCreateClass(SESSION_MESSAGE_RELATIONSHIP);
+
+                // the composite index finds the messages of an ID range within a session, see EdgeSessionStore
+                edgeClass.createProperty("out", OType.LINK);
+                edgeClass.createProperty(SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID, OType.LONG);
+                edgeClass.createIndex(SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID_INDEX, OClass.INDEX_TYPE.NOTUNIQUE, "out", SESSION_MESSAGE_RELATIONSHIP_MESSAGE_ID);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
+    private static void addTagPairIndex(OrientGraph graph) {
+        if (graph.getRawGraph().getMetadata().getSchema().getClass(TAG_PAIR_CLASS).getClassIndex(TAG_PAIR_INDEX) == null) {
+            // if executed within a transaction, OrientGraph logs warnings, therefore...
+            graph.executeOutsideTx(g -> {
+                OSchemaProxy schema = g.getRawGraph().getMetadata().getSchema();
+                OClass pairClass = schema.getOrCreateClass(TAG_PAIR_CLASS);
+
+                // the composite index finds a pair and, by its first field, all pairs of a tag, see TagCooccurrence
+                pairClass.createProperty(TAG_PAIR_TAG_PROPERTY, OType.STRING);
+                pairClass.createProperty(TAG_PAIR_OTHER_PROPERTY, OType.STRING);
+                pairClass.createProperty(TAG_PAIR_COUNT_PROPERTY, OType.LONG);
+                pairClass.createIndex(TAG_PAIR_INDEX, OClass.INDEX_TYPE.UNIQUE, TAG_PAIR_TAG_PROPERTY, TAG_PAIR_OTHER_PROPERTY);
+                schema.save();
+                return null;
+            });
+        }
+    }
+
     private static void addOrUpdateClass(OrientGraph graph, @NotNull String className, @NotNull GraphClassType graphClassType) {
         if (graph.getRawGraph().getMetadata().getSchema().getClass(className) == null) {
             // if executed within a transaction, OrientGraph logs warnings, therefore...
@@ -155,12 +445,16 @@ final class OrientDbNamespace {
         }
     }
 
-    private static void addOrUpdateSequence(OrientGraph graph, String sequenceName) {
+    private static void addOrUpdateSequence(OrientGraph graph, String sequenceName, int increment) {
         OSequenceLibrary sequenceLibrary = graph.getRawGraph().getMetadata().getSequenceLibrary();
         if (sequenceLibrary.getSequence(sequenceName) == null) {
             // see documentation at http://orientdb.com/docs/2.1/Sequences-and-auto-increment.html
-            OSequence.CreateParams params = new OSequence.CreateParams().setDefaults();
+            OSequence.CreateParams params = new OSequence.CreateParams().setDefaults().setIncrement(increment);
             sequenceLibrary.createSequence(sequenceName, OSequence.SEQUENCE_TYPE.ORDERED, params);
+        } else {
+            // existing databases may use a different increment; see documentation at
+            // http://orientdb.com/docs/2.2/SQL-Alter-Sequence.html
+            graph.executeOutsideTx(g -> g.command(new OCommandSQL("ALTER SEQUENCE " + sequenceName + " INCREMENT " + increment)).execute());
         }
     }
 
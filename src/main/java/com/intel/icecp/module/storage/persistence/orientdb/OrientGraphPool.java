@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import com.tinkerpop.blueprints.impls.orient.OrientGraphFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bind the pooled OrientDB graph database instances of a {@link OrientGraphFactory} to threads: an OrientDB database
+ * instance must not be used by several threads at once, so each thread calling {@link #get()} acquires its own instance
+ * from the pool and keeps it (and thus its current transaction) until it calls {@link #release()} or the pool is shut
+ * down. This allows read-only operations to run concurrently while each writing thread has its own transaction.
+ * <p>
+ * Threads that stop using the database (e.g. short-lived workers) should release their instance in a {@code finally}
+ * block; as a safety net, the instances of threads that ended without releasing them are returned to the pool the next
+ * time an instance is acquired.
+ * <p>
+ * See http://orientdb.com/docs/2.2/Java-Multi-Threading.html
+ *
+ */
+final class OrientGraphPool implements Supplier<OrientGraph> {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final OrientGraphFactory factory;
+    private final ThreadLocal<OrientGraph> graphs = new ThreadLocal<>();
+    private final Map<Thread, OrientGraph> acquired = new ConcurrentHashMap<>();
+
+    /**
+     * @param factory the pooled factory of database instances, see {@link GraphDbUtils#getGraphFactory(OrientDbConfiguration)}
+     */
+    OrientGraphPool(OrientGraphFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return the database instance bound to the current thread, activated on the current thread
+     */
+    @Override
+    public OrientGraph get() {
+        OrientGraph graph = graphs.get();
+        if (graph == null || graph.isClosed()) {
+            releaseDeadThreads();
+            graph = factory.getTx();
+            graphs.set(graph);
+            acquired.put(Thread.currentThread(), graph);
+            LOGGER.debug("Acquired database instance for thread {}, {} instance(s) in use", Thread.currentThread().getName(), acquired.size());
+        } else {
+            graph.getRawGraph().activateOnCurrentThread();
+        }
+        return graph;
+    }
+
+    /**
+     * Return the database instance bound to the current thread to the pool; the next call to {@link #get()} on this
+     * thread acquires an instance again. An instance with an open transaction scope (see {@link OrientTransaction}) is
+     * kept until the scope is closed, so releasing is always safe in a {@code finally} block.
+     */
+    void release() {
+        OrientGraph graph = graphs.get();
+        if (graph == null || OrientTransaction.current(graph) != null) {
+            return;
+        }
+        graphs.remove();
+        acquired.remove(Thread.currentThread());
+        close(graph);
+        LOGGER.debug("Released database instance of thread {}, {} instance(s) in use", Thread.currentThread().getName(), acquired.size());
+    }
+
+    private void releaseDeadThreads() {
+        for (Iterator<Map.Entry<Thread, OrientGraph>> it = acquired.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Thread, OrientGraph> entry = it.next();
+            if (!entry.getKey().isAlive()) {
+                it.remove();
+                close(entry.getValue());
+                LOGGER.debug("Released database instance of ended thread {}", entry.getKey().getName());
+            }
+        }
+    }
+
+    private static void close(OrientGraph graph) {
+        if (!graph.isClosed()) {
+            graph.getRawGraph().activateOnCurrentThread();
+            graph.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of database instances bound to threads
+     */
+    int size() {
+        return acquired.size();
+    }
+
+    /**
+     * Shut down all database instances bound to threads and close the factory; the pool cannot be used afterwards
+     */
+    void shutdown() {
+        acquired.values().forEach(OrientGraphPool::close);
+        acquired.clear();
+        graphs.remove();
+        factory.close();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * A transaction scope on the database instance of the current thread, for use with try-with-resources:
+ * <br>
+ * <blockquote> <code>
+ * try (OrientTransaction tx = OrientTransaction.begin(graph)) {<br>
+ * ... modify the graph ...<br>
+ * tx.commit();<br>
+ * }
+ * </code> </blockquote>
+ * Scopes can be nested: only the outermost scope of a thread begins and commits the database transaction. A nested
+ * scope closed without being committed marks the outermost scope for rollback. A scope closed without being
+ * committed rolls its changes back.
+ * <p>
+ * Since transactions are optimistic, concurrent transactions modifying the same records fail on commit with an
+ * {@link OConcurrentModificationException}, and concurrent transactions inserting the same key into a unique index fail
+ * with an {@link ORecordDuplicatedException}; {@link #execute(Supplier, Operation)} runs an operation in a scope and
+ * retries it with a randomized exponential backoff in these cases.
+ *
+ */
+final class OrientTransaction implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_BASE_MS = 10;
+    private static final long BACKOFF_MAX_MS = 1000;
+    private static final ThreadLocal<OrientTransaction> CURRENT = new ThreadLocal<>();
+    private final OrientGraph graph;
+    private final OrientTransaction outer;
+    private final OrientTransaction previous;
+    private boolean committed;
+    private boolean rollbackOnly;
+    private boolean closed;
+
+    private OrientTransaction(OrientGraph graph, OrientTransaction previous) {
+        this.graph = graph;
+        this.outer = previous != null && previous.graph == graph ? previous : null;
+        this.previous = previous;
+    }
+
+    /**
+     * Begin a transaction scope; if the current thread already has a scope on the same database instance, the new
+     * scope is nested in it
+     *
+     * @param graph the database instance of the current thread
+     * @return the new scope
+     */
+    static OrientTransaction begin(OrientGraph graph) {
+        OrientTransaction scope = new OrientTransaction(graph, CURRENT.get());
+        if (scope.isOutermost()) {
+            graph.getRawGraph().activateOnCurrentThread();
+            graph.begin();
+        }
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @param graph the database instance of the current thread
+     * @return the innermost open scope of the current thread on the given database instance or null if there is none
+     */
+    static OrientTransaction current(OrientGraph graph) {
+        OrientTransaction current = CURRENT.get();
+        return current != null && current.graph == graph ? current : null;
+    }
+
+    /**
+     * Run an operation in a transaction scope, see {@link #begin(OrientGraph)}. If the operation (or the commit) fails
+     * with a concurrent modification or a duplicated key (see {@link #isRetryable(Throwable)}), possibly wrapped in
+     * another exception, in an outermost scope, the operation is retried up to {@link #MAX_ATTEMPTS}
+     * times; in a nested scope the failure is passed on so that the outermost scope can handle it.
+     *
+     * @param graphs supplies the database instance of the current thread
+     * @param operation the operation to run; it must be safe to run again after a rollback
+     * @param <T> the type of the result
+     * @param <E> the type of exception thrown by the operation
+     * @return the result of the operation
+     * @throws E if the operation fails
+     */
+    static <T, E extends Exception> T execute(Supplier<OrientGraph> graphs, Operation<T, E> operation) throws E {
+        for (int attempt = 1; ; attempt++) {
+            boolean outermost = false;
+            try (OrientTransaction scope = begin(graphs.get())) {
+                outermost = scope.isOutermost();
+                T result = operation.execute();
+                scope.commit();
+                return result;
+            } catch (Exception e) {
+                if (!outermost || attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                LOGGER.debug("Concurrent modification on attempt {}, retrying", attempt, e);
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * @param e an exception
+     * @return true if the exception, or one of its causes, is a concurrent modification of a record
+     */
+    static boolean isConcurrentModification(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof OConcurrentModificationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param e an exception
+     * @return true if the exception, or one of its causes, is a concurrent modification of a record or a key
+     * concurrently inserted into a unique index; since the operation reads the database again when it is retried, it
+     * then finds the record or key written by the other transaction (or, for generated keys, draws a new key)
+     */
+    static boolean isRetryable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof OConcurrentModificationException || t instanceof ORecordDuplicatedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void backoff(int attempt) {
+        long maximum = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << (attempt - 1));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maximum / 2, maximum + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry the transaction", e);
+        }
+    }
+
+    /**
+     * @return true if this scope began the database transaction
+     */
+    boolean isOutermost() {
+        return outer == null;
+    }
+
+    /**
+     * Commit this scope; the database transaction is only committed by the outermost scope
+     *
+     * @throws IllegalStateException if the scope is closed or a nested scope was rolled back
+     */
+    void commit() {
+        if (closed) {
+            throw new IllegalStateException("The transaction scope is already closed");
+        }
+        if (isOutermost()) {
+            if (rollbackOnly) {
+                throw new IllegalStateException("The transaction was marked for rollback by a nested scope");
+            }
+            graph.getRawGraph().activateOnCurrentThread();
+            graph.commit();
+        }
+        committed = true;
+    }
+
+    /**
+     * Close this scope, rolling back the transaction if the scope was not committed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+
+        if (!committed) {
+            if (isOutermost()) {
+                graph.getRawGraph().activateOnCurrentThread();
+                graph.rollback();
+            } else {
+                outer.rollbackOnly = true;
+            }
+        }
+    }
+
+    /**
+     * An operation run in a transaction
+     *
+     * @param <T> the type of the result
+     * @param <E> the type of exception thrown by the operation
+     */
+    @FunctionalInterface
+    interface Operation<T, E extends Exception> {
+        T execute() throws E;
+    }
+}
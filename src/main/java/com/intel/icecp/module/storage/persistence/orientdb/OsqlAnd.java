@@ -19,8 +19,11 @@ package com.intel.icecp.module.storage.persistence.orientdb;
 import com.intel.icecp.module.query.And;
 import com.intel.icecp.module.query.Before;
 import com.intel.icecp.module.query.Id;
+import com.intel.icecp.module.query.In;
 import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
+import com.intel.icecp.module.storage.persistence.Ordering;
+import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
 import com.tinkerpop.blueprints.impls.orient.OrientGraph;
@@ -31,7 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -43,12 +46,35 @@ import java.util.Set;
  */
 class OsqlAnd implements Iterable<OIdentifiable> {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final String ID_OSQL = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " = ?)";
+    private static final String IN_OSQL = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " IN ?)";
+    private static final String CONTENT_OSQL = "SELECT " + OrientDbNamespace.MESSAGE_ID_PROPERTY + ", " + OrientDbNamespace.MESSAGE_CONTENT_PROPERTY + " FROM " +
+            OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " IN ?";
+    private static final String BEFORE_OSQL = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + " <= ?)";
     private final Set<Query.Identifier> selectors;
+    private final TagStore tags;
+    private final long currentTimeMs;
     private OrientGraph db;
 
     OsqlAnd(OrientGraph db, And and) {
+        this(db, and, new EdgeTagStore());
+    }
+
+    OsqlAnd(OrientGraph db, And and, TagStore tags) {
+        this(db, and, tags, System.currentTimeMillis());
+    }
+
+    /**
+     * @param db the Orient database instance
+     * @param and the selectors of the query
+     * @param tags the store of the message tags
+     * @param currentTimeMs the time relative selectors (e.g. {@link Before}) are resolved against
+     */
+    OsqlAnd(OrientGraph db, And and, TagStore tags, long currentTimeMs) {
         this.db = db;
         this.selectors = (Set) and.children(); // note that we limit this AND to only contain identifiers as a temporary measure until multi-level can be implemented
+        this.tags = tags;
+        this.currentTimeMs = currentTimeMs;
     }
 
     static Object[] concatenate(QueryPair... pairs) {
@@ -62,45 +88,55 @@ class OsqlAnd implements Iterable<OIdentifiable> {
         return objects.toArray(new Object[count]);
     }
 
-    private static QueryPair toQuery(Query.Identifier selector) {
+    private QueryPair toQuery(Query.Identifier selector) {
         if (selector instanceof Tag) {
             return toQuery((Tag) selector);
         } else if (selector instanceof Id) {
             return toQuery((Id) selector);
+        } else if (selector instanceof In) {
+            return toQuery((In) selector);
         } else if (selector instanceof Before) {
             return toQuery((Before) selector);
         } else {
-            throw new IllegalArgumentException("Unknown identifier type passed; only ID and TAG are currently supported: " + selector);
+            throw new IllegalArgumentException("Unknown identifier type passed; only ID, IN, TAG, and BEFORE are currently supported: " + selector);
         }
     }
 
-    private static QueryPair toQuery(Tag tag) {
-        String osql = "(SELECT expand(in()) FROM " + OrientDbNamespace.TAG_CLASS + " WHERE " + OrientDbNamespace.TAG_NAME_PROPERTY + " = ?)"; // TODO limit this to only vertices of the Message class?
-        return new QueryPair(osql, tag.value());
+    private QueryPair toQuery(Tag tag) {
+        return tags.toQuery(tag.value());
     }
 
     private static QueryPair toQuery(Id id) {
-        String osql = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " = ?)";
-        return new QueryPair(osql, id.value());
+        return new QueryPair(ID_OSQL, id.value());
     }
 
-    private static QueryPair toQuery(Before before) {
-        return toQuery(before, System.currentTimeMillis());
+    private static QueryPair toQuery(In in) {
+        return new QueryPair(IN_OSQL, in.value());
+    }
+
+    private QueryPair toQuery(Before before) {
+        return toQuery(before, currentTimeMs);
     }
 
     static QueryPair toQuery(Before before, long currentTimeMs) {
         long beforeNowMs = Math.multiplyExact(Math.max(0, before.value()), 1000); // handle values below 0 and overflows
         long absoluteBeforeMs = currentTimeMs - beforeNowMs;
-        String osql = "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + " <= ?)";
-        return new QueryPair(osql, absoluteBeforeMs);
+        return new QueryPair(BEFORE_OSQL, absoluteBeforeMs);
     }
 
-    private static <T> T first(Iterable<T> iterable) {
-        Iterator<T> it = iterable.iterator();
-        if (it.hasNext()) {
-            return it.next();
+    /**
+     * @param qs the query pairs for each selector, in order
+     * @return the OSQL text selecting the intersection of all selectors
+     */
+    private static String toOsql(QueryPair[] qs) {
+        if (qs.length == 1) {
+            // see documentation at http://orientdb.com/docs/2.0/orientdb.wiki/SQL-Where.html#record-attributes
+            return "SELECT FROM " + qs[0].osql;
+        } else {
+            String queriesOsql = String.join(", ", Arrays.stream(qs).map(q -> q.osql).toArray(CharSequence[]::new));
+            // see documentation at http://orientdb.com/docs/2.1/SQL-Functions.html#intersect
+            return "SELECT expand(intersect(" + queriesOsql + "))";
         }
-        throw new NoSuchElementException("Failed to find first element!");
     }
 
     /**
@@ -109,19 +145,81 @@ class OsqlAnd implements Iterable<OIdentifiable> {
     QueryPair toQuery() {
         if (selectors.isEmpty()) {
             return null;
-        } else if (selectors.size() == 1) {
-            QueryPair firstPair = toQuery(first(selectors));
-            // see documentation at http://orientdb.com/docs/2.0/orientdb.wiki/SQL-Where.html#record-attributes
-            String osql = "SELECT FROM " + firstPair.osql;
-            return new QueryPair(osql, firstPair.params);
-        } else {
-            QueryPair[] qs = selectors.stream().map(OsqlAnd::toQuery).toArray(QueryPair[]::new);
-            String queriesOsql = String.join(", ", Arrays.stream(qs).map(q -> q.osql).toArray(CharSequence[]::new));
-            // see documentation at http://orientdb.com/docs/2.1/SQL-Functions.html#intersect
-            String osql = "SELECT expand(intersect(" + queriesOsql + "))";
-            Object[] params = concatenate(qs);
-            return new QueryPair(osql, params);
         }
+
+        QueryPair[] qs = selectors.stream().map(this::toQuery).toArray(QueryPair[]::new);
+        return new QueryPair(toOsql(qs), qs.length == 1 ? qs[0].params : concatenate(qs));
+    }
+
+    /**
+     * Build a query selecting the keys, i.e. the ID and timestamp, of the results of this query in the given order,
+     * starting after the key of a previous result; reading the keys a page at a time (the caller limits the number of
+     * rows of each page) means only one page of keys is held at once, and the content of a page is read afterwards,
+     * see {@link #toContentQuery(List)}.
+     *
+     * @param ordering the order of the results
+     * @param after the key (ID and timestamp) of the last result of the previous page or null for the first page
+     * @return a query pair selecting the keys of the results or null if there are no selectors
+     */
+    QueryPair toKeysQuery(Ordering ordering, PersistentMessage after) {
+        QueryPair q = toQuery();
+        if (q == null) {
+            return null;
+        }
+
+        if (after == null) {
+            return new QueryPair(toKeysOsql(q.osql, ordering, false), q.params);
+        }
+        Object[] afterParams = ordering.isByTimestamp()
+                ? new Object[]{after.getTimestamp(), after.getTimestamp(), after.getId()}
+                : new Object[]{after.getId()};
+        return new QueryPair(toKeysOsql(q.osql, ordering, true), concatenate(q.params, afterParams));
+    }
+
+    /**
+     * @param ids the IDs of messages
+     * @return a query pair selecting the ID and content of the messages with the given IDs, in no particular order
+     */
+    static QueryPair toContentQuery(List<Long> ids) {
+        return new QueryPair(CONTENT_OSQL, ids);
+    }
+
+    /**
+     * @return a query pair counting the results of this query or null if there are no selectors; the results are
+     * counted by the database so no records are returned
+     */
+    QueryPair toCountQuery() {
+        QueryPair q = toQuery();
+        if (q == null) {
+            return null;
+        }
+
+        return new QueryPair("SELECT count(*) FROM (" + q.osql + ")", q.params);
+    }
+
+    /**
+     * @param query a query pair previously built by {@link #toQuery()}; passing it in allows selecting several chunks
+     * with the same parameters (e.g. the same absolute time for a relative {@link Before})
+     * @param limit the maximum number of vertices to select
+     * @return a query pair selecting at most {@code limit} results of the query
+     */
+    QueryPair toLimitQuery(QueryPair query, int limit) {
+        return new QueryPair("SELECT FROM (" + query.osql + ") LIMIT " + limit, query.params);
+    }
+
+    private static String toKeysOsql(String queryOsql, Ordering ordering, boolean after) {
+        String id = OrientDbNamespace.MESSAGE_ID_PROPERTY;
+        String ts = OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY;
+        String direction = ordering.isAscending() ? " ASC" : " DESC";
+        String order = ordering.isByTimestamp() ? ts + direction + ", " + id + direction : id + direction;
+        String where = "";
+        if (after) {
+            String beyond = ordering.isAscending() ? " > ?" : " < ?";
+            where = ordering.isByTimestamp()
+                    ? " WHERE " + ts + beyond + " OR (" + ts + " = ? AND " + id + beyond + ")"
+                    : " WHERE " + id + beyond;
+        }
+        return "SELECT " + id + ", " + ts + " FROM (" + queryOsql + ")" + where + " ORDER BY " + order;
     }
 
     @Override
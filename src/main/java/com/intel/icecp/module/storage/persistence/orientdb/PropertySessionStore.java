@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Store session membership as properties of each message, see {@link SessionLayout#PROPERTY}; all queries are ranges
+ * of the {@link OrientDbNamespace#MESSAGE_SESSION_INDEX} index.
+ *
+ */
+final class PropertySessionStore implements SessionStore {
+    private static final String SESSION_WHERE_OSQL = " FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE " + OrientDbNamespace.MESSAGE_SESSION_PROPERTY + " = ?";
+    private static final String MESSAGES_OSQL = "SELECT" + SESSION_WHERE_OSQL + " AND " + OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY + " >= ? AND " +
+            OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY + " < ? ORDER BY " +
+            OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY + " ASC";
+    private static final String BETWEEN_OSQL = "SELECT" + SESSION_WHERE_OSQL + " AND " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " BETWEEN ? AND ? ORDER BY " +
+            OrientDbNamespace.MESSAGE_ID_PROPERTY + " ASC";
+    private static final String COUNT_OSQL = "SELECT count(*)" + SESSION_WHERE_OSQL;
+    private static final String LAST_INDEX_OSQL = "SELECT " + OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY + SESSION_WHERE_OSQL + " ORDER BY " +
+            OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY + " DESC LIMIT 1";
+    private final Supplier<OrientGraph> graphs;
+
+    /**
+     * @param graphs supplies the Orient database instance of the current thread
+     */
+    PropertySessionStore(Supplier<OrientGraph> graphs) {
+        this.graphs = graphs;
+    }
+
+    @Override
+    public void add(Vertex session, Vertex message, int index) {
+        message.setProperty(OrientDbNamespace.MESSAGE_SESSION_PROPERTY, sessionIdOf(session));
+        message.setProperty(OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY, index);
+    }
+
+    @Override
+    public Stream<Vertex> messagesOf(Vertex session, int fromIndex) {
+        return messagesOf(session, fromIndex, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Stream<Vertex> messagesOf(Vertex session, int fromIndex, int toIndex) {
+        Iterable<Vertex> messages = graphs.get().command(new OCommandSQL(MESSAGES_OSQL)).execute(sessionIdOf(session), Math.max(0, fromIndex), toIndex);
+        return StreamSupport.stream(messages.spliterator(), false);
+    }
+
+    @Override
+    public Stream<Vertex> messagesBetween(Vertex session, long fromId, long toId) {
+        Iterable<Vertex> messages = graphs.get().command(new OCommandSQL(BETWEEN_OSQL)).execute(sessionIdOf(session), fromId, toId);
+        return StreamSupport.stream(messages.spliterator(), false);
+    }
+
+    @Override
+    public long count(Vertex session) {
+        Iterable<Vertex> result = graphs.get().command(new OCommandSQL(COUNT_OSQL)).execute(sessionIdOf(session));
+        Iterator<Vertex> it = result.iterator();
+        return it.hasNext() ? ((Number) it.next().getProperty("count")).longValue() : 0L;
+    }
+
+    @Override
+    public int lastIndex(Vertex session) {
+        // the last index is the first entry of a descending index range
+        Iterable<Vertex> result = graphs.get().command(new OCommandSQL(LAST_INDEX_OSQL)).execute(sessionIdOf(session));
+        Iterator<Vertex> it = result.iterator();
+        return it.hasNext() ? (int) it.next().getProperty(OrientDbNamespace.MESSAGE_SESSION_INDEX_PROPERTY) : -1;
+    }
+
+    @Override
+    public boolean remove(Vertex session, Vertex message) {
+        // a message belongs to exactly one session
+        return true;
+    }
+
+    private static long sessionIdOf(Vertex session) {
+        return session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+    }
+}
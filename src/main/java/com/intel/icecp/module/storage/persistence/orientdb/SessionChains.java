@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maintain the session chain index: the sessions renamed from the same original session (i.e. the sessions linked by
+ * {@link OrientDbNamespace#SESSION_SESSION_RELATIONSHIP} edges) form a chain, stored once as an ordered list of session
+ * IDs, oldest first, in a {@link OrientDbNamespace#SESSION_CHAIN_CLASS} vertex. Each session of a chain only refers to
+ * it by its indexed {@link OrientDbNamespace#SESSION_CHAIN_ID_KEY}; a session that was never renamed has no chain.
+ * Renaming a session appends to its chain, and deleting a session rewrites the chains containing it, found by the
+ * index of their members, but none of the other sessions.
+ * <p>
+ * This allows listing the linked sessions of a session by reading its chain. Renaming a session that is not the newest
+ * of its chain starts a new chain sharing the older sessions.
+ *
+ */
+final class SessionChains {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private SessionChains() {
+        // do not allow instances of this class
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @param session a session vertex
+     * @return the IDs of the session and of the sessions it was renamed from, newest first; never null
+     */
+    static List<Long> membersOf(OrientGraph graph, Vertex session) {
+        Long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        List<Long> chain = membersOf(chainOf(graph, session));
+        int position = chain.indexOf(sessionId);
+        if (position < 0) {
+            return Collections.singletonList(sessionId);
+        }
+        List<Long> members = new ArrayList<>(chain.subList(0, position + 1));
+        Collections.reverse(members);
+        return members;
+    }
+
+    /**
+     * Append a new session to the chain of the session it was renamed from
+     *
+     * @param graph the Orient database instance
+     * @param session the new session vertex
+     * @param renamed the session vertex it was renamed from
+     */
+    static void renamed(OrientGraph graph, Vertex session, Vertex renamed) {
+        Long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        Long renamedId = renamed.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        Vertex chain = chainOf(graph, renamed);
+        if (chain == null) {
+            chain = addChain(graph, renamedId, Collections.singletonList(renamedId));
+            renamed.setProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY, renamedId);
+        }
+
+        List<Long> members = new ArrayList<>(membersOf(chain));
+        if (!members.isEmpty() && renamedId.equals(members.get(members.size() - 1))) {
+            members.add(sessionId);
+            chain.setProperty(OrientDbNamespace.SESSION_CHAIN_MEMBERS_PROPERTY, members);
+            session.setProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY, chain.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_PROPERTY));
+        } else {
+            // the renamed session is not the newest of its chain, so the chain branches
+            List<Long> branch = new ArrayList<>(members.subList(0, members.indexOf(renamedId) + 1));
+            branch.add(sessionId);
+            addChain(graph, sessionId, branch);
+            session.setProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY, sessionId);
+        }
+    }
+
+    /**
+     * Remove a session from all chains; a chain left with a single session is removed. This must be called before the
+     * session vertex is removed.
+     *
+     * @param graph the Orient database instance
+     * @param session the session vertex about to be removed
+     */
+    static void deleting(OrientGraph graph, Vertex session) {
+        Long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        List<Vertex> chains = new ArrayList<>();
+        graph.getVertices(OrientDbNamespace.SESSION_CHAIN_MEMBERS_VERTEX_KEY, sessionId).forEach(chains::add);
+        for (Vertex chain : chains) {
+            List<Long> members = new ArrayList<>(membersOf(chain));
+            members.remove(sessionId);
+            if (members.size() > 1) {
+                chain.setProperty(OrientDbNamespace.SESSION_CHAIN_MEMBERS_PROPERTY, members);
+            } else {
+                // the remaining session keeps its chain ID, which then refers to no chain
+                graph.removeVertex(chain);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the chains from the session links; this visits every session and should only be necessary once, when
+     * the index is added to an existing database
+     *
+     * @param graph the Orient database instance
+     */
+    static void rebuild(OrientGraph graph) {
+        graph.getVerticesOfClass(OrientDbNamespace.SESSION_CHAIN_CLASS).forEach(graph::removeVertex);
+        long sessions = 0;
+        for (Vertex session : graph.getVerticesOfClass(OrientDbNamespace.SESSION_CLASS)) {
+            session.removeProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY);
+            OrientDbNamespace.checkpoint(graph, ++sessions);
+        }
+
+        long chains = 0;
+        sessions = 0;
+        for (Vertex session : graph.getVerticesOfClass(OrientDbNamespace.SESSION_CLASS)) {
+            OrientDbNamespace.checkpoint(graph, ++sessions);
+            if (session.getEdges(Direction.IN, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator().hasNext()) {
+                // only the newest session of a chain, which no session was renamed from, starts a walk
+                continue;
+            }
+            List<Long> members = new ArrayList<>();
+            List<Vertex> vertices = new ArrayList<>();
+            Set<Object> visited = new HashSet<>();
+            Vertex v = session;
+            // follow the links iteratively, guarding against cycles
+            while (v != null && visited.add(v.getId())) {
+                members.add(0, v.getProperty(OrientDbNamespace.SESSION_ID_KEY));
+                vertices.add(v);
+                v = next(v);
+            }
+            if (members.size() < 2) {
+                continue;
+            }
+            // the chain is identified by its oldest session, unless it is shared with a chain built before
+            Long chainId = members.get(0);
+            if (graph.getVertices(OrientDbNamespace.SESSION_CHAIN_ID_VERTEX_KEY, chainId).iterator().hasNext()) {
+                chainId = members.get(members.size() - 1);
+            }
+            addChain(graph, chainId, members);
+            for (Vertex member : vertices) {
+                if (member.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY) == null || member == session) {
+                    member.setProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY, chainId);
+                }
+            }
+            chains++;
+        }
+        LOGGER.info("Rebuilt {} session chain(s)", chains);
+    }
+
+    private static Vertex addChain(OrientGraph graph, long chainId, List<Long> members) {
+        return graph.addVertex(OrientDbNamespace.SESSION_CHAIN_VERTEX_CLASS_NAME, OrientDbNamespace.SESSION_CHAIN_ID_PROPERTY, chainId,
+                OrientDbNamespace.SESSION_CHAIN_MEMBERS_PROPERTY, new ArrayList<>(members));
+    }
+
+    private static Vertex chainOf(OrientGraph graph, Vertex session) {
+        Long chainId = session.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY);
+        if (chainId == null) {
+            return null;
+        }
+        Iterator<Vertex> chains = graph.getVertices(OrientDbNamespace.SESSION_CHAIN_ID_VERTEX_KEY, chainId).iterator();
+        return chains.hasNext() ? chains.next() : null;
+    }
+
+    private static List<Long> membersOf(Vertex chain) {
+        List<Long> members = chain != null ? chain.getProperty(OrientDbNamespace.SESSION_CHAIN_MEMBERS_PROPERTY) : null;
+        return members != null ? members : Collections.emptyList();
+    }
+
+    private static Vertex next(Vertex session) {
+        Iterator<Edge> links = session.getEdges(Direction.OUT, OrientDbNamespace.SESSION_SESSION_RELATIONSHIP).iterator();
+        return links.hasNext() ? links.next().getVertex(Direction.IN) : null;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+/**
+ * Enumeration of the supported layouts for storing which messages belong to a session
+ *
+ */
+public enum SessionLayout {
+    /**
+     * Each session vertex has an edge to each of its messages; the edge holds the index of the message in the session,
+     * so every saved message also adds an edge to the session vertex.
+     */
+    EDGE,
+    /**
+     * Each message holds the ID of its session and its index in the session as properties, indexed together by {@link
+     * OrientDbNamespace#MESSAGE_SESSION_INDEX}; saving a message does not modify the session vertex (except for the
+     * occasional high-water mark, see {@link SessionSequences}) and reading the messages of a session is an index range
+     * query. Existing databases cannot change their layout.
+     */
+    PROPERTY
+}
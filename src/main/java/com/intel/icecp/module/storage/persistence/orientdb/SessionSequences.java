@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Vertex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocate the indexes of the messages of each session from in-memory counters instead of reading and writing the
+ * {@link OrientDbNamespace#SESSION_NEXT_INDEX_KEY} of the session vertex for every saved message. The session vertex
+ * holds a high-water mark above all indexes allocated by committed transactions: a transaction allocating an index at
+ * or above the mark it sees also moves the mark a block of {@link #BLOCK_SIZE} indexes further, so most transactions
+ * saving messages do not modify the session vertex. Since the mark is written by the transaction saving the message, a
+ * rolled back transaction cannot leave a committed index above it.
+ * <p>
+ * A counter is recovered from the high-water mark of its session when the session is first used (e.g. after a
+ * restart), or from the largest index stored in the session if it has no mark. Indexes skipped by a recovery, or
+ * allocated to messages whose transaction is rolled back, leave gaps, as do removed messages.
+ *
+ */
+final class SessionSequences {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final int BLOCK_SIZE = 64;
+    private final SessionStore sessionStore;
+    private final Map<Long, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param sessionStore the store of the session messages, used for recovering counters
+     */
+    SessionSequences(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Allocate the index of a new message of a session; the high-water mark is written to the session vertex if the
+     * index reaches it, which must be part of the transaction saving the message
+     *
+     * @param session a session vertex, as seen by the transaction saving the message
+     * @return the index of the new message
+     */
+    int next(Vertex session) {
+        int index = counterOf(session).getAndIncrement();
+        Number mark = session.getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY);
+        if (mark == null || index >= mark.intValue()) {
+            session.setProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY, index + BLOCK_SIZE);
+        }
+        return index;
+    }
+
+    /**
+     * @param session a session vertex
+     * @return the index that the next message of the session will have
+     */
+    int peek(Vertex session) {
+        return counterOf(session).get();
+    }
+
+    /**
+     * Drop the counter of a removed session
+     *
+     * @param sessionId the session ID
+     */
+    void remove(long sessionId) {
+        counters.remove(sessionId);
+    }
+
+    private AtomicInteger counterOf(Vertex session) {
+        long sessionId = session.getProperty(OrientDbNamespace.SESSION_ID_KEY);
+        return counters.computeIfAbsent(sessionId, id -> {
+            Number mark = session.getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY);
+            int next = mark != null ? mark.intValue() : sessionStore.lastIndex(session) + 1;
+            LOGGER.debug("Recovered next message index {} of session {}", next, id);
+            return new AtomicInteger(next);
+        });
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Vertex;
+
+import java.util.stream.Stream;
+
+/**
+ * Store which messages belong to a session using one of the {@link SessionLayout}s; each message of a session has an
+ * index, allocated in increasing order by {@link SessionSequences}.
+ *
+ */
+interface SessionStore {
+
+    /**
+     * Add a message to the end of a session
+     *
+     * @param session a session vertex
+     * @param message a message vertex
+     * @param index the index of the message in the session, see {@link SessionSequences}
+     */
+    void add(Vertex session, Vertex message, int index);
+
+    /**
+     * @param session a session vertex
+     * @param fromIndex the smallest index of the messages to return
+     * @return the message vertices of the session with an index of at least {@code fromIndex}, in index order
+     */
+    Stream<Vertex> messagesOf(Vertex session, int fromIndex);
+
+    /**
+     * Read the messages of a session within a range of indexes; since indexes are allocated in increasing order,
+     * passing the next index of the session (see {@link SessionSequences#peek(Vertex)}) as {@code toIndex} bounds a
+     * read to the messages saved before it started, even if messages are saved to the session while it is read
+     *
+     * @param session a session vertex
+     * @param fromIndex the smallest index of the messages to return
+     * @param toIndex the index after the largest index of the messages to return
+     * @return the message vertices of the session with an index in [{@code fromIndex}, {@code toIndex}), in index order
+     */
+    Stream<Vertex> messagesOf(Vertex session, int fromIndex, int toIndex);
+
+    /**
+     * Read the messages of a session within a range of message IDs using the {@link OrientDbNamespace#MESSAGE_ID_INDEX}
+     * index; only the messages within the range are visited and no message needs to have exactly the boundary IDs
+     *
+     * @param session a session vertex
+     * @param fromId the smallest ID of the messages to return
+     * @param toId the largest ID of the messages to return
+     * @return the message vertices of the session with an ID in [{@code fromId}, {@code toId}], in ID order
+     */
+    Stream<Vertex> messagesBetween(Vertex session, long fromId, long toId);
+
+    /**
+     * @param session a session vertex
+     * @return the number of messages in the session
+     */
+    long count(Vertex session);
+
+    /**
+     * @param session a session vertex
+     * @return the largest index of the messages stored in the session or -1 if the session has no messages
+     */
+    int lastIndex(Vertex session);
+
+    /**
+     * Remove a message from a session; the message vertex itself is not removed
+     *
+     * @param session a session vertex
+     * @param message a message vertex of the session
+     * @return true if the message no longer belongs to any session and should be removed
+     */
+    boolean remove(Vertex session, Vertex message);
+}
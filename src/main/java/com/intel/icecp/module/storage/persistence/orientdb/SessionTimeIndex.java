@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintain the session time index: each session vertex holds, in the indexed
+ * {@link OrientDbNamespace#SESSION_TIME_BUCKETS_KEY} list, the fixed-size time buckets its messages span, and the
+ * bounds of these buckets ({@link OrientDbNamespace#SESSION_FIRST_TIMESTAMP_KEY} and
+ * {@link OrientDbNamespace#SESSION_LAST_TIMESTAMP_KEY}). The sessions overlapping a time window are then found by
+ * looking up the buckets of the window, so the cost depends on the sessions near the window rather than on all sessions
+ * ever recorded.
+ * <p>
+ * Since the indexed properties only hold bucket bounds, they are only written when a message falls outside of the
+ * buckets of its session, i.e. about once a day for a recording session, instead of with every message. The exact
+ * bounds are read when a session is found: they are the timestamps of its first and last messages, which are saved in
+ * timestamp order. Messages expired from a session narrow its buckets, see {@link #expired(Vertex, long)}.
+ *
+ */
+final class SessionTimeIndex {
+    static final long BUCKET_MS = TimeUnit.DAYS.toMillis(1);
+    // windows covering more buckets than this are answered by a range query on the indexed last timestamp instead
+    static final int MAX_LOOKUP_BUCKETS = 1024;
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String OVERLAPPING_OSQL = "SELECT FROM " + OrientDbNamespace.SESSION_CLASS + " WHERE " +
+            OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY + " >= ? AND " + OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY + " <= ?";
+
+    private SessionTimeIndex() {
+        // do not allow instances of this class
+    }
+
+    /**
+     * @param timestamp a timestamp in milliseconds
+     * @return the time bucket of the timestamp
+     */
+    static long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, BUCKET_MS);
+    }
+
+    /**
+     * Widen the time buckets of a session to include a saved message
+     *
+     * @param session a session vertex
+     * @param timestamp the timestamp of the saved message
+     */
+    static void saved(Vertex session, long timestamp) {
+        Long first = session.getProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY);
+        Long last = session.getProperty(OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY);
+        long bucket = bucketOf(timestamp);
+        if (first != null && last != null && bucketOf(first) <= bucket && bucket <= bucketOf(last)) {
+            // most messages fall into the buckets already covered, so the session is not written
+            return;
+        }
+        long firstBucket = first != null ? Math.min(bucketOf(first), bucket) : bucket;
+        long lastBucket = last != null ? Math.max(bucketOf(last), bucket) : bucket;
+        setBuckets(session, firstBucket, lastBucket);
+    }
+
+    /**
+     * Narrow the time buckets of a session after the messages saved before a cutoff were removed from it
+     *
+     * @param session a session vertex
+     * @param cutoffTimestamp the messages with an earlier timestamp were removed
+     */
+    static void expired(Vertex session, long cutoffTimestamp) {
+        Long first = session.getProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY);
+        Long last = session.getProperty(OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY);
+        long firstBucket = bucketOf(cutoffTimestamp);
+        if (first == null || last == null || firstBucket <= bucketOf(first)) {
+            return;
+        }
+        if (firstBucket > bucketOf(last)) {
+            // all messages expired
+            session.removeProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY);
+            session.removeProperty(OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY);
+            session.removeProperty(OrientDbNamespace.SESSION_TIME_BUCKETS_KEY);
+        } else {
+            setBuckets(session, firstBucket, bucketOf(last));
+        }
+    }
+
+    private static void setBuckets(Vertex session, long firstBucket, long lastBucket) {
+        session.setProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY, firstBucket * BUCKET_MS);
+        session.setProperty(OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY, (lastBucket + 1) * BUCKET_MS - 1);
+        List<Long> buckets = new ArrayList<>();
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+            buckets.add(bucket);
+        }
+        session.setProperty(OrientDbNamespace.SESSION_TIME_BUCKETS_KEY, buckets);
+    }
+
+    /**
+     * Find the sessions with messages saved within a time window; sessions marked as deleted are ignored
+     *
+     * @param graph the Orient database instance
+     * @param sessionStore the store of the session messages, used to read the exact bounds of the sessions found
+     * @param fromTimestamp the start of the window, inclusive
+     * @param toTimestamp the end of the window, inclusive
+     * @return the time spans of the overlapping sessions, ordered by channel and then by first timestamp
+     */
+    static List<SessionTimeSpan> overlapping(OrientGraph graph, SessionStore sessionStore, long fromTimestamp, long toTimestamp) {
+        if (fromTimestamp > toTimestamp) {
+            return Collections.emptyList();
+        }
+
+        Map<Object, Vertex> candidates = new LinkedHashMap<>();
+        long buckets = bucketOf(toTimestamp) - bucketOf(fromTimestamp) + 1;
+        if (buckets > 0 && buckets <= MAX_LOOKUP_BUCKETS) {
+            for (long bucket = bucketOf(fromTimestamp); bucket <= bucketOf(toTimestamp); bucket++) {
+                for (Vertex v : graph.getVertices(OrientDbNamespace.SESSION_TIME_BUCKETS_VERTEX_KEY, bucket)) {
+                    candidates.putIfAbsent(v.getId(), v);
+                }
+            }
+        } else {
+            Iterable<Vertex> vertices = graph.command(new OCommandSQL(OVERLAPPING_OSQL)).execute(fromTimestamp, toTimestamp);
+            vertices.forEach(v -> candidates.putIfAbsent(v.getId(), v));
+        }
+
+        List<SessionTimeSpan> spans = new ArrayList<>();
+        for (Vertex session : candidates.values()) {
+            if (Boolean.TRUE.equals(session.getProperty(OrientDbNamespace.SESSION_TOMBSTONE_KEY))) {
+                continue;
+            }
+            SessionTimeSpan span = spanOf(session, sessionStore);
+            if (span != null && span.getFirstTimestamp() <= toTimestamp && span.getLastTimestamp() >= fromTimestamp) {
+                spans.add(span);
+            }
+        }
+        spans.sort(Comparator.comparing((SessionTimeSpan s) -> s.getChannel().toString()).thenComparingLong(SessionTimeSpan::getFirstTimestamp));
+        LOGGER.debug("Found {} session(s) overlapping [{}, {}] among {} candidate(s)", spans.size(), fromTimestamp, toTimestamp, candidates.size());
+        return spans;
+    }
+
+    /**
+     * Rebuild the time bounds of all sessions from their messages; this visits every message and should only be
+     * necessary once, when the index is added to an existing database
+     *
+     * @param graph the Orient database instance
+     */
+    static void rebuild(OrientGraph graph) {
+        long messages = 0;
+        for (Vertex message : graph.getVerticesOfClass(OrientDbNamespace.MESSAGE_CLASS)) {
+            long timestamp = message.getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY);
+            ChannelCatalog.sessionsOf(graph, message).forEach(s -> saved(s, timestamp));
+            OrientDbNamespace.checkpoint(graph, ++messages);
+        }
+        LOGGER.info("Rebuilt session time index from {} message(s)", messages);
+    }
+
+    /**
+     * @param session a session vertex
+     * @param sessionStore the store of the session messages
+     * @return the exact time span of the session or null if it has no messages
+     */
+    static SessionTimeSpan spanOf(Vertex session, SessionStore sessionStore) {
+        int lastIndex = sessionStore.lastIndex(session);
+        if (lastIndex < 0) {
+            return null;
+        }
+        Optional<Vertex> first = sessionStore.messagesOf(session, 0).findFirst();
+        Optional<Vertex> last = sessionStore.messagesOf(session, lastIndex).findFirst();
+        if (!first.isPresent() || !last.isPresent()) {
+            return null;
+        }
+        return new SessionTimeSpan(URI.create(String.valueOf((Object) session.getProperty(OrientDbNamespace.SESSION_CHANNEL_KEY))),
+                session.getProperty(OrientDbNamespace.SESSION_ID_KEY),
+                first.get().getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY),
+                last.get().getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY));
+    }
+}
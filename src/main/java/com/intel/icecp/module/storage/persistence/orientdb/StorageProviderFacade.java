@@ -22,20 +22,26 @@ import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+import com.intel.icecp.module.storage.persistence.ChannelStatistics;
+import com.intel.icecp.module.storage.persistence.Ordering;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
+import com.intel.icecp.module.storage.persistence.Projection;
 import com.intel.icecp.module.storage.persistence.providers.LegacyStorageProvider;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
 import com.intel.icecp.module.storage.persistence.providers.TaggedStorageProvider;
-import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import com.orientechnologies.orient.core.index.OIndex;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 /**
  * Class which implements specific versions of the provider and proxies calls onto legacy/tagged provider
@@ -62,6 +68,13 @@ import java.util.concurrent.TimeUnit;
  * }
  * </code> </blockquote> For more details on how to configure OrientDB for local
  * file persistent path, please see {@link OrientDbConfiguration}. <br>
+ * <p>
+ * Each thread uses its own database instance (see {@link OrientGraphPool}), so operations run concurrently and only
+ * see committed changes of other threads. An operation that modifies the database outside of a transaction runs in its
+ * own transaction, which is retried if it conflicts with a concurrent one (see {@link OrientTransaction}). Transactions
+ * started with {@link #beginTransaction()} belong to the calling thread and run concurrently with the transactions of
+ * other threads; they must be committed or rolled back on the thread that began them, and a commit conflicting with a
+ * concurrent transaction fails so that the caller can run the transaction again.
  *
  * @see OrientDbConfiguration
  * @see LegacyStorageProvider
@@ -69,11 +82,14 @@ import java.util.concurrent.TimeUnit;
  */
 public class StorageProviderFacade implements StorageProvider {
     private static final Logger LOGGER = LogManager.getLogger();
+    private static final int TAG_MIGRATION_CHUNK_SIZE = 100;
 
-    private final OrientGraph db;
+    private final OrientGraphPool graphs;
     private final TaggedStorageProvider taggedStorageProvider;
     private final LegacyStorageProvider legacyStorageProvider;
-    private static Semaphore lock = new Semaphore(1);
+    private ExecutorService tagMigration;
+    private volatile boolean closing;
+
     /**
      * The constructor with the default configuration.
      *
@@ -94,16 +110,19 @@ public class StorageProviderFacade implements StorageProvider {
      */
     StorageProviderFacade(OrientDbConfiguration configuration) {
         if (configuration != null) {
-            synchronized (this) {
-                this.db = GraphDbUtils.getGraphDbInstance(configuration);
-            }
+            this.graphs = new OrientGraphPool(GraphDbUtils.getGraphFactory(configuration));
 
             // setup all the necessary graph specific schemas
-            OrientDbNamespace.setupSchemata(db);
+            OrientDbNamespace.setupSchemata(graphs.get());
+
+            TagStore tagStore = createTagStore(configuration.getTagLayout());
+            SessionStore sessionStore = createSessionStore(configuration.getSessionLayout());
+            IdAllocator ids = new IdAllocator(graphs);
+            legacyStorageProvider = new LegacyOrientDbStorageProvider(graphs, tagStore, sessionStore, ids);
+            taggedStorageProvider = new TaggedOrientDbStorageProvider(graphs, tagStore, ids);
 
-            synchronized (db) {
-                legacyStorageProvider = new LegacyOrientDbStorageProvider(db);
-                taggedStorageProvider = new TaggedOrientDbStorageProvider(db);
+            if (tagStore instanceof EmbeddedTagStore && ((EmbeddedTagStore) tagStore).isMigrating()) {
+                startTagMigration((EmbeddedTagStore) tagStore);
             }
 
             LOGGER.debug("Storage provider initialized with graph engine: {}", configuration.getStorageType().toString());
@@ -112,26 +131,93 @@ public class StorageProviderFacade implements StorageProvider {
         }
     }
 
+    private TagStore createTagStore(TagLayout layout) {
+        if (layout == TagLayout.EMBEDDED) {
+            // existing databases may still have tag edges, which are migrated in the background
+            return new EmbeddedTagStore(graphs, graphs.get().countEdges(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP) > 0);
+        }
+
+        OIndex<?> embeddedTags = graphs.get().getRawGraph().getMetadata().getIndexManager().getIndex(OrientDbNamespace.MESSAGE_TAGS_INDEX);
+        if (embeddedTags != null && embeddedTags.getSize() > 0) {
+            graphs.shutdown();
+            throw new IllegalArgumentException("Tags are stored in the " + TagLayout.EMBEDDED + " layout; migrating them back to the " + TagLayout.EDGE + " layout is not supported!");
+        }
+        return new EdgeTagStore();
+    }
+
+    private SessionStore createSessionStore(SessionLayout layout) {
+        OIndex<?> sessionProperties = graphs.get().getRawGraph().getMetadata().getIndexManager().getIndex(OrientDbNamespace.MESSAGE_SESSION_INDEX);
+        boolean hasSessionProperties = sessionProperties != null && sessionProperties.getSize() > 0;
+        boolean hasSessionEdges = graphs.get().countEdges(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP) > 0;
+        if ((layout == SessionLayout.EDGE && hasSessionProperties) || (layout == SessionLayout.PROPERTY && hasSessionEdges)) {
+            graphs.shutdown();
+            throw new IllegalArgumentException("Sessions are stored in the other layout; changing the session layout of a database to " + layout + " is not supported!");
+        }
+        return layout == SessionLayout.PROPERTY ? new PropertySessionStore(graphs) : new EdgeSessionStore();
+    }
+
+    private void startTagMigration(EmbeddedTagStore tagStore) {
+        tagMigration = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "storage-tag-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tagMigration.execute(() -> migrateTags(tagStore));
+    }
+
+    /**
+     * Migrate the tag edges to the embedded layout one chunk (and transaction) at a time so that other storage
+     * operations are only blocked for the duration of a chunk; an interrupted migration continues the next time the
+     * provider is created
+     */
+    private void migrateTags(EmbeddedTagStore tagStore) {
+        LOGGER.info("Migrating tags to the {} layout", TagLayout.EMBEDDED);
+        long migrated = 0;
+        try {
+            int chunk;
+            do {
+                beginTransaction();
+                try {
+                    chunk = tagStore.migrate(TAG_MIGRATION_CHUNK_SIZE);
+                    commitTransaction();
+                } catch (RuntimeException e) {
+                    rollbackTransaction();
+                    throw e;
+                }
+                migrated += chunk;
+            } while (chunk > 0 && !closing);
+            LOGGER.info("Migrated the tags of {} message(s)", migrated);
+        } catch (StorageModuleException | RuntimeException e) {
+            LOGGER.error("Tag migration stopped after {} message(s)", migrated, e);
+        } finally {
+            graphs.release();
+        }
+    }
+
     /**
      * Shuts down the current graph database instance to clean up the resources.
      * The shutdown instance cannot be re-used any more.
      */
-    public synchronized void shutdown() {
-        GraphDbUtils.shutdownDbInstance(db);
+    public void shutdown() {
+        closing = true;
+        if (tagMigration != null) {
+            tagMigration.shutdown();
+        }
+        graphs.shutdown();
     }
 
     /**
      * Drop the current graph database instance from the disk.
      */
-    public synchronized void drop() {
-        GraphDbUtils.dropDbInstance(db);
+    public void drop() {
+        GraphDbUtils.dropDbInstance(graphs.get());
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getActiveMinimumTimestamp(String channelName) throws TaggingOperationException {
+    public long getActiveMinimumTimestamp(String channelName) throws TaggingOperationException {
         return taggedStorageProvider.getActiveMinimumTimestamp(channelName);
     }
 
@@ -139,7 +225,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getActiveMaximumTimestamp(String channelName) throws TaggingOperationException {
+    public long getActiveMaximumTimestamp(String channelName) throws TaggingOperationException {
         return taggedStorageProvider.getActiveMaximumTimestamp(channelName);
     }
 
@@ -147,7 +233,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Id add(BytesMessage message) throws TaggingOperationException {
+    public Id add(BytesMessage message) throws TaggingOperationException {
         return taggedStorageProvider.add(message);
     }
 
@@ -155,7 +241,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<PersistentMessage> find(Query query) throws TaggingOperationException {
+    public Set<PersistentMessage> find(Query query) throws TaggingOperationException {
         return taggedStorageProvider.find(query);
     }
 
@@ -163,7 +249,15 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<PersistentMessage> remove(Query query) throws TaggingOperationException {
+    public Stream<PersistentMessage> find(Query query, int limit, Ordering ordering, Projection projection) throws TaggingOperationException {
+        return taggedStorageProvider.find(query, limit, ordering, projection);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<PersistentMessage> remove(Query query) throws TaggingOperationException {
         return taggedStorageProvider.remove(query);
     }
 
@@ -171,7 +265,39 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Id> tag(Query query, Tag tag) throws TaggingOperationException {
+    public long count(Query query) throws TaggingOperationException {
+        return taggedStorageProvider.count(query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long removeCount(Query query) throws TaggingOperationException {
+        return taggedStorageProvider.removeCount(query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long removeCount(Query query, int limit) throws TaggingOperationException {
+        return taggedStorageProvider.removeCount(query, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long removeCount(Query query, int limit, long currentTimeMs) throws TaggingOperationException {
+        return taggedStorageProvider.removeCount(query, limit, currentTimeMs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Id> tag(Query query, Tag tag) throws TaggingOperationException {
         return taggedStorageProvider.tag(query, tag);
     }
 
@@ -179,7 +305,15 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Id> untag(Query query, Tag tag) throws TaggingOperationException {
+    public Set<Id> tag(Query query, Tag... tags) throws TaggingOperationException {
+        return taggedStorageProvider.tag(query, tags);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Id> untag(Query query, Tag tag) throws TaggingOperationException {
         return taggedStorageProvider.untag(query, tag);
     }
 
@@ -187,7 +321,15 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Tag> related(Tag... tags) throws TaggingOperationException {
+    public Set<Id> untag(Query query, Tag... tags) throws TaggingOperationException {
+        return taggedStorageProvider.untag(query, tags);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Tag> related(Tag... tags) throws TaggingOperationException {
         return taggedStorageProvider.related(tags);
     }
 
@@ -195,14 +337,15 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void beginTransaction() throws StorageModuleException {
-        try {
-            if (!lock.tryAcquire(60, TimeUnit.SECONDS)) {
-                throw new StorageModuleException("Failed to acquire lock");
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    public Map<Tag, Long> relatedCounts(Tag... tags) throws TaggingOperationException {
+        return taggedStorageProvider.relatedCounts(tags);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginTransaction() throws StorageModuleException {
         legacyStorageProvider.beginTransaction();
     }
 
@@ -210,21 +353,40 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void commitTransaction() {
-        legacyStorageProvider.commitTransaction();
+    public void commitTransaction() {
         legacyStorageProvider.commitTransaction();
-        lock.release();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized void rollbackTransaction() {
+    public void rollbackTransaction() {
         legacyStorageProvider.rollbackTransaction();
-        // Check to see if the lock has already been released by a commit.
-        if(lock.availablePermits() == 0) {
-            lock.release();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseThreadResources() {
+        graphs.release();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The work runs in an {@link OrientTransaction} scope; a transaction already begun on the current thread with
+     * {@link #beginTransaction()} is joined instead, and is then not retried.
+     */
+    @Override
+    public <T> T runInTransaction(TransactionWork<T> work) throws StorageModuleException, TaggingOperationException {
+        try {
+            return OrientTransaction.execute(graphs, work::run);
+        } catch (StorageModuleException | TaggingOperationException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // not thrown by the work
+            throw new IllegalStateException(e);
         }
     }
 
@@ -232,7 +394,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<URI> getChannels() {
+    public Set<URI> getChannels() {
         return legacyStorageProvider.getChannels();
     }
 
@@ -240,7 +402,23 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long createSession(URI channelName) throws StorageModuleException {
+    public ChannelStatistics getChannelStatistics(URI channelName) {
+        return legacyStorageProvider.getChannelStatistics(channelName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SessionTimeSpan> getSessionsOverlapping(long fromTimestamp, long toTimestamp) throws StorageModuleException {
+        return legacyStorageProvider.getSessionsOverlapping(fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long createSession(URI channelName) throws StorageModuleException {
         return legacyStorageProvider.createSession(channelName);
     }
 
@@ -248,7 +426,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long createSession(URI channelName, int maximumBufferingPeriodInSecond) throws StorageModuleException {
+    public long createSession(URI channelName, int maximumBufferingPeriodInSecond) throws StorageModuleException {
         return legacyStorageProvider.createSession(channelName, maximumBufferingPeriodInSecond);
     }
 
@@ -256,7 +434,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long renameSession(URI channelName, long sessionId) throws StorageModuleException {
+    public long renameSession(URI channelName, long sessionId) throws StorageModuleException {
         return legacyStorageProvider.renameSession(channelName, sessionId);
     }
 
@@ -264,7 +442,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Collection<Long>> getSessions(URI channelName) {
+    public Set<Collection<Long>> getSessions(URI channelName) {
         return legacyStorageProvider.getSessions(channelName);
     }
 
@@ -272,7 +450,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Collection<Long>> getSessions(long querySessionId) {
+    public Set<Collection<Long>> getSessions(long querySessionId) {
         return legacyStorageProvider.getSessions(querySessionId);
     }
 
@@ -280,7 +458,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized Set<Collection<Long>> getSessionsWithActiveMessages(long querySessionId) {
+    public Set<Collection<Long>> getSessionsWithActiveMessages(long querySessionId) {
         return legacyStorageProvider.getSessionsWithActiveMessages(querySessionId);
     }
 
@@ -288,7 +466,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void deleteMessagesByRange(long sessionId, long startMessageSeqNum, long endMessageSeqNum) throws StorageModuleException {
+    public void deleteMessagesByRange(long sessionId, long startMessageSeqNum, long endMessageSeqNum) throws StorageModuleException {
         legacyStorageProvider.deleteMessagesByRange(sessionId, startMessageSeqNum, endMessageSeqNum);
     }
 
@@ -296,7 +474,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void deleteSession(long sessionId) throws StorageModuleException {
+    public void deleteSession(long sessionId) throws StorageModuleException {
         legacyStorageProvider.deleteSession(sessionId);
     }
 
@@ -304,7 +482,31 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long saveMessage(long sessionId, PersistentMessage persistentMessage) throws StorageModuleException {
+    public void tombstoneSession(long sessionId) throws StorageModuleException {
+        legacyStorageProvider.tombstoneSession(sessionId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long reclaimSession(long sessionId, int chunkSize) throws StorageModuleException {
+        return legacyStorageProvider.reclaimSession(sessionId, chunkSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Long> getTombstonedSessions() {
+        return legacyStorageProvider.getTombstonedSessions();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long saveMessage(long sessionId, PersistentMessage persistentMessage) throws StorageModuleException {
         return legacyStorageProvider.saveMessage(sessionId, persistentMessage);
     }
 
@@ -312,7 +514,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized List<PersistentMessage> getMessages(long sessionId) throws StorageModuleException {
+    public List<PersistentMessage> getMessages(long sessionId) throws StorageModuleException {
         return legacyStorageProvider.getMessages(sessionId);
     }
 
@@ -320,7 +522,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized List<PersistentMessage> getMessages(long sessionId, int limit, int offset) throws StorageModuleException {
+    public List<PersistentMessage> getMessages(long sessionId, int limit, int offset) throws StorageModuleException {
         return legacyStorageProvider.getMessages(sessionId, limit, offset);
     }
 
@@ -328,7 +530,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean deleteMessages(long sessionId) throws StorageModuleException {
+    public boolean deleteMessages(long sessionId) throws StorageModuleException {
         return legacyStorageProvider.deleteMessages(sessionId);
     }
 
@@ -336,7 +538,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void deleteMessage(long sessionId, long channelSequenceNumber) throws StorageModuleException {
+    public void deleteMessage(long sessionId, long channelSequenceNumber) throws StorageModuleException {
         legacyStorageProvider.deleteMessage(sessionId, channelSequenceNumber);
     }
 
@@ -344,7 +546,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized int getSessionSize(long sessionId) {
+    public int getSessionSize(long sessionId) {
         return legacyStorageProvider.getSessionSize(sessionId);
     }
 
@@ -352,7 +554,7 @@ public class StorageProviderFacade implements StorageProvider {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getPreviousSession(long sessionId) {
+    public long getPreviousSession(long sessionId) {
         return legacyStorageProvider.getPreviousSession(sessionId);
     }
 
@@ -363,4 +565,4 @@ public class StorageProviderFacade implements StorageProvider {
     public long getLatestActiveSession(URI channelName) throws StorageModuleException {
         return legacyStorageProvider.getLatestActiveSession(channelName);
     }
-}
\ No newline at end of file
+}
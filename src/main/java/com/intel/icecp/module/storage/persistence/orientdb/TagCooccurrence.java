@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maintain the tag co-occurrence index: a {@link OrientDbNamespace#TAG_PAIR_CLASS} record per ordered pair of tags
+ * holds the number of messages tagged with both (the pair of a tag with itself holds its own message count). Pairs are
+ * stored in both directions and indexed by (tag, other tag), so the tags related to a tag are found with one index
+ * range lookup, without visiting the messages of the tag. Each record is small and only changes when a message is
+ * (un)tagged with both of its tags, unlike a single map per tag, which would be rewritten (and grow) with every tag
+ * operation involving the tag.
+ * <p>
+ * Changes are accumulated while messages are tagged, untagged or removed and must then be written with
+ * {@link #apply()}; since all changes to a pair are merged, each pair record is written at most once per operation.
+ *
+ */
+final class TagCooccurrence {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String PAIRS_OSQL = "SELECT FROM " + OrientDbNamespace.TAG_PAIR_CLASS
+            + " WHERE " + OrientDbNamespace.TAG_PAIR_TAG_PROPERTY + " = ?";
+    private static final String[] PAIR_KEYS = {OrientDbNamespace.TAG_PAIR_TAG_PROPERTY, OrientDbNamespace.TAG_PAIR_OTHER_PROPERTY};
+    private final OrientGraph graph;
+    private final Map<String, Map<String, Long>> changes = new LinkedHashMap<>();
+
+    /**
+     * @param graph the Orient database instance of the current thread
+     */
+    TagCooccurrence(OrientGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @param tag the name of a tag
+     * @return the co-occurrence counts of the tag, keyed by tag name; never null
+     */
+    static Map<String, Long> countsOf(OrientGraph graph, String tag) {
+        Map<String, Long> counts = new HashMap<>();
+        Iterable<Vertex> pairs = graph.command(new OCommandSQL(PAIRS_OSQL)).execute(tag);
+        for (Vertex pair : pairs) {
+            counts.put(pair.getProperty(OrientDbNamespace.TAG_PAIR_OTHER_PROPERTY), countOf(pair));
+        }
+        return counts;
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @param tag the name of a tag
+     * @param other the name of another tag, or the same tag
+     * @return the number of messages tagged with both tags (with the tag, if both are the same)
+     */
+    static long count(OrientGraph graph, String tag, String other) {
+        Vertex pair = pairOf(graph, tag, other);
+        return pair != null ? countOf(pair) : 0;
+    }
+
+    /**
+     * Rebuild the co-occurrence counts of all tags from the tags of the messages; this visits every message and should
+     * only be necessary when the index is added to an existing database, see {@link #upgrade(OrientGraph)}
+     *
+     * @param graph the Orient database instance
+     * @param tags the store of the message tags
+     */
+    static void rebuild(OrientGraph graph, TagStore tags) {
+        graph.command(new OCommandSQL("DELETE VERTEX " + OrientDbNamespace.TAG_PAIR_CLASS)).execute();
+        TagCooccurrence cooccurrence = new TagCooccurrence(graph);
+        long messages = 0;
+        for (Vertex message : graph.getVerticesOfClass(OrientDbNamespace.MESSAGE_CLASS)) {
+            cooccurrence.tagged(Collections.emptyList(), tags.tagsOf(message));
+            OrientDbNamespace.checkpoint(graph, ++messages, cooccurrence::apply);
+        }
+        cooccurrence.apply();
+        LOGGER.info("Rebuilt tag co-occurrence index from {} message(s)", messages);
+    }
+
+    /**
+     * Index an existing database once: databases that kept the counts in a {@link OrientDbNamespace#TAG_RELATED_PROPERTY}
+     * map on each tag are converted to pair records, older databases (whose tags are only stored as edges) are rebuilt
+     * from the messages
+     *
+     * @param graph the Orient database instance
+     */
+    static void upgrade(OrientGraph graph) {
+        TagCooccurrence cooccurrence = new TagCooccurrence(graph);
+        boolean converted = false;
+        long visited = 0;
+        for (Vertex tag : graph.getVerticesOfClass(OrientDbNamespace.TAG_CLASS)) {
+            Map<String, Long> related = tag.getProperty(OrientDbNamespace.TAG_RELATED_PROPERTY);
+            if (related != null) {
+                String name = tag.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY);
+                related.forEach((other, count) -> cooccurrence.change(name, other, count));
+                tag.removeProperty(OrientDbNamespace.TAG_RELATED_PROPERTY);
+                converted = true;
+            }
+            OrientDbNamespace.checkpoint(graph, ++visited, cooccurrence::apply);
+        }
+        if (converted) {
+            cooccurrence.apply();
+            LOGGER.info("Converted tag co-occurrence maps to pair records");
+        } else {
+            rebuild(graph, new EdgeTagStore());
+        }
+    }
+
+    /**
+     * Record that a message was tagged
+     *
+     * @param existing the tags the message had before
+     * @param added the tags added to the message; must not contain any of the existing tags
+     */
+    void tagged(Collection<Vertex> existing, Collection<Vertex> added) {
+        for (Vertex t : added) {
+            for (Vertex u : existing) {
+                change(t, u, 1);
+                change(u, t, 1);
+            }
+            for (Vertex u : added) {
+                change(t, u, 1);
+            }
+        }
+    }
+
+    /**
+     * Record that tags were removed from a message
+     *
+     * @param remaining the tags the message still has
+     * @param removed the tags removed from the message
+     */
+    void untagged(Collection<Vertex> remaining, Collection<Vertex> removed) {
+        for (Vertex t : removed) {
+            for (Vertex u : remaining) {
+                change(t, u, -1);
+                change(u, t, -1);
+            }
+            for (Vertex u : removed) {
+                change(t, u, -1);
+            }
+        }
+    }
+
+    /**
+     * Record that a message is about to be removed; the tags must be read before the message vertex is removed
+     *
+     * @param tags the tags of the message, see {@link TagStore#tagsOf(Vertex)}
+     */
+    void removing(Collection<Vertex> tags) {
+        untagged(Collections.emptyList(), tags);
+    }
+
+    /**
+     * Write the accumulated changes to the pair records; pairs whose count reaches zero are removed
+     */
+    void apply() {
+        changes.forEach((tag, others) -> others.forEach((other, change) -> {
+            if (change != 0) {
+                apply(tag, other, change);
+            }
+        }));
+        changes.clear();
+    }
+
+    private void apply(String tag, String other, long change) {
+        Vertex pair = pairOf(graph, tag, other);
+        long count = (pair != null ? countOf(pair) : 0) + change;
+        if (count > 0 && pair == null) {
+            graph.addVertex(OrientDbNamespace.TAG_PAIR_VERTEX_CLASS_NAME,
+                    OrientDbNamespace.TAG_PAIR_TAG_PROPERTY, tag,
+                    OrientDbNamespace.TAG_PAIR_OTHER_PROPERTY, other,
+                    OrientDbNamespace.TAG_PAIR_COUNT_PROPERTY, count);
+        } else if (count > 0) {
+            pair.setProperty(OrientDbNamespace.TAG_PAIR_COUNT_PROPERTY, count);
+        } else if (pair != null) {
+            pair.remove();
+        }
+    }
+
+    private void change(Vertex tag, Vertex other, long change) {
+        change(tag.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY), other.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY), change);
+    }
+
+    private void change(String tag, String other, long change) {
+        changes.computeIfAbsent(tag, t -> new HashMap<>()).merge(other, change, Long::sum);
+    }
+
+    private static Vertex pairOf(OrientGraph graph, String tag, String other) {
+        Iterator<Vertex> pairs = graph.getVertices(OrientDbNamespace.TAG_PAIR_CLASS, PAIR_KEYS, new Object[]{tag, other}).iterator();
+        return pairs.hasNext() ? pairs.next() : null;
+    }
+
+    private static long countOf(Vertex pair) {
+        return pair.<Number>getProperty(OrientDbNamespace.TAG_PAIR_COUNT_PROPERTY).longValue();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+/**
+ * Enumeration of the supported layouts for storing the tags of messages
+ *
+ */
+public enum TagLayout {
+    /**
+     * Each tag is a vertex and messages are linked to their tags with edges; tags used by many messages become
+     * supernodes, i.e. vertices with a very large number of edges.
+     */
+    EDGE,
+    /**
+     * The tag names of a message are stored in an embedded set property of the message and looked up through a
+     * multi-value index; tag vertices are still kept for the tag co-occurrence index. Existing edges are migrated to
+     * the embedded property in the background; migrating back to {@link #EDGE} is not supported.
+     */
+    EMBEDDED
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Vertex;
+
+import java.util.List;
+
+/**
+ * Store the tags of messages using one of the {@link TagLayout}s; the providers only access tags of messages through
+ * this interface so that they are independent of the layout. Tag vertices (and their co-occurrence counts, see {@link
+ * TagCooccurrence}) exist in all layouts.
+ *
+ */
+interface TagStore {
+
+    /**
+     * @param tag the tag name
+     * @return a query pair selecting the messages tagged with {@code tag}, enclosed in parentheses so that it can be
+     * used as an OSQL target or function parameter
+     */
+    OsqlAnd.QueryPair toQuery(String tag);
+
+    /**
+     * @param channel the channel name (i.e. tag) of the messages
+     * @return a query pair selecting the messages tagged with {@code channel} but not with {@link
+     * OrientDbNamespace#INACTIVE_TAG}, enclosed in parentheses
+     */
+    OsqlAnd.QueryPair toActiveQuery(String channel);
+
+    /**
+     * @param message a message vertex
+     * @return the tag vertices of the message
+     */
+    List<Vertex> tagsOf(Vertex message);
+
+    /**
+     * @param message a message vertex
+     * @param tag a tag name
+     * @return true if the message is tagged with {@code tag}
+     */
+    boolean hasTag(Vertex message, String tag);
+
+    /**
+     * Tag a message; the message must not already be tagged with {@code tag}
+     *
+     * @param message a message vertex
+     * @param tag a tag vertex
+     */
+    void add(Vertex message, Vertex tag);
+
+    /**
+     * @param message a message vertex
+     * @param tag a tag vertex
+     * @return true if the message was tagged with {@code tag} and the tag was removed
+     */
+    boolean remove(Vertex message, Vertex tag);
+
+    /**
+     * @param tag a tag vertex
+     * @return true if any message is tagged with {@code tag}
+     */
+    boolean isUsed(Vertex tag);
+}
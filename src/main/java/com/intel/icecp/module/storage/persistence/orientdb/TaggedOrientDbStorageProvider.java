@@ -22,25 +22,34 @@ import com.intel.icecp.module.query.Id;
 import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+import com.intel.icecp.module.storage.persistence.Ordering;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.Projection;
 import com.intel.icecp.module.storage.persistence.providers.QueriesStorageProvider;
 import com.intel.icecp.module.storage.persistence.providers.TaggedStorageProvider;
-import com.orientechnologies.orient.core.metadata.sequence.OSequence;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
-import com.tinkerpop.blueprints.Direction;
-import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.impls.orient.OrientGraph;
 import com.tinkerpop.blueprints.impls.orient.OrientVertex;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -52,15 +61,53 @@ import java.util.stream.StreamSupport;
  * Also, this class assumes queries that are single-level AND operators. More complex queries could be added in the
  * future but this limitation is due to the current requirements for the storage module.
  * <p>
+ * Methods may run concurrently as long as each thread is supplied its own database instance (see {@link
+ * OrientGraphPool}); methods that modify the database run in a transaction scope (see {@link OrientTransaction}) which
+ * joins the current transaction of the thread, if any, or is retried when it conflicts with a concurrent transaction.
+ * <p>
  * More information on OrientDB at http://orientdb.com/docs/2.1/Tutorial-Java.html
  *
  */
 class TaggedOrientDbStorageProvider implements TaggedStorageProvider {
     private static final Logger LOGGER = LogManager.getLogger();
-    private final OrientGraph db;
+    private static final String MINIMUM_ACTIVE_TIMESTAMP_OSQL = "SELECT min(" + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + ") FROM ";
+    private static final String MAXIMUM_ACTIVE_TIMESTAMP_OSQL = "SELECT max(" + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + ") FROM ";
+    private static final int CHUNK_SIZE = 100;
+    private static final int TAG_CACHE_SIZE = 1024;
+    private final Supplier<OrientGraph> graphs;
+    private final TagStore tagStore;
+    private final IdAllocator ids;
+    private final Map<String, ORID> tagCache = Collections.synchronizedMap(new LinkedHashMap<String, ORID>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ORID> eldest) {
+            return size() > TAG_CACHE_SIZE;
+        }
+    });
 
     TaggedOrientDbStorageProvider(OrientGraph graphDatabase) {
-        this.db = graphDatabase;
+        this(graphDatabase, new EdgeTagStore());
+    }
+
+    TaggedOrientDbStorageProvider(OrientGraph graphDatabase, TagStore tagStore) {
+        this(() -> graphDatabase, tagStore, new IdAllocator(() -> graphDatabase));
+    }
+
+    /**
+     * @param graphs supplies the Orient database instance of the current thread, see {@link OrientGraphPool}
+     * @param tagStore the store of the message tags
+     * @param ids the allocator of the message IDs
+     */
+    TaggedOrientDbStorageProvider(Supplier<OrientGraph> graphs, TagStore tagStore, IdAllocator ids) {
+        this.graphs = graphs;
+        this.tagStore = tagStore;
+        this.ids = ids;
+    }
+
+    /**
+     * @return the Orient database instance of the current thread
+     */
+    private OrientGraph db() {
+        return graphs.get();
     }
 
     /**
@@ -72,14 +119,8 @@ class TaggedOrientDbStorageProvider implements TaggedStorageProvider {
      */
     @Override
     public long getActiveMinimumTimestamp(String channelName) throws TaggingOperationException {
-        OCommandSQL minQuery = new OCommandSQL("SELECT min(" + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + ") " +
-                "FROM (SELECT expand(intersect((SELECT expand(in()) FROM " + OrientDbNamespace.TAG_CLASS + " WHERE name = ?), " +
-                "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE ? NOT IN out(?).name))))");
-
-        Iterable<Vertex> result = db.command(minQuery).execute(
-                channelName,
-                OrientDbNamespace.INACTIVE_TAG,
-                OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP);
+        OsqlAnd.QueryPair active = tagStore.toActiveQuery(channelName);
+        Iterable<Vertex> result = db().command(new OCommandSQL(MINIMUM_ACTIVE_TIMESTAMP_OSQL + active.osql)).execute(active.params);
 
         Iterator<Vertex> it = result.iterator();
         return it.hasNext() ? it.next().getProperty("min") : 0L;
@@ -94,41 +135,30 @@ class TaggedOrientDbStorageProvider implements TaggedStorageProvider {
      */
     @Override
     public long getActiveMaximumTimestamp(String channelName) throws TaggingOperationException {
-        OCommandSQL maxQuery = new OCommandSQL("SELECT max(" + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + ") " +
-                "FROM (SELECT expand(intersect((SELECT expand(in()) FROM " + OrientDbNamespace.TAG_CLASS + " WHERE name = ?), " +
-                "(SELECT expand(@rid) FROM " + OrientDbNamespace.MESSAGE_CLASS + " WHERE ? NOT IN out(?).name))))");
-
-        Iterable<Vertex> result = db.command(maxQuery).execute(
-                channelName,
-                OrientDbNamespace.INACTIVE_TAG,
-                OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP);
+        OsqlAnd.QueryPair active = tagStore.toActiveQuery(channelName);
+        Iterable<Vertex> result = db().command(new OCommandSQL(MAXIMUM_ACTIVE_TIMESTAMP_OSQL + active.osql)).execute(active.params);
 
         Iterator<Vertex> it = result.iterator();
         return it.hasNext() ? it.next().getProperty("max") : 0L;
     }
 
     @Override
-    public synchronized Id add(BytesMessage message) throws TaggingOperationException {
+    public Id add(BytesMessage message) throws TaggingOperationException {
         try {
-            db.begin();
-
-            long id = nextId();
-            Vertex v = db.addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS,
-                    OrientDbNamespace.MESSAGE_ID_PROPERTY, id,
+            Vertex v = OrientTransaction.execute(graphs, () -> db().addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS,
+                    OrientDbNamespace.MESSAGE_ID_PROPERTY, ids.next(),
                     OrientDbNamespace.MESSAGE_CONTENT_PROPERTY, message.getBytes(),
-                    OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY, System.currentTimeMillis());
-
-            db.commit();
+                    OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY, System.currentTimeMillis()));
 
             LOGGER.info("New {} vertex added with id: {}", OrientDbNamespace.MESSAGE_CLASS, v.getId());
-            return new Id(id);
+            return new Id(v.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY));
         } catch (Exception e) {
             throw new TaggingOperationException("Failed to add new vertex", e);
         }
     }
 
     @Override
-    public synchronized Set<PersistentMessage> find(Query query) throws TaggingOperationException {
+    public Set<PersistentMessage> find(Query query) throws TaggingOperationException {
         try {
             return selectMessagesFromQuery(query).map(PersistentMessageHelper::fromVertex).collect(Collectors.toSet());
         } catch (Exception e) {
@@ -137,83 +167,223 @@ class TaggedOrientDbStorageProvider implements TaggedStorageProvider {
     }
 
     @Override
-    public synchronized Set<PersistentMessage> remove(Query query) throws TaggingOperationException {
+    public Stream<PersistentMessage> find(Query query, int limit, Ordering ordering, Projection projection) throws TaggingOperationException {
+        if (limit == 0) {
+            return Stream.empty();
+        }
+        int chunkSize = limit > 0 ? Math.min(limit, CHUNK_SIZE) : CHUNK_SIZE;
+        OsqlAnd and = new OsqlAnd(db(), (And) query.root(), tagStore);
+        ChunkedMessageIterator iterator = new ChunkedMessageIterator(and, limit, chunkSize, ordering, projection);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public Set<PersistentMessage> remove(Query query) throws TaggingOperationException {
         try {
-            Set<PersistentMessage> messages = selectMessagesFromQuery(query).map(v -> {
-                PersistentMessage pm = PersistentMessageHelper.fromVertex(v);
-                v.remove();
-                return pm;
-            }).collect(Collectors.toSet());
+            return OrientTransaction.execute(graphs, () -> {
+                List<Vertex> vertices = selectMessagesFromQuery(query).collect(Collectors.toList());
+                Set<PersistentMessage> messages = vertices.stream().map(PersistentMessageHelper::fromVertex).collect(Collectors.toSet());
+                removeVertices(vertices);
 
-            LOGGER.info("Removed {} message(s)", messages.size());
+                LOGGER.info("Removed {} message(s)", messages.size());
 
-            return Collections.unmodifiableSet(messages);
+                return Collections.unmodifiableSet(messages);
+            });
         } catch (Exception e) {
             throw new TaggingOperationException("Failed to execute query to remove messages", e);
         }
     }
 
     @Override
-    public synchronized Set<Id> tag(Query query, Tag tag) throws TaggingOperationException {
+    public long count(Query query) throws TaggingOperationException {
         try {
-            Vertex tagVertex = createAndSelectTag(tag);
-            LOGGER.debug("tagVertex {}", tagVertex);
-            Set<Id> tagged = new LinkedHashSet<>();
-            long count = selectMessagesFromQuery(query).map(v -> {
-                long id = v.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY);
-                tagged.add(new Id(id));
-                // see documentation at http://orientdb.com/docs/2.1/SQL-Create-Edge.html
-                return v.addEdge(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP, tagVertex);
-            }).count();
-
-            LOGGER.info("Tagged {} message(s) with tag {}", count, tag);
-
-            return Collections.unmodifiableSet(tagged);
+            OsqlAnd.QueryPair q = new OsqlAnd(db(), (And) query.root(), tagStore).toCountQuery();
+            if (q == null) {
+                return 0;
+            }
+
+            Iterable<Vertex> result = db().command(new OCommandSQL(q.osql)).execute(q.params);
+            Iterator<Vertex> it = result.iterator();
+            return it.hasNext() ? ((Number) it.next().getProperty("count")).longValue() : 0L;
         } catch (Exception e) {
-            throw new TaggingOperationException("Failed to tag items with tag " + tag, e);
+            throw new TaggingOperationException("Failed to execute query to count messages", e);
         }
     }
 
     @Override
-    public synchronized Set<Id> untag(Query query, Tag tag) throws TaggingOperationException {
+    public long removeCount(Query query) throws TaggingOperationException {
+        return removeCount(query, -1);
+    }
+
+    @Override
+    public long removeCount(Query query, int limit) throws TaggingOperationException {
+        return removeCount(query, limit, System.currentTimeMillis());
+    }
+
+    @Override
+    public long removeCount(Query query, int limit, long currentTimeMs) throws TaggingOperationException {
         try {
-            OrientVertex tagVertex = (OrientVertex) createAndSelectTag(tag);
-            LOGGER.debug("tagVertex: {}", tagVertex);
-            Set<Id> untagged = new LinkedHashSet<>();
-            long count = selectMessagesFromQuery(query).map(v -> {
-                untagged.add(new Id(v.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY)));
-                // use graph API for retrieving edges to the tag
-                Spliterator<Edge> spliterator = ((OrientVertex) v).getEdges(tagVertex, Direction.OUT).spliterator();
-                // see documentation at http://orientdb.com/docs/2.1/SQL-Delete-Edge.html
-                StreamSupport.stream(spliterator, false).forEach(Edge::remove);
-                return 1;
-            }).count();
-
-            removeTagIfUnused(tag);
-
-            LOGGER.info("Untagged {} message(s) with tag {}", count, tag);
-
-            return Collections.unmodifiableSet(untagged);
+            // build the query once so that relative times (e.g. Before) are resolved only once for all chunks
+            OsqlAnd and = new OsqlAnd(db(), (And) query.root(), tagStore, currentTimeMs);
+            OsqlAnd.QueryPair selected = and.toQuery();
+            if (selected == null) {
+                return 0L;
+            }
+
+            long removed = 0;
+            int chunkSize;
+            int chunk;
+            do {
+                chunkSize = limit < 0 ? CHUNK_SIZE : (int) Math.min(CHUNK_SIZE, limit - removed);
+                if (chunkSize == 0) {
+                    break;
+                }
+                OsqlAnd.QueryPair q = and.toLimitQuery(selected, chunkSize);
+                // each chunk is committed on its own so that a large removal is not held in one transaction
+                chunk = OrientTransaction.execute(graphs, () -> removeVertices(db().command(new OCommandSQL(q.osql)).execute(q.params)));
+                removed += chunk;
+            } while (chunk == chunkSize);
+
+            LOGGER.info("Removed {} message(s)", removed);
+
+            return removed;
         } catch (Exception e) {
-            throw new TaggingOperationException("Failed to untag items with tag " + tag, e);
+            throw new TaggingOperationException("Failed to execute query to remove messages", e);
         }
     }
 
+    /**
+     * Remove message vertices without converting them to messages (i.e. their content is never read), updating the
+     * tag co-occurrence counts and the channel catalog
+     *
+     * @param messages the message vertices to remove
+     * @return the number of removed vertices
+     */
+    private int removeVertices(Iterable<Vertex> messages) {
+        TagCooccurrence cooccurrence = new TagCooccurrence(db());
+        ChannelCatalog catalog = new ChannelCatalog(db());
+        int removed = 0;
+        for (Vertex v : messages) {
+            cooccurrence.removing(tagStore.tagsOf(v));
+            catalog.removing(v);
+            v.remove();
+            removed++;
+        }
+        cooccurrence.apply();
+        catalog.apply();
+        return removed;
+    }
+
     @Override
-    public synchronized Set<Tag> related(Tag... tags) throws TaggingOperationException {
-        String osql = "SELECT expand(distinct(set(in().out()))) FROM Tag WHERE name = ?"; // TODO work with multiple tags
-        Object[] params = Arrays.stream(tags).map(Tag::value).toArray(Object[]::new);
-        LOGGER.info("Finding tags related to {} using query '{}'", params, osql);
+    public Set<Id> tag(Query query, Tag tag) throws TaggingOperationException {
+        return tag(query, new Tag[]{tag});
+    }
 
-        OCommandSQL cmd = new OCommandSQL(osql);
-        Iterable<Vertex> related = db.command(cmd).execute(params);
+    @Override
+    public Set<Id> tag(Query query, Tag... tags) throws TaggingOperationException {
+        try {
+            return OrientTransaction.execute(graphs, () -> {
+                List<Vertex> tagVertices = Arrays.stream(tags).distinct().map(this::createAndSelectTag).collect(Collectors.toList());
+                LOGGER.debug("tagVertices {}", tagVertices);
+                Set<Id> tagged = new LinkedHashSet<>();
+                TagCooccurrence cooccurrence = new TagCooccurrence(db());
+                selectMessagesFromQuery(query).forEach(v -> {
+                    long id = v.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY);
+                    tagged.add(new Id(id));
+                    // only add tags the message does not already have so that the co-occurrence counts stay exact
+                    List<Vertex> existing = tagStore.tagsOf(v);
+                    List<Vertex> added = tagVertices.stream().filter(t -> !existing.contains(t)).collect(Collectors.toList());
+                    added.forEach(t -> tagStore.add(v, t));
+                    cooccurrence.tagged(existing, added);
+                });
+                cooccurrence.apply();
+
+                LOGGER.info("Tagged {} message(s) with tags {}", tagged.size(), tags);
+
+                return Collections.unmodifiableSet(tagged);
+            });
+        } catch (Exception e) {
+            throw new TaggingOperationException("Failed to tag items with tags " + Arrays.toString(tags), e);
+        }
+    }
 
-        return StreamSupport.stream(related.spliterator(), false).map(v -> new Tag(v.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY))).collect(Collectors.toSet());
+    @Override
+    public Set<Id> untag(Query query, Tag tag) throws TaggingOperationException {
+        return untag(query, new Tag[]{tag});
+    }
+
+    @Override
+    public Set<Id> untag(Query query, Tag... tags) throws TaggingOperationException {
+        try {
+            return OrientTransaction.execute(graphs, () -> {
+                List<Vertex> tagVertices = Arrays.stream(tags).distinct().map(this::selectTag).filter(t -> t != null).collect(Collectors.toList());
+                LOGGER.debug("tagVertices: {}", tagVertices);
+                Set<Id> untagged = new LinkedHashSet<>();
+                TagCooccurrence cooccurrence = new TagCooccurrence(db());
+                selectMessagesFromQuery(query).forEach(v -> {
+                    untagged.add(new Id(v.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY)));
+                    List<Vertex> remaining = tagStore.tagsOf(v);
+                    List<Vertex> removed = new ArrayList<>();
+                    for (Vertex tagVertex : tagVertices) {
+                        if (tagStore.remove(v, tagVertex)) {
+                            remaining.remove(tagVertex);
+                            removed.add(tagVertex);
+                        }
+                    }
+                    cooccurrence.untagged(remaining, removed);
+                });
+                cooccurrence.apply();
+
+                tagVertices.forEach(this::removeTagIfUnused);
+
+                LOGGER.info("Untagged {} message(s) with tags {}", untagged.size(), tags);
+
+                return Collections.unmodifiableSet(untagged);
+            });
+        } catch (Exception e) {
+            throw new TaggingOperationException("Failed to untag items with tags " + Arrays.toString(tags), e);
+        }
     }
 
-    private long nextId() {
-        OSequence idSequence = db.getRawGraph().getMetadata().getSequenceLibrary().getSequence(OrientDbNamespace.ID_SEQUENCE);
-        return idSequence.next();
+    @Override
+    public Set<Tag> related(Tag... tags) throws TaggingOperationException {
+        return relatedCounts(tags).keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The tags related to a single tag are read from the co-occurrence index (see {@link TagCooccurrence}); for several
+     * tags, the tags of the messages carrying all of them are counted, since pairwise counts cannot tell which messages
+     * carry all of the tags.
+     */
+    @Override
+    public Map<Tag, Long> relatedCounts(Tag... tags) throws TaggingOperationException {
+        LOGGER.info("Finding tags related to {}", (Object) tags);
+        try {
+            Tag[] distinct = Arrays.stream(tags).distinct().toArray(Tag[]::new);
+            if (distinct.length == 0) {
+                return Collections.emptyMap();
+            }
+            for (Tag tag : distinct) {
+                if (selectTag(tag) == null) {
+                    return Collections.emptyMap();
+                }
+            }
+
+            Map<Tag, Long> related = new HashMap<>();
+            if (distinct.length == 1) {
+                TagCooccurrence.countsOf(db(), distinct[0].value()).forEach((name, count) -> related.put(new Tag(name), count));
+            } else {
+                selectMessagesFromQuery(new Query(distinct)).forEach(v -> {
+                    for (Vertex tagVertex : tagStore.tagsOf(v)) {
+                        related.merge(new Tag(tagVertex.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY)), 1L, Long::sum);
+                    }
+                });
+            }
+            return related;
+        } catch (Exception e) {
+            throw new TaggingOperationException("Failed to find tags related to " + Arrays.toString(tags), e);
+        }
     }
 
     /**
@@ -223,30 +393,145 @@ class TaggedOrientDbStorageProvider implements TaggedStorageProvider {
      * @return a stream of vertices filtered by the query
      */
     private Stream<Vertex> selectMessagesFromQuery(Query query) {
-        OsqlAnd and = new OsqlAnd(db, (And) query.root());
+        OrientGraph db = db();
+        OsqlAnd and = new OsqlAnd(db, (And) query.root(), tagStore);
         return StreamSupport.stream(and.spliterator(), false).map(i -> new OrientVertex(db, i));
     }
 
     private Vertex createAndSelectTag(Tag tag) {
         Vertex tagVertex = selectTag(tag);
         if (tagVertex == null) {
-            tagVertex = db.addVertex("class:" + OrientDbNamespace.TAG_CLASS, OrientDbNamespace.TAG_NAME_PROPERTY, tag.value());
+            tagVertex = db().addVertex("class:" + OrientDbNamespace.TAG_CLASS, OrientDbNamespace.TAG_NAME_PROPERTY, tag.value());
             LOGGER.info("Created tag {} with vertex: {}", tag, tagVertex);
         }
         return tagVertex;
     }
 
+    /**
+     * Find a tag's vertex; since most messages are tagged with the same few tags (e.g. their channel and session), the
+     * record IDs of recently used tags are cached to avoid an index lookup. Cached IDs are verified when used and
+     * dropped if their vertex has been removed or replaced (e.g. after a rollback).
+     */
     private Vertex selectTag(Tag tag) {
-        Iterable<Vertex> vertices = db.getVertices(OrientDbNamespace.TAG_CLASS, new String[]{OrientDbNamespace.TAG_NAME_PROPERTY}, new Object[]{tag.value()});
+        ORID cached = tagCache.get(tag.value());
+        if (cached != null) {
+            Vertex tagVertex = db().getVertex(cached);
+            if (tagVertex != null && Objects.equals(tag.value(), tagVertex.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY))) {
+                return tagVertex;
+            }
+            tagCache.remove(tag.value());
+        }
+
+        Iterable<Vertex> vertices = db().getVertices(OrientDbNamespace.TAG_CLASS, new String[]{OrientDbNamespace.TAG_NAME_PROPERTY}, new Object[]{tag.value()});
         Iterator<Vertex> iterator = vertices.iterator();
-        return iterator.hasNext() ? iterator.next() : null;
+        Vertex tagVertex = iterator.hasNext() ? iterator.next() : null;
+        if (tagVertex != null && ((OrientVertex) tagVertex).getIdentity().isPersistent()) {
+            // only cache committed vertices; the IDs of vertices created in a transaction change on commit
+            tagCache.put(tag.value(), ((OrientVertex) tagVertex).getIdentity());
+        }
+        return tagVertex;
     }
 
-    private void removeTagIfUnused(Tag tag) {
-        Vertex tagVertex = selectTag(tag);
-        if (tagVertex != null && !tagVertex.getEdges(Direction.IN).iterator().hasNext()) {
+    private void removeTagIfUnused(Vertex tagVertex) {
+        if (!tagStore.isUsed(tagVertex)) {
+            String name = tagVertex.getProperty(OrientDbNamespace.TAG_NAME_PROPERTY);
+            tagCache.remove(name);
             tagVertex.remove();
-            LOGGER.info("Removed unused tag: {}", tag);
+            LOGGER.info("Removed unused tag: {}", name);
+        }
+    }
+
+    /**
+     * Read the messages selected by a query one chunk at a time: the keys of a chunk are read after the last key of
+     * the previous chunk, see {@link OsqlAnd#toKeysQuery(Ordering, PersistentMessage)}, and the next chunk is only read
+     * once all messages of the previous chunk have been consumed.
+     */
+    private class ChunkedMessageIterator implements Iterator<PersistentMessage> {
+        private final OsqlAnd and;
+        private final int limit;
+        private final int chunkSize;
+        private final Ordering ordering;
+        private final Projection projection;
+        private Iterator<PersistentMessage> chunk = Collections.emptyIterator();
+        private PersistentMessage last;
+        private int read;
+        private boolean exhausted;
+
+        ChunkedMessageIterator(OsqlAnd and, int limit, int chunkSize, Ordering ordering, Projection projection) {
+            this.and = and;
+            this.limit = limit;
+            this.chunkSize = chunkSize;
+            this.ordering = ordering;
+            this.projection = projection;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!chunk.hasNext() && !exhausted) {
+                chunk = readChunk().iterator();
+            }
+            return chunk.hasNext();
+        }
+
+        @Override
+        public PersistentMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more messages selected by the query");
+            }
+            return chunk.next();
+        }
+
+        private List<PersistentMessage> readKeys() {
+            int size = limit > 0 ? Math.min(chunkSize, limit - read) : chunkSize;
+            List<PersistentMessage> messages = new ArrayList<>(size);
+            OsqlAnd.QueryPair q = and.toKeysQuery(ordering, last);
+            if (q != null) {
+                LOGGER.debug("Reading keys with query '{}' and params {}", q.osql, q.params);
+                OCommandSQL command = new OCommandSQL(q.osql);
+                command.setLimit(size);
+                Iterable<Vertex> rows = db().command(command).execute(q.params);
+                for (Vertex row : rows) {
+                    messages.add(new PersistentMessage(row.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY),
+                            row.getProperty(OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY), null));
+                    if (messages.size() >= size) {
+                        break;
+                    }
+                }
+            }
+            read += messages.size();
+            exhausted = messages.size() < size || (limit > 0 && read >= limit);
+            if (!messages.isEmpty()) {
+                last = messages.get(messages.size() - 1);
+            }
+            return messages;
+        }
+
+        private List<PersistentMessage> readChunk() {
+            List<PersistentMessage> messages = readKeys();
+            if (messages.isEmpty()) {
+                return messages;
+            }
+            switch (projection) {
+                case ID_ONLY:
+                    return messages.stream().map(m -> new PersistentMessage(m.getId(), -1, null)).collect(Collectors.toList());
+                case METADATA:
+                    return messages;
+                default:
+                    return withContent(messages);
+            }
+        }
+
+        private List<PersistentMessage> withContent(List<PersistentMessage> messages) {
+            OsqlAnd.QueryPair q = OsqlAnd.toContentQuery(messages.stream().map(PersistentMessage::getId).collect(Collectors.toList()));
+            LOGGER.debug("Reading chunk with query '{}' and params {}", q.osql, q.params);
+            Map<Long, byte[]> contents = new HashMap<>();
+            Iterable<Vertex> rows = db().command(new OCommandSQL(q.osql)).execute(q.params);
+            for (Vertex row : rows) {
+                contents.put(row.getProperty(OrientDbNamespace.MESSAGE_ID_PROPERTY), row.getProperty(OrientDbNamespace.MESSAGE_CONTENT_PROPERTY));
+            }
+            // messages removed since their keys were read are skipped
+            return messages.stream().filter(m -> contents.containsKey(m.getId()))
+                    .map(m -> new PersistentMessage(m.getId(), m.getTimestamp(), contents.get(m.getId()))).collect(Collectors.toList());
         }
     }
 }
@@ -17,7 +17,9 @@
 package com.intel.icecp.module.storage.persistence.providers;
 
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.ChannelStatistics;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
 
 import java.net.URI;
 import java.util.Collection;
@@ -51,6 +53,24 @@ public interface LegacyStorageProvider {
      */
     Set<URI> getChannels();
 
+    /**
+     * Gets the statistics of the sessions and messages stored for a channel.
+     *
+     * @param channelName the channel name
+     * @return the statistics of the channel or null if the channel has no sessions
+     */
+    ChannelStatistics getChannelStatistics(URI channelName);
+
+    /**
+     * Gets the sessions with messages saved within a time window, across all channels.
+     *
+     * @param fromTimestamp the start of the window in milliseconds, inclusive
+     * @param toTimestamp the end of the window in milliseconds, inclusive
+     * @return the time spans of the overlapping sessions, ordered by channel and then by first timestamp
+     * @throws StorageModuleException if the window ends before it starts
+     */
+    List<SessionTimeSpan> getSessionsOverlapping(long fromTimestamp, long toTimestamp) throws StorageModuleException;
+
     /**
      * Create session for a given channel.
      *
@@ -111,12 +131,16 @@ public interface LegacyStorageProvider {
     Set<Collection<Long>> getSessionsWithActiveMessages(long querySessionId);
 
     /**
-     * Delete a range of messages from a session.
+     * Delete a range of messages from a session; all messages of the session
+     * with a sequence number between {@code startMessageSeqNum} and
+     * {@code endMessageSeqNum} (inclusive) are deleted, whether or not
+     * messages with exactly these sequence numbers exist.
      *
      * @param sessionId the session id to be deleted.
      * @param startMessageSeqNum starting message channel sequence number.
      * @param endMessageSeqNum ending message channel sequence number.
-     * @throws StorageModuleException database state is not consistent
+     * @throws StorageModuleException the session does not exist, the range is
+     * invalid or the database state is not consistent
      */
     void deleteMessagesByRange(long sessionId, long startMessageSeqNum, long endMessageSeqNum)
             throws StorageModuleException;
@@ -130,6 +154,34 @@ public interface LegacyStorageProvider {
      */
     void deleteSession(long sessionId) throws StorageModuleException;
 
+    /**
+     * Mark a session as deleted without removing its messages; the session is
+     * no longer returned or found but its messages must be removed later with
+     * {@link #reclaimSession(long, int)}.
+     *
+     * @param sessionId the session id to be deleted
+     * @throws StorageModuleException unable to delete session
+     */
+    void tombstoneSession(long sessionId) throws StorageModuleException;
+
+    /**
+     * Remove a chunk of the messages of a session marked as deleted; the
+     * session itself is removed once it has no messages left.
+     *
+     * @param sessionId the session id marked as deleted
+     * @param chunkSize the maximum number of messages to remove
+     * @return the number of messages removed; less than {@code chunkSize} once
+     * the session is completely removed
+     * @throws StorageModuleException if the session is not marked as deleted
+     */
+    long reclaimSession(long sessionId, int chunkSize) throws StorageModuleException;
+
+    /**
+     * @return the IDs of the sessions marked as deleted that have not been
+     * completely removed yet
+     */
+    List<Long> getTombstonedSessions();
+
     /**
      * Save message with a given {@code sessionId}.
      *
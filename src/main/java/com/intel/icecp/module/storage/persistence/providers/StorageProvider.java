@@ -1,9 +1,41 @@
 package com.intel.icecp.module.storage.persistence.providers;
 
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+
 /**
  * Interface for common storage provider which encapsulates specific versions of provider
  *
  */
 public interface StorageProvider extends LegacyStorageProvider, TaggedStorageProvider {
+    /**
+     * Release the database resources bound to the current thread, e.g. its database connection; the next operation of
+     * the thread acquires them again. Threads that stop using the provider should call this in a {@code finally} block.
+     * Resources used by a transaction that is still open on the thread are kept until it is committed or rolled back.
+     */
+    void releaseThreadResources();
+
+    /**
+     * Run a unit of work in one transaction of the current thread. Unlike {@link #beginTransaction()}, the transaction
+     * is rolled back and the work is run again if it conflicts with a concurrent transaction, a bounded number of
+     * times, so the work must be safe to repeat.
+     *
+     * @param work the operations to run
+     * @param <T> the type of the result
+     * @return the result of the work
+     * @throws StorageModuleException if the work fails
+     * @throws TaggingOperationException if the work fails
+     */
+    <T> T runInTransaction(TransactionWork<T> work) throws StorageModuleException, TaggingOperationException;
+
+    /**
+     * Operations run in one transaction, see {@link #runInTransaction(TransactionWork)}
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    interface TransactionWork<T> {
+        T run() throws StorageModuleException, TaggingOperationException;
+    }
 
 }
@@ -21,9 +21,13 @@ import com.intel.icecp.module.query.Id;
 import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+import com.intel.icecp.module.storage.persistence.Ordering;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.Projection;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Exposed the API for tag-related storage activities; some of the previously-implemented methods in {@link
@@ -74,6 +78,20 @@ public interface TaggedStorageProvider extends QueriesStorageProvider {
      */
     Set<PersistentMessage> find(Query query) throws TaggingOperationException;
 
+    /**
+     * Find messages incrementally; unlike {@link #find(Query)}, messages are read from the database in chunks as the
+     * returned stream is consumed and only the fields selected by the projection are loaded. Failures while reading a
+     * later chunk are thrown from the stream as unchecked exceptions.
+     *
+     * @param query selects the messages to be returned
+     * @param limit the maximum number of messages to return; a negative value returns all selected messages
+     * @param ordering the order in which messages are returned
+     * @param projection the message fields to read
+     * @return a lazily-evaluated stream of the messages that have all of the passed tags
+     * @throws TaggingOperationException if the operation fails
+     */
+    Stream<PersistentMessage> find(Query query, int limit, Ordering ordering, Projection projection) throws TaggingOperationException;
+
     /**
      * @param query selects the messages to be removed
      * @return the removed messages
@@ -82,6 +100,51 @@ public interface TaggedStorageProvider extends QueriesStorageProvider {
      */
     Set<PersistentMessage> remove(Query query) throws TaggingOperationException;
 
+    /**
+     * @param query selects the messages to be counted
+     * @return the number of messages selected by the query; message contents are never loaded
+     * @throws TaggingOperationException if the operation fails
+     */
+    long count(Query query) throws TaggingOperationException;
+
+    /**
+     * Remove messages like {@link #remove(Query)} but only return how many were removed; message contents are never
+     * loaded so removing large numbers of messages does not use more memory. The messages are removed in chunks, each
+     * committed in its own transaction unless the caller has begun one.
+     *
+     * @param query selects the messages to be removed
+     * @return the number of removed messages
+     * @throws TaggingOperationException if the operation fails; if thrown, the chunks committed before the failure
+     * stay removed
+     */
+    long removeCount(Query query) throws TaggingOperationException;
+
+    /**
+     * Remove at most {@code limit} of the messages selected by a query, see {@link #removeCount(Query)}; this allows
+     * removing a large set of messages in several smaller transactions.
+     *
+     * @param query selects the messages to be removed
+     * @param limit the maximum number of messages to remove; a negative value removes all selected messages
+     * @return the number of removed messages; if less than {@code limit}, no more messages are selected by the query
+     * @throws TaggingOperationException if the operation fails; if thrown, the chunks committed before the failure
+     * stay removed
+     */
+    long removeCount(Query query, int limit) throws TaggingOperationException;
+
+    /**
+     * Remove at most {@code limit} of the messages selected by a query, see {@link #removeCount(Query, int)}, resolving
+     * relative selectors (e.g. {@link com.intel.icecp.module.query.Before}) against a fixed time; this keeps the
+     * selection of a deletion split into several calls from moving forward while it runs.
+     *
+     * @param query selects the messages to be removed
+     * @param limit the maximum number of messages to remove; a negative value removes all selected messages
+     * @param currentTimeMs the time relative selectors are resolved against, in milliseconds
+     * @return the number of removed messages; if less than {@code limit}, no more messages are selected by the query
+     * @throws TaggingOperationException if the operation fails; if thrown, the chunks committed before the failure
+     * stay removed
+     */
+    long removeCount(Query query, int limit, long currentTimeMs) throws TaggingOperationException;
+
     /**
      * @param query selects the messages to be tagged
      * @param tag the tag to mark messages with
@@ -91,6 +154,17 @@ public interface TaggedStorageProvider extends QueriesStorageProvider {
      */
     Set<Id> tag(Query query, Tag tag) throws TaggingOperationException;
 
+    /**
+     * Tag messages with several tags in one operation; each tag is resolved (or created) only once.
+     *
+     * @param query selects the messages to be tagged
+     * @param tags the tags to mark messages with
+     * @return the IDs of the tagged messages
+     * @throws TaggingOperationException if the operation fails; if thrown, no items selected by the query will be
+     * tagged
+     */
+    Set<Id> tag(Query query, Tag... tags) throws TaggingOperationException;
+
     /**
      * @param query selects the messages to be untagged
      * @param tag the tag to remove from the message
@@ -100,12 +174,37 @@ public interface TaggedStorageProvider extends QueriesStorageProvider {
      */
     Set<Id> untag(Query query, Tag tag) throws TaggingOperationException;
 
+    /**
+     * Remove several tags from messages in one operation; tags left without messages are removed once all messages
+     * have been untagged.
+     *
+     * @param query selects the messages to be untagged
+     * @param tags the tags to remove from the messages
+     * @return the IDs of the untagged messages
+     * @throws TaggingOperationException if the operation fails; if thrown, no items selected by the query will be
+     * untagged
+     */
+    Set<Id> untag(Query query, Tag... tags) throws TaggingOperationException;
+
     /**
      * @param tags the matching tags to use for finding the related tags; e.g. if a set of messages is tagged with
      * channel "/a/b/c", calling {@code related("/a/b/c")} may return {"message", "active", "sid:1", "sid:2", "/a/b/c"}.
-     * Note that the parameters themselves should be part of the returned set.
+     * Note that the parameters themselves should be part of the returned set. With several tags, the tags of the
+     * messages carrying all of them are returned.
      * @return the set of tags that also are linked to the vertex set given by the tags parameter
      * @throws TaggingOperationException if the operation fails
      */
     Set<Tag> related(Tag... tags) throws TaggingOperationException;
+
+    /**
+     * Like {@link #related(Tag...)} but also return how many messages each related tag shares with the given tags. For
+     * a single tag, this is answered from a co-occurrence index maintained as messages are tagged, untagged, and
+     * removed, so it does not visit any messages. With several tags, the tags of the messages carrying all of the given
+     * tags are counted, which visits those messages.
+     *
+     * @param tags the matching tags to use for finding the related tags
+     * @return the related tags (including the given tags) and their co-occurrence counts
+     * @throws TaggingOperationException if the operation fails
+     */
+    Map<Tag, Long> relatedCounts(Tag... tags) throws TaggingOperationException;
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run storage commands of one kind (e.g. reads) on a bounded pool of threads; commands that cannot be queued because
+ * the queue is full are rejected immediately instead of delaying the caller. Each executor keeps its own metrics so the
+ * latency of each kind of command can be observed separately.
+ */
+public class CommandExecutor {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queuedNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param name the name of this executor, used for its threads and metrics
+     * @param threads the maximum number of commands run at the same time; must be greater than 0
+     * @param queueCapacity the maximum number of commands waiting to run; must be greater than 0
+     */
+    public CommandExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        this.name = name;
+        // the threads are kept alive while idle since each of them holds a database instance of the storage provider
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "storage-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queue a command
+     *
+     * @param task the command to run
+     * @param <T> the type of the command result
+     * @return a future completed with the result of the command, or exceptionally with the exception thrown by the
+     * command; if the command is rejected, the future is completed with a {@link StorageModuleException}
+     */
+    public <T> CompletableFuture<T> submit(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> run(task, future, queuedAt));
+            submitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOGGER.warn("Rejected {} command, {} command(s) already queued", name, pool.getQueue().size());
+            future.completeExceptionally(new StorageModuleException(String.format("Too many %s commands queued, try again later", name), e));
+        }
+        return future;
+    }
+
+    private <T> void run(Task<T> task, CompletableFuture<T> future, long queuedAt) {
+        long startedAt = System.nanoTime();
+        queuedNanos.addAndGet(startedAt - queuedAt);
+        try {
+            future.complete(task.call());
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            future.completeExceptionally(e);
+        } finally {
+            runNanos.addAndGet(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Stop accepting commands; queued commands are still run
+     */
+    public void shutdown() {
+        pool.shutdown();
+        LOGGER.info("Shut down {}", this);
+    }
+
+    /**
+     * @return the name of this executor
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of commands accepted for running
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return the number of commands that completed successfully
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of commands that threw an exception
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of commands rejected because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of commands currently waiting to run
+     */
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return the number of commands currently running
+     */
+    public int getActive() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * @return the average time, in milliseconds, that finished commands waited in the queue before running
+     */
+    public double getAverageQueuedMs() {
+        return averageMs(queuedNanos.get());
+    }
+
+    /**
+     * @return the average time, in milliseconds, that finished commands took to run
+     */
+    public double getAverageRunMs() {
+        return averageMs(runNanos.get());
+    }
+
+    private double averageMs(long nanos) {
+        long finished = completed.get() + failed.get();
+        return finished == 0 ? 0 : nanos / 1e6 / finished;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CommandExecutor{name=%s, submitted=%d, completed=%d, failed=%d, rejected=%d, queued=%d, active=%d, averageQueuedMs=%.2f, averageRunMs=%.2f}",
+                name, getSubmitted(), getCompleted(), getFailed(), getRejected(), getQueued(), getActive(), getAverageQueuedMs(), getAverageRunMs());
+    }
+
+    /**
+     * A storage command
+     *
+     * @param <T> the type of the command result
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T call() throws StorageModuleException;
+    }
+}
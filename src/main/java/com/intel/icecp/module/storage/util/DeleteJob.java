@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.query.Query;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delete the messages selected by a query in chunks; each chunk is removed in its own transaction so that the storage
+ * provider is released between chunks and other operations (e.g. persisting incoming messages) can interleave with a
+ * large deletion. A job can be cancelled (taking effect after the current chunk) and later resumed since every chunk
+ * re-runs the query against the messages that remain; relative selectors of the query (e.g. a relative time) are
+ * resolved against the time the job was submitted, so the selection does not move forward while the job runs.
+ * <p>
+ * Other deletions (e.g. reclaiming the messages of a deleted session) can be run as jobs by passing the {@link Chunk}
+ * to delete; an optional pause between chunks throttles a job so that it does not compete with other operations.
+ */
+public class DeleteJob implements Runnable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final long id;
+    private final int chunkSize;
+    private final Chunk chunk;
+    private final long pauseMs;
+    private final Long queryTimeMs;
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private volatile String error;
+    private volatile long finishedMs;
+
+    /**
+     * Constructor
+     *
+     * @param id the unique ID of this job
+     * @param query selects the messages to delete
+     * @param chunkSize the maximum number of messages deleted in each transaction; must be greater than 0
+     * @param provider the storage provider to delete from
+     * @param queryTimeMs the time relative selectors of the query are resolved against, in milliseconds
+     */
+    public DeleteJob(long id, Query query, int chunkSize, StorageProvider provider, long queryTimeMs) {
+        this(id, chunkSize, 0, size -> deleteChunk(provider, query, size, queryTimeMs), queryTimeMs);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param id the unique ID of this job
+     * @param chunkSize the maximum number of messages deleted in each chunk; must be greater than 0
+     * @param pauseMs the time to wait between chunks, in milliseconds; 0 to run the chunks back to back
+     * @param chunk deletes each chunk; the job completes once a chunk deletes less than {@code chunkSize} messages
+     */
+    public DeleteJob(long id, int chunkSize, long pauseMs, Chunk chunk) {
+        this(id, chunkSize, pauseMs, chunk, null);
+    }
+
+    private DeleteJob(long id, int chunkSize, long pauseMs, Chunk chunk, Long queryTimeMs) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be greater than 0: " + chunkSize);
+        }
+        if (pauseMs < 0) {
+            throw new IllegalArgumentException("The pause must not be negative: " + pauseMs);
+        }
+        this.id = id;
+        this.chunkSize = chunkSize;
+        this.pauseMs = pauseMs;
+        this.chunk = chunk;
+        this.queryTimeMs = queryTimeMs;
+    }
+
+    /**
+     * Delete chunks until no more messages are selected by the query, the job is cancelled, or a chunk fails
+     */
+    @Override
+    public void run() {
+        if (!state.compareAndSet(State.PENDING, State.RUNNING)) {
+            LOGGER.debug("Delete job {} is not pending, state = {}", id, state.get());
+            return;
+        }
+
+        try {
+            long removed;
+            do {
+                removed = chunk.delete(chunkSize);
+                deleted.addAndGet(removed);
+                chunks.incrementAndGet();
+                LOGGER.debug("Delete job {} removed {} message(s) in chunk {}", id, removed, chunks.get());
+            } while (removed == chunkSize && state.get() == State.RUNNING && pause());
+
+            if (state.compareAndSet(State.RUNNING, State.COMPLETED)) {
+                finishedMs = System.currentTimeMillis();
+                LOGGER.info("Delete job {} completed, removed {} message(s)", id, deleted.get());
+            }
+        } catch (StorageModuleException | TaggingOperationException | RuntimeException e) {
+            error = e.getMessage();
+            finishedMs = System.currentTimeMillis();
+            state.set(State.FAILED);
+            LOGGER.error("Delete job {} failed after removing {} message(s)", id, deleted.get(), e);
+        }
+    }
+
+    private boolean pause() {
+        if (pauseMs > 0) {
+            try {
+                Thread.sleep(pauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                LOGGER.info("Delete job {} interrupted, cancelling", id);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long deleteChunk(StorageProvider provider, Query query, int chunkSize, long queryTimeMs)
+            throws StorageModuleException, TaggingOperationException {
+        provider.beginTransaction();
+        try {
+            long removed = provider.removeCount(query, chunkSize, queryTimeMs);
+            provider.commitTransaction();
+            return removed;
+        } catch (TaggingOperationException | RuntimeException e) {
+            provider.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Cancel the job; a running job stops after its current chunk
+     *
+     * @return true if the job was pending or running, false otherwise
+     */
+    public boolean cancel() {
+        if (state.compareAndSet(State.PENDING, State.CANCELLED) || state.compareAndSet(State.RUNNING, State.CANCELLED)) {
+            finishedMs = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prepare a cancelled or failed job to be run again; the caller is responsible for running it
+     *
+     * @return true if the job can be run again, false otherwise
+     */
+    public boolean reset() {
+        if (state.compareAndSet(State.CANCELLED, State.PENDING) || state.compareAndSet(State.FAILED, State.PENDING)) {
+            error = null;
+            finishedMs = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the unique ID of this job
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the current state of the job
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return the time the job last stopped running, i.e. completed, failed or was cancelled, in milliseconds; 0 while
+     * it is pending or running
+     */
+    public long getFinishedMs() {
+        return finishedMs;
+    }
+
+    /**
+     * @return the time relative selectors of the query are resolved against, if the job deletes by query
+     */
+    public Optional<Long> getQueryTimeMs() {
+        return Optional.ofNullable(queryTimeMs);
+    }
+
+    /**
+     * @return the number of messages deleted so far
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * @return a summary of the job's progress, e.g. for replying to a command
+     */
+    public Map<String, Object> toStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", id);
+        status.put("state", state.get().toString());
+        status.put("deleted", deleted.get());
+        status.put("chunks", chunks.get());
+        status.put("chunkSize", chunkSize);
+        if (queryTimeMs != null) {
+            status.put("queryTimeMs", queryTimeMs);
+        }
+        if (error != null) {
+            status.put("error", error);
+        }
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteJob{id=" + id + ", state=" + state.get() + ", deleted=" + deleted.get() + ", chunkSize=" + chunkSize + ", pauseMs=" + pauseMs + '}';
+    }
+
+    /**
+     * Delete one chunk of a job, in its own transaction
+     */
+    @FunctionalInterface
+    public interface Chunk {
+        /**
+         * @param chunkSize the maximum number of messages to delete
+         * @return the number of messages deleted; less than {@code chunkSize} when nothing remains to delete
+         * @throws StorageModuleException if the chunk cannot be deleted
+         * @throws TaggingOperationException if the messages to delete cannot be selected
+         */
+        long delete(int chunkSize) throws StorageModuleException, TaggingOperationException;
+    }
+
+    /**
+     * The states of a delete job
+     */
+    public enum State {
+        PENDING,
+        RUNNING,
+        CANCELLED,
+        COMPLETED,
+        FAILED
+    }
+}
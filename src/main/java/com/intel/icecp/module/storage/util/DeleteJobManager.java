@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.query.Query;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep track of {@link DeleteJob}s and run them in the background, one at a time, so that large deletions do not
+ * block the callers of storage commands. A completed job is forgotten once its status has been reported; any job that
+ * stopped running is forgotten after {@link #FINISHED_JOB_TTL_MS}, whether or not it was reported or resumed.
+ */
+public class DeleteJobManager {
+    static final int RECLAIM_CHUNK_SIZE = 1000;
+    static final long RECLAIM_PAUSE_MS = 10;
+    static final long FINISHED_JOB_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final StorageProvider provider;
+    private final long finishedJobTtlMs;
+    private final Map<Long, DeleteJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "storage-delete-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor
+     *
+     * @param provider the storage provider to delete from
+     */
+    public DeleteJobManager(StorageProvider provider) {
+        this(provider, FINISHED_JOB_TTL_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param provider the storage provider to delete from
+     * @param finishedJobTtlMs the time a job that stopped running is kept, in milliseconds
+     */
+    DeleteJobManager(StorageProvider provider, long finishedJobTtlMs) {
+        this.provider = provider;
+        this.finishedJobTtlMs = finishedJobTtlMs;
+    }
+
+    /**
+     * Start deleting the messages selected by a query in the background; relative selectors of the query (e.g. a
+     * relative time) are resolved now, once, and kept with the job for all its chunks and resumptions
+     *
+     * @param query selects the messages to delete
+     * @param chunkSize the maximum number of messages deleted in each transaction
+     * @return the submitted job
+     */
+    public DeleteJob submit(Query query, int chunkSize) {
+        return submit(new DeleteJob(nextJobId.getAndIncrement(), query, chunkSize, provider, System.currentTimeMillis()));
+    }
+
+    /**
+     * Start removing the messages of a session marked as deleted in the background, see
+     * {@link StorageProvider#reclaimSession(long, int)}; chunks are throttled so that reclaiming a large session does
+     * not delay other operations
+     *
+     * @param sessionId the ID of the session marked as deleted
+     * @return the submitted job
+     */
+    public DeleteJob reclaimSession(long sessionId) {
+        return submit(new DeleteJob(nextJobId.getAndIncrement(), RECLAIM_CHUNK_SIZE, RECLAIM_PAUSE_MS,
+                size -> provider.reclaimSession(sessionId, size)));
+    }
+
+    private DeleteJob submit(DeleteJob job) {
+        prune();
+        jobs.put(job.getId(), job);
+        execute(job);
+        LOGGER.info("Submitted {}", job);
+        return job;
+    }
+
+    private void execute(DeleteJob job) {
+        executor.execute(() -> {
+            try {
+                job.run();
+            } finally {
+                // jobs are rare, so the database connection is not kept between them
+                provider.releaseThreadResources();
+            }
+        });
+    }
+
+    /**
+     * @param jobId the ID of the job
+     * @return the job, if it exists
+     */
+    public Optional<DeleteJob> get(long jobId) {
+        prune();
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Forget a job once its status has been reported, if it completed; cancelled or failed jobs are kept so that they
+     * can be resumed
+     *
+     * @param job the job whose status was reported
+     */
+    public void reported(DeleteJob job) {
+        if (job.getState() == DeleteJob.State.COMPLETED && jobs.remove(job.getId(), job)) {
+            LOGGER.debug("Forgot reported {}", job);
+        }
+    }
+
+    private void prune() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.getFinishedMs() > 0 && now - job.getFinishedMs() >= finishedJobTtlMs);
+    }
+
+    /**
+     * Resume a cancelled or failed job; it continues with the messages that remain
+     *
+     * @param jobId the ID of the job
+     * @return true if the job was resumed, false if it does not exist or cannot be resumed
+     */
+    public boolean resume(long jobId) {
+        DeleteJob job = jobs.get(jobId);
+        if (job != null && job.reset()) {
+            execute(job);
+            LOGGER.info("Resumed {}", job);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancel all jobs and stop the background thread; running jobs stop after their current chunk
+     */
+    public void shutdown() {
+        jobs.values().forEach(DeleteJob::cancel);
+        executor.shutdown();
+    }
+}
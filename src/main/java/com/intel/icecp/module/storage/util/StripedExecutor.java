@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run tasks on a fixed number of single-threaded lanes, choosing the lane from a key (e.g. the URI of a recorded
+ * channel): tasks with the same key run one at a time in submission order, while tasks with different keys may run in
+ * parallel. This lets any number of channels share a few threads without each channel synchronizing its own callback.
+ * <p>
+ * Each lane has a bounded queue; when it is full, the submitting thread waits for room instead of dropping the task, so
+ * a slow storage provider slows down the delivery of messages rather than losing them. Dropping the tasks of a full
+ * lane instead, so that the submitting thread is never blocked, is opt-in (see {@link #setDropWhenFull(boolean)}); the
+ * dropped tasks are counted.
+ */
+public class StripedExecutor {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private final String name;
+    private final ThreadPoolExecutor[] lanes;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean dropWhenFull;
+
+    /**
+     * Constructor
+     *
+     * @param name the name of this executor, used for its threads
+     * @param lanes the number of lanes (i.e. threads); must be greater than 0
+     * @param queueCapacity the maximum number of tasks waiting in each lane; must be greater than 0
+     */
+    public StripedExecutor(String name, int lanes, int queueCapacity) {
+        this.name = name;
+        this.lanes = new ThreadPoolExecutor[lanes];
+        for (int i = 0; i < lanes; i++) {
+            String threadName = "storage-" + name + "-" + (i + 1);
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity), r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }, this::onFull);
+        }
+    }
+
+    private void onFull(Runnable task, ThreadPoolExecutor lane) {
+        if (lane.isShutdown()) {
+            throw new RejectedExecutionException("The " + name + " executor is shut down");
+        }
+        if (dropWhenFull) {
+            throw new RejectedExecutionException("A lane of the " + name + " executor is full");
+        }
+        try {
+            // waits for room in a full lane instead of rejecting the task
+            lane.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to queue a task", e);
+        }
+    }
+
+    /**
+     * @param dropWhenFull true to drop the tasks submitted to a full lane, false (the default) to wait for room
+     */
+    public void setDropWhenFull(boolean dropWhenFull) {
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * Queue a task on the lane of its key, waiting for room if the lane is full (unless full lanes drop their tasks);
+     * exceptions thrown by the task are logged
+     *
+     * @param key the key ordering the task, e.g. a channel URI
+     * @param task the task to run
+     * @return true if the task was queued, false if it was dropped because the lane is full and drops its tasks, the
+     * executor is shut down or the submitting thread was interrupted while waiting
+     */
+    public boolean execute(Object key, Runnable task) {
+        try {
+            laneOf(key).execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOGGER.error("Task failed on {} executor", name, e);
+                }
+            });
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    private ThreadPoolExecutor laneOf(Object key) {
+        return lanes[Math.floorMod(key.hashCode(), lanes.length)];
+    }
+
+    /**
+     * Stop accepting tasks; queued tasks are still run
+     */
+    public void shutdown() {
+        Arrays.stream(lanes).forEach(ThreadPoolExecutor::shutdown);
+        LOGGER.info("Shut down {}", this);
+    }
+
+    /**
+     * @return the number of lanes
+     */
+    public int getLanes() {
+        return lanes.length;
+    }
+
+    /**
+     * @return the number of tasks submitted
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return the number of tasks dropped because their lane was full, the executor was shut down or the submitting
+     * thread was interrupted
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of tasks that threw an exception
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of tasks currently waiting to run in all lanes
+     */
+    public int getQueued() {
+        return Arrays.stream(lanes).mapToInt(lane -> lane.getQueue().size()).sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StripedExecutor{name=%s, lanes=%d, submitted=%d, failed=%d, dropped=%d, queued=%d}",
+                name, getLanes(), getSubmitted(), getFailed(), getDropped(), getQueued());
+    }
+}
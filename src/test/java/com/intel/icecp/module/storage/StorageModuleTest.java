@@ -365,7 +365,7 @@ public class StorageModuleTest {
     
     @Test
     public void addCorrectNumberOfCommandsToRpcRegistry() throws Exception {
-        final long NUMBER_OF_RPC_METHODS = 13;
+        final long NUMBER_OF_RPC_METHODS = 18;
         module.run(mockNode, mockAttributes);
         assertEquals(NUMBER_OF_RPC_METHODS, module.getRpcServer().registry().size());
     }
@@ -376,16 +376,60 @@ public class StorageModuleTest {
         module.run(node, mockAttributes);
 
         URI listenChannel = URI.create("ndn:/intel/node/1/module/1/module-CMD/listenChannel$");
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("listenChannel", listenChannel.toString());
+
+        CommandResponse response = callCommand(node, "start", inputs);
+        assertFalse(response.err);
+
+        // the response carries the ID of the started session, not the future of the command
+        assertTrue(response.out instanceof Number);
+        assertTrue(module.getChannel(((Number) response.out).longValue()).isPresent());
+    }
+
+    @Test
+    public void respondToQueryByTimeOnCommandChannel() throws Exception {
+        Node node = NodeFactory.buildMockNode();
+        module.run(node, mockAttributes);
+
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("from", 0);
+        inputs.put("to", System.currentTimeMillis());
+
+        CommandResponse response = callCommand(node, "queryByTime", inputs);
+        assertFalse(response.err);
+        assertTrue(response.out instanceof Map);
+    }
+
+    @Test
+    public void respondWithErrorToStopPrefixOfUnknownPrefixOnCommandChannel() throws Exception {
+        Node node = NodeFactory.buildMockNode();
+        module.run(node, mockAttributes);
+
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("listenPrefix", "ndn:/intel/not/recorded");
+
+        assertTrue(callCommand(node, "stopPrefix", inputs).err);
+    }
+
+    @Test
+    public void respondWithErrorToUnknownDeleteJobOnCommandChannel() throws Exception {
+        Node node = NodeFactory.buildMockNode();
+        module.run(node, mockAttributes);
+
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("jobId", 404);
+
+        assertTrue(callCommand(node, "deleteJob", inputs).err);
+    }
+
+    private static CommandResponse callCommand(Node node, String command, Map<String, Object> inputs) throws Exception {
         // TODO: STORAGE_COMMAND_CHANNEL: Chaned to match new global command channel. Will need to change it back when the channel changes in the actual code.
         URI storageCommandChannelName = URI.create(BaseMessage.COMMAND_CHANNEL_NAME);
 
         // Setup client and make command request
         RpcClient rpcClient = Rpc.newClient(node.channels(), storageCommandChannelName);
-        Map<String, Object> inputs = new HashMap<>();
-        inputs.put("listenChannel", listenChannel.toString());
-
-        CompletableFuture<CommandResponse> future = rpcClient.call(CommandRequest.from("start", inputs));
-        CommandResponse response = future.get(REMOTE_CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        assertFalse(response.err);
+        CompletableFuture<CommandResponse> future = rpcClient.call(CommandRequest.from(command, inputs));
+        return future.get(REMOTE_CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
     }
 }
\ No newline at end of file
@@ -42,6 +42,7 @@ public class CommandAdapterTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         when(mockModule.getStorageProvider()).thenReturn(mockProvider);
+        when(mockModule.getCommandDispatcher()).thenReturn(new CommandDispatcher());
         commandAdapter = new CommandAdapter(mockModule);
     }
 
@@ -87,7 +88,27 @@ public class CommandAdapterTest {
     }
 
     @Test
-    public void returnListTagType() throws StorageModuleException {
+    public void acceptIntegerAndLongNumbers() throws Exception {
+        when(mockProvider.getSessionSize(5L)).thenReturn(3);
+        Map<String, Object> inputs = new LinkedHashMap<>();
+        inputs.put("sessionId", 5);
+        assertEquals(3, commandAdapter.size(inputs));
+
+        inputs.put("sessionId", 5L);
+        assertEquals(3, commandAdapter.size(inputs));
+    }
+
+    @Test
+    public void throwWhenNumberParameterIsNotNumber() throws Exception {
+        Map<String, Object> inputs = new LinkedHashMap<>();
+        inputs.put("sessionId", "5");
+
+        exception.expect(StorageModuleException.class);
+        commandAdapter.size(inputs);
+    }
+
+    @Test
+    public void returnListTagType() throws Exception {
         Map<String, Object> inputs = new LinkedHashMap<>();
         inputs.put("query", "ndn:/intel/test/channel");
         Object returnObj = commandAdapter.listTag(inputs);
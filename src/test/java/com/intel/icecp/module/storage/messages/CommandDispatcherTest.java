@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.util.CommandExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class CommandDispatcherTest {
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    private CommandDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new CommandDispatcher(new CommandExecutor("read", 1, 1), new CommandExecutor("write", 1, 1),
+                new CommandExecutor("admin", 1, 1), new CommandExecutor("subscribe", 1, 1));
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void adminCommandsAreNotDelayedByBusyReads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> read = dispatcher.read(() -> {
+            await(release);
+            return "read";
+        });
+
+        assertEquals("started", dispatcher.admin(() -> "started").get(1, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertEquals("read", read.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callerIsNotBlockedByQueuedCommands() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = dispatcher.write(() -> {
+            started.countDown();
+            await(release);
+            return null;
+        });
+        await(started);
+        CompletableFuture<Object> queued = dispatcher.write(() -> "queued");
+
+        // neither reply is complete but the calling thread was not held
+        assertFalse(queued.isDone());
+        CompletableFuture<Object> rejected = dispatcher.write(() -> "rejected");
+        assertTrue(rejected.isCompletedExceptionally());
+
+        release.countDown();
+        running.get(1, TimeUnit.SECONDS);
+        assertEquals("queued", queued.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void completeReplyWithExceptionOfCommand() throws Exception {
+        CompletableFuture<Object> reply = dispatcher.write(() -> {
+            throw new StorageModuleException("failed");
+        });
+
+        exception.expect(ExecutionException.class);
+        exception.expectMessage("failed");
+        reply.get(1, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) throws StorageModuleException {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new StorageModuleException(e);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.DeleteJob;
+import com.intel.icecp.module.storage.util.DeleteJobManager;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -32,6 +34,9 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -46,6 +51,10 @@ public class DeleteByTagMessageTest {
     StorageModule mockStorageModule;
     @Mock
     StorageProvider mockStorageProvider;
+    @Mock
+    DeleteJobManager mockDeleteJobManager;
+    @Mock
+    DeleteJob mockDeleteJob;
     private Set<PersistentMessage> deletedMessages;
 
     @Before
@@ -73,9 +82,26 @@ public class DeleteByTagMessageTest {
 
     @Test
     public void DeleteByTagsTest() throws Exception {
-        when(mockStorageProvider.remove(any(Query.class))).thenReturn(deletedMessages);
+        when(mockStorageProvider.removeCount(any(Query.class))).thenReturn((long) deletedMessages.size());
         Object response = new DeleteByTagMessage(new String[]{"a", "b"}, 1234L).onCommandMessage(mockStorageModule);
-        assertEquals(5, response);
+        assertEquals(5L, response);
+    }
+
+    @Test
+    public void DeleteByTagsInChunksTest() throws Exception {
+        when(mockStorageModule.getDeleteJobManager()).thenReturn(mockDeleteJobManager);
+        when(mockDeleteJobManager.submit(any(Query.class), eq(100))).thenReturn(mockDeleteJob);
+        when(mockDeleteJob.getId()).thenReturn(3L);
+
+        Object response = new DeleteByTagMessage(new String[]{"a", "b"}, 1234L, 100).onCommandMessage(mockStorageModule);
+
+        assertEquals(3L, response);
+        verify(mockStorageProvider, never()).removeCount(any(Query.class));
+    }
+
+    @Test(expected = StorageModuleException.class)
+    public void InvalidChunkSizeTest() throws Exception {
+        new DeleteByTagMessage(new String[]{"a", "b"}, 1234L, 0).onCommandMessage(mockStorageModule);
     }
 
     private LinkedHashSet<PersistentMessage> createdDeletedMessagesList() {
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.util.DeleteJob;
+import com.intel.icecp.module.storage.util.DeleteJobManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the DELETE_JOB command
+ */
+public class DeleteJobMessageTest {
+    private static final long JOB_ID = 7L;
+
+    @Mock
+    StorageModule mockStorageModule;
+    @Mock
+    DeleteJobManager mockManager;
+    @Mock
+    DeleteJob mockJob;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(mockStorageModule.getDeleteJobManager()).thenReturn(mockManager);
+        when(mockManager.get(JOB_ID)).thenReturn(Optional.of(mockJob));
+        when(mockJob.toStatus()).thenReturn(Collections.singletonMap("jobId", JOB_ID));
+    }
+
+    @Test(expected = StorageModuleException.class)
+    public void unknownJob() throws Exception {
+        when(mockManager.get(JOB_ID)).thenReturn(Optional.empty());
+        new DeleteJobMessage(JOB_ID, null).onCommandMessage(mockStorageModule);
+    }
+
+    @Test
+    public void statusIsDefaultAction() throws Exception {
+        Object response = new DeleteJobMessage(JOB_ID, null).onCommandMessage(mockStorageModule);
+        assertEquals(Collections.singletonMap("jobId", JOB_ID), response);
+        verify(mockManager).reported(mockJob);
+    }
+
+    @Test
+    public void cancelJob() throws Exception {
+        when(mockJob.cancel()).thenReturn(true);
+        new DeleteJobMessage(JOB_ID, DeleteJobMessage.Action.CANCEL).onCommandMessage(mockStorageModule);
+        verify(mockJob).cancel();
+    }
+
+    @Test(expected = StorageModuleException.class)
+    public void cancelFinishedJob() throws Exception {
+        when(mockJob.cancel()).thenReturn(false);
+        new DeleteJobMessage(JOB_ID, DeleteJobMessage.Action.CANCEL).onCommandMessage(mockStorageModule);
+    }
+
+    @Test
+    public void resumeJob() throws Exception {
+        when(mockManager.resume(JOB_ID)).thenReturn(true);
+        new DeleteJobMessage(JOB_ID, DeleteJobMessage.Action.RESUME).onCommandMessage(mockStorageModule);
+        verify(mockManager).resume(JOB_ID);
+    }
+}
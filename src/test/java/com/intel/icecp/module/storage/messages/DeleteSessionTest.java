@@ -23,6 +23,8 @@ import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.InconsistentStateException;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.DeleteJob;
+import com.intel.icecp.module.storage.util.DeleteJobManager;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -35,6 +37,7 @@ import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -51,7 +54,12 @@ public class DeleteSessionTest {
     private PersistCallback mockPersistCallback;
     @Mock
     private Channel<BytesMessage> mockChannel;
+    @Mock
+    private DeleteJobManager mockDeleteJobManager;
+    @Mock
+    private DeleteJob mockDeleteJob;
     private Long SESSION_ID = 123456789L;
+    private static final long JOB_ID = 42L;
 
     @Before
     public void setUp() {
@@ -70,6 +78,9 @@ public class DeleteSessionTest {
     private void setupMocks(Long sessionId, Long renamedSessionId) throws Exception {
         when(mockModule.getStorageProvider()).thenReturn(mockProvider);
         when(mockProvider.getPreviousSession(sessionId)).thenReturn(renamedSessionId);
+        when(mockModule.getDeleteJobManager()).thenReturn(mockDeleteJobManager);
+        when(mockDeleteJobManager.reclaimSession(sessionId)).thenReturn(mockDeleteJob);
+        when(mockDeleteJob.getId()).thenReturn(JOB_ID);
     }
 
     @Test
@@ -77,7 +88,7 @@ public class DeleteSessionTest {
         Long attachedSessionId = 0L;
         setupMocks(SESSION_ID, attachedSessionId);
 
-        doThrow(StorageModuleException.class).when(mockProvider).deleteSession(SESSION_ID);
+        doThrow(StorageModuleException.class).when(mockProvider).tombstoneSession(SESSION_ID);
 
         DeleteSession msg = getDeleteMessage(SESSION_ID);
 
@@ -85,7 +96,7 @@ public class DeleteSessionTest {
         msg.onCommandMessage(mockModule);
 
         //verify the test did make it all the way to the delete messages API
-        verify(mockProvider, times(1)).deleteSession(SESSION_ID);
+        verify(mockProvider, times(1)).tombstoneSession(SESSION_ID);
     }
 
     @Test
@@ -109,7 +120,7 @@ public class DeleteSessionTest {
         setupMocks(SESSION_ID, attachedSessionId);
 
         when(mockModule.getCallback(SESSION_ID)).thenReturn(null);
-        doThrow(StorageModuleException.class).when(mockProvider).deleteSession(SESSION_ID);
+        doThrow(StorageModuleException.class).when(mockProvider).tombstoneSession(SESSION_ID);
 
         DeleteSession msg = getDeleteMessage(SESSION_ID);
 
@@ -137,7 +148,7 @@ public class DeleteSessionTest {
         Long attachedSessionId = 0L;
         setupMocks(SESSION_ID, attachedSessionId);
 
-        doThrow(InconsistentStateException.class).when(mockProvider).deleteSession(SESSION_ID);
+        doThrow(InconsistentStateException.class).when(mockProvider).tombstoneSession(SESSION_ID);
 
         DeleteSession msg = getDeleteMessage(SESSION_ID);
 
@@ -155,10 +166,25 @@ public class DeleteSessionTest {
 
         DeleteSession msg = getDeleteMessage(SESSION_ID);
 
-        msg.onCommandMessage(mockModule);
+        assertEquals(JOB_ID, msg.onCommandMessage(mockModule));
 
         //verify the test did make it all the way to the delete messages API
-        verify(mockProvider, times(1)).deleteSession(SESSION_ID);
+        verify(mockProvider, times(1)).tombstoneSession(SESSION_ID);
+        verify(mockDeleteJobManager, times(1)).reclaimSession(SESSION_ID);
+    }
+
+    @Test
+    public void doNotReclaimWhenTombstoneFails() throws Exception {
+        setupMocks(SESSION_ID, 0L);
+        doThrow(StorageModuleException.class).when(mockProvider).tombstoneSession(SESSION_ID);
+
+        try {
+            getDeleteMessage(SESSION_ID).onCommandMessage(mockModule);
+        } catch (StorageModuleException e) {
+            // expected
+        }
+
+        verify(mockDeleteJobManager, never()).reclaimSession(SESSION_ID);
     }
 
     @Test
@@ -218,7 +244,7 @@ public class DeleteSessionTest {
         Long attachedSessionId = 0L;
         setupMocks(SESSION_ID, attachedSessionId);
 
-        doThrow(InconsistentStateException.class).when(mockProvider).deleteSession(SESSION_ID);
+        doThrow(InconsistentStateException.class).when(mockProvider).tombstoneSession(SESSION_ID);
 
         DeleteSession msg = new DeleteSession(SESSION_ID);
         exception.expect(StorageModuleException.class);
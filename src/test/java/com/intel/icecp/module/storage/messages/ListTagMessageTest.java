@@ -26,8 +26,10 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -101,6 +103,20 @@ public class ListTagMessageTest {
         assertTrue(res.contains("Tag{Id789}"));
     }
 
+    @Test
+    public void testReturnCountsWhenRequested() throws Exception {
+        Map<Tag, Long> counts = new HashMap<>();
+        counts.put(TEST_CHANNEL_TAG, 3L);
+        counts.put(new Tag("Id123"), 2L);
+        when(mockStorageProvider.relatedCounts(TEST_CHANNEL_TAG)).thenReturn(counts);
+
+        Map<String, Long> res = (Map<String, Long>) new ListTagMessage(TAG_TEST_CHANNEL, true).onCommandMessage(mockStorageModule);
+
+        assertEquals(2, res.size());
+        assertEquals(3L, (long) res.get(TEST_CHANNEL_TAG.toString()));
+        assertEquals(2L, (long) res.get("Tag{Id123}"));
+    }
+
     @Test
     public void testReturnEmptyListTagWhenTagNotExists() throws Exception {
         generateSampleTagSet();
@@ -85,6 +85,7 @@ public class MessagesITTest {
         when(mockNode.openChannel(any(URI.class), any(), any())).thenReturn(mockCmdChannel);
 
         when(mockProvider.createSession(any(), anyInt())).thenReturn(SESSION_ID);
+        when(mockProvider.runInTransaction(any())).thenAnswer(i -> ((StorageProvider.TransactionWork<?>) i.getArguments()[0]).run());
     }
 
     @Test
@@ -25,6 +25,7 @@ import com.intel.icecp.module.storage.ack.AckMessage;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.StripedExecutor;
 import com.intel.icecp.node.NodeFactory;
 import org.junit.Before;
 import org.junit.Rule;
@@ -40,8 +41,10 @@ import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -71,6 +74,7 @@ public class PersistCallbackTest {
     @Before
     public void before() throws Exception {
         MockitoAnnotations.initMocks(this);
+        when(mockProvider.runInTransaction(any())).thenAnswer(i -> ((StorageProvider.TransactionWork<?>) i.getArguments()[0]).run());
         ackUri = URI.create("ndn:/ack");
         incomingChannelUri = URI.create("ndn:/incoming");
         node = NodeFactory.buildMockNode();
@@ -176,6 +180,24 @@ public class PersistCallbackTest {
         verify(mockProvider, times(1)).saveMessage(anyLong(), any(PersistentMessage.class));
     }
 
+    @Test
+    public void onPublishPersistsOnStripedExecutor() throws Exception {
+        when(mockProvider.saveMessage(anyLong(), any(PersistentMessage.class))).thenReturn(MESSAGE_ID);
+        StripedExecutor executor = new StripedExecutor("test", 2, 16);
+        PersistCallback striped = new PersistCallback(mockNode, mockProvider, mockAckChannel, incomingChannelUri, SESSION_ID, executor);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        striped.onPublish(new BytesMessage(sampleBytes));
+        striped.onPublish(new BytesMessage(sampleBytes));
+        executor.execute(incomingChannelUri, latch::countDown);
+
+        // tasks of the same channel run in order, so both messages are persisted before the latch is counted down
+        assertTrue(latch.await(4, TimeUnit.SECONDS));
+        verify(mockProvider, times(2)).saveMessage(eq(SESSION_ID), any(PersistentMessage.class));
+        verify(mockAckChannel, times(2)).publish(any(AckMessage.class));
+        executor.shutdown();
+    }
+
     @Test
     public void updatesSessionIdSuccessfully() {
         Long newSessionId = 90L;
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Node;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.metadata.Persistence;
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.core.misc.OnPublish;
+import com.intel.icecp.module.storage.ack.AckMessage;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * PrefixRecorder unit tests.
+ *
+ */
+@SuppressWarnings("unchecked")
+public class PrefixRecorderTest {
+    private static final URI SENSOR_1 = URI.create("ndn:/plant1/sensors/1");
+    private static final URI SENSOR_2 = URI.create("ndn:/plant1/sensors/2");
+    private static final byte[] SAMPLE_BYTES = {(byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03};
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    @Mock
+    StorageProvider mockProvider;
+    @Mock
+    Node mockNode;
+    @Mock
+    Channel<BytesMessage> mockChannel;
+    @Mock
+    Channel<AckMessage> ackChannel;
+    private PrefixRecorder recorder;
+
+    @Before
+    public void before() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mockProvider.runInTransaction(any())).thenAnswer(i -> ((StorageProvider.TransactionWork<?>) i.getArguments()[0]).run());
+        Mockito.<Channel<BytesMessage>>when(mockNode.openChannel(any(URI.class), any(), any(Persistence.class))).thenReturn(mockChannel);
+        recorder = new PrefixRecorder(mockNode, mockProvider, ackChannel, "ndn:/plant1/sensors/*", 10);
+    }
+
+    @Test
+    public void normalizePrefix() {
+        assertEquals("ndn:/plant1/sensors/", PrefixRecorder.normalize("ndn:/plant1/sensors/*"));
+        assertEquals("ndn:/plant1/sensors/", PrefixRecorder.normalize("ndn:/plant1/sensors"));
+        assertTrue(PrefixRecorder.isPrefix("ndn:/plant1/sensors/*"));
+        assertFalse(PrefixRecorder.isPrefix("ndn:/plant1/sensors"));
+        assertTrue(recorder.matches(SENSOR_1));
+        assertFalse(recorder.matches(URI.create("ndn:/plant1/sensors/")));
+        assertFalse(recorder.matches(URI.create("ndn:/plant1/sensorsX/1")));
+    }
+
+    @Test
+    public void recordEachChannelOnceWithoutStartingSessions() throws Exception {
+        assertTrue(recorder.record(SENSOR_1));
+        assertFalse(recorder.record(SENSOR_1));
+        assertTrue(recorder.record(SENSOR_2));
+
+        assertEquals(2, recorder.getChannels().size());
+        assertTrue(recorder.getSessions().isEmpty());
+        verify(mockChannel, times(2)).subscribe(any());
+        verify(mockProvider, never()).createSession(any(), anyInt());
+    }
+
+    @Test
+    public void throwWhenChannelIsNotUnderPrefix() throws Exception {
+        exception.expect(StorageModuleException.class);
+        recorder.record(URI.create("ndn:/plant2/sensors/1"));
+    }
+
+    @Test
+    public void closeChannelWhenSubscribeFails() throws Exception {
+        doThrow(new ChannelIOException("mock")).when(mockChannel).subscribe(any());
+        try {
+            recorder.record(SENSOR_1);
+        } catch (ChannelIOException e) {
+            // expected
+        }
+
+        verify(mockChannel, times(1)).close();
+        assertTrue(recorder.getChannels().isEmpty());
+    }
+
+    @Test
+    public void startSessionOnFirstMessageOfEachChannel() throws Exception {
+        when(mockProvider.createSession(eq(SENSOR_1), anyInt())).thenReturn(1L);
+        when(mockProvider.getLatestActiveSession(SENSOR_2)).thenReturn(20L);
+        when(mockProvider.renameSession(SENSOR_2, 20L)).thenReturn(2L);
+        when(mockProvider.saveMessage(anyLong(), any(PersistentMessage.class))).thenReturn(100L);
+        ArgumentCaptor<OnPublish> listeners = ArgumentCaptor.forClass(OnPublish.class);
+        recorder.record(SENSOR_1);
+        recorder.record(SENSOR_2);
+        verify(mockChannel, times(2)).subscribe(listeners.capture());
+
+        listeners.getAllValues().get(0).onPublish(new BytesMessage(SAMPLE_BYTES));
+        listeners.getAllValues().get(0).onPublish(new BytesMessage(SAMPLE_BYTES));
+        listeners.getAllValues().get(1).onPublish(new BytesMessage(SAMPLE_BYTES));
+
+        assertEquals(Long.valueOf(1L), recorder.getSessions().get(SENSOR_1));
+        assertEquals(Long.valueOf(2L), recorder.getSessions().get(SENSOR_2));
+        verify(mockProvider, times(1)).createSession(SENSOR_1, 10);
+        verify(mockProvider, times(2)).saveMessage(eq(1L), any(PersistentMessage.class));
+        verify(mockProvider, times(1)).saveMessage(eq(2L), any(PersistentMessage.class));
+        verify(ackChannel, times(3)).publish(any(AckMessage.class));
+    }
+
+    @Test
+    public void dropMessageWhenSessionCannotStart() throws Exception {
+        when(mockProvider.createSession(eq(SENSOR_1), anyInt())).thenThrow(new StorageModuleException("mock"));
+
+        recorder.onPublish(SENSOR_1, new BytesMessage(SAMPLE_BYTES));
+
+        verify(mockProvider, times(1)).runInTransaction(any());
+        verify(mockProvider, never()).saveMessage(anyLong(), any(PersistentMessage.class));
+        assertEquals(Collections.emptyMap(), recorder.getSessions());
+    }
+
+    @Test
+    public void startNewSessionAfterSessionIsEvicted() throws Exception {
+        when(mockProvider.createSession(eq(SENSOR_1), anyInt())).thenReturn(1L, 2L);
+        when(mockProvider.saveMessage(anyLong(), any(PersistentMessage.class))).thenReturn(100L);
+        recorder.onPublish(SENSOR_1, new BytesMessage(SAMPLE_BYTES));
+
+        assertTrue(recorder.evictSession(1L));
+        assertFalse(recorder.evictSession(1L));
+        recorder.onPublish(SENSOR_1, new BytesMessage(SAMPLE_BYTES));
+
+        assertEquals(Long.valueOf(2L), recorder.getSessions().get(SENSOR_1));
+        verify(mockProvider, times(1)).saveMessage(eq(2L), any(PersistentMessage.class));
+    }
+
+    @Test
+    public void restartSessionWhenCachedSessionFailsToSave() throws Exception {
+        when(mockProvider.createSession(eq(SENSOR_1), anyInt())).thenReturn(1L, 2L);
+        when(mockProvider.saveMessage(eq(1L), any(PersistentMessage.class))).thenReturn(100L)
+                .thenThrow(new StorageModuleException("SessionId does not exist"));
+        when(mockProvider.saveMessage(eq(2L), any(PersistentMessage.class))).thenReturn(101L);
+        recorder.onPublish(SENSOR_1, new BytesMessage(SAMPLE_BYTES));
+
+        recorder.onPublish(SENSOR_1, new BytesMessage(SAMPLE_BYTES));
+
+        assertEquals(Long.valueOf(2L), recorder.getSessions().get(SENSOR_1));
+        verify(mockProvider, times(1)).saveMessage(eq(2L), any(PersistentMessage.class));
+        verify(ackChannel, times(2)).publish(any(AckMessage.class));
+    }
+
+    @Test
+    public void closeAllChannels() throws Exception {
+        recorder.record(SENSOR_1);
+        recorder.record(SENSOR_2);
+
+        recorder.close();
+
+        verify(mockChannel, times(2)).close();
+        assertTrue(recorder.getChannels().isEmpty());
+    }
+}
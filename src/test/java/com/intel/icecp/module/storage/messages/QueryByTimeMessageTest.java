@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * QueryByTimeMessage unit tests.
+ *
+ */
+public class QueryByTimeMessageTest {
+    private static final URI CHANNEL_A = URI.create("ndn:/sensor/a");
+    private static final URI CHANNEL_B = URI.create("ndn:/sensor/b");
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    @Mock
+    StorageModule mockModule;
+    @Mock
+    StorageProvider mockProvider;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(mockModule.getStorageProvider()).thenReturn(mockProvider);
+    }
+
+    @Test
+    public void groupOverlappingSessionsByChannel() throws Exception {
+        when(mockProvider.getSessionsOverlapping(100L, 200L)).thenReturn(Arrays.asList(
+                new SessionTimeSpan(CHANNEL_A, 1L, 50L, 120L),
+                new SessionTimeSpan(CHANNEL_A, 2L, 130L, 250L),
+                new SessionTimeSpan(CHANNEL_B, 3L, 150L, 160L)));
+
+        Map<String, List<Map<String, Object>>> result = (Map<String, List<Map<String, Object>>>)
+                new QueryByTimeMessage(100L, 200L).onCommandMessage(mockModule);
+
+        assertEquals(Arrays.asList(CHANNEL_A.toString(), CHANNEL_B.toString()), Arrays.asList(result.keySet().toArray()));
+        assertEquals(2, result.get(CHANNEL_A.toString()).size());
+        assertEquals(2L, result.get(CHANNEL_A.toString()).get(1).get("sessionId"));
+        assertEquals(130L, result.get(CHANNEL_A.toString()).get(1).get("firstTimestamp"));
+        assertEquals(250L, result.get(CHANNEL_A.toString()).get(1).get("lastTimestamp"));
+        assertEquals(3L, result.get(CHANNEL_B.toString()).get(0).get("sessionId"));
+    }
+
+    @Test
+    public void returnEmptyResultWhenNoSessionsOverlap() throws Exception {
+        when(mockProvider.getSessionsOverlapping(100L, 200L)).thenReturn(Collections.emptyList());
+
+        assertTrue(((Map) new QueryByTimeMessage(100L, 200L).onCommandMessage(mockModule)).isEmpty());
+    }
+
+    @Test
+    public void throwWhenWindowIsIncomplete() throws Exception {
+        exception.expect(StorageModuleException.class);
+        try {
+            new QueryByTimeMessage(100L, null).onCommandMessage(mockModule);
+        } finally {
+            verify(mockProvider, never()).getSessionsOverlapping(anyLong(), anyLong());
+        }
+    }
+}
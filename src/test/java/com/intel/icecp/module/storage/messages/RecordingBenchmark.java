@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Node;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.metadata.Persistence;
+import com.intel.icecp.module.storage.ack.AckMessage;
+import com.intel.icecp.module.storage.persistence.orientdb.StorageProviderFacade;
+import com.intel.icecp.module.storage.util.StripedExecutor;
+import com.intel.icecp.node.NodeFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the memory used by each recorded channel and the recording throughput for 1k, 10k and 50k channels,
+ * recorded with {@link PersistCallback} on a shared {@link StripedExecutor} as the storage module does. Channels are
+ * provided by the in-process mock node and messages are saved to an in-memory database. Each count is run with full
+ * lanes waiting for room (the default) and with full lanes dropping messages (see
+ * {@link StripedExecutor#setDropWhenFull(boolean)}).
+ * <p>
+ * This is not a unit test; run it with a large enough heap, e.g.:
+ * <br>
+ * <blockquote> <code>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.intel.icecp.module.storage.messages.RecordingBenchmark -Dexec.args="1000 10000 50000"
+ * </code> </blockquote>
+ */
+public class RecordingBenchmark {
+    private static final int[] DEFAULT_CHANNEL_COUNTS = {1000, 10000, 50000};
+    private static final int MESSAGES_PER_CHANNEL = 5;
+    private static final int SESSIONS_PER_TRANSACTION = 1000;
+    private static final byte[] PAYLOAD = new byte[256];
+    private static final long ACK_TIMEOUT_SEC = 600;
+
+    public static void main(String[] args) throws Exception {
+        int[] channelCounts = args.length == 0 ? DEFAULT_CHANNEL_COUNTS : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            channelCounts[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println("channels, full lanes, bytes/channel, messages, messages/s, dropped");
+        for (int channelCount : channelCounts) {
+            run(channelCount, false);
+            run(channelCount, true);
+        }
+    }
+
+    private static void run(int channelCount, boolean dropWhenFull) throws Exception {
+        StorageProviderFacade provider = new StorageProviderFacade();
+        StripedExecutor executor = new StripedExecutor("benchmark", Math.max(2, Runtime.getRuntime().availableProcessors()), 1024);
+        executor.setDropWhenFull(dropWhenFull);
+        Node node = NodeFactory.buildMockNode();
+        try {
+            String prefix = "ndn:/benchmark/" + channelCount + (dropWhenFull ? "/drop/" : "/wait/");
+            List<URI> uris = new ArrayList<>(channelCount);
+            List<Long> sessionIds = new ArrayList<>(channelCount);
+            for (int i = 0; i < channelCount; i++) {
+                uris.add(URI.create(prefix + i));
+            }
+            // sessions are created before measuring so that only the recording footprint is measured
+            for (int from = 0; from < channelCount; from += SESSIONS_PER_TRANSACTION) {
+                List<URI> chunk = uris.subList(from, Math.min(channelCount, from + SESSIONS_PER_TRANSACTION));
+                sessionIds.addAll(provider.runInTransaction(() -> {
+                    List<Long> created = new ArrayList<>(chunk.size());
+                    for (URI uri : chunk) {
+                        created.add(provider.createSession(uri, 0));
+                    }
+                    return created;
+                }));
+            }
+
+            int messageCount = channelCount * MESSAGES_PER_CHANNEL;
+            CountDownLatch acknowledged = new CountDownLatch(messageCount);
+            Channel<AckMessage> ackChannel = node.openChannel(URI.create(prefix + "ack"), AckMessage.class, Persistence.DEFAULT);
+            ackChannel.subscribe(ack -> acknowledged.countDown());
+
+            long before = usedMemory();
+            List<Channel<BytesMessage>> channels = new ArrayList<>(channelCount);
+            for (int i = 0; i < channelCount; i++) {
+                Channel<BytesMessage> channel = node.openChannel(uris.get(i), BytesMessage.class, Persistence.DEFAULT);
+                channel.subscribe(new PersistCallback(node, provider, ackChannel, uris.get(i), sessionIds.get(i), executor));
+                channels.add(channel);
+            }
+            long bytesPerChannel = (usedMemory() - before) / channelCount;
+
+            AtomicLong published = new AtomicLong();
+            long start = System.nanoTime();
+            for (int m = 0; m < MESSAGES_PER_CHANNEL; m++) {
+                for (Channel<BytesMessage> channel : channels) {
+                    channel.publish(new BytesMessage(PAYLOAD));
+                    published.incrementAndGet();
+                }
+            }
+            // dropped messages are never acknowledged
+            while (!acknowledged.await(1, TimeUnit.SECONDS)) {
+                if (acknowledged.getCount() <= executor.getDropped() && executor.getQueued() == 0
+                        || TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) > ACK_TIMEOUT_SEC) {
+                    break;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long saved = messageCount - acknowledged.getCount();
+
+            System.out.println(String.format("%d, %s, %d, %d, %.0f, %d", channelCount, dropWhenFull ? "drop" : "wait",
+                    bytesPerChannel, published.get(), saved / seconds, executor.getDropped()));
+
+            for (Channel<BytesMessage> channel : channels) {
+                channel.close();
+            }
+            ackChannel.close();
+        } finally {
+            executor.shutdown();
+            provider.shutdown();
+            node.stop();
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Node;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.metadata.Persistence;
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.ack.AckMessage;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import com.intel.icecp.module.storage.util.CommandExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * StartManyMessage unit tests.
+ *
+ */
+public class StartManyMessageTest {
+    private static final URI CHANNEL_A = URI.create("uri://channelA");
+    private static final URI CHANNEL_B = URI.create("uri://channelB");
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    @Mock
+    StorageModule mockModule;
+    @Mock
+    StorageProvider mockProvider;
+    @Mock
+    Node mockNode;
+    @Mock
+    Channel<BytesMessage> mockChannel;
+    @Mock
+    Channel<BytesMessage> failingChannel;
+    @Mock
+    Channel<AckMessage> ackChannel;
+    private CommandDispatcher dispatcher;
+
+    @Before
+    public void before() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mockModule.getNode()).thenReturn(mockNode);
+        when(mockModule.getStorageProvider()).thenReturn(mockProvider);
+        when(mockModule.getAckChannel()).thenReturn(ackChannel);
+        dispatcher = new CommandDispatcher();
+        when(mockModule.getCommandDispatcher()).thenReturn(dispatcher);
+        Mockito.<Channel<BytesMessage>>when(mockNode.openChannel(any(URI.class), any(), any(Persistence.class))).thenReturn(mockChannel);
+        when(mockProvider.runInTransaction(any())).thenAnswer(i -> ((StorageProvider.TransactionWork<?>) i.getArguments()[0]).run());
+    }
+
+    @After
+    public void after() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void startAllSessionsInOneTransaction() throws Exception {
+        when(mockProvider.createSession(eq(CHANNEL_A), anyInt())).thenReturn(1L);
+        when(mockProvider.getLatestActiveSession(CHANNEL_B)).thenReturn(20L);
+        when(mockProvider.renameSession(CHANNEL_B, 20L)).thenReturn(2L);
+
+        Map<String, Object> result = start("uri://channelA", "uri://channelB", "uri://channelA");
+
+        assertEquals(Arrays.asList("uri://channelA", "uri://channelB"), Arrays.asList(result.keySet().toArray()));
+        assertEquals(Collections.singletonMap("sessionId", 1L), result.get("uri://channelA"));
+        assertEquals(Collections.singletonMap("sessionId", 2L), result.get("uri://channelB"));
+        verify(mockProvider, times(1)).runInTransaction(any());
+        verify(mockChannel, times(2)).subscribe(any());
+        verify(mockModule, times(1)).addChannel(eq(1L), eq(mockChannel), eq(10), any());
+        verify(mockModule, times(1)).addChannel(eq(2L), eq(mockChannel), eq(10), any());
+    }
+
+    @Test
+    public void reportSessionErrorsPerChannel() throws Exception {
+        when(mockProvider.createSession(eq(CHANNEL_A), anyInt())).thenReturn(1L);
+        when(mockProvider.createSession(eq(CHANNEL_B), anyInt())).thenThrow(new StorageModuleException("mock"));
+
+        Map<String, Object> result = start("uri://channelA", "uri://channelB", "not a uri");
+
+        assertEquals(Collections.singletonMap("sessionId", 1L), result.get("uri://channelA"));
+        assertTrue(((Map) result.get("uri://channelB")).containsKey("error"));
+        assertTrue(((Map) result.get("not a uri")).containsKey("error"));
+        // the batch is rolled back and the sessions are then started one transaction at a time
+        verify(mockProvider, times(3)).runInTransaction(any());
+        verify(mockChannel, times(1)).subscribe(any());
+    }
+
+    @Test
+    public void cleanupSessionWhenSubscribeFails() throws Exception {
+        when(mockProvider.createSession(eq(CHANNEL_A), anyInt())).thenReturn(1L);
+        when(mockProvider.createSession(eq(CHANNEL_B), anyInt())).thenReturn(2L);
+        Mockito.<Channel<BytesMessage>>when(mockNode.openChannel(eq(CHANNEL_B), any(), any(Persistence.class))).thenReturn(failingChannel);
+        doThrow(new ChannelIOException("mock")).when(failingChannel).subscribe(any());
+
+        Map<String, Object> result = start("uri://channelA", "uri://channelB");
+
+        assertEquals(Collections.singletonMap("sessionId", 1L), result.get("uri://channelA"));
+        assertTrue(((Map) result.get("uri://channelB")).containsKey("error"));
+        verify(mockModule, times(1)).removeChannel(2L);
+        verify(mockProvider, times(1)).deleteSession(2L);
+        verify(mockProvider, never()).deleteSession(1L);
+    }
+
+    @Test
+    public void throwWhenNoChannels() throws Exception {
+        exception.expect(StorageModuleException.class);
+        new StartManyMessage(Collections.emptyList(), null).onCommandMessage(mockModule);
+    }
+
+    @Test
+    public void useDefaultBufferingPeriodWhenNotPositive() throws Exception {
+        when(mockProvider.createSession(eq(CHANNEL_A), anyInt())).thenReturn(1L);
+
+        new StartManyMessage(Collections.singletonList("uri://channelA"), -1).onCommandMessage(mockModule);
+
+        verify(mockProvider, times(1)).createSession(CHANNEL_A, StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC);
+        verify(mockProvider, never()).renameSession(any(), anyLong());
+    }
+
+    @Test
+    public void subscribeOnCallingThreadWhenSubscriptionsCannotBeQueued() throws Exception {
+        dispatcher.shutdown();
+        dispatcher = new CommandDispatcher(new CommandExecutor("read", 1, 1), new CommandExecutor("write", 1, 1),
+                new CommandExecutor("admin", 1, 1), new CommandExecutor("subscribe", 1, 1));
+        when(mockModule.getCommandDispatcher()).thenReturn(dispatcher);
+        when(mockProvider.createSession(any(URI.class), anyInt())).thenReturn(1L, 2L, 3L, 4L, 5L);
+
+        Map<String, Object> result = start("uri://channel1", "uri://channel2", "uri://channel3", "uri://channel4", "uri://channel5");
+
+        assertEquals(5, result.size());
+        verify(mockChannel, times(5)).subscribe(any());
+        verify(mockModule, times(5)).addChannel(anyLong(), eq(mockChannel), eq(10), any());
+    }
+
+    private Map<String, Object> start(String... channels) throws StorageModuleException {
+        return (Map<String, Object>) new StartManyMessage(Arrays.asList(channels), 10).onCommandMessage(mockModule);
+    }
+}
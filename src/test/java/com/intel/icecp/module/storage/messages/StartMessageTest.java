@@ -157,6 +157,7 @@ public class StartMessageTest {
 
     private void createMockModule(long mockSessionId) throws Exception {
         when(mockProvider.createSession(any(), anyInt())).thenReturn(mockSessionId);
+        when(mockProvider.runInTransaction(any())).thenAnswer(i -> ((StorageProvider.TransactionWork<?>) i.getArguments()[0]).run());
         when(mockModule.getNode()).thenReturn(mockNode);
         when(mockModule.getStorageProvider()).thenReturn(mockProvider);
         when(mockModule.getAckChannel()).thenReturn(ackChannel);
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.messages;
+
+import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.module.storage.StorageModule;
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * StartPrefixMessage and StopPrefixMessage unit tests.
+ *
+ */
+public class StartPrefixMessageTest {
+    private static final String PREFIX = "ndn:/plant1/sensors/*";
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    @Mock
+    StorageModule mockModule;
+    @Mock
+    PrefixRecorder mockRecorder;
+
+    @Before
+    public void before() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mockModule.recordPrefix(anyString(), anyInt())).thenReturn(mockRecorder);
+    }
+
+    @Test
+    public void recordAllChannelsThroughOneRecorder() throws Exception {
+        doThrow(new ChannelIOException("mock")).when(mockRecorder).record(URI.create("ndn:/plant1/sensors/2"));
+
+        Map<String, Object> result = (Map<String, Object>) new StartPrefixMessage(PREFIX,
+                Arrays.asList("ndn:/plant1/sensors/1", "ndn:/plant1/sensors/2", "ndn:/plant1/sensors/1"), 10)
+                .onCommandMessage(mockModule);
+
+        assertEquals(Arrays.asList("ndn:/plant1/sensors/1", "ndn:/plant1/sensors/2"), Arrays.asList(result.keySet().toArray()));
+        assertEquals(Collections.singletonMap("recording", true), result.get("ndn:/plant1/sensors/1"));
+        assertTrue(((Map) result.get("ndn:/plant1/sensors/2")).containsKey("error"));
+        verify(mockModule, times(1)).recordPrefix(PREFIX, 10);
+        verify(mockRecorder, times(1)).record(URI.create("ndn:/plant1/sensors/1"));
+    }
+
+    @Test
+    public void useDefaultBufferingPeriodWhenNotSet() throws Exception {
+        new StartPrefixMessage(PREFIX, Collections.singletonList("ndn:/plant1/sensors/1"), null).onCommandMessage(mockModule);
+
+        verify(mockModule, times(1)).recordPrefix(PREFIX, StorageModule.DEFAULT_MAX_BUFFERING_PERIOD_IN_SEC);
+    }
+
+    @Test
+    public void throwWhenPrefixHasNoWildcard() throws Exception {
+        exception.expect(StorageModuleException.class);
+        try {
+            new StartPrefixMessage("ndn:/plant1/sensors", Collections.singletonList("ndn:/plant1/sensors/1"), null)
+                    .onCommandMessage(mockModule);
+        } finally {
+            verify(mockModule, never()).recordPrefix(anyString(), anyInt());
+        }
+    }
+
+    @Test
+    public void throwWhenNoChannels() throws Exception {
+        exception.expect(StorageModuleException.class);
+        new StartPrefixMessage(PREFIX, Collections.emptyList(), null).onCommandMessage(mockModule);
+    }
+
+    @Test
+    public void stopRecordedPrefix() throws Exception {
+        when(mockModule.stopPrefix(PREFIX)).thenReturn(true);
+
+        assertEquals(true, new StopPrefixMessage(PREFIX).onCommandMessage(mockModule));
+    }
+
+    @Test
+    public void throwWhenStoppingUnknownPrefix() throws Exception {
+        exception.expect(StorageModuleException.class);
+        new StopPrefixMessage(PREFIX).onCommandMessage(mockModule);
+    }
+}
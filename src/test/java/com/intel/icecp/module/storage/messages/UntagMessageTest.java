@@ -17,13 +17,17 @@
 package com.intel.icecp.module.storage.messages;
 
 import com.intel.icecp.module.query.Id;
+import com.intel.icecp.module.query.Query;
+import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
 import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -33,6 +37,9 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -73,9 +80,31 @@ public class UntagMessageTest {
     @Test
     public void returnsTaggedVertex() throws Exception {
         Set<Id> returnedTaggedIds = new HashSet<>(Arrays.asList(new Id(1), new Id(2), new Id(3)));
-        when(mockStorageProvider.untag(any(),any())).thenReturn(returnedTaggedIds);
+        when(mockStorageProvider.untag(any(Query.class), Matchers.<Tag>anyVararg())).thenReturn(returnedTaggedIds);
 
         int vertexSize = (int) new UntagMessage(tags, ids).onCommandMessage(mockStorageModule);
         assertEquals(ids.length, vertexSize);
     }
+
+    @Test
+    public void untagAllIdsWithAllTagsInOneCall() throws Exception {
+        when(mockStorageProvider.untag(any(Query.class), Matchers.<Tag>anyVararg())).thenReturn(new HashSet<>());
+
+        new UntagMessage(tags, ids).onCommandMessage(mockStorageModule);
+
+        verify(mockStorageProvider, times(1)).untag(any(Query.class), eq(new Tag("abc")), eq(new Tag("def")), eq(new Tag("ghi")));
+        verify(mockStorageProvider, times(1)).commitTransaction();
+    }
+
+    @Test
+    public void rollbackWhenUntaggingFails() throws Exception {
+        exception.expect(StorageModuleException.class);
+        when(mockStorageProvider.untag(any(Query.class), Matchers.<Tag>anyVararg())).thenThrow(new TaggingOperationException("..."));
+
+        try {
+            new UntagMessage(tags, ids).onCommandMessage(mockStorageModule);
+        } finally {
+            verify(mockStorageProvider, times(1)).rollbackTransaction();
+        }
+    }
 }
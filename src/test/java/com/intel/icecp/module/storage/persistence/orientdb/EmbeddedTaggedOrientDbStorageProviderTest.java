@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.module.query.Id;
+import com.intel.icecp.module.query.Queries;
+import com.intel.icecp.module.query.Query;
+import com.intel.icecp.module.query.Tag;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Run all tests of {@link TaggedOrientDbStorageProviderTest} with the {@link TagLayout#EMBEDDED} layout
+ *
+ */
+public class EmbeddedTaggedOrientDbStorageProviderTest extends TaggedOrientDbStorageProviderTest {
+
+    @Override
+    TagStore createTagStore(OrientGraph graph) {
+        return new EmbeddedTagStore(() -> graph, false);
+    }
+
+    @Test
+    public void tagsAreNotStoredAsEdges() throws Exception {
+        addAndTagSomeMessages(3, "a", "b");
+
+        assertEquals(0, graph.countEdges(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP));
+        assertEquals(3, instance.count(Queries.fromTags("a", "b")));
+    }
+
+    @Test
+    public void migrateTagEdges() throws Exception {
+        instance = new TaggedOrientDbStorageProvider(graph, new EdgeTagStore());
+        addAndTagSomeMessages(5, "a", "b");
+        addAndTagSomeMessages(2, "a");
+
+        EmbeddedTagStore migrating = new EmbeddedTagStore(() -> graph, true);
+        instance = new TaggedOrientDbStorageProvider(graph, migrating);
+        Id added = instance.add(new BytesMessage(".".getBytes()));
+        instance.tag(new Query(added), new Tag("a"));
+
+        // while migrating, messages are found in both layouts
+        assertEquals(8, instance.count(Queries.fromTags("a")));
+        graph.begin();
+        assertEquals(2, migrating.migrate(2));
+        graph.commit();
+        assertEquals(8, instance.count(Queries.fromTags("a")));
+        assertEquals(5, instance.count(Queries.fromTags("a", "b")));
+
+        int migrated;
+        do {
+            graph.begin();
+            migrated = migrating.migrate(2);
+            graph.commit();
+        } while (migrated > 0);
+
+        assertFalse(migrating.isMigrating());
+        assertEquals(0, graph.countEdges(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP));
+        assertEquals(8, instance.count(Queries.fromTags("a")));
+        assertEquals(5, instance.count(Queries.fromTags("a", "b")));
+        assertNotEquals(0L, instance.getActiveMinimumTimestamp("a"));
+
+        Map<Tag, Long> counts = instance.relatedCounts(new Tag("a"));
+        assertEquals(8L, (long) counts.get(new Tag("a")));
+        assertEquals(5L, (long) counts.get(new Tag("b")));
+    }
+
+    @Test
+    public void migrationRescansEdgesOfRolledBackChunk() throws Exception {
+        instance = new TaggedOrientDbStorageProvider(graph, new EdgeTagStore());
+        addAndTagSomeMessages(4, "a", "b");
+
+        EmbeddedTagStore migrating = new EmbeddedTagStore(() -> graph, true);
+        graph.begin();
+        assertEquals(2, migrating.migrate(2));
+        graph.rollback();
+
+        int migrated = 0;
+        int chunk;
+        do {
+            graph.begin();
+            chunk = migrating.migrate(2);
+            graph.commit();
+            migrated += chunk;
+        } while (chunk > 0);
+
+        assertEquals(4, migrated);
+        assertEquals(0, graph.countEdges(OrientDbNamespace.MESSAGE_TAG_RELATIONSHIP));
+        instance = new TaggedOrientDbStorageProvider(graph, migrating);
+        assertEquals(4, instance.count(Queries.fromTags("a", "b")));
+    }
+
+    @Test
+    public void tagsOfMessageAreLookedUpByName() throws Exception {
+        addAndTagSomeMessages(1, "a", "b", "c");
+
+        EmbeddedTagStore tags = new EmbeddedTagStore(() -> graph, false);
+        Vertex message = graph.getVerticesOfClass(OrientDbNamespace.MESSAGE_CLASS).iterator().next();
+        Set<String> names = tags.tagsOf(message).stream()
+                .map(v -> v.<String>getProperty(OrientDbNamespace.TAG_NAME_PROPERTY)).collect(Collectors.toSet());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), names);
+    }
+}
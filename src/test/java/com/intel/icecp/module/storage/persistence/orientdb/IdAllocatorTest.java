@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdAllocatorTest {
+    private OrientGraph graph;
+
+    @Before
+    public void before() {
+        OrientDbConfiguration configuration = new OrientDbConfiguration();
+        configuration.setStorageType(OrientDbStorageType.IN_MEMORY_GRAPH);
+        graph = GraphDbUtils.getGraphDbInstance(configuration);
+        OrientDbNamespace.setupSchemata(graph);
+    }
+
+    @After
+    public void after() {
+        graph.drop();
+    }
+
+    @Test
+    public void allocateConsecutiveIdsWithinBlock() {
+        IdAllocator instance = new IdAllocator(() -> graph);
+
+        for (long expected = 1; expected <= IdAllocator.BLOCK_SIZE + 1; expected++) {
+            assertEquals(expected, instance.next());
+        }
+    }
+
+    @Test
+    public void allocatorsReserveDistinctBlocks() {
+        IdAllocator first = new IdAllocator(() -> graph);
+        IdAllocator second = new IdAllocator(() -> graph);
+
+        assertEquals(1, first.next());
+        assertEquals(IdAllocator.BLOCK_SIZE + 1, second.next());
+        assertEquals(2, first.next());
+    }
+
+    @Test
+    public void blocksSurviveRolledBackTransactions() {
+        IdAllocator instance = new IdAllocator(() -> graph);
+        graph.begin();
+        instance.next();
+        graph.rollback();
+
+        assertEquals(IdAllocator.BLOCK_SIZE + 1, new IdAllocator(() -> graph).next());
+    }
+
+    @Test
+    public void allocateUniqueIdsConcurrently() throws Exception {
+        IdAllocator instance = new IdAllocator(() -> graph);
+        Set<Long> allocated = ConcurrentHashMap.newKeySet();
+        int threads = 4;
+        int idsPerThread = 2 * IdAllocator.BLOCK_SIZE;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                graph.getRawGraph().activateOnCurrentThread();
+                for (int j = 0; j < idsPerThread; j++) {
+                    allocated.add(instance.next());
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(threads * idsPerThread, allocated.size());
+    }
+}
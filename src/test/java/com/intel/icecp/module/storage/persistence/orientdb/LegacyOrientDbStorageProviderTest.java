@@ -22,7 +22,9 @@ import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.StorageModule;
 import com.intel.icecp.module.storage.exceptions.InconsistentStateException;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.persistence.ChannelStatistics;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.SessionTimeSpan;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
@@ -39,9 +41,13 @@ import org.mockito.MockitoAnnotations;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -62,9 +68,9 @@ public class LegacyOrientDbStorageProviderTest {
     public final ExpectedException exception = ExpectedException.none();
     @Mock
     private OrientVertex mockOrientVertex;
-    private LegacyOrientDbStorageProvider storageProvider;
+    LegacyOrientDbStorageProvider storageProvider;
     private LegacyOrientDbStorageProvider storageSpy;
-    private OrientGraph graph;
+    OrientGraph graph;
 
     @Before
     public void setup() throws InconsistentStateException {
@@ -75,11 +81,19 @@ public class LegacyOrientDbStorageProviderTest {
         graph = GraphDbUtils.getGraphDbInstance(configuration);
 
         OrientDbNamespace.setupSchemata(graph);
-        storageProvider = new LegacyOrientDbStorageProvider(graph);
+        storageProvider = new LegacyOrientDbStorageProvider(graph, new EdgeTagStore(), createSessionStore(graph));
 
         // for using default constructor, need to make sure to turn off the db transaction by default
         storageSpy = Mockito.spy(new LegacyOrientDbStorageProvider());
-        storageSpy.graphDbInstance.setAutoStartTx(false);
+        storageSpy.graphDbInstance().setAutoStartTx(false);
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @return the session layout to test; all tests of this class must pass with each layout
+     */
+    SessionStore createSessionStore(OrientGraph graph) {
+        return new EdgeSessionStore();
     }
 
     @After
@@ -102,6 +116,169 @@ public class LegacyOrientDbStorageProviderTest {
 
     }
 
+    @Test
+    public void channelCatalogTracksLatestSessionAndMessages() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testCatalog");
+        long sessionId = storageProvider.createSession(channelName);
+        PersistentMessage[] messages = createTestMessages(sessionId, 3);
+        long renamedSessionId = storageProvider.renameSession(channelName, sessionId);
+        assertEquals(renamedSessionId, storageProvider.getLatestActiveSession(channelName));
+
+        ChannelStatistics statistics = storageProvider.getChannelStatistics(channelName);
+        assertEquals(Arrays.asList(sessionId, renamedSessionId), statistics.getSessionIds());
+        assertEquals(3, statistics.getMessageCount());
+        long bytes = Arrays.stream(messages).mapToLong(m -> m.getMessageContent().length).sum();
+        assertEquals(bytes, statistics.getByteCount());
+        assertEquals(messages[0].getTimestamp(), statistics.getFirstTimestamp());
+        assertEquals(messages[2].getTimestamp(), statistics.getLastTimestamp());
+
+        storageProvider.deleteMessage(sessionId, messages[0].getId());
+        assertEquals(2, storageProvider.getChannelStatistics(channelName).getMessageCount());
+
+        // deleting the latest session makes the previous one the latest again
+        storageProvider.deleteSession(renamedSessionId);
+        assertEquals(sessionId, storageProvider.getLatestActiveSession(channelName));
+
+        storageProvider.deleteSession(sessionId);
+        assertEquals(0, storageProvider.getLatestActiveSession(channelName));
+        assertNull(storageProvider.getChannelStatistics(channelName));
+        assertTrue(storageProvider.getChannels().isEmpty());
+    }
+
+    @Test
+    public void interruptedRebuildRunsAgainOnNextSetup() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testPendingRebuild");
+        storageProvider.createSession(channelName);
+        String pending = OrientDbNamespace.REBUILD_PENDING_PREFIX + OrientDbNamespace.CHANNEL_URI_INDEX;
+        graph.begin();
+        graph.getVerticesOfClass(OrientDbNamespace.CHANNEL_CLASS).forEach(graph::removeVertex);
+        graph.commit();
+        graph.executeOutsideTx(g -> g.getRawGraph().getMetadata().getSchema().getClass(OrientDbNamespace.CHANNEL_CLASS).setCustom(pending, "true"));
+
+        OrientDbNamespace.setupSchemata(graph);
+
+        assertNotNull(ChannelCatalog.entryOf(graph, channelName));
+        assertNull(graph.getRawGraph().getMetadata().getSchema().getClass(OrientDbNamespace.CHANNEL_CLASS).getCustom(pending));
+    }
+
+    @Test
+    public void savingMessagesDoesNotWriteChannelEntry() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testCatalogWrites");
+        long sessionId = storageProvider.createSession(channelName);
+        int version = ((OrientVertex) ChannelCatalog.entryOf(graph, channelName)).getRecord().getVersion();
+        createTestMessages(sessionId, 3);
+
+        assertEquals(version, ((OrientVertex) ChannelCatalog.entryOf(graph, channelName)).getRecord().getVersion());
+        assertEquals(3, storageProvider.getChannelStatistics(channelName).getMessageCount());
+    }
+
+    @Test
+    public void sessionTimeIndexFindsSessionsOverlappingWindow() throws Exception {
+        URI channelA = new URI("ndn://icecp-storage-module.intel.com/testTimeA");
+        URI channelB = new URI("ndn://icecp-storage-module.intel.com/testTimeB");
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.DAYS.toMillis(400);
+        long oldSessionId = storageProvider.createSession(channelA);
+        storageProvider.saveMessage(oldSessionId, new PersistentMessage(old, "old #1".getBytes()));
+        storageProvider.saveMessage(oldSessionId, new PersistentMessage(old + TimeUnit.HOURS.toMillis(1), "old #2".getBytes()));
+        long recentSessionId = storageProvider.createSession(channelB);
+        storageProvider.saveMessage(recentSessionId, new PersistentMessage(now, "recent".getBytes()));
+        long emptySessionId = storageProvider.createSession(channelB);
+
+        List<SessionTimeSpan> spans = storageProvider.getSessionsOverlapping(old + 1, old + TimeUnit.HOURS.toMillis(2));
+        assertEquals(1, spans.size());
+        assertEquals(oldSessionId, spans.get(0).getSessionId());
+        assertEquals(channelA, spans.get(0).getChannel());
+        assertEquals(old, spans.get(0).getFirstTimestamp());
+        assertEquals(old + TimeUnit.HOURS.toMillis(1), spans.get(0).getLastTimestamp());
+
+        // a window covering more buckets than are looked up one at a time
+        List<Long> all = storageProvider.getSessionsOverlapping(now - TimeUnit.DAYS.toMillis(5000), now).stream()
+                .map(SessionTimeSpan::getSessionId).collect(Collectors.toList());
+        assertTrue(all.containsAll(Arrays.asList(oldSessionId, recentSessionId)));
+        assertFalse(all.contains(emptySessionId));
+
+        assertTrue(storageProvider.getSessionsOverlapping(old + TimeUnit.DAYS.toMillis(1), old + TimeUnit.DAYS.toMillis(2)).isEmpty());
+
+        // sessions marked as deleted are not found
+        storageProvider.tombstoneSession(oldSessionId);
+        assertTrue(storageProvider.getSessionsOverlapping(old, old).isEmpty());
+    }
+
+    @Test
+    public void sessionTimeIndexKeepsBucketBoundsAndNarrowsThemOnExpiry() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testTimeBuckets");
+        long bucket = SessionTimeIndex.bucketOf(System.currentTimeMillis()) - 10;
+        long start = bucket * SessionTimeIndex.BUCKET_MS;
+        long sessionId = storageProvider.createSession(channelName);
+        storageProvider.saveMessage(sessionId, new PersistentMessage(start + 1, "first".getBytes()));
+        storageProvider.saveMessage(sessionId, new PersistentMessage(start + 2, "second".getBytes()));
+        Vertex session = storageProvider.getSessionVertexById(sessionId);
+        assertEquals(start, (long) session.getProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY));
+        assertEquals(start + SessionTimeIndex.BUCKET_MS - 1, (long) session.getProperty(OrientDbNamespace.SESSION_LAST_TIMESTAMP_KEY));
+
+        storageProvider.saveMessage(sessionId, new PersistentMessage(start + SessionTimeIndex.BUCKET_MS, "third".getBytes()));
+        assertEquals(Arrays.asList(bucket, bucket + 1), session.getProperty(OrientDbNamespace.SESSION_TIME_BUCKETS_KEY));
+
+        // the exact bounds come from the messages
+        SessionTimeSpan span = storageProvider.getSessionsOverlapping(start, start).get(0);
+        assertEquals(start + 1, span.getFirstTimestamp());
+        assertEquals(start + SessionTimeIndex.BUCKET_MS, span.getLastTimestamp());
+
+        SessionTimeIndex.expired(session, start + SessionTimeIndex.BUCKET_MS);
+        assertEquals(Collections.singletonList(bucket + 1), session.getProperty(OrientDbNamespace.SESSION_TIME_BUCKETS_KEY));
+        SessionTimeIndex.expired(session, start + 2 * SessionTimeIndex.BUCKET_MS);
+        assertNull(session.getProperty(OrientDbNamespace.SESSION_TIME_BUCKETS_KEY));
+        assertNull(session.getProperty(OrientDbNamespace.SESSION_FIRST_TIMESTAMP_KEY));
+    }
+
+    @Test(expected = StorageModuleException.class)
+    public void sessionTimeIndexRejectsInvertedWindow() throws Exception {
+        storageProvider.getSessionsOverlapping(2, 1);
+    }
+
+    @Test
+    public void tombstonedSessionIsHiddenAndReclaimedInChunks() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testTombstone");
+        long sessionId = storageProvider.createSession(channelName);
+        createTestMessages(sessionId, 5);
+        long renamedSessionId = storageProvider.renameSession(channelName, sessionId);
+
+        storageProvider.tombstoneSession(renamedSessionId);
+        assertNull(storageProvider.getSessionVertexById(renamedSessionId));
+        assertEquals(Collections.singletonList(renamedSessionId), storageProvider.getTombstonedSessions());
+        assertEquals(sessionId, storageProvider.getLatestActiveSession(channelName));
+        assertEquals(Collections.singletonList(sessionId), storageProvider.getChannelStatistics(channelName).getSessionIds());
+        assertEquals(0, storageProvider.getPreviousSession(sessionId));
+
+        storageProvider.tombstoneSession(sessionId);
+        assertTrue(storageProvider.getChannels().isEmpty());
+        assertNull(storageProvider.getChannelStatistics(channelName));
+        assertEquals(5, storageProvider.reclaimSession(sessionId, 5));
+        assertEquals(0, storageProvider.reclaimSession(sessionId, 5));
+        assertEquals(0, storageProvider.reclaimSession(renamedSessionId, 5));
+        assertTrue(storageProvider.getTombstonedSessions().isEmpty());
+        assertFalse(graph.getVerticesOfClass(OrientDbNamespace.MESSAGE_CLASS).iterator().hasNext());
+        assertFalse(graph.getVerticesOfClass(OrientDbNamespace.CHANNEL_CLASS).iterator().hasNext());
+    }
+
+    @Test
+    public void tombstonedSessionCannotBeDeletedAgain() throws Exception {
+        long sessionId = storageProvider.createSession(new URI("ndn://icecp-storage-module.intel.com/testTombstone"));
+        storageProvider.tombstoneSession(sessionId);
+
+        exception.expect(StorageModuleException.class);
+        storageProvider.tombstoneSession(sessionId);
+    }
+
+    @Test
+    public void onlyTombstonedSessionsAreReclaimed() throws Exception {
+        long sessionId = storageProvider.createSession(new URI("ndn://icecp-storage-module.intel.com/testTombstone"));
+
+        exception.expect(StorageModuleException.class);
+        storageProvider.reclaimSession(sessionId, 10);
+    }
+
     @Test
     public void testCreateSessionId() throws Exception {
         URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionId");
@@ -302,6 +479,61 @@ public class LegacyOrientDbStorageProviderTest {
         storageProvider.deleteSession(renamedSessionId2);
     }
 
+    @Test
+    public void retryWithAnotherSessionIdWhenDrawnIdIsUsed() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionIdCollision");
+        long sessionId = storageSpy.createSession(channelName);
+        doReturn(sessionId).doReturn(0L).doReturn(sessionId + 1).when(storageSpy).drawSessionId();
+
+        // the unique index rejects the used ID on commit and the creation is retried
+        long newSessionId = storageSpy.createSession(channelName);
+
+        assertEquals(sessionId + 1, newSessionId);
+        assertNotNull(storageSpy.getSessionVertexById(sessionId));
+        assertNotNull(storageSpy.getSessionVertexById(newSessionId));
+    }
+
+    @Test
+    public void sessionChainIsMaintainedByRenameAndDelete() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionChain");
+        long sessionId1 = storageProvider.createSession(channelName);
+        long renamedSessionId = storageProvider.renameSession(channelName, sessionId1);
+        long renamedSessionId2 = storageProvider.renameSession(channelName, renamedSessionId);
+
+        Vertex newest = storageProvider.getSessionVertexById(renamedSessionId2);
+        assertEquals(Arrays.asList(renamedSessionId2, renamedSessionId, sessionId1), SessionChains.membersOf(graph, newest));
+        assertEquals(sessionId1, (long) newest.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY));
+        assertEquals(1, graph.countVertices(OrientDbNamespace.SESSION_CHAIN_CLASS));
+        int version = ((OrientVertex) newest).getRecord().getVersion();
+
+        // deleting the original session only rewrites the chain, not its other sessions
+        storageProvider.deleteSession(sessionId1);
+
+        newest = storageProvider.getSessionVertexById(renamedSessionId2);
+        assertEquals(version, ((OrientVertex) newest).getRecord().getVersion());
+        assertEquals(Arrays.asList(renamedSessionId2, renamedSessionId), SessionChains.membersOf(graph, newest));
+        assertEquals(sessionId1, (long) newest.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY));
+        assertEquals(Collections.singletonList(renamedSessionId), SessionChains.membersOf(graph, storageProvider.getSessionVertexById(renamedSessionId)));
+    }
+
+    @Test
+    public void rebuildSessionChainsFromSessionLinks() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionChain");
+        long sessionId1 = storageProvider.createSession(channelName);
+        long renamedSessionId = storageProvider.renameSession(channelName, sessionId1);
+        graph.begin();
+        graph.getVerticesOfClass(OrientDbNamespace.SESSION_CHAIN_CLASS).forEach(graph::removeVertex);
+
+        SessionChains.rebuild(graph);
+        graph.commit();
+
+        Vertex newest = storageProvider.getSessionVertexById(renamedSessionId);
+        assertEquals(Arrays.asList(renamedSessionId, sessionId1), SessionChains.membersOf(graph, newest));
+        assertEquals(sessionId1, (long) newest.getProperty(OrientDbNamespace.SESSION_CHAIN_ID_KEY));
+        assertEquals(Collections.singletonList(sessionId1),
+                SessionChains.membersOf(graph, storageProvider.getSessionVertexById(sessionId1)));
+    }
+
     @Test
     public void testDeleteSession() throws Exception {
         URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionId");
@@ -325,27 +557,61 @@ public class LegacyOrientDbStorageProviderTest {
     }
 
     @Test
-    public void throwWhenStartSeqNumDoesNotExistInSequence() throws Exception {
+    public void deleteRangeOfMessagesWithoutBoundaryMessages() throws Exception {
         URI channelName = new URI("ndn://icecp-storage-module.intel.com/testDeleteRange");
         long session1 = storageProvider.createSession(channelName);
+        long session2 = storageProvider.createSession(channelName);
 
         PersistentMessage[] messages = createDeleteRangeMessages(session1, 10);
+        PersistentMessage[] others = createDeleteRangeMessages(session2, 2);
 
-        exception.expect(StorageModuleException.class);
-        storageProvider.deleteMessagesByRange(session1, 11, messages[6].getId());
+        // the range starts before the first message and ends after the last message of session 1
+        storageProvider.deleteMessagesByRange(session1, messages[0].getId() - 1, others[1].getId() + 1);
+        assertEquals(0, storageProvider.getSessionSize(session1));
+        assertEquals(2, storageProvider.getSessionSize(session2));
+    }
+
+    @Test
+    public void deleteNothingWhenRangeHasNoMessages() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testDeleteRange");
+        long session1 = storageProvider.createSession(channelName);
+
+        PersistentMessage[] messages = createDeleteRangeMessages(session1, 10);
+
+        storageProvider.deleteMessagesByRange(session1, messages[9].getId() + 1, messages[9].getId() + 100);
         assertEquals(10, storageProvider.getSessionSize(session1));
     }
 
     @Test
-    public void throwWhenEndSeqNumDoesNotExistInSequence() throws Exception {
+    public void throwWhenRangeIsInverted() throws Exception {
         URI channelName = new URI("ndn://icecp-storage-module.intel.com/testDeleteRange");
         long session1 = storageProvider.createSession(channelName);
 
         PersistentMessage[] messages = createDeleteRangeMessages(session1, 10);
 
         exception.expect(StorageModuleException.class);
-        storageProvider.deleteMessagesByRange(session1, messages[3].getId(), 11);
-        assertEquals(7, storageProvider.getSessionSize(session1));
+        storageProvider.deleteMessagesByRange(session1, messages[6].getId(), messages[3].getId());
+    }
+
+    @Test
+    public void throwWhenDeletingRangeOfMissingSession() throws Exception {
+        exception.expect(StorageModuleException.class);
+        storageProvider.deleteMessagesByRange(-1, 0, 10);
+    }
+
+    @Test
+    public void sessionReadsAreBoundedByIndex() throws Exception {
+        long sessionId = storageProvider.createSession(new URI("ndn://icecp-storage-module.intel.com/snapshot"));
+        PersistentMessage[] messages = createTestMessages(sessionId, 3);
+        Vertex session = storageProvider.getSessionVertexById(sessionId);
+
+        // a read bounded by the next index of the session does not see messages saved after it started
+        List<Vertex> read = createSessionStore(graph).messagesOf(session, 0, 2).collect(Collectors.toList());
+
+        assertEquals(2, read.size());
+        assertEquals(messages[0].getId(), PersistentMessageHelper.fromVertex(read.get(0)).getId());
+        assertEquals(messages[1].getId(), PersistentMessageHelper.fromVertex(read.get(1)).getId());
+        assertEquals(3, storageProvider.getMessages(sessionId).size());
     }
 
     private PersistentMessage[] createDeleteRangeMessages(long sessionId, int numberOfMessages) throws Exception {
@@ -354,7 +620,7 @@ public class LegacyOrientDbStorageProviderTest {
         return messages;
     }
 
-    private long createSessionWithOneMessage(URI channelName) throws Exception {
+    long createSessionWithOneMessage(URI channelName) throws Exception {
         long sessionId = storageProvider.createSession(channelName);
         PersistentMessage message = new PersistentMessage(1, System.currentTimeMillis(),
                 "New Persistent Message Content #1".getBytes());
@@ -514,7 +780,7 @@ public class LegacyOrientDbStorageProviderTest {
      * @param totalMsgNum - number of messages to create on the session.
      * @return messages
      */
-    private PersistentMessage[] createTestMessages(long sessionId, int totalMsgNum) throws Exception {
+    PersistentMessage[] createTestMessages(long sessionId, int totalMsgNum) throws Exception {
         PersistentMessage[] messages = new PersistentMessage[totalMsgNum];
         for (int i = 0; i < totalMsgNum; i++) {
             int seq = i + 1;
@@ -585,6 +851,41 @@ public class LegacyOrientDbStorageProviderTest {
         storageProvider.deleteSession(sessionId1);
     }
 
+    @Test
+    public void deleteMessageOnlyRemovesMessageOfGivenSession() throws Exception {
+        URI channelName = new URI("ndn://icecp-storage-module.intel.com/testDeleteById");
+        long sessionId1 = storageProvider.createSession(channelName);
+        long sessionId2 = storageProvider.createSession(channelName);
+        PersistentMessage[] messages1 = createTestMessages(sessionId1, 3);
+        PersistentMessage[] messages2 = createTestMessages(sessionId2, 3);
+
+        // the ID of a message of another session does not delete anything
+        storageProvider.deleteMessage(sessionId1, messages2[0].getId());
+        assertEquals(3, storageProvider.getSessionSize(sessionId1));
+        assertEquals(3, storageProvider.getSessionSize(sessionId2));
+
+        storageProvider.deleteMessage(sessionId2, messages2[0].getId());
+        storageProvider.deleteMessage(sessionId1, messages1[1].getId());
+        assertEquals(Arrays.asList(messages1[0].getId(), messages1[2].getId()),
+                storageProvider.getMessages(sessionId1).stream().map(PersistentMessage::getId).collect(Collectors.toList()));
+        assertEquals(2, storageProvider.getSessionSize(sessionId2));
+    }
+
+    @Test
+    public void purgeExpiredMessagesWhenSaving() throws Exception {
+        long sessionId = storageProvider.createSession(new URI("ndn://icecp-storage-module.intel.com/testPurgeOnSave"), 1);
+        long expired = System.currentTimeMillis() - 10000;
+        for (int i = 0; i < 3; i++) {
+            storageProvider.saveMessage(sessionId, new PersistentMessage(i, expired, ("Expired #" + i).getBytes()));
+        }
+
+        PersistentMessage message = new PersistentMessage(3, System.currentTimeMillis(), "Active".getBytes());
+        storageProvider.saveMessage(sessionId, message);
+
+        assertEquals(1, graph.countVertices(OrientDbNamespace.MESSAGE_CLASS));
+        assertEquals(message.getId(), storageProvider.getMessages(sessionId).get(0).getId());
+    }
+
     @Test
     public void testDeleteMessageWithMessageIdUsingInvalidInputs() throws Exception {
         URI channelName = new URI("ndn://icecp-storage-module.intel.com/testSessionId");
@@ -757,8 +1058,8 @@ public class LegacyOrientDbStorageProviderTest {
         long sessionId = createNewSession(channelName);
         storageProvider.renameSession(new URI(channelName), sessionId);
 
-        assertEquals(1, storageProvider.graphDbInstance.countEdges());
-        assertEquals(2, storageProvider.graphDbInstance.countVertices());
+        assertEquals(1, storageProvider.graphDbInstance().countEdges());
+        assertEquals(2, storageProvider.graphDbInstance().countVertices());
     }
 
 
@@ -872,7 +1173,7 @@ public class LegacyOrientDbStorageProviderTest {
         }
     }
 
-    private int getVertexEdgeCount(Vertex vertex) {
+    int getVertexEdgeCount(Vertex vertex) {
         // Verify active vertex has the correct number of edges.
         int activeVertexEdgeCount = 0;
 
@@ -902,8 +1203,8 @@ public class LegacyOrientDbStorageProviderTest {
         storageProvider.renameSession(new URI(channelName), newSessionId_1);
         storageProvider.deleteSession(newSessionId_1);
 
-        long edgeCount = storageProvider.graphDbInstance.countEdges();
-        long vertexCount = storageProvider.graphDbInstance.countVertices();
+        long edgeCount = storageProvider.graphDbInstance().countEdges();
+        long vertexCount = storageProvider.graphDbInstance().countVertices();
 
         assertEquals(1, edgeCount);
         assertEquals(2, vertexCount);
@@ -918,7 +1219,7 @@ public class LegacyOrientDbStorageProviderTest {
         PersistentMessage msg2 = new PersistentMessage(2, 2, "#2".getBytes());
         storageProvider.saveMessage(sessionId1, msg2);
 
-        TaggedOrientDbStorageProvider tsp = new TaggedOrientDbStorageProvider(storageProvider.graphDbInstance);
+        TaggedOrientDbStorageProvider tsp = new TaggedOrientDbStorageProvider(storageProvider.graphDbInstance());
         Set<Id> tagged = tsp.tag(Queries.fromId(1), new Tag(OrientDbNamespace.INACTIVE_TAG));
         assertEquals(1, tagged.size());
 
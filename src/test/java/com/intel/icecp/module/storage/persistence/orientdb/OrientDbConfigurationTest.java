@@ -61,4 +61,14 @@ public class OrientDbConfigurationTest {
     public void setDbUrlDelimiterThrowsExceptionWhenNameIsEmpty() throws Exception {
         orientDbConfiguration.setDbUrlDelimiter(" ");
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setTagLayoutThrowsExceptionWhenLayoutIsNull() throws Exception {
+        orientDbConfiguration.setTagLayout(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSessionLayoutThrowsExceptionWhenLayoutIsNull() throws Exception {
+        orientDbConfiguration.setSessionLayout(null);
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OrientGraphPoolTest {
+    private OrientGraphPool instance;
+
+    @Before
+    public void before() {
+        instance = createPool("pool");
+    }
+
+    @After
+    public void after() {
+        instance.shutdown();
+    }
+
+    private static OrientGraphPool createPool(String name) {
+        OrientDbConfiguration configuration = new OrientDbConfiguration();
+        configuration.setStorageType(OrientDbStorageType.IN_MEMORY_GRAPH);
+        configuration.setDbFileName(name);
+        return new OrientGraphPool(GraphDbUtils.getGraphFactory(configuration));
+    }
+
+    @Test
+    public void bindOneInstancePerThread() throws Exception {
+        OrientGraph graph = instance.get();
+        OrientGraph other = CompletableFuture.supplyAsync(instance::get).get();
+
+        assertSame(graph, instance.get());
+        assertNotSame(graph, other);
+        assertEquals(2, instance.size());
+    }
+
+    @Test
+    public void transactionsAreBoundToThreads() throws Exception {
+        OrientDbNamespace.setupSchemata(instance.get());
+        OrientGraph graph = instance.get();
+        graph.begin();
+        graph.addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS, OrientDbNamespace.MESSAGE_ID_PROPERTY, 1L);
+
+        long seenByOtherThread = CompletableFuture.supplyAsync(() -> instance.get().countVertices(OrientDbNamespace.MESSAGE_CLASS)).get();
+        graph.commit();
+
+        assertEquals(0, seenByOtherThread);
+        assertEquals(1, CompletableFuture.supplyAsync(() -> instance.get().countVertices(OrientDbNamespace.MESSAGE_CLASS)).get().longValue());
+    }
+
+    @Test
+    public void releaseReturnsInstanceOfCurrentThread() {
+        OrientGraph graph = instance.get();
+
+        instance.release();
+
+        assertTrue(graph.isClosed());
+        assertEquals(0, instance.size());
+        assertFalse(instance.get().isClosed());
+    }
+
+    @Test
+    public void releaseKeepsInstanceWithOpenTransaction() {
+        OrientGraph graph = instance.get();
+        try (OrientTransaction tx = OrientTransaction.begin(graph)) {
+            instance.release();
+
+            assertFalse(graph.isClosed());
+            assertSame(graph, instance.get());
+        }
+    }
+
+    @Test
+    public void instancesOfEndedThreadsAreReleased() throws Exception {
+        Thread thread = new Thread(instance::get);
+        thread.start();
+        thread.join();
+        assertEquals(1, instance.size());
+
+        instance.get();
+
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    public void shutdownClosesAllInstances() throws Exception {
+        OrientGraphPool pool = createPool("pool-shutdown");
+        OrientGraph graph = pool.get();
+        OrientGraph other = CompletableFuture.supplyAsync(pool::get).get();
+
+        pool.shutdown();
+
+        assertTrue(graph.isClosed());
+        assertTrue(other.isClosed());
+        assertEquals(0, pool.size());
+    }
+}
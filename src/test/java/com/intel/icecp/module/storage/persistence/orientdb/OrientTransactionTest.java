@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OrientTransactionTest {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+    private OrientGraphPool graphs;
+    private OrientGraph graph;
+
+    @Before
+    public void before() {
+        OrientDbConfiguration configuration = new OrientDbConfiguration();
+        configuration.setStorageType(OrientDbStorageType.IN_MEMORY_GRAPH);
+        configuration.setDbFileName("transaction-" + DATABASES.incrementAndGet());
+        graphs = new OrientGraphPool(GraphDbUtils.getGraphFactory(configuration));
+        graph = graphs.get();
+        OrientDbNamespace.setupSchemata(graph);
+    }
+
+    @After
+    public void after() {
+        graphs.shutdown();
+    }
+
+    @Test
+    public void commitMakesChangesVisibleToOtherThreads() throws Exception {
+        try (OrientTransaction tx = OrientTransaction.begin(graph)) {
+            addMessage();
+            assertEquals(0, countFromOtherThread());
+            tx.commit();
+        }
+
+        assertEquals(1, countFromOtherThread());
+    }
+
+    @Test
+    public void closeWithoutCommitRollsBack() throws Exception {
+        try (OrientTransaction tx = OrientTransaction.begin(graph)) {
+            addMessage();
+        }
+
+        assertEquals(0, graph.countVertices(OrientDbNamespace.MESSAGE_CLASS));
+        assertNull(OrientTransaction.current(graph));
+    }
+
+    @Test
+    public void onlyOutermostScopeCommits() throws Exception {
+        try (OrientTransaction outer = OrientTransaction.begin(graph)) {
+            try (OrientTransaction inner = OrientTransaction.begin(graph)) {
+                assertFalse(inner.isOutermost());
+                assertSame(inner, OrientTransaction.current(graph));
+                addMessage();
+                inner.commit();
+            }
+            assertSame(outer, OrientTransaction.current(graph));
+            assertEquals(0, countFromOtherThread());
+            outer.commit();
+        }
+
+        assertEquals(1, countFromOtherThread());
+    }
+
+    @Test
+    public void nestedRollbackMarksOutermostScopeForRollback() {
+        try (OrientTransaction outer = OrientTransaction.begin(graph)) {
+            try (OrientTransaction inner = OrientTransaction.begin(graph)) {
+                addMessage();
+            }
+
+            exception.expect(IllegalStateException.class);
+            outer.commit();
+        }
+    }
+
+    @Test
+    public void executeRetriesConcurrentModifications() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        long id = OrientTransaction.execute(graphs, () -> {
+            addMessage();
+            if (attempts.incrementAndGet() < 3) {
+                throw Mockito.mock(OConcurrentModificationException.class);
+            }
+            return 1L;
+        });
+
+        assertEquals(1, id);
+        assertEquals(3, attempts.get());
+        assertEquals(1, graph.countVertices(OrientDbNamespace.MESSAGE_CLASS));
+    }
+
+    @Test
+    public void executeRetriesDuplicatedKeys() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        long sessionId = OrientTransaction.execute(graphs, () -> {
+            // the first attempt collides with a session committed concurrently
+            long id = attempts.incrementAndGet() == 1 ? 1L : 2L;
+            graphs.get().addVertex(OrientDbNamespace.SESSION_VERTEX_CLASS_NAME, OrientDbNamespace.SESSION_ID_KEY, id);
+            if (id == 1L) {
+                CompletableFuture.runAsync(() -> OrientTransaction.execute(graphs, () ->
+                        graphs.get().addVertex(OrientDbNamespace.SESSION_VERTEX_CLASS_NAME, OrientDbNamespace.SESSION_ID_KEY, 1L))).join();
+            }
+            return id;
+        });
+
+        assertEquals(2, sessionId);
+        assertEquals(2, attempts.get());
+        assertEquals(2, graph.countVertices(OrientDbNamespace.SESSION_CLASS));
+    }
+
+    @Test
+    public void executeGivesUpAfterMaximumAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            OrientTransaction.execute(graphs, () -> {
+                attempts.incrementAndGet();
+                throw Mockito.mock(OConcurrentModificationException.class);
+            });
+        } catch (OConcurrentModificationException e) {
+            assertEquals(OrientTransaction.MAX_ATTEMPTS, attempts.get());
+            return;
+        }
+        throw new AssertionError("The concurrent modification was not passed on");
+    }
+
+    @Test
+    public void nestedExecuteDoesNotRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (OrientTransaction outer = OrientTransaction.begin(graph)) {
+            OrientTransaction.execute(graphs, () -> {
+                attempts.incrementAndGet();
+                throw Mockito.mock(OConcurrentModificationException.class);
+            });
+        } catch (OConcurrentModificationException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void detectWrappedConcurrentModifications() {
+        assertTrue(OrientTransaction.isConcurrentModification(new IllegalStateException(Mockito.mock(OConcurrentModificationException.class))));
+        assertFalse(OrientTransaction.isConcurrentModification(new IllegalStateException()));
+        assertTrue(OrientTransaction.isRetryable(new IllegalStateException(Mockito.mock(ORecordDuplicatedException.class))));
+        assertFalse(OrientTransaction.isRetryable(new IllegalStateException()));
+    }
+
+    private void addMessage() {
+        graphs.get().addVertex("class:" + OrientDbNamespace.MESSAGE_CLASS, OrientDbNamespace.MESSAGE_ID_PROPERTY, 1L);
+    }
+
+    private long countFromOtherThread() throws Exception {
+        return CompletableFuture.supplyAsync(() -> graphs.get().countVertices(OrientDbNamespace.MESSAGE_CLASS)).get();
+    }
+}
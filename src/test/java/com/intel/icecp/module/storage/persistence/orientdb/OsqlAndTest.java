@@ -19,6 +19,8 @@ package com.intel.icecp.module.storage.persistence.orientdb;
 import com.intel.icecp.module.query.And;
 import com.intel.icecp.module.query.Id;
 import com.intel.icecp.module.query.Tag;
+import com.intel.icecp.module.storage.persistence.Ordering;
+import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.tinkerpop.blueprints.impls.orient.OrientGraph;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +30,7 @@ import java.util.NoSuchElementException;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -94,12 +97,65 @@ public class OsqlAndTest {
         assertEquals(4, timesContained("SELECT", q.osql));
     }
 
+    @Test
+    public void toQueryBindsValuesAsParameters() {
+        OsqlAnd.QueryPair first = new OsqlAnd(db, new And(new Tag("a"), new Id(1))).toQuery();
+        OsqlAnd.QueryPair second = new OsqlAnd(db, new And(new Tag("b"), new Id(2))).toQuery();
+
+        assertEquals(first.osql, second.osql);
+        assertArrayEquals(new Object[]{"b", 2L}, second.params);
+    }
+
+    @Test
+    public void toQueryBuildsDifferentStatementsForDifferentShapes() {
+        OsqlAnd.QueryPair first = new OsqlAnd(db, new And(new Tag("a"), new Id(1))).toQuery();
+        OsqlAnd.QueryPair second = new OsqlAnd(db, new And(new Id(1), new Tag("a"))).toQuery();
+
+        assertNotEquals(first.osql, second.osql);
+    }
+
+    @Test
+    public void toKeysQuerySortsKeysWithoutContent() {
+        OsqlAnd instance = new OsqlAnd(db, new And(new Tag("a")));
+
+        OsqlAnd.QueryPair byId = instance.toKeysQuery(Ordering.ID_ASCENDING, null);
+        OsqlAnd.QueryPair byTimestamp = instance.toKeysQuery(Ordering.TIMESTAMP_DESCENDING, null);
+
+        assertArrayEquals(new Object[]{"a"}, byId.params);
+        assertArrayEquals(new Object[]{"a"}, byTimestamp.params);
+        assertTrue(byId.osql.endsWith("ORDER BY " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " ASC"));
+        assertTrue(byTimestamp.osql.endsWith("ORDER BY " + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + " DESC, " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " DESC"));
+        assertFalse(byTimestamp.osql.contains(OrientDbNamespace.MESSAGE_CONTENT_PROPERTY));
+    }
+
+    @Test
+    public void toKeysQueryStartsAfterKeyOfPreviousPage() {
+        OsqlAnd instance = new OsqlAnd(db, new And(new Tag("a")));
+        PersistentMessage last = new PersistentMessage(7, 1000, null);
+
+        OsqlAnd.QueryPair byId = instance.toKeysQuery(Ordering.ID_ASCENDING, last);
+        OsqlAnd.QueryPair byTimestamp = instance.toKeysQuery(Ordering.TIMESTAMP_DESCENDING, last);
+
+        assertArrayEquals(new Object[]{"a", 7L}, byId.params);
+        assertTrue(byId.osql.contains("WHERE " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " > ?"));
+        assertArrayEquals(new Object[]{"a", 1000L, 1000L, 7L}, byTimestamp.params);
+        assertTrue(byTimestamp.osql.contains("WHERE " + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + " < ? OR ("
+                + OrientDbNamespace.MESSAGE_TIMESTAMP_PROPERTY + " = ? AND " + OrientDbNamespace.MESSAGE_ID_PROPERTY + " < ?)"));
+    }
+
     @Test
     public void handleNegativeBefore() throws Exception {
         OsqlAnd.QueryPair q = OsqlAnd.toQuery(new com.intel.icecp.module.query.Before(Long.MIN_VALUE), 10);
         assertEquals(10L, q.params[0]);
     }
 
+    @Test
+    public void resolveBeforeAgainstGivenTime() throws Exception {
+        OsqlAnd instance = new OsqlAnd(db, new And(new com.intel.icecp.module.query.Before(60)), new EdgeTagStore(), 100000);
+
+        assertArrayEquals(new Object[]{40000L}, instance.toQuery().params);
+    }
+
     @Test(expected = ArithmeticException.class)
     public void handleOverflowingBefore() throws Exception {
         OsqlAnd.toQuery(new com.intel.icecp.module.query.Before(Long.MAX_VALUE), 10);
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.orient.OrientGraph;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Run all tests of {@link LegacyOrientDbStorageProviderTest} with the {@link SessionLayout#PROPERTY} layout
+ *
+ */
+public class PropertySessionOrientDbStorageProviderTest extends LegacyOrientDbStorageProviderTest {
+
+    @Override
+    SessionStore createSessionStore(OrientGraph graph) {
+        return new PropertySessionStore(() -> graph);
+    }
+
+    @Override
+    @Test
+    public void testDeleteInactiveSessionWithOneMessageAndLinkedSessionEdge() throws Exception {
+        String channelName = "ndn://icecp-storage-module.intel.com/deleteActiveLinkedSession";
+        long sessionId = createSessionWithOneMessage(new URI(channelName));
+
+        long newSessionId = storageProvider.renameSession(new URI(channelName), sessionId);
+        Vertex oldVertex = storageProvider.getSessionVertexById(sessionId);
+
+        // only the new session is linked; messages are not linked with edges
+        assertEquals(1, getVertexEdgeCount(oldVertex));
+
+        storageProvider.deleteSession(sessionId);
+
+        assertNull(storageProvider.getSessionVertexById(sessionId));
+        assertEquals(0, getVertexEdgeCount(storageProvider.getSessionVertexById(newSessionId)));
+        assertEquals(0, graph.countVertices(OrientDbNamespace.MESSAGE_CLASS));
+    }
+
+    @Test
+    public void savedMessagesAreNotLinkedWithEdges() throws Exception {
+        long sessionId = storageProvider.createSession(new URI("ndn://icecp-storage-module.intel.com/property"));
+        PersistentMessage[] messages = createTestMessages(sessionId, 5);
+
+        assertEquals(0, graph.countEdges(OrientDbNamespace.SESSION_MESSAGE_RELATIONSHIP));
+        // only the high-water mark of the first reserved block was written to the session vertex
+        assertEquals(SessionSequences.BLOCK_SIZE, (int) storageProvider.getSessionVertexById(sessionId).getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY));
+        assertEquals(5, storageProvider.getSessionSize(sessionId));
+
+        List<PersistentMessage> page = storageProvider.getMessages(sessionId, 2, 3);
+        assertEquals(2, page.size());
+        assertEquals(messages[3].getId(), page.get(0).getId());
+        assertEquals(messages[4].getId(), page.get(1).getId());
+    }
+}
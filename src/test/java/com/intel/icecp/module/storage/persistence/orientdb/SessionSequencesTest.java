@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.persistence.orientdb;
+
+import com.tinkerpop.blueprints.Vertex;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SessionSequencesTest {
+    @Mock
+    private SessionStore sessionStore;
+    @Mock
+    private Vertex session;
+    private SessionSequences instance;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(session.<Long>getProperty(OrientDbNamespace.SESSION_ID_KEY)).thenReturn(42L);
+        instance = new SessionSequences(sessionStore);
+    }
+
+    @Test
+    public void newSessionsStartAtZero() {
+        when(sessionStore.lastIndex(session)).thenReturn(-1);
+
+        assertEquals(0, instance.peek(session));
+        assertEquals(0, instance.next(session));
+        assertEquals(1, instance.next(session));
+        assertEquals(2, instance.peek(session));
+    }
+
+    @Test
+    public void recoverFromLastStoredIndex() {
+        when(sessionStore.lastIndex(session)).thenReturn(9);
+
+        assertEquals(10, instance.next(session));
+        verify(sessionStore, times(1)).lastIndex(session);
+    }
+
+    @Test
+    public void recoverFromHighWaterMark() {
+        when(session.<Number>getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY)).thenReturn(128);
+
+        assertEquals(128, instance.next(session));
+        verify(sessionStore, never()).lastIndex(session);
+    }
+
+    @Test
+    public void writeHighWaterMarkOncePerBlock() {
+        when(sessionStore.lastIndex(session)).thenReturn(-1);
+        AtomicInteger mark = new AtomicInteger(-1);
+        doAnswer(i -> {
+            mark.set((int) i.getArguments()[1]);
+            return null;
+        }).when(session).setProperty(eq(OrientDbNamespace.SESSION_NEXT_INDEX_KEY), anyInt());
+        when(session.<Number>getProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY)).thenAnswer(i -> mark.get() < 0 ? null : mark.get());
+
+        for (int i = 0; i < SessionSequences.BLOCK_SIZE; i++) {
+            instance.next(session);
+        }
+        verify(session, times(1)).setProperty(eq(OrientDbNamespace.SESSION_NEXT_INDEX_KEY), anyInt());
+        verify(session).setProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY, SessionSequences.BLOCK_SIZE);
+
+        instance.next(session);
+        verify(session).setProperty(OrientDbNamespace.SESSION_NEXT_INDEX_KEY, 2 * SessionSequences.BLOCK_SIZE);
+    }
+
+    @Test
+    public void removedSessionsAreRecoveredAgain() {
+        when(sessionStore.lastIndex(session)).thenReturn(-1);
+        instance.next(session);
+
+        instance.remove(42L);
+        instance.next(session);
+
+        verify(sessionStore, times(2)).lastIndex(session);
+    }
+}
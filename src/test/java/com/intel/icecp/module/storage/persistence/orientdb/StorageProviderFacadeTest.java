@@ -1,12 +1,15 @@
 package com.intel.icecp.module.storage.persistence.orientdb;
 
 import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.module.query.Queries;
 import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
 import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
 import com.intel.icecp.module.storage.persistence.providers.LegacyStorageProvider;
 import com.intel.icecp.module.storage.persistence.providers.TaggedStorageProvider;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -17,8 +20,18 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -139,6 +152,103 @@ public class StorageProviderFacadeTest {
         verify(facadeSpy, times(1)).getMessages(100L);
     }
 
+    @Test
+    public void testReadsAreNotBlockedByTransactionOfOtherThread() throws Exception {
+        provider.createSession(testUri);
+        provider.beginTransaction();
+        try {
+            Set<URI> channels = CompletableFuture.supplyAsync(provider::getChannels).get(10, TimeUnit.SECONDS);
+            assertTrue(channels.contains(testUri));
+        } finally {
+            provider.commitTransaction();
+        }
+    }
+
+    @Test
+    public void testCommitReleasesWriteLock() throws Exception {
+        provider.beginTransaction();
+        provider.commitTransaction();
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                provider.beginTransaction();
+                provider.commitTransaction();
+            } catch (StorageModuleException e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTransactionsOfOtherThreadsAreNotBlocked() throws Exception {
+        provider.beginTransaction();
+        try {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    provider.beginTransaction();
+                    provider.createSession(testUri);
+                    provider.commitTransaction();
+                } catch (StorageModuleException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    provider.releaseThreadResources();
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            provider.commitTransaction();
+        }
+
+        assertTrue(provider.getChannels().contains(testUri));
+    }
+
+    @Test
+    public void testRemoveUpdatesChannelStatistics() throws Exception {
+        long sessionId = provider.createSession(testUri);
+        for (int i = 0; i < 3; i++) {
+            long id = provider.saveMessage(sessionId, new PersistentMessage(i, TEST_INPUT.getBytes()));
+            provider.tag(Queries.fromId(id), i < 2 ? tag : new Tag("bar"));
+        }
+
+        assertEquals(2, provider.remove(Queries.fromTags(TEST_INPUT)).size());
+        assertEquals(1, provider.getChannelStatistics(testUri).getMessageCount());
+        assertEquals(1, provider.removeCount(Queries.fromTags("bar")));
+        assertEquals(0, provider.getChannelStatistics(testUri).getMessageCount());
+    }
+
+    @Test
+    public void testRunInTransactionRetriesConflictingWork() throws Exception {
+        List<Long> attempts = new ArrayList<>();
+
+        long sessionId = provider.runInTransaction(() -> {
+            attempts.add(provider.createSession(testUri, 0));
+            if (attempts.size() == 1) {
+                throw new TaggingOperationException("wrapped conflict", Mockito.mock(OConcurrentModificationException.class));
+            }
+            return attempts.get(attempts.size() - 1);
+        });
+
+        // the first attempt was rolled back
+        Set<Long> sessions = new HashSet<>();
+        provider.getSessions(testUri).forEach(sessions::addAll);
+        assertEquals(2, attempts.size());
+        assertEquals(Collections.singleton(sessionId), sessions);
+    }
+
+    @Test
+    public void testRunInTransactionDoesNotRetryOtherFailures() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        exception.expect(StorageModuleException.class);
+
+        try {
+            provider.runInTransaction(() -> {
+                attempts.incrementAndGet();
+                throw new StorageModuleException("failed");
+            });
+        } finally {
+            assertEquals(1, attempts.get());
+        }
+    }
+
     @Test
     public void testDefaultConstructor() {
         provider = new StorageProviderFacade();
@@ -21,7 +21,9 @@ import com.intel.icecp.module.query.Id;
 import com.intel.icecp.module.query.Queries;
 import com.intel.icecp.module.query.Query;
 import com.intel.icecp.module.query.Tag;
+import com.intel.icecp.module.storage.persistence.Ordering;
 import com.intel.icecp.module.storage.persistence.PersistentMessage;
+import com.intel.icecp.module.storage.persistence.Projection;
 import com.tinkerpop.blueprints.impls.orient.OrientGraph;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,18 +32,25 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
  */
 public class TaggedOrientDbStorageProviderTest {
     private static final Logger LOGGER = LogManager.getLogger();
-    private TaggedOrientDbStorageProvider instance;
-    private OrientGraph graph;
+    TaggedOrientDbStorageProvider instance;
+    OrientGraph graph;
+    private TagStore tagStore;
 
     @Before
     public void before() {
@@ -50,7 +59,16 @@ public class TaggedOrientDbStorageProviderTest {
         graph = GraphDbUtils.getGraphDbInstance(configuration);
 
         OrientDbNamespace.setupSchemata(graph);
-        instance = new TaggedOrientDbStorageProvider(graph);
+        tagStore = createTagStore(graph);
+        instance = new TaggedOrientDbStorageProvider(graph, tagStore);
+    }
+
+    /**
+     * @param graph the Orient database instance
+     * @return the tag layout to test; all tests of this class must pass with each layout
+     */
+    TagStore createTagStore(OrientGraph graph) {
+        return new EdgeTagStore();
     }
 
     @After
@@ -182,6 +200,62 @@ public class TaggedOrientDbStorageProviderTest {
         assertEquals((long) five.value(), first(messages4).getId());
     }
 
+    @Test
+    public void findStreamInIdOrder() throws Exception {
+        addAndTagSomeMessages(250, "a");
+
+        List<Long> ascending = instance.find(Queries.fromTags("a"), -1, Ordering.ID_ASCENDING, Projection.ID_ONLY)
+                .map(PersistentMessage::getId).collect(Collectors.toList());
+        List<Long> descending = instance.find(Queries.fromTags("a"), -1, Ordering.ID_DESCENDING, Projection.ID_ONLY)
+                .map(PersistentMessage::getId).collect(Collectors.toList());
+
+        assertEquals(250, ascending.size());
+        assertEquals(250, ascending.stream().distinct().count());
+        for (int i = 1; i < ascending.size(); i++) {
+            assertTrue(ascending.get(i - 1) < ascending.get(i));
+            assertEquals(ascending.get(i), descending.get(descending.size() - 1 - i));
+        }
+    }
+
+    @Test
+    public void findStreamInTimestampOrderWithLimit() throws Exception {
+        addAndTagSomeMessages(150, "a");
+
+        List<PersistentMessage> messages = instance.find(Queries.fromTags("a"), 120, Ordering.TIMESTAMP_DESCENDING, Projection.METADATA)
+                .collect(Collectors.toList());
+
+        assertEquals(120, messages.size());
+        for (int i = 1; i < messages.size(); i++) {
+            PersistentMessage previous = messages.get(i - 1);
+            PersistentMessage current = messages.get(i);
+            assertTrue(previous.getTimestamp() > current.getTimestamp() ||
+                    (previous.getTimestamp() == current.getTimestamp() && previous.getId() > current.getId()));
+            assertNull(current.getMessageContent());
+        }
+    }
+
+    @Test
+    public void findStreamWithProjections() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        instance.tag(new Query(one), new Tag("a"));
+
+        PersistentMessage id = instance.find(Queries.fromTags("a"), 1, Ordering.ID_ASCENDING, Projection.ID_ONLY).findFirst().get();
+        PersistentMessage full = instance.find(Queries.fromTags("a"), 1, Ordering.ID_ASCENDING, Projection.FULL).findFirst().get();
+
+        assertEquals((long) one.value(), id.getId());
+        assertEquals(-1, id.getTimestamp());
+        assertNull(id.getMessageContent());
+        assertEquals((long) one.value(), full.getId());
+        assertTrue(full.getTimestamp() > 0);
+        assertTrue(Arrays.equals(".".getBytes(), full.getMessageContent()));
+    }
+
+    @Test
+    public void findStreamWithNoResults() throws Exception {
+        assertEquals(0, instance.find(Queries.fromTags("x"), -1, Ordering.ID_ASCENDING, Projection.FULL).count());
+        assertEquals(0, instance.find(Queries.fromTags(), -1, Ordering.ID_ASCENDING, Projection.FULL).count());
+    }
+
     @Test
     public void tagMessages() throws Exception {
         Id one = instance.add(new BytesMessage(".".getBytes()));
@@ -212,6 +286,50 @@ public class TaggedOrientDbStorageProviderTest {
         assertEquals(one.value(), first(untagged).value());
     }
 
+    @Test
+    public void tagManyMessagesWithManyTags() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Id two = instance.add(new BytesMessage("..".getBytes()));
+        Id three = instance.add(new BytesMessage("...".getBytes()));
+
+        Set<Id> tagged = instance.tag(Queries.fromIds(one.value(), two.value(), 42), new Tag("a"), new Tag("b"));
+
+        assertEquals(2, tagged.size());
+        assertEquals(2, instance.count(Queries.fromTags("a", "b")));
+        assertEquals(0, instance.count(new Query(three, new Tag("a"))));
+    }
+
+    @Test
+    public void untagManyMessagesWithManyTagsRemovesUnusedTags() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Id two = instance.add(new BytesMessage("..".getBytes()));
+        instance.tag(Queries.fromIds(one.value(), two.value()), new Tag("a"), new Tag("b"), new Tag("c"));
+        instance.tag(new Query(one), new Tag("d"));
+
+        Set<Id> untagged = instance.untag(Queries.fromIds(one.value(), two.value()), new Tag("a"), new Tag("b"), new Tag("x"));
+
+        assertEquals(2, untagged.size());
+        assertEquals(2, graph.countVertices(OrientDbNamespace.TAG_CLASS));
+        assertEquals(2, instance.count(Queries.fromTags("c")));
+        assertEquals(1, instance.count(Queries.fromTags("d")));
+    }
+
+    @Test
+    public void retagAfterUnusedTagIsRemoved() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Tag a = new Tag("a");
+        instance.tag(new Query(one), a);
+        instance.tag(new Query(one), new Tag("b")); // tag "a" is now cached
+
+        instance.untag(new Query(one), a);
+        assertEquals(1, graph.countVertices(OrientDbNamespace.TAG_CLASS));
+
+        instance.tag(new Query(one), a);
+        instance.tag(new Query(one), a);
+        assertEquals(2, graph.countVertices(OrientDbNamespace.TAG_CLASS));
+        assertEquals(1, instance.count(Queries.fromTags("a", "b")));
+    }
+
     @Test
     public void findRelatedTags() throws Exception {
         Id one = instance.add(new BytesMessage(".".getBytes()));
@@ -234,6 +352,79 @@ public class TaggedOrientDbStorageProviderTest {
         assertTrue(related.contains(c));
     }
 
+    @Test
+    public void findRelatedTagsOfSeveralTags() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Id two = instance.add(new BytesMessage("..".getBytes()));
+        instance.tag(new Query(one), new Tag("a"), new Tag("b"), new Tag("c"));
+        instance.tag(new Query(two), new Tag("a"), new Tag("d"));
+
+        Set<Tag> related = instance.related(new Tag("a"), new Tag("b"));
+
+        assertEquals(new HashSet<>(Arrays.asList(new Tag("a"), new Tag("b"), new Tag("c"))), related);
+        assertEquals(0, instance.related(new Tag("a"), new Tag("x")).size());
+    }
+
+    @Test
+    public void relatedTagsOfSeveralTagsComeFromMessagesCarryingAllOfThem() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Id two = instance.add(new BytesMessage("..".getBytes()));
+        Id three = instance.add(new BytesMessage("...".getBytes()));
+        Id four = instance.add(new BytesMessage("....".getBytes()));
+        instance.tag(new Query(one), new Tag("a"), new Tag("b"));
+        instance.tag(new Query(two), new Tag("a"), new Tag("c"));
+        instance.tag(new Query(three), new Tag("b"), new Tag("c"));
+        instance.tag(new Query(four), new Tag("a"), new Tag("b"), new Tag("d"));
+
+        Map<Tag, Long> counts = instance.relatedCounts(new Tag("a"), new Tag("b"));
+
+        // "c" is related to "a" and to "b", but no message carries "a", "b" and "c"
+        Map<Tag, Long> expected = new HashMap<>();
+        expected.put(new Tag("a"), 2L);
+        expected.put(new Tag("b"), 2L);
+        expected.put(new Tag("d"), 1L);
+        assertEquals(expected, counts);
+        assertEquals(expected.keySet(), instance.related(new Tag("b"), new Tag("a")));
+    }
+
+    @Test
+    public void relatedCountsAreMaintained() throws Exception {
+        Id one = instance.add(new BytesMessage(".".getBytes()));
+        Id two = instance.add(new BytesMessage("..".getBytes()));
+        Id three = instance.add(new BytesMessage("...".getBytes()));
+        instance.tag(Queries.fromIds(one.value(), two.value(), three.value()), new Tag("a"));
+        instance.tag(Queries.fromIds(one.value(), two.value()), new Tag("b"));
+        instance.tag(new Query(one), new Tag("b")); // already tagged, must not be counted twice
+
+        Map<Tag, Long> counts = instance.relatedCounts(new Tag("a"));
+        assertEquals(3L, (long) counts.get(new Tag("a")));
+        assertEquals(2L, (long) counts.get(new Tag("b")));
+
+        instance.untag(new Query(two), new Tag("b"));
+        instance.remove(new Query(three));
+        counts = instance.relatedCounts(new Tag("a"));
+        assertEquals(2L, (long) counts.get(new Tag("a")));
+        assertEquals(1L, (long) counts.get(new Tag("b")));
+
+        instance.removeCount(new Query(one));
+        counts = instance.relatedCounts(new Tag("a"));
+        assertEquals(1, counts.size());
+        assertEquals(1L, (long) counts.get(new Tag("a")));
+    }
+
+    @Test
+    public void rebuildRelatedCounts() throws Exception {
+        addAndTagSomeMessages(3, "a", "b");
+        addAndTagSomeMessages(2, "a");
+        Map<Tag, Long> before = instance.relatedCounts(new Tag("a"));
+
+        TagCooccurrence.rebuild(graph, tagStore);
+
+        assertEquals(before, instance.relatedCounts(new Tag("a")));
+        assertEquals(5L, (long) before.get(new Tag("a")));
+        assertEquals(3L, (long) before.get(new Tag("b")));
+    }
+
     @Test
     public void removeMessagesWithOneTag() throws Exception {
         Id one = instance.add(new BytesMessage(".".getBytes()));
@@ -285,6 +476,37 @@ public class TaggedOrientDbStorageProviderTest {
 
     }
 
+    @Test
+    public void countMessages() throws Exception {
+        addAndTagSomeMessages(3, "a", "b");
+        addAndTagSomeMessages(2, "a");
+
+        assertEquals(5, instance.count(Queries.fromTags("a")));
+        assertEquals(3, instance.count(Queries.fromTags("a", "b")));
+        assertEquals(0, instance.count(Queries.fromTags("x")));
+        assertEquals(0, instance.count(Queries.fromTags()));
+    }
+
+    @Test
+    public void removeCountMessagesInChunks() throws Exception {
+        addAndTagSomeMessages(250, "a", "b");
+        addAndTagSomeMessages(2, "a");
+
+        assertEquals(250, instance.removeCount(Queries.fromTags("a", "b")));
+        assertEquals(2, instance.count(Queries.fromTags("a")));
+        assertEquals(0, instance.removeCount(Queries.fromTags("a", "b")));
+        assertEquals(0, instance.removeCount(Queries.fromTags()));
+    }
+
+    @Test
+    public void removeCountWithLimit() throws Exception {
+        addAndTagSomeMessages(250, "a");
+
+        assertEquals(150, instance.removeCount(Queries.fromTags("a"), 150));
+        assertEquals(100, instance.removeCount(Queries.fromTags("a"), 150));
+        assertEquals(0, instance.count(Queries.fromTags("a")));
+    }
+
     @Test
     public void removeWithNonExistentTags() throws Exception {
         Set<PersistentMessage> deletedMessages1 = instance.remove(Queries.fromTags("x", "y"));
@@ -369,7 +591,7 @@ public class TaggedOrientDbStorageProviderTest {
         return messages.stream().anyMatch(m -> Arrays.equals(m.getMessageContent(), s.getBytes()));
     }
 
-    private void addAndTagSomeMessages(int count, String... tags) throws Exception {
+    void addAndTagSomeMessages(int count, String... tags) throws Exception {
         LOGGER.info("Adding {} messages with tags {}", count, tags);
         for (int i = 1; i <= count; i++) {
             byte[] content = Integer.toString(i).getBytes();
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.storage.exceptions.StorageModuleException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class CommandExecutorTest {
+    private CommandExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new CommandExecutor("test", 1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void completeWithResultOfCommand() throws Exception {
+        assertEquals(42, (int) executor.submit(() -> 42).get(1, TimeUnit.SECONDS));
+        assertEquals(1, executor.getSubmitted());
+        assertEquals(1, executor.getCompleted());
+        assertEquals(0, executor.getFailed());
+    }
+
+    @Test
+    public void completeExceptionallyWithExceptionOfCommand() throws Exception {
+        CompletableFuture<Object> future = executor.submit(() -> {
+            throw new StorageModuleException("failed");
+        });
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected the command to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StorageModuleException);
+        }
+        assertEquals(1, executor.getFailed());
+    }
+
+    @Test
+    public void rejectCommandsWhenQueueIsFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocking = executor.submit(() -> {
+            running.countDown();
+            await(release);
+            return null;
+        });
+        running.await(1, TimeUnit.SECONDS);
+        CompletableFuture<Object> queued = executor.submit(() -> "queued");
+
+        CompletableFuture<Object> rejected = executor.submit(() -> "rejected");
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, executor.getRejected());
+        assertEquals(1, executor.getQueued());
+        assertEquals(1, executor.getActive());
+
+        release.countDown();
+        blocking.get(1, TimeUnit.SECONDS);
+        assertEquals("queued", queued.get(1, TimeUnit.SECONDS));
+        assertEquals(2, executor.getCompleted());
+        assertTrue(executor.getAverageRunMs() >= 0);
+    }
+
+    private static void await(CountDownLatch latch) throws StorageModuleException {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new StorageModuleException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.query.Queries;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for forgetting finished delete jobs
+ */
+public class DeleteJobManagerTest {
+    private static final int CHUNK_SIZE = 10;
+
+    @Mock
+    StorageProvider mockProvider;
+
+    private DeleteJobManager manager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void completedJobIsForgottenOnceReported() throws Exception {
+        manager = new DeleteJobManager(mockProvider);
+        DeleteJob job = manager.submit(Queries.fromTags("a"), CHUNK_SIZE);
+        awaitFinished(job);
+
+        assertTrue(manager.get(job.getId()).isPresent());
+        manager.reported(job);
+        assertFalse(manager.get(job.getId()).isPresent());
+    }
+
+    @Test
+    public void finishedJobIsForgottenAfterTtl() throws Exception {
+        manager = new DeleteJobManager(mockProvider, 0);
+        DeleteJob job = manager.submit(Queries.fromTags("a"), CHUNK_SIZE);
+        awaitFinished(job);
+
+        assertFalse(manager.get(job.getId()).isPresent());
+    }
+
+    private static void awaitFinished(DeleteJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && job.getFinishedMs() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(DeleteJob.State.COMPLETED, job.getState());
+    }
+}
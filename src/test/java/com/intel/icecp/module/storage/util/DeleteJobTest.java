@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import com.intel.icecp.module.query.Queries;
+import com.intel.icecp.module.query.Query;
+import com.intel.icecp.module.storage.exceptions.TaggingOperationException;
+import com.intel.icecp.module.storage.persistence.providers.StorageProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ */
+public class DeleteJobTest {
+    private static final int CHUNK_SIZE = 10;
+    private static final long QUERY_TIME_MS = 1476835200000L;
+
+    @Mock
+    StorageProvider mockProvider;
+
+    private Query query;
+    private DeleteJob job;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        query = Queries.fromTags("a");
+        job = new DeleteJob(1, query, CHUNK_SIZE, mockProvider, QUERY_TIME_MS);
+    }
+
+    @Test
+    public void deleteInChunksUntilQueryIsExhausted() throws Exception {
+        when(mockProvider.removeCount(query, CHUNK_SIZE, QUERY_TIME_MS)).thenReturn(10L, 10L, 3L);
+
+        job.run();
+
+        assertEquals(DeleteJob.State.COMPLETED, job.getState());
+        assertEquals(23, job.getDeleted());
+        verify(mockProvider, times(3)).beginTransaction();
+        verify(mockProvider, times(3)).commitTransaction();
+        assertEquals(3L, job.toStatus().get("chunks"));
+        assertEquals(QUERY_TIME_MS, job.toStatus().get("queryTimeMs"));
+    }
+
+    @Test
+    public void failedChunkIsRolledBackAndCanBeResumed() throws Exception {
+        when(mockProvider.removeCount(query, CHUNK_SIZE, QUERY_TIME_MS)).thenReturn(10L).thenThrow(new TaggingOperationException("...")).thenReturn(5L);
+
+        job.run();
+
+        assertEquals(DeleteJob.State.FAILED, job.getState());
+        assertEquals(10, job.getDeleted());
+        verify(mockProvider, times(1)).rollbackTransaction();
+        assertTrue(job.toStatus().containsKey("error"));
+
+        assertTrue(job.reset());
+        job.run();
+
+        assertEquals(DeleteJob.State.COMPLETED, job.getState());
+        assertEquals(15, job.getDeleted());
+        // the resumed job still resolves relative selectors against the time it was submitted
+        verify(mockProvider, times(3)).removeCount(query, CHUNK_SIZE, QUERY_TIME_MS);
+    }
+
+    @Test
+    public void cancelledJobDoesNotRun() throws Exception {
+        assertTrue(job.cancel());
+
+        job.run();
+
+        assertEquals(DeleteJob.State.CANCELLED, job.getState());
+        verify(mockProvider, never()).beginTransaction();
+    }
+
+    @Test
+    public void completedJobCannotBeCancelledOrReset() throws Exception {
+        when(mockProvider.removeCount(query, CHUNK_SIZE, QUERY_TIME_MS)).thenReturn(0L);
+
+        job.run();
+
+        assertFalse(job.cancel());
+        assertFalse(job.reset());
+        assertEquals(DeleteJob.State.COMPLETED, job.getState());
+    }
+
+    @Test
+    public void deleteCustomChunksUntilExhausted() throws Exception {
+        when(mockProvider.reclaimSession(99L, CHUNK_SIZE)).thenReturn(10L, 4L);
+        DeleteJob reclaim = new DeleteJob(2, CHUNK_SIZE, 1, size -> mockProvider.reclaimSession(99L, size));
+
+        reclaim.run();
+
+        assertEquals(DeleteJob.State.COMPLETED, reclaim.getState());
+        assertEquals(14, reclaim.getDeleted());
+        verify(mockProvider, times(2)).reclaimSession(99L, CHUNK_SIZE);
+        verify(mockProvider, never()).beginTransaction();
+    }
+
+    @Test
+    public void interruptedPauseCancelsJob() throws Exception {
+        when(mockProvider.reclaimSession(99L, CHUNK_SIZE)).thenReturn(10L);
+        DeleteJob reclaim = new DeleteJob(2, CHUNK_SIZE, 1000, size -> mockProvider.reclaimSession(99L, size));
+
+        Thread.currentThread().interrupt();
+        reclaim.run();
+
+        assertTrue(Thread.interrupted());
+        assertEquals(DeleteJob.State.CANCELLED, reclaim.getState());
+        assertEquals(10, reclaim.getDeleted());
+        assertTrue(reclaim.reset());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pauseMustNotBeNegative() {
+        new DeleteJob(1, CHUNK_SIZE, -1, size -> 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizeMustBePositive() {
+        new DeleteJob(1, query, 0, mockProvider, QUERY_TIME_MS);
+    }
+}
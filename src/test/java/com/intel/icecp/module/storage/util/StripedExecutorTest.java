@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.storage.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class StripedExecutorTest {
+    private StripedExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new StripedExecutor("test", 4, 100);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void runTasksOfSameKeyInOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            assertTrue(executor.execute("channel", () -> {
+                order.add(value);
+                latch.countDown();
+            }));
+        }
+
+        assertTrue(latch.await(4, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), order);
+        assertEquals(100, executor.getSubmitted());
+    }
+
+    @Test
+    public void runTasksOfDifferentKeysInParallel() throws Exception {
+        // find two keys on different lanes and block one of them
+        String blockedKey = "a";
+        String otherKey = IntStream.range(0, 100).mapToObj(i -> "b" + i)
+                .filter(k -> Math.floorMod(k.hashCode(), 4) != Math.floorMod(blockedKey.hashCode(), 4))
+                .findFirst().get();
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        executor.execute(blockedKey, () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        executor.execute(otherKey, other::countDown);
+
+        assertTrue(other.await(4, TimeUnit.SECONDS));
+        blocker.countDown();
+    }
+
+    @Test
+    public void waitForRoomInFullLane() throws Exception {
+        StripedExecutor small = new StripedExecutor("small", 1, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(3);
+        try {
+            small.execute("channel", () -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.countDown();
+            });
+            small.execute("channel", ran::countDown);
+
+            // the lane is full, so the third task waits until the first one completes
+            Thread submitter = new Thread(() -> small.execute("channel", ran::countDown));
+            submitter.start();
+            submitter.join(200);
+            assertTrue(submitter.isAlive());
+
+            blocker.countDown();
+            assertTrue(ran.await(4, TimeUnit.SECONDS));
+            assertEquals(3, small.getSubmitted());
+            assertEquals(0, small.getDropped());
+        } finally {
+            blocker.countDown();
+            small.shutdown();
+        }
+    }
+
+    @Test
+    public void dropTasksOfFullLaneWhenEnabled() throws Exception {
+        StripedExecutor small = new StripedExecutor("small", 1, 1);
+        small.setDropWhenFull(true);
+        CountDownLatch blocker = new CountDownLatch(1);
+        try {
+            small.execute("channel", () -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            // the first task may still be queued, so fill the queue until a task is dropped
+            boolean queued = true;
+            for (int i = 0; i < 3 && queued; i++) {
+                queued = small.execute("channel", () -> {
+                });
+            }
+
+            assertFalse(queued);
+            assertEquals(1, small.getDropped());
+        } finally {
+            blocker.countDown();
+            small.shutdown();
+        }
+    }
+
+    @Test
+    public void countFailedTasksAndKeepRunning() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        executor.execute("channel", () -> {
+            throw new IllegalStateException("failed");
+        });
+        executor.execute("channel", latch::countDown);
+
+        assertTrue(latch.await(4, TimeUnit.SECONDS));
+        assertEquals(1, executor.getFailed());
+    }
+}